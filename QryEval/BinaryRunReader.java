@@ -0,0 +1,214 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  BinaryRunReader reads a binary run file that BinaryRunWriter wrote.
+ *  The file is memory-mapped, and its index gives the location of each
+ *  query's ranking, so rankings can be read in file order (next) or
+ *  randomly by qid (getRanking).  Rankings contain internal docids, so
+ *  the file must have been written for the current index; the
+ *  constructor compares index fingerprints.
+ */
+public class BinaryRunReader implements RunReader {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final FileChannel channel;
+
+  /**
+   *  The whole file, or null if it is too large to map at once.  Then
+   *  each ranking is mapped when it is read.
+   */
+  private final MappedByteBuffer file;
+
+  /**
+   *  The offset and length of each query's ranking, in file order.
+   */
+  private final Map<String, long[]> index = new LinkedHashMap<String, long[]> ();
+
+  private Iterator<String> qids = null;
+  private String qid = null;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Open a binary run file and read its index.
+   *  @param path The path to the binary run file.
+   *  @throws IOException Error reading the file, or it isn't a binary run file.
+   *  @throws IllegalArgumentException The file was written for a different index.
+   */
+  public BinaryRunReader (String path) throws IOException, IllegalArgumentException {
+
+    this.channel = FileChannel.open (Paths.get (path), StandardOpenOption.READ);
+
+    long size = this.channel.size ();
+
+    if (size < BinaryRunWriter.HEADER_SIZE + BinaryRunWriter.TRAILER_SIZE) {
+      this.channel.close ();
+      throw new IOException (path + " is not a binary run file.");
+    }
+
+    //  Check the header and the trailer.
+
+    ByteBuffer header = this.read (0, BinaryRunWriter.HEADER_SIZE);
+    ByteBuffer trailer = this.read (size - BinaryRunWriter.TRAILER_SIZE,
+                                    BinaryRunWriter.TRAILER_SIZE);
+    long indexOffset = trailer.getLong ();
+    int count = trailer.getInt ();
+
+    if ((header.getInt () != BinaryRunWriter.MAGIC) ||
+        (header.getInt () != BinaryRunWriter.VERSION) ||
+        (trailer.getInt () != BinaryRunWriter.MAGIC) ||
+        (indexOffset < BinaryRunWriter.HEADER_SIZE) ||
+        (indexOffset > size - BinaryRunWriter.TRAILER_SIZE)) {
+      this.channel.close ();
+      throw new IOException (path + " is not a binary run file, or it is incomplete.");
+    }
+
+    if (header.getLong () != Idx.getIndexFingerprint ()) {
+      this.channel.close ();
+      throw new IllegalArgumentException (path + " was written for a different index.");
+    }
+
+    //  Read the index.
+
+    ByteBuffer entries = this.read (indexOffset,
+                                    (int) (size - BinaryRunWriter.TRAILER_SIZE - indexOffset));
+
+    for (int i = 0; i < count; i++) {
+      byte[] qid = new byte[entries.getShort () & 0xffff];
+
+      entries.get (qid);
+      this.index.put (new String (qid, StandardCharsets.UTF_8),
+                      new long[] { entries.getLong (), entries.getInt () });
+    }
+
+    this.file = (size <= Integer.MAX_VALUE) ?
+      this.channel.map (FileChannel.MapMode.READ_ONLY, 0, size) : null;
+  }
+
+  /**
+   *  Close the binary run file.
+   *  @throws IOException Error closing the file.
+   */
+  public void close () throws IOException {
+    this.channel.close ();
+  }
+
+  /**
+   *  Get the query id of the last ranking that next returned.
+   *  @return The query id, or null.
+   */
+  public String getQid () {
+    return this.qid;
+  }
+
+  /**
+   *  Get the query ids of the rankings in the file.
+   *  @return The query ids, in file order.
+   */
+  public Set<String> getQids () {
+    return Collections.unmodifiableSet (this.index.keySet ());
+  }
+
+  /**
+   *  Read a query's ranking.
+   *  @param qid The query id.
+   *  @return The ranking, in rank order, or null if the file has no
+   *  ranking for the query.
+   *  @throws IOException Error reading the file.
+   */
+  public ScoreList getRanking (String qid) throws IOException {
+
+    long[] entry = this.index.get (qid);
+
+    if (entry == null) {
+      return null;
+    }
+
+    int n = (int) entry[1];
+    int length = n * BinaryRunWriter.RECORD_SIZE;
+    ByteBuffer records;
+
+    if (this.file != null) {
+      records = this.file.duplicate ();
+      records.position ((int) entry[0]);
+      records.limit ((int) entry[0] + length);
+    } else {
+      records = this.channel.map (FileChannel.MapMode.READ_ONLY, entry[0], length);
+    }
+
+    ScoreList ranking = new ScoreList ();
+
+    for (int i = 0; i < n; i++) {
+      ranking.add (records.getInt (), records.getDouble ());
+    }
+
+    return ranking;
+  }
+
+  /**
+   *  Indicates whether a file is a binary run file, i.e., whether it
+   *  starts with BinaryRunWriter.MAGIC.
+   *  @param path The path to a file.
+   *  @return True if the file is a binary run file.
+   *  @throws IOException Error reading the file.
+   */
+  public static boolean isBinaryRun (String path) throws IOException {
+
+    DataInputStream input = new DataInputStream (new FileInputStream (path));
+
+    try {
+      return input.readInt () == BinaryRunWriter.MAGIC;
+    } catch (EOFException ex) {
+      return false;				// Too short to be a binary run
+    } finally {
+      input.close ();
+    }
+  }
+
+  /**
+   *  Read the next query's ranking, in file order.
+   *  @return The ranking, in rank order, or null at the end of the file.
+   *  @throws IOException Error reading the file.
+   */
+  public ScoreList next () throws IOException {
+
+    if (this.qids == null) {
+      this.qids = this.index.keySet ().iterator ();
+    }
+
+    if (! this.qids.hasNext ()) {
+      return null;
+    }
+
+    this.qid = this.qids.next ();
+    return this.getRanking (this.qid);
+  }
+
+  /**
+   *  Read part of the file.
+   *  @param position The offset of the first byte.
+   *  @param length The number of bytes.
+   *  @return A buffer that contains the bytes.
+   *  @throws IOException Error reading the file, or it is too short.
+   */
+  private ByteBuffer read (long position, int length) throws IOException {
+
+    ByteBuffer buffer = ByteBuffer.allocate (length);
+
+    while (buffer.hasRemaining ()) {
+      if (this.channel.read (buffer, position + buffer.position ()) < 0) {
+        throw new EOFException ("The binary run file is too short.");
+      }
+    }
+
+    buffer.flip ();
+    return buffer;
+  }
+
+}
@@ -0,0 +1,161 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ *  BinaryRunWriter writes rankings in a compact binary run format, so
+ *  that the stages of a pipeline (e.g., a first-stage ranking that
+ *  feeds diversification or LETOR reranking) can exchange candidates
+ *  without formatting and parsing text or converting docids.  Like
+ *  TrecResultWriter, it sorts and writes rankings on a writer thread.
+ *  The format is:
+ *  <pre>
+ *    header    int MAGIC, int VERSION, long index fingerprint
+ *    rankings  for each document of each ranking, in rank order:
+ *              int internal docid, double score
+ *    index     for each ranking, in the order written:
+ *              short qid length, qid (UTF-8), long offset, int count
+ *    trailer   long index offset, int ranking count, int MAGIC
+ *  </pre>
+ *  <p>
+ *  Numbers are big-endian.  The index fingerprint (see
+ *  Idx.getIndexFingerprint) identifies the index that the internal
+ *  docids belong to.  The index at the end of the file lets
+ *  BinaryRunReader find any query's ranking without reading the
+ *  others.  Unlike TrecResultWriter, the output file is replaced, not
+ *  appended to.
+ *  </p>
+ */
+public class BinaryRunWriter extends TrecResultWriter {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  The first and last int of a binary run file ("QEBR").
+   */
+  public static final int MAGIC = 0x51454252;
+
+  /**
+   *  The version of the format.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   *  The sizes of the header, a document record, and the trailer.
+   */
+  public static final int HEADER_SIZE = 16;
+  public static final int RECORD_SIZE = 12;
+  public static final int TRAILER_SIZE = 16;
+
+  private ByteBuffer records = ByteBuffer.allocate (BUFFER_SIZE + RECORD_SIZE);
+  private long offset = HEADER_SIZE;
+
+  private final List<String> qids = new ArrayList<String> ();
+  private final List<Long> offsets = new ArrayList<Long> ();
+  private final List<Integer> counts = new ArrayList<Integer> ();
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Replace the output file and write the header.  Call start before
+   *  writing rankings.
+   *  @param outputPath Path to the binary run file
+   *  @param queueLength The number of rankings that may wait to be written
+   *  @throws IOException The output file can't be opened
+   */
+  public BinaryRunWriter (String outputPath, int queueLength) throws IOException {
+
+    super (outputPath, queueLength, false);
+
+    ByteBuffer header = ByteBuffer.allocate (HEADER_SIZE);
+
+    header.putInt (MAGIC).putInt (VERSION).putLong (Idx.getIndexFingerprint ());
+    header.flip ();
+    this.write (header);
+  }
+
+  /**
+   *  Get the number of bytes in the buffer.
+   *  @return The number of buffered bytes.
+   */
+  protected int buffered () {
+    return this.records.position ();
+  }
+
+  /**
+   *  Write the index and the trailer.
+   *  @throws IOException Error writing the output file
+   */
+  protected void finish () throws IOException {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+    DataOutputStream index = new DataOutputStream (bytes);
+
+    for (int i = 0; i < this.qids.size (); i++) {
+      byte[] qid = this.qids.get (i).getBytes (StandardCharsets.UTF_8);
+
+      index.writeShort (qid.length);
+      index.write (qid);
+      index.writeLong (this.offsets.get (i));
+      index.writeInt (this.counts.get (i));
+    }
+
+    index.writeLong (this.offset);
+    index.writeInt (this.qids.size ());
+    index.writeInt (MAGIC);
+    index.flush ();
+
+    this.write (ByteBuffer.wrap (bytes.toByteArray ()));
+  }
+
+  /**
+   *  Write the document records in the buffer to the output file.
+   *  @throws IOException Error writing the output file
+   */
+  protected void flush () throws IOException {
+    this.records.flip ();
+    this.write (this.records);
+    this.records.clear ();
+  }
+
+  /**
+   *  Sort a ranking and append its document records to the buffer.
+   *  The buffer is written when it is full.
+   *  @param ranking The ranking.
+   *  @throws IOException Error writing the output file
+   */
+  protected void format (Ranking ranking) throws IOException {
+
+    ScoreList result = ranking.result;
+    int n = Math.min (ranking.outputLength, result.size ());
+
+    result.sort ();
+
+    this.qids.add (ranking.queryName);
+    this.offsets.add (this.offset);
+    this.counts.add (n);
+
+    for (int i = 0; i < n; i++) {
+      if (this.records.remaining () < RECORD_SIZE) {
+        this.flush ();
+      }
+
+      this.records.putInt (result.getDocid (i)).putDouble (result.getDocidScore (i));
+    }
+
+    this.offset += (long) n * RECORD_SIZE;
+  }
+
+  /**
+   *  Write all of a buffer to the output file.
+   *  @param buffer The bytes to write.
+   *  @throws IOException Error writing the output file
+   */
+  private void write (ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining ()) {
+      this.channel.write (buffer);
+    }
+  }
+
+}
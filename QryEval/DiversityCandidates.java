@@ -0,0 +1,152 @@
+import java.util.*;
+
+/**
+ *  DiversityCandidates holds the unselected documents of a
+ *  diversification ranking and their current scores, in a lazy
+ *  max-heap, so that the best document can be selected without
+ *  visiting every candidate at every rank.  When a document's score
+ *  changes, a new heap entry is added and the old entry becomes stale;
+ *  stale entries are discarded when they reach the top of the heap.
+ *  Documents are ordered as DiversityList.ranksBefore orders them.
+ */
+public class DiversityCandidates {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final double[] scores;
+  private final int[] versions;
+  private final boolean[] selected;
+  private final PriorityQueue<Entry> heap;
+
+  //  --------------- Nested classes --------------------------------
+
+  /**
+   *  A document's score when the entry was added.
+   */
+  private static class Entry {
+    final int row;
+    final double score;
+    final int version;
+
+    Entry (int row, double score, int version) {
+      this.row = row;
+      this.score = score;
+      this.version = version;
+    }
+  }
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create an empty set of candidates.  Each document must be given
+   *  a score with setScore before it can be selected.
+   *  @param divList The documents.
+   */
+  public DiversityCandidates (final DiversityList divList) {
+
+    int n = divList.size ();
+
+    this.scores = new double[n];
+    this.versions = new int[n];
+    this.selected = new boolean[n];
+    this.heap = new PriorityQueue<Entry> (Math.max (1, n), new Comparator<Entry> () {
+      public int compare (Entry e1, Entry e2) {
+        if (divList.ranksBefore (e1.score, e1.row, e2.score, e2.row)) {
+          return -1;
+        } else if (divList.ranksBefore (e2.score, e2.row, e1.score, e1.row)) {
+          return 1;
+        } else {
+          return 0;
+        }
+      }
+    });
+  }
+
+  /**
+   *  Get the current score of a document.
+   *  @param row The document (row of the DiversityList).
+   *  @return The score.
+   */
+  public double getScore (int row) {
+    return this.scores[row];
+  }
+
+  /**
+   *  Indicates whether a document was selected.
+   *  @param row The document (row of the DiversityList).
+   *  @return True if the document was selected.
+   */
+  public boolean isSelected (int row) {
+    return this.selected[row];
+  }
+
+  /**
+   *  Find the documents that have a nonzero score for each intent.
+   *  Only they are affected when the intent's coverage or quotient
+   *  changes (if it stays finite).
+   *  @param intentScores intentScores[j][d] is the score of document d for intent j
+   *  @return The rows of each intent, in increasing order.
+   */
+  public static int[][] nonzeroRows (double[][] intentScores) {
+
+    int[][] rows = new int[intentScores.length][];
+
+    for (int j = 0; j < intentScores.length; j++) {
+      int count = 0;
+
+      for (double s : intentScores[j]) {
+        if (s != 0.0) {
+          count++;
+        }
+      }
+
+      rows[j] = new int[count];
+      count = 0;
+
+      for (int d = 0; d < intentScores[j].length; d++) {
+        if (intentScores[j][d] != 0.0) {
+          rows[j][count++] = d;
+        }
+      }
+    }
+
+    return rows;
+  }
+
+  /**
+   *  Select the unselected document with the highest score.
+   *  @return The document (row of the DiversityList), or -1 if every
+   *  document was selected.
+   */
+  public int selectBest () {
+
+    while (! this.heap.isEmpty ()) {
+      Entry e = this.heap.poll ();
+
+      if (! this.selected[e.row] && (e.version == this.versions[e.row])) {
+        this.selected[e.row] = true;
+        return e.row;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   *  Set the score of an unselected document.
+   *  @param row The document (row of the DiversityList).
+   *  @param score The new score.
+   */
+  public void setScore (int row, double score) {
+
+    if ((this.versions[row] > 0) &&
+        (Double.compare (this.scores[row], score) == 0)) {
+      return;					// The entry is current
+    }
+
+    this.scores[row] = score;
+    this.versions[row]++;
+    this.heap.add (new Entry (row, score, this.versions[row]));
+  }
+
+}
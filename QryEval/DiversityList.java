@@ -1,87 +1,158 @@
+import java.io.*;
 import java.util.*;
 
+/**
+ * The scores of a query's top documents for the query and for each of its
+ * intents, stored as a dense matrix.  Documents are mapped to rows and the
+ * query and intents (e.g., "71", "71.1", "71.2") to columns, and each column
+ * is a primitive double[] indexed by row, so the diversification loops are
+ * arithmetic over arrays instead of string-keyed lookups.
+ */
 public class DiversityList {
-    private class queryIntents {
-        private List<String> qIntents = new ArrayList<>();
-        private List<Double> scores = new ArrayList<>();
 
-        public queryIntents(String intent, double score) {
-            qIntents.add(intent);
-            scores.add(score);
-        }
+    /**
+     * The internal docid and the external docid of each row.
+     */
+    private final int[] docids;
+    private final String[] externalIds;
 
-        public void add(String intent, double score) {
-            qIntents.add(intent);
-            scores.add(score);
-        }
+    private final HashMap<Integer, Integer> rows = new HashMap<>();
+    private final HashMap<String, Integer> columns = new HashMap<>();
 
-        public double getScore(String intent) {
-            if (getIntent(intent) == -1)
-                return 0.0;
-            return scores.get(getIntent(intent));
-        }
+    /**
+     * scores[column][row].  A document that isn't in an intent's ranking has
+     * score 0 for that intent.
+     */
+    private final double[][] scores;
 
-        public int getIntent(String intent) {
-            return qIntents.indexOf(intent);
-        }
+    /**
+     * Which (column, row) cells have a score.  A document that occurs twice in
+     * a ranking keeps its first score.
+     */
+    private final BitSet assigned;
 
-        public List<String> getqIntents() {
-            return qIntents;
-        }
+    /**
+     * The column of an intent that isn't in the list.
+     */
+    private final double[] zeros;
 
-        public List<Double> getScores() {
-            return scores;
+    /**
+     * Create an empty list.
+     * @param docids The documents, i.e., the rows.  Duplicates are ignored.
+     * @param intents The query and intent ids, i.e., the columns.
+     * @throws IOException Error accessing the Lucene index.
+     */
+    public DiversityList(int[] docids, Collection<String> intents) throws IOException {
+        for (int docid : docids) {
+            if (!rows.containsKey(docid))
+                rows.put(docid, rows.size());
         }
+
+        this.docids = new int[rows.size()];
+        for (Map.Entry<Integer, Integer> row : rows.entrySet())
+            this.docids[row.getValue()] = row.getKey();
+        this.externalIds = Idx.getExternalDocids(this.docids);
+
+        for (String intent : intents)
+            columns.put(intent, columns.size());
+
+        this.scores = new double[columns.size()][this.docids.length];
+        this.assigned = new BitSet(columns.size() * this.docids.length);
+        this.zeros = new double[this.docids.length];
     }
 
     /**
-     * Internal doc index
+     * Set the score of a document for the query or an intent.  Documents that
+     * aren't rows of the list are ignored.
+     * @param docId An internal docid.
+     * @param intent A query or intent id.
+     * @param score The score.
      */
-    private HashMap<Integer, queryIntents> diversityList = new HashMap<>();
-
     public void add(int docId, String intent, double score) {
-        if(diversityList.containsKey(docId)) {
-            queryIntents intents = diversityList.get(docId);
-            intents.add(intent, score);
-        }
-        else {
-            queryIntents qt = new queryIntents(intent, score);
-            diversityList.put(docId, qt);
+        Integer row = rows.get(docId);
+        Integer column = columns.get(intent);
+        if (row == null || column == null)
+            return;
+        int cell = column * docids.length + row;
+        if (!assigned.get(cell)) {
+            assigned.set(cell);
+            scores[column][row] = score;
         }
     }
 
-    public double getScore(int docId, String intent) {
-        queryIntents intents = diversityList.get(docId);
-        return intents.getScore(intent);
-    }
-
-    public queryIntents getQueryIntents(int docId) {
-        return diversityList.get(docId);
+    /**
+     * Indicates whether a document is in the list.
+     * @param docId An internal docid.
+     * @return True if the document is a row of the list.
+     */
+    public boolean contains(int docId) {
+        return rows.containsKey(docId);
     }
 
-    public int size() {
-        return diversityList.size();
+    /**
+     * Get the internal docid of a row.
+     * @param row A row.
+     * @return The internal docid.
+     */
+    public int getDocid(int row) {
+        return docids[row];
     }
 
-    public void printOut (int docId) {
-        System.out.println(getQueryIntents(docId).getqIntents());
-        System.out.println(getQueryIntents(docId).getScores());
+    /**
+     * Get the external docid of a row.
+     * @param row A row.
+     * @return The external docid.
+     */
+    public String getExternalId(int row) {
+        return externalIds[row];
     }
 
-    public List<Double> getAllScores(int docid) {
-        return diversityList.get(docid).getScores();
+    /**
+     * Get the scores of every row for the query or an intent.  The array is
+     * shared, so it must be treated as read-only.
+     * @param intent A query or intent id.
+     * @return The scores, indexed by row.
+     */
+    public double[] getScores(String intent) {
+        Integer column = columns.get(intent);
+        return (column == null) ? zeros : scores[column];
     }
 
-    public List<String> getAllIntents(int docid) {
-        return diversityList.get(docid).getqIntents();
+    /**
+     * Indicates whether row r1 with score s1 ranks before row r2 with score s2:
+     * higher scores first, ties broken by external docid, as ScoreList.sort
+     * orders documents.
+     * @param s1 The score of the first row.
+     * @param r1 The first row.
+     * @param s2 The score of the second row.
+     * @param r2 The second row.
+     * @return True if the first row ranks before the second row.
+     */
+    public boolean ranksBefore(double s1, int r1, double s2, int r2) {
+        if (s1 > s2)
+            return true;
+        if (s1 < s2)
+            return false;
+        return externalIds[r1].compareTo(externalIds[r2]) < 0;
     }
 
-    public Set<Integer> getKeys() {
-        return diversityList.keySet();
+    /**
+     * Divide every score by the same value.
+     * @param divisor The divisor.
+     */
+    public void scale(double divisor) {
+        for (double[] column : scores) {
+            for (int row = 0; row < column.length; row++)
+                column[row] = column[row] / divisor;
+        }
     }
 
-    public void remove(int docid) {
-        diversityList.remove(docid);
+    /**
+     * Get the number of documents (rows).
+     * @return The number of documents.
+     */
+    public int size() {
+        return docids.length;
     }
 
 }
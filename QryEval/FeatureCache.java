@@ -0,0 +1,371 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ *  FeatureCache is a persistent, memory-mapped cache of the
+ *  learning-to-rank features of (query, document) pairs, so that
+ *  experiments that use the same queries and documents (e.g., training
+ *  with different SVM parameters) don't compute the same features
+ *  again.  An entry is keyed by the query (its qid and text) and the
+ *  document's internal docid, and each feature has a validity bit, so
+ *  an entry may have some features and not others.
+ *  <p>
+ *  The file is an open-addressing hash table:
+ *  <pre>
+ *    header   int MAGIC, int VERSION, long index fingerprint,
+ *             int columns, int capacity, int size, int (unused),
+ *             long version of each of MAX_COLUMNS features
+ *    slots    capacity slots of:  long query key, int docid + 1
+ *             (0 if the slot is empty), long validity bits,
+ *             float value of each of the columns
+ *  </pre>
+ *  Internal docids belong to one index, so the cache is emptied if it
+ *  was written for a different index (see Idx.getIndexFingerprint).
+ *  A feature's version identifies how it is computed (e.g., the BM25
+ *  parameters of a BM25 feature).  When a feature's version changes,
+ *  that feature is invalidated in every entry, and the others are
+ *  kept.  When features are added, the table is rebuilt with more
+ *  columns.  The table is rebuilt with twice as many slots when it is
+ *  3/4 full.
+ *  </p><p>
+ *  A FeatureCache isn't thread-safe.
+ *  </p>
+ */
+public class FeatureCache {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  The first int of a feature cache file ("QEFC").
+   */
+  public static final int MAGIC = 0x51454643;
+
+  /**
+   *  The version of the format.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   *  The maximum number of features.  Validity bits are a long.
+   */
+  public static final int MAX_COLUMNS = 64;
+
+  private static final int INITIAL_CAPACITY = 1 << 16;
+  private static final int VERSIONS_OFFSET = 32;
+  private static final int HEADER_SIZE = VERSIONS_OFFSET + 8 * MAX_COLUMNS;
+
+  //  Offsets in the header and in a slot.
+
+  private static final int FINGERPRINT = 8;
+  private static final int COLUMNS = 16;
+  private static final int CAPACITY = 20;
+  private static final int SIZE = 24;
+  private static final int DOCID = 8;
+  private static final int VALID = 12;
+  private static final int VALUES = 20;
+
+  private final String path;
+  private final long fingerprint;
+  private FileChannel channel = null;
+  private MappedByteBuffer file = null;
+  private int columns;
+  private int capacity;
+  private int size;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Open a feature cache, or create it if it doesn't exist.
+   *  @param path The path to the cache file.
+   *  @param versions The version of each feature.
+   *  @throws IOException Error accessing the file.
+   *  @throws IllegalArgumentException There are too many features.
+   */
+  public FeatureCache (String path, long[] versions)
+    throws IOException, IllegalArgumentException {
+
+    if (versions.length > MAX_COLUMNS) {
+      throw new IllegalArgumentException
+        ("A feature cache can't have more than " + MAX_COLUMNS + " features.");
+    }
+
+    this.path = path;
+    this.fingerprint = Idx.getIndexFingerprint ();
+
+    //  Open the cache if it is for this index.
+
+    File f = new File (path);
+
+    if (f.length () >= HEADER_SIZE) {
+      this.channel = FileChannel.open (f.toPath (), StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+      this.file = this.channel.map (FileChannel.MapMode.READ_WRITE, 0, this.channel.size ());
+      this.columns = this.file.getInt (COLUMNS);
+      this.capacity = this.file.getInt (CAPACITY);
+      this.size = this.file.getInt (SIZE);
+
+      if ((this.file.getInt (0) != MAGIC) ||
+          (this.file.getInt (4) != VERSION) ||
+          (this.file.getLong (FINGERPRINT) != this.fingerprint) ||
+          (this.columns > MAX_COLUMNS) ||
+          (Integer.bitCount (this.capacity) != 1) ||
+          (this.channel.size () != HEADER_SIZE + (long) this.capacity * slotSize (this.columns))) {
+        this.channel.close ();
+        this.channel = null;
+        this.file = null;
+      }
+    }
+
+    //  Create the cache, or add columns for new features.
+
+    if (this.file == null) {
+      this.size = 0;
+      this.rebuild (INITIAL_CAPACITY, versions.length);
+    } else if (this.columns < versions.length) {
+      this.rebuild (this.capacity, versions.length);
+    }
+
+    //  Invalidate the features whose versions changed.
+
+    long changed = 0;
+
+    for (int c = 0; c < versions.length; c++) {
+      if (this.file.getLong (VERSIONS_OFFSET + 8 * c) != versions[c]) {
+        changed |= 1L << c;
+        this.file.putLong (VERSIONS_OFFSET + 8 * c, versions[c]);
+      }
+    }
+
+    if (changed != 0) {
+      int slotSize = slotSize (this.columns);
+
+      for (int s = 0; s < this.capacity; s++) {
+        int slot = HEADER_SIZE + s * slotSize;
+
+        this.file.putLong (slot + VALID, this.file.getLong (slot + VALID) & ~changed);
+      }
+    }
+  }
+
+  /**
+   *  Write the cache to disk and close it.
+   *  @throws IOException Error writing the file.
+   */
+  public void close () throws IOException {
+    this.file.force ();
+    this.channel.close ();
+  }
+
+  /**
+   *  Find the slot of an entry, or the empty slot where it would be.
+   *  @param file The table.
+   *  @param capacity The number of slots.
+   *  @param slotSize The size of a slot.
+   *  @param query The query key.
+   *  @param docid The internal docid.
+   *  @return The offset of the slot.
+   */
+  private static int find (ByteBuffer file, int capacity, int slotSize, long query, int docid) {
+
+    long h = query ^ (docid * 0x9E3779B97F4A7C15L);
+    int s = (int) (h ^ (h >>> 32)) & (capacity - 1);
+
+    while (true) {
+      int slot = HEADER_SIZE + s * slotSize;
+      int d = file.getInt (slot + DOCID);
+
+      if ((d == 0) ||
+          ((d == docid + 1) && (file.getLong (slot) == query))) {
+        return slot;
+      }
+
+      s = (s + 1) & (capacity - 1);		// Linear probing
+    }
+  }
+
+  /**
+   *  Copy the cached features of a document to a row of a matrix.
+   *  @param query The query key (see getQueryKey).
+   *  @param docid The internal docid.
+   *  @param matrix The features are copied here.
+   *  @param row The document's row.
+   *  @return The validity bits of the copied features:  bit c is set if
+   *  feature c was copied.
+   */
+  public long get (long query, int docid, FeatureMatrix matrix, int row) {
+
+    int slot = find (this.file, this.capacity, slotSize (this.columns), query, docid);
+
+    if (this.file.getInt (slot + DOCID) == 0) {
+      return 0;
+    }
+
+    int n = Math.min (this.columns, matrix.getColumns ());
+    long valid = this.file.getLong (slot + VALID) & mask (n);
+
+    for (int c = 0; c < n; c++) {
+      if ((valid & (1L << c)) != 0) {
+        matrix.set (row, c, this.file.getFloat (slot + VALUES + 4 * c));
+      }
+    }
+
+    return valid;
+  }
+
+  /**
+   *  Get the key of a query.  It identifies the qid and the query
+   *  text, so a qid that is reused for another query doesn't get the
+   *  other query's features.
+   *  @param qid The query id.
+   *  @param query The query.
+   *  @return The query key.
+   */
+  public static long getQueryKey (String qid, String query) {
+    return hash (qid + "\t" + query);
+  }
+
+  /**
+   *  Compute a 64-bit FNV-1a hash of a string.
+   *  @param s The string.
+   *  @return The hash.
+   */
+  public static long hash (String s) {
+
+    long h = 0xcbf29ce484222325L;
+
+    for (int i = 0; i < s.length (); i++) {
+      h = (h ^ s.charAt (i)) * 0x100000001b3L;
+    }
+
+    return h;
+  }
+
+  /**
+   *  Get a mask of the first n bits.
+   *  @param n The number of bits, at most 64.
+   *  @return The mask.
+   */
+  private static long mask (int n) {
+    return (n >= 64) ? -1L : (1L << n) - 1;
+  }
+
+  /**
+   *  Store features of a document.  Features that are already cached
+   *  and aren't stored again stay valid.  If the table is full and
+   *  can't grow, the features aren't stored.
+   *  @param query The query key (see getQueryKey).
+   *  @param docid The internal docid.
+   *  @param matrix The features.
+   *  @param row The document's row.
+   *  @param valid Bit c is set if feature c should be stored.
+   *  @throws IOException Error accessing the file.
+   */
+  public void put (long query, int docid, FeatureMatrix matrix, int row, long valid)
+    throws IOException {
+
+    valid &= mask (Math.min (this.columns, matrix.getColumns ()));
+
+    if ((this.size + 1) > this.capacity / 4 * 3) {
+      if (HEADER_SIZE + 2L * this.capacity * slotSize (this.columns) <= Integer.MAX_VALUE) {
+        this.rebuild (2 * this.capacity, this.columns);
+      } else if (this.size + 1 >= this.capacity) {
+        return;
+      }
+    }
+
+    int slot = find (this.file, this.capacity, slotSize (this.columns), query, docid);
+
+    for (int c = 0; c < this.columns; c++) {
+      if ((valid & (1L << c)) != 0) {
+        this.file.putFloat (slot + VALUES + 4 * c, matrix.get (row, c));
+      }
+    }
+
+    if (this.file.getInt (slot + DOCID) == 0) {
+      this.file.putLong (slot, query);
+      this.file.putLong (slot + VALID, valid);
+      this.file.putInt (slot + DOCID, docid + 1);
+      this.file.putInt (SIZE, ++this.size);
+    } else {
+      this.file.putLong (slot + VALID, this.file.getLong (slot + VALID) | valid);
+    }
+  }
+
+  /**
+   *  Replace the table with a new one, and copy the entries.  The new
+   *  table is written to a temporary file that replaces the cache file.
+   *  @param capacity The number of slots of the new table (a power of 2).
+   *  @param columns The number of features of the new table.
+   *  @throws IOException Error accessing the files.
+   */
+  private void rebuild (int capacity, int columns) throws IOException {
+
+    int slotSize = slotSize (columns);
+    Path target = Paths.get (this.path);
+    Path temp = Paths.get (this.path + ".tmp");
+    FileChannel channel =
+      FileChannel.open (temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer file =
+      channel.map (FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * slotSize);
+
+    file.putInt (0, MAGIC);
+    file.putInt (4, VERSION);
+    file.putLong (FINGERPRINT, this.fingerprint);
+    file.putInt (COLUMNS, columns);
+    file.putInt (CAPACITY, capacity);
+    file.putInt (SIZE, this.size);
+
+    //  Copy the entries and the feature versions.
+
+    if (this.file != null) {
+      int oldSlotSize = slotSize (this.columns);
+
+      for (int c = 0; c < this.columns; c++) {
+        file.putLong (VERSIONS_OFFSET + 8 * c, this.file.getLong (VERSIONS_OFFSET + 8 * c));
+      }
+
+      for (int s = 0; s < this.capacity; s++) {
+        int oldSlot = HEADER_SIZE + s * oldSlotSize;
+        int d = this.file.getInt (oldSlot + DOCID);
+
+        if (d == 0) {
+          continue;
+        }
+
+        long query = this.file.getLong (oldSlot);
+        int slot = find (file, capacity, slotSize, query, d - 1);
+
+        file.putLong (slot, query);
+        file.putInt (slot + DOCID, d);
+        file.putLong (slot + VALID, this.file.getLong (oldSlot + VALID));
+
+        for (int c = 0; c < Math.min (columns, this.columns); c++) {
+          file.putFloat (slot + VALUES + 4 * c, this.file.getFloat (oldSlot + VALUES + 4 * c));
+        }
+      }
+
+      this.channel.close ();
+    }
+
+    file.force ();
+    Files.move (temp, target, StandardCopyOption.REPLACE_EXISTING);
+
+    this.channel = channel;
+    this.file = file;
+    this.capacity = capacity;
+    this.columns = columns;
+  }
+
+  /**
+   *  Get the size of a slot.
+   *  @param columns The number of features.
+   *  @return The size of a slot, in bytes.
+   */
+  private static int slotSize (int columns) {
+    return VALUES + 4 * columns;
+  }
+
+}
@@ -0,0 +1,411 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.lucene.document.Document;
+
+/**
+ *  FeatureExtractor computes the learning-to-rank features of (query,
+ *  document) pairs for RetrievalModelLetor.  The features are:
+ *  <pre>
+ *    0   spam score (the document's "score" attribute)
+ *    1   url depth (the number of '/' in the "rawUrl" attribute)
+ *    2   from Wikipedia (1 if rawUrl contains wikipedia.org, else 0)
+ *    3   PageRank (the "PageRank" attribute)
+ *    for each field f of FIELDS, in order, starting at 4 + 4f:
+ *        BM25 score, Indri score, term overlap, field length
+ *  </pre>
+ *  <p>
+ *  A feature that a document doesn't have (e.g., an attribute that
+ *  isn't stored, or a score for a field that the document doesn't
+ *  have) is NaN.
+ *  </p><p>
+ *  Statistics that don't depend on the document (df, ctf, and field
+ *  lengths) are read once per query.  Each document's attributes are
+ *  read with one stored-fields lookup, and each field's TermVector is
+ *  read once and used for all of the field's features.  Documents are
+ *  divided among worker threads.  BM25 and Indri scores are computed
+ *  as QrySopScore computes them.
+ *  </p><p>
+ *  If there is a FeatureCache, only the features that it doesn't have
+ *  are computed, and they are added to it.  A feature's version in the
+ *  cache is a hash of its name and the parameters that it depends on,
+ *  so e.g. changing a BM25 parameter recomputes only BM25 features.
+ *  </p>
+ */
+public class FeatureExtractor {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  The fields that have BM25, Indri, term overlap, and length features.
+   */
+  public static final String[] FIELDS = { "body", "title", "url", "inlink" };
+
+  public static final int FEATURE_SPAM = 0;
+  public static final int FEATURE_URL_DEPTH = 1;
+  public static final int FEATURE_WIKIPEDIA = 2;
+  public static final int FEATURE_PAGERANK = 3;
+
+  /**
+   *  The number of features.
+   */
+  public static final int NUM_FEATURES = 4 + 4 * FIELDS.length;
+
+  /**
+   *  The stored attributes that features use.
+   */
+  private static final Set<String> ATTRIBUTES =
+    new HashSet<String> (Arrays.asList ("score", "rawUrl", "PageRank"));
+
+  /**
+   *  The number of documents that a worker thread is given at once.
+   */
+  private static final int CHUNK_SIZE = 64;
+
+  private final RetrievalModelBM25 bm25;
+  private final RetrievalModelIndri indri;
+  private final ExecutorService workers;
+  private final FeatureCache cache;
+
+  //  --------------- Nested classes --------------------------------
+
+  /**
+   *  Statistics of a query that are the same for every document.
+   */
+  private static class QueryStatistics {
+    String[] stems;
+    double numDocs;
+    int[][] df = new int[FIELDS.length][];		// df[field][stem]
+    long[][] ctf = new long[FIELDS.length][];		// ctf[field][stem]
+    double[] sumLength = new double[FIELDS.length];
+    double[] avgLength = new double[FIELDS.length];
+  }
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create a FeatureExtractor.
+   *  @param model The BM25 and Indri parameters of the features.
+   *  @param threads The number of worker threads.  If it is 1, features
+   *  are computed on the caller's thread.
+   *  @param cachePath The path to the feature cache file, or null if
+   *  features aren't cached.
+   *  @throws IOException Error opening the feature cache.
+   */
+  public FeatureExtractor (RetrievalModelLetor model, int threads, String cachePath)
+    throws IOException {
+
+    this.bm25 = model.getBM25 ();
+    this.indri = model.getIndri ();
+    this.workers = (threads > 1) ?
+      Executors.newFixedThreadPool (threads, new ThreadFactory () {
+        public Thread newThread (Runnable r) {
+          Thread t = new Thread (r, "FeatureExtractor");
+          t.setDaemon (true);			// Don't keep the JVM alive
+          return t;
+        }
+      }) : null;
+    this.cache = (cachePath != null) ?
+      new FeatureCache (cachePath, this.getFeatureVersions ()) : null;
+  }
+
+  /**
+   *  Compute the features of one document.  A group of features that
+   *  are computed together (the attribute features, or the features of
+   *  a field) is skipped if all of its features are known.
+   *  @param stats The query's statistics.
+   *  @param docid The internal docid of the document.
+   *  @param known Bit c is set if feature c is known.
+   *  @param features The features are stored here.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private void computeFeatures (QueryStatistics stats, int docid, long known,
+                                double[] features)
+    throws IOException {
+
+    //  Query-independent features (of the document).
+
+    if ((known & 0xfL) != 0xfL) {
+      Document d = Idx.INDEXREADER.document (docid, ATTRIBUTES);
+      String rawUrl = d.get ("rawUrl");
+
+      features[FEATURE_SPAM] = parseAttribute (d.get ("score"));
+      features[FEATURE_PAGERANK] = parseAttribute (d.get ("PageRank"));
+
+      if (rawUrl == null) {
+        features[FEATURE_URL_DEPTH] = Double.NaN;
+        features[FEATURE_WIKIPEDIA] = Double.NaN;
+      } else {
+        int depth = 0;
+
+        for (int i = 0; i < rawUrl.length (); i++) {
+          if (rawUrl.charAt (i) == '/') {
+            depth++;
+          }
+        }
+
+        features[FEATURE_URL_DEPTH] = depth;
+        features[FEATURE_WIKIPEDIA] = rawUrl.contains ("wikipedia.org") ? 1.0 : 0.0;
+      }
+    }
+
+    //  Field features.  Each TermVector is read once.
+
+    int q = stats.stems.length;
+
+    for (int f = 0; f < FIELDS.length; f++) {
+      int base = 4 + 4 * f;
+
+      if (((known >>> base) & 0xfL) == 0xfL) {
+        continue;
+      }
+
+      TermVector vector = new TermVector (docid, FIELDS[f]);
+      double length = Idx.getFieldLength (FIELDS[f], docid);
+
+      features[base + 3] = length;
+
+      if ((vector.stemsLength () == 0) || (q == 0)) {
+        features[base] = Double.NaN;
+        features[base + 1] = Double.NaN;
+        features[base + 2] = Double.NaN;
+        continue;
+      }
+
+      double bm25Score = 0.0;
+      double indriScore = 1.0;
+      int matched = 0;
+      double k_1 = this.bm25.getK_1 ();
+      double b = this.bm25.getB ();
+      double mu = this.indri.getMu ();
+      double lambda = this.indri.getLambda ();
+
+      for (int i = 0; i < q; i++) {
+        int s = vector.indexOfStem (stats.stems[i]);
+        double tf = (s > 0) ? vector.stemFreq (s) : 0;
+
+        if (tf > 0) {
+          int df = stats.df[f][i];
+          double RSJ = Math.max (0.0, Math.log ((stats.numDocs - df + 0.5) / (df + 0.5)));
+          double tfw = tf / (tf + (k_1 * ((1.0 - b) + b * (length / stats.avgLength[f]))));
+
+          //  Each occurrence of a stem is scored separately, with qtf 1,
+          //  as QrySopScore does, so the user weight
+          //  ((k_3 + 1) * qtf) / (k_3 + qtf) is 1.
+
+          bm25Score += RSJ * tfw;
+          matched++;
+        }
+
+        double MLE = stats.ctf[f][i] / stats.sumLength[f];
+        double p = (1 - lambda) * (tf + mu * MLE) / (length + mu) + lambda * MLE;
+
+        indriScore *= Math.pow (p, 1.0 / q);
+      }
+
+      features[base] = bm25Score;
+      features[base + 1] = (matched > 0) ? indriScore : 0.0;
+      features[base + 2] = (double) matched / q;
+    }
+  }
+
+  /**
+   *  Compute the features of documents for a query.
+   *  @param qid The query id.
+   *  @param query The query, e.g., "apple pie".
+   *  @param docids The internal docids of the documents.
+   *  @param relevance The relevance of each document, or null if it
+   *  isn't known.
+   *  @return The features.  Row i has the features of docids[i].
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public FeatureMatrix getFeatures (String qid, String query, int[] docids, int[] relevance)
+    throws IOException {
+
+    final FeatureMatrix matrix = new FeatureMatrix (qid, docids, relevance, NUM_FEATURES);
+    final long[] known = new long[docids.length];
+    final int[] rows = new int[docids.length];
+    long all = (1L << NUM_FEATURES) - 1;
+    long queryKey = FeatureCache.getQueryKey (qid, query);
+    int n = 0;
+
+    //  Find the documents whose features aren't all cached.
+
+    for (int row = 0; row < docids.length; row++) {
+      if (this.cache != null) {
+        known[row] = this.cache.get (queryKey, docids[row], matrix, row);
+      }
+
+      if (known[row] != all) {
+        rows[n++] = row;
+      }
+    }
+
+    if (n == 0) {
+      return matrix;
+    }
+
+    final QueryStatistics stats = this.getQueryStatistics (query);
+
+    if (this.workers == null) {
+      this.computeFeatures (stats, matrix, rows, known, 0, n);
+    } else {
+
+      //  Divide the documents among the worker threads.
+
+      List<Future<Void>> chunks = new ArrayList<Future<Void>> ();
+
+      for (int start = 0; start < n; start += CHUNK_SIZE) {
+        final int first = start;
+        final int last = Math.min (start + CHUNK_SIZE, n);
+
+        chunks.add (this.workers.submit (new Callable<Void> () {
+          public Void call () throws IOException {
+            computeFeatures (stats, matrix, rows, known, first, last);
+            return null;
+          }
+        }));
+      }
+
+      for (Future<Void> chunk : chunks) {
+        QryEval.waitFor (chunk);
+      }
+    }
+
+    //  Cache the new features.
+
+    if (this.cache != null) {
+      for (int i = 0; i < n; i++) {
+        this.cache.put (queryKey, docids[rows[i]], matrix, rows[i], all & ~known[rows[i]]);
+      }
+    }
+
+    return matrix;
+  }
+
+  /**
+   *  Compute the unknown features of a range of documents (rows) of a
+   *  matrix.
+   *  @param stats The query's statistics.
+   *  @param matrix The features are stored here.
+   *  @param rows The rows of the documents.
+   *  @param known For each row, bit c is set if feature c is known.
+   *  @param first The first element of rows.
+   *  @param last The end of the range (exclusive).
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private void computeFeatures (QueryStatistics stats, FeatureMatrix matrix,
+                                int[] rows, long[] known, int first, int last)
+    throws IOException {
+
+    double[] features = new double[NUM_FEATURES];
+
+    for (int i = first; i < last; i++) {
+      int row = rows[i];
+
+      this.computeFeatures (stats, matrix.getDocid (row), known[row], features);
+
+      for (int c = 0; c < NUM_FEATURES; c++) {
+        if ((known[row] & (1L << c)) == 0) {
+          matrix.set (row, c, features[c]);
+        }
+      }
+    }
+  }
+
+  /**
+   *  Get the version of each feature in the feature cache:  a hash of
+   *  the feature's name and the parameters that it depends on.
+   *  @return The version of each feature.
+   */
+  long[] getFeatureVersions () {
+
+    String[] names = new String[NUM_FEATURES];
+    String bm25 = this.bm25.getK_1 () + "," + this.bm25.getB () + "," + this.bm25.getK_3 ();
+    String indri = this.indri.getMu () + "," + this.indri.getLambda ();
+
+    names[FEATURE_SPAM] = "spam";
+    names[FEATURE_URL_DEPTH] = "urlDepth";
+    names[FEATURE_WIKIPEDIA] = "wikipedia";
+    names[FEATURE_PAGERANK] = "PageRank";
+
+    for (int f = 0; f < FIELDS.length; f++) {
+      int base = 4 + 4 * f;
+
+      names[base] = "BM25:" + FIELDS[f] + ":" + bm25;
+      names[base + 1] = "Indri:" + FIELDS[f] + ":" + indri;
+      names[base + 2] = "overlap:" + FIELDS[f];
+      names[base + 3] = "length:" + FIELDS[f];
+    }
+
+    long[] versions = new long[NUM_FEATURES];
+
+    for (int c = 0; c < NUM_FEATURES; c++) {
+      versions[c] = FeatureCache.hash (names[c]);
+    }
+
+    return versions;
+  }
+
+  /**
+   *  Read the statistics of a query that are the same for every document.
+   *  @param query The query.
+   *  @return The statistics.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private QueryStatistics getQueryStatistics (String query) throws IOException {
+
+    QueryStatistics stats = new QueryStatistics ();
+
+    stats.stems = QryParser.tokenizeString (query);
+    stats.numDocs = Idx.getNumDocs ();
+
+    for (int f = 0; f < FIELDS.length; f++) {
+      stats.df[f] = new int[stats.stems.length];
+      stats.ctf[f] = new long[stats.stems.length];
+      stats.sumLength[f] = Idx.getSumOfFieldLengths (FIELDS[f]);
+      stats.avgLength[f] = stats.sumLength[f] / (double) Idx.getDocCount (FIELDS[f]);
+
+      for (int i = 0; i < stats.stems.length; i++) {
+        stats.df[f][i] = Idx.getDocFreq (FIELDS[f], stats.stems[i]);
+        stats.ctf[f][i] = Idx.getTotalTermFreq (FIELDS[f], stats.stems[i]);
+      }
+    }
+
+    return stats;
+  }
+
+  /**
+   *  Parse a numeric document attribute.
+   *  @param value The attribute value, or null.
+   *  @return The number, or Double.NaN if there is no (valid) value.
+   */
+  private static double parseAttribute (String value) {
+
+    if (value == null) {
+      return Double.NaN;
+    }
+
+    try {
+      return Double.parseDouble (value);
+    } catch (NumberFormatException ex) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   *  Stop the worker threads, and close the feature cache.
+   *  @throws IOException Error writing the feature cache.
+   */
+  public void shutdown () throws IOException {
+    if (this.workers != null) {
+      this.workers.shutdownNow ();
+    }
+
+    if (this.cache != null) {
+      this.cache.close ();
+    }
+  }
+
+}
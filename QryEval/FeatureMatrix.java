@@ -0,0 +1,228 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  The learning-to-rank features of one query's candidate documents,
+ *  stored in one primitive float[] block, column by column (all of
+ *  feature 0, then all of feature 1, ...), with a parallel array of
+ *  docids and relevance values.  Compared to a FeatureVector of boxed
+ *  Doubles per document, it uses a small fraction of the memory, and
+ *  per-feature passes (e.g., normalization) read contiguous memory.
+ *  <p>
+ *  A feature that a document doesn't have is Float.NaN until the
+ *  matrix is normalized.  Features are numbered from 0 here, and from
+ *  1 in SVM-rank files.
+ *  </p>
+ */
+public class FeatureMatrix {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final String qid;
+  private final int rows;
+  private final int columns;
+  private final int[] docids;
+  private final int[] relevance;
+  private final float[] values;		// values[column * rows + row]
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create a matrix in which every feature is missing.
+   *  @param qid The query id.
+   *  @param docids The internal docids of the documents (rows).
+   *  @param relevance The relevance of each document, or null if it
+   *  isn't known (e.g., for test queries).
+   *  @param columns The number of features.
+   */
+  public FeatureMatrix (String qid, int[] docids, int[] relevance, int columns) {
+    this.qid = qid;
+    this.rows = docids.length;
+    this.columns = columns;
+    this.docids = docids;
+    this.relevance = (relevance != null) ? relevance : new int[docids.length];
+    this.values = new float[this.rows * columns];
+
+    Arrays.fill (this.values, Float.NaN);
+  }
+
+  /**
+   *  Compute the dot product of each document's features and a weight
+   *  vector.  The matrix is read one column at a time, so the inner
+   *  loop is a simple pass over contiguous memory that the JIT compiler
+   *  can vectorize.
+   *  @param weights The weight of each feature.  Features that don't
+   *  have a weight, and weights of features that the matrix doesn't
+   *  have, are ignored.
+   *  @return The dot product of each document (row).
+   */
+  public double[] dot (double[] weights) {
+
+    double[] products = new double[this.rows];
+    int n = Math.min (weights.length, this.columns);
+
+    for (int c = 0; c < n; c++) {
+      double w = weights[c];
+      int start = c * this.rows;
+
+      if (w == 0.0) {
+        continue;
+      }
+
+      for (int r = 0; r < this.rows; r++) {
+        products[r] += w * this.values[start + r];
+      }
+    }
+
+    return products;
+  }
+
+  /**
+   *  Get a feature of a document.
+   *  @param row The document.
+   *  @param column The feature.
+   *  @return The feature value, or Float.NaN if it is missing.
+   */
+  public float get (int row, int column) {
+    return this.values[column * this.rows + row];
+  }
+
+  /**
+   *  Get the number of features.
+   *  @return The number of features.
+   */
+  public int getColumns () {
+    return this.columns;
+  }
+
+  /**
+   *  Get the internal docid of a document.
+   *  @param row The document.
+   *  @return The internal docid.
+   */
+  public int getDocid (int row) {
+    return this.docids[row];
+  }
+
+  /**
+   *  Get the query id.
+   *  @return The query id.
+   */
+  public String getQid () {
+    return this.qid;
+  }
+
+  /**
+   *  Get the relevance of a document.
+   *  @param row The document.
+   *  @return The relevance value.
+   */
+  public int getRelevance (int row) {
+    return this.relevance[row];
+  }
+
+  /**
+   *  Get the number of documents.
+   *  @return The number of documents.
+   */
+  public int getRows () {
+    return this.rows;
+  }
+
+  /**
+   *  Scale each feature to [0, 1] for this query:  (v - min) / (max -
+   *  min).  A feature that has the same value for every document, and
+   *  a missing feature, becomes 0.
+   */
+  public void normalize () {
+
+    for (int c = 0; c < this.columns; c++) {
+      int start = c * this.rows;
+      int end = start + this.rows;
+      float min = Float.POSITIVE_INFINITY;
+      float max = Float.NEGATIVE_INFINITY;
+
+      for (int i = start; i < end; i++) {
+        float v = this.values[i];
+
+        if (v < min) {
+          min = v;				// NaN never compares
+        }
+        if (v > max) {
+          max = v;
+        }
+      }
+
+      float range = max - min;
+
+      for (int i = start; i < end; i++) {
+        float v = this.values[i];
+
+        this.values[i] = (Float.isNaN (v) || ! (range > 0)) ? 0.0f : (v - min) / range;
+      }
+    }
+  }
+
+  /**
+   *  Read a matrix that write wrote.
+   *  @param input The input stream.
+   *  @return The matrix.
+   *  @throws IOException Error reading the stream.
+   */
+  public static FeatureMatrix read (DataInputStream input) throws IOException {
+
+    String qid = input.readUTF ();
+    int rows = input.readInt ();
+    int columns = input.readInt ();
+    int[] docids = new int[rows];
+    int[] relevance = new int[rows];
+
+    for (int r = 0; r < rows; r++) {
+      docids[r] = input.readInt ();
+      relevance[r] = input.readInt ();
+    }
+
+    FeatureMatrix matrix = new FeatureMatrix (qid, docids, relevance, columns);
+
+    for (int i = 0; i < matrix.values.length; i++) {
+      matrix.values[i] = input.readFloat ();
+    }
+
+    return matrix;
+  }
+
+  /**
+   *  Set a feature of a document.  Threads may set the features of
+   *  different documents at the same time.
+   *  @param row The document.
+   *  @param column The feature.
+   *  @param value The feature value, or NaN if it is missing.
+   */
+  public void set (int row, int column, double value) {
+    this.values[column * this.rows + row] = (float) value;
+  }
+
+  /**
+   *  Write the matrix in a compact binary form:  qid, rows, columns,
+   *  (docid, relevance) for each row, then the values, column by
+   *  column.
+   *  @param output The output stream.
+   *  @throws IOException Error writing the stream.
+   */
+  public void write (DataOutputStream output) throws IOException {
+
+    output.writeUTF (this.qid);
+    output.writeInt (this.rows);
+    output.writeInt (this.columns);
+
+    for (int r = 0; r < this.rows; r++) {
+      output.writeInt (this.docids[r]);
+      output.writeInt (this.relevance[r]);
+    }
+
+    for (float v : this.values) {
+      output.writeFloat (v);
+    }
+  }
+
+}
@@ -9,6 +9,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.*;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 
 /**
@@ -20,6 +21,11 @@ import org.apache.lucene.util.BytesRef;
  *  federated search).  The Idx class designates one index the
  *  <i>current</i> index.  All requests are satisfied from the current
  *  index.  setCurrentIndex changes the current index.
+ *  </p><p>
+ *  Lucene IndexReaders are safe for concurrent readers, and these
+ *  methods don't keep state between calls, so queries may be evaluated
+ *  on several threads at once.  Opening an index or changing the
+ *  current index must happen before those threads start.
  *  </p>
  */
 public class Idx {
@@ -34,6 +40,8 @@ public class Idx {
   private static HashMap<String,IndexReader> openIndexReaders =
     new HashMap<String,IndexReader> ();
   private static String externalIdField = new String ("externalId");
+  private static Set<String> externalIdFields =
+    Collections.singleton (externalIdField);
 
   //  --------------- Methods ---------------------------------------
 
@@ -51,6 +59,19 @@ public class Idx {
     return d.get (attributeName);
   }
 
+  /**
+   *  Get the document frequency (df) of a term in a field (e.g., the
+   *  number of documents that contain 'apple' in the title field).
+   *  @param fieldName The field name.
+   *  @param term The term.
+   *  @return The number of documents that contain the term
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static int getDocFreq (String fieldName, String term)
+    throws IOException {
+    return INDEXREADER.docFreq (new Term (fieldName, new BytesRef (term)));
+  }
+
   /**
    *  Get the number of documents that contain the specified field.
    *  @param fieldName the field name
@@ -62,6 +83,58 @@ public class Idx {
     return Idx.INDEXREADER.getDocCount (fieldName);
   }
 
+  /**
+   *  Divide the internal docid space into about n contiguous ranges of
+   *  similar size, e.g., for evaluating a query on several threads.
+   *  Range boundaries are aligned to Lucene leaves (segments) where
+   *  possible:  small leaves are grouped, and large leaves are split.
+   *  @param n The desired number of ranges.
+   *  @return The range boundaries.  Range i is [b[i], b[i+1]).
+   */
+  public static int[] getDocidRanges (int n) {
+
+    int maxDoc = Idx.INDEXREADER.maxDoc ();
+    long target = Math.max (1, ((long) maxDoc + n - 1) / n);
+    ArrayList<Integer> bounds = new ArrayList<Integer> ();
+    int last = 0;
+
+    bounds.add (0);
+
+    for (LeafReaderContext leafContext : Idx.INDEXREADER.leaves ()) {
+      int start = leafContext.docBase;
+      int end = start + leafContext.reader ().maxDoc ();
+
+      if (end - last < target) {
+        continue;				// Group with the next leaf
+      }
+
+      //  Split the leaf into pieces that are no larger than target.
+
+      long pieces = Math.max (1, (end - start + target - 1) / target);
+
+      for (long j = 1; j <= pieces; j++) {
+        int bound = (int) (start + (end - start) * j / pieces);
+
+        if (bound > last) {
+          bounds.add (bound);
+          last = bound;
+        }
+      }
+    }
+
+    if (last < maxDoc) {
+      bounds.add (maxDoc);
+    }
+
+    int[] b = new int[bounds.size ()];
+
+    for (int i = 0; i < b.length; i++) {
+      b[i] = bounds.get (i);
+    }
+
+    return b;
+  }
+
   /**
    *  Get the external document id for a document specified by an
    *  internal document id.
@@ -70,11 +143,63 @@ public class Idx {
    *  @throws IOException Error accessing the Lucene index.
    */
   public static String getExternalDocid(int internalId) throws IOException {
-    Document d = Idx.INDEXREADER.document(internalId);
+    Document d = Idx.INDEXREADER.document(internalId, externalIdFields);
     String externalId = d.get(externalIdField);
     return externalId;
   }
 
+  /**
+   *  Get the external document ids for several documents specified by
+   *  internal document ids.  The documents are read in docid order,
+   *  which is friendlier to the stored fields files than the order of
+   *  a ranking.
+   *  @param internalIds The internal document ids of the documents.
+   *  @return the external document ids, in the order of internalIds
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static String[] getExternalDocids (int[] internalIds) throws IOException {
+
+    long[] order = new long[internalIds.length];
+
+    for (int i = 0; i < internalIds.length; i++) {
+      order[i] = ((long) internalIds[i] << 32) | i;	// docid, then index
+    }
+
+    Arrays.sort (order);
+
+    String[] externalIds = new String[internalIds.length];
+
+    for (long o : order) {
+      int i = (int) o;
+      externalIds[i] = getExternalDocid (internalIds[i]);
+    }
+
+    return externalIds;
+  }
+
+  /**
+   *  Get a fingerprint of the current index, e.g., to recognize files
+   *  of internal docids that were written for a different index.  It
+   *  combines the index version and the sizes of the index and its
+   *  leaves (segments), which change when documents are added, deleted,
+   *  or merged.
+   *  @return The fingerprint.
+   */
+  public static long getIndexFingerprint () {
+
+    long fingerprint = (Idx.INDEXREADER instanceof DirectoryReader) ?
+      ((DirectoryReader) Idx.INDEXREADER).getVersion () : 0;
+
+    fingerprint = 31 * fingerprint + Idx.INDEXREADER.maxDoc ();
+    fingerprint = 31 * fingerprint + Idx.INDEXREADER.numDocs ();
+
+    for (LeafReaderContext leafContext : Idx.INDEXREADER.leaves ()) {
+      fingerprint = 31 * fingerprint + leafContext.reader ().maxDoc ();
+    }
+
+    return fingerprint;
+  }
+
   /**
    *  Get the length of the specified field in the specified document.
    *  @param fieldName Name of field to access lengths.
@@ -129,6 +254,99 @@ public class Idx {
     throw new Exception ("External id should exist, but isn't found.");
   }
 
+  /**
+   *  Get the internal document ids for several documents specified by
+   *  external ids.  The external ids are looked up in sorted order, in
+   *  one pass over the terms of each leaf, which is much faster than
+   *  calling getInternalDocid for each document.
+   *  @param externalIds The external docids in the Lucene index.
+   *  @return the internal docids, in the order of externalIds
+   *  @throws Exception An external id isn't in the index.
+   */
+  public static int[] getInternalDocids (String[] externalIds)
+    throws Exception {
+
+    int[] internalIds = findInternalDocids (externalIds);
+
+    for (int i = 0; i < externalIds.length; i++) {
+      if (internalIds[i] < 0) {
+        throw new Exception ("External id " + externalIds[i] + " not found.");
+      }
+    }
+
+    return internalIds;
+  }
+
+  /**
+   *  Get the internal document ids for several documents specified by
+   *  external ids, as getInternalDocids does, without requiring every
+   *  document to exist, e.g., for relevance judgments.
+   *  @param externalIds The external docids in the Lucene index.
+   *  @return the internal docids, in the order of externalIds, with -1
+   *  for documents that don't exist or are deleted
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static int[] findInternalDocids (String[] externalIds)
+    throws IOException {
+
+    int[] internalIds = new int[externalIds.length];
+    Integer[] order = new Integer[externalIds.length];
+
+    for (int i = 0; i < externalIds.length; i++) {
+      internalIds[i] = -1;
+      order[i] = i;
+    }
+
+    Arrays.sort (order, new Comparator<Integer> () {
+      public int compare (Integer i1, Integer i2) {
+        return externalIds[i1].compareTo (externalIds[i2]);
+      }
+    });
+
+    for (LeafReaderContext leafContext : Idx.INDEXREADER.leaves ()) {
+      Terms terms = leafContext.reader ().terms (externalIdField);
+
+      if (terms == null) {
+        continue;
+      }
+
+      TermsEnum termsEnum = terms.iterator ();
+      PostingsEnum postings = null;
+      Bits liveDocs = leafContext.reader ().getLiveDocs ();	// null if none deleted
+
+      for (int k = 0; k < order.length; k++) {
+        int i = order[k];
+
+        if (internalIds[i] >= 0) {
+          continue;				// Found in an earlier leaf
+        }
+
+        if ((k > 0) && externalIds[i].equals (externalIds[order[k - 1]])) {
+          internalIds[i] = internalIds[order[k - 1]];	// A repeated id
+          continue;
+        }
+
+        if (termsEnum.seekExact (new BytesRef (externalIds[i]))) {
+          postings = termsEnum.postings (postings, PostingsEnum.NONE);
+
+          //  Deleted documents stay in the postings until segments are
+          //  merged, so they are skipped.
+
+          for (int doc = postings.nextDoc ();
+               doc != DocIdSetIterator.NO_MORE_DOCS;
+               doc = postings.nextDoc ()) {
+            if ((liveDocs == null) || liveDocs.get (doc)) {
+              internalIds[i] = leafContext.docBase + doc;
+              break;
+            }
+          }
+        }
+      }
+    }
+
+    return internalIds;
+  }
+
   /**
    *  Get the context of the LeafReader that contains the specified document.
    *  @param reader An IndexReader (probably a CompositeReader)
@@ -167,7 +385,7 @@ public class Idx {
     for (LeafReaderContext leafContext : reader.leaves()) {
       leafReader = leafContext.reader();
       int minDocid = leafContext.docBase;
-      int maxDocid = leafContext.docBase + leafReader.numDocs();
+      int maxDocid = leafContext.docBase + leafReader.maxDoc();	// Docids include deleted docs
       if ((docid >= minDocid) && (docid < maxDocid)) {
 	return leafContext;
       };
@@ -261,5 +479,8 @@ public class Idx {
     }
 
     Idx.INDEXREADER = indexReader;
+    InvListCache.clear ();
+    QryParser.clearQueryCache ();
+    TermVector.clearStatisticsCache ();
   }
 }
@@ -123,29 +123,56 @@ public class InvList {
     //  from each segment.  Some segments may have no postings.
 
     for (LeafReaderContext context : Idx.INDEXREADER.leaves()) {
+      this.appendPostings (context, term);
+    }
+  }
+
+  /**
+   *  Get the part of an inverted list that is stored in one segment
+   *  (leaf) of the index.  Docids are internal docids, as in the full
+   *  inverted list, but df and ctf describe only this segment.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @param context The segment.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public InvList(String termString, String fieldString, LeafReaderContext context)
+    throws IOException {
+
+    this.field = new String (fieldString);
+    this.appendPostings (context, new Term(fieldString, new BytesRef(termString)));
+  }
+
+  /**
+   *  Append the postings that a segment (leaf) of the index has for
+   *  a term.  Some segments may have no postings.
+   *  @param context The segment.
+   *  @param term The term.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private void appendPostings (LeafReaderContext context, Term term) throws IOException {
 
-      PostingsEnum postings = context.reader().postings (term, PostingsEnum.POSITIONS);
+    PostingsEnum postings = context.reader().postings (term, PostingsEnum.POSITIONS);
 
-      if (postings != null) {
+    if (postings != null) {
 
-	//  Convert from Lucene inverted list format to our inverted
-	//  list format. This is a little inefficient, but allows query
-	//  operators such as #SYN and #NEAR/n to be insulated from the
-	//  details of Lucene inverted list implementations.
+      //  Convert from Lucene inverted list format to our inverted
+      //  list format. This is a little inefficient, but allows query
+      //  operators such as #SYN and #NEAR/n to be insulated from the
+      //  details of Lucene inverted list implementations.
 
-        while (postings.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+      while (postings.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
 
-          int docid = context.docBase + postings.docID();
-          int tf = postings.freq();
-          int[] positions = new int[tf];
+        int docid = context.docBase + postings.docID();
+        int tf = postings.freq();
+        int[] positions = new int[tf];
 
-          for (int j = 0; j < tf; j++)
-            positions[j] = postings.nextPosition();
+        for (int j = 0; j < tf; j++)
+          positions[j] = postings.nextPosition();
 
-          this.postings.add(new DocPosting(docid, positions));
-          this.df++;
-          this.ctf += tf;
-        }
+        this.postings.add(new DocPosting(docid, positions));
+        this.df++;
+        this.ctf += tf;
       }
     }
   }
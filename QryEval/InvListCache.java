@@ -0,0 +1,84 @@
+import java.util.*;
+
+/**
+ *  A bounded, least-recently-used memo of inverted lists, keyed by the
+ *  canonical form of the QryIop subtree that produced them (see
+ *  QryIop.getCanonicalKey).  Derived inverted lists (e.g., #NEAR/n,
+ *  #WINDOW/n, #SYN) are expensive to produce and the same subtree
+ *  often occurs in many queries of a batch, e.g., intent queries and
+ *  sequential dependency model rewrites.  The memo lets each distinct
+ *  subtree be evaluated once per batch.  A QueryScheduler also stores
+ *  the term inverted lists that several queries of a micro-batch share.
+ *  <p>
+ *  Cached inverted lists are shared by every query operator that uses
+ *  them, so they must be treated as read-only.  The memo is cleared
+ *  when the current index changes.
+ *  </p>
+ */
+public class InvListCache {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  The default maximum number of inverted lists in the memo.
+   */
+  public static final int DEFAULT_CAPACITY = 100;
+
+  private static final LruCache<String,InvList> lists =
+    new LruCache<String,InvList> (DEFAULT_CAPACITY);
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Remove all inverted lists from the memo.
+   */
+  public static void clear () {
+    lists.clear ();
+  }
+
+  /**
+   *  Get the maximum number of inverted lists in the memo.
+   *  @return The maximum number of inverted lists, or 0 if
+   *  memoization is disabled.
+   */
+  public static int getCapacity () {
+    return lists.getCapacity ();
+  }
+
+  /**
+   *  Get the inverted list for a canonical query key.
+   *  @param key The canonical form of a QryIop subtree.
+   *  @return The cached inverted list, or null if it isn't cached.
+   */
+  public static InvList get (String key) {
+    return lists.get (key);
+  }
+
+  /**
+   *  Store the inverted list for a canonical query key.  If the memo
+   *  is full, the least recently used list is discarded.
+   *  @param key The canonical form of a QryIop subtree.
+   *  @param invertedList The inverted list that the subtree produced.
+   */
+  public static void put (String key, InvList invertedList) {
+    lists.put (key, invertedList);
+  }
+
+  /**
+   *  Set the maximum number of inverted lists in the memo.  A capacity
+   *  of 0 disables memoization.
+   *  @param n The maximum number of inverted lists.
+   */
+  public static void setCapacity (int n) {
+    lists.setCapacity (n);
+  }
+
+  /**
+   *  Get the number of inverted lists in the memo.
+   *  @return The number of cached inverted lists.
+   */
+  public static int size () {
+    return lists.size ();
+  }
+
+}
@@ -0,0 +1,130 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  LetorReranker is the test stage of a learning-to-rank experiment
+ *  (retrievalAlgorithm=letor).  Each test query is evaluated with BM25,
+ *  and its top documents are reranked by a linear SVM-rank model in
+ *  this process.  It is configured by parameters in the parameter file:
+ *  <pre>
+ *    queryFilePath              test queries (qid:query)
+ *    trecEvalOutputPath         the reranked results
+ *    trecEvalOutputLength       the number of results to write per query
+ *    letor:svmRankModelFile     the model that svm_rank_learn wrote
+ *    letor:rerankDepth          the number of BM25 documents to rerank
+ *                               (default 100)
+ *  </pre>
+ *  <p>
+ *  The features of the candidate documents are computed by a
+ *  FeatureExtractor and normalized per query, as for training.  Only
+ *  the reranked documents are written.
+ *  </p>
+ */
+public class LetorReranker {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  The default number of BM25 documents to rerank.
+   */
+  public static final int DEFAULT_RERANK_DEPTH = 100;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Indicates whether the parameter file requests reranking.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @return True if the test queries should be reranked.
+   */
+  public static boolean isEnabled (Map<String, String> parameters) {
+    return parameters.containsKey ("letor:svmRankModelFile");
+  }
+
+  /**
+   *  Evaluate the test queries with BM25, rerank their top documents,
+   *  and write the reranked results.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @param model The BM25 and Indri parameters of the first stage and
+   *  of the features
+   *  @throws IOException Error accessing the Lucene index or the files
+   */
+  public static void processQueryFile (Map<String, String> parameters,
+                                       RetrievalModelLetor model)
+    throws IOException {
+
+    LinearRankingModel ranker =
+      LinearRankingModel.read (parameters.get ("letor:svmRankModelFile"));
+    int depth = parameters.containsKey ("letor:rerankDepth") ?
+      Integer.parseInt (parameters.get ("letor:rerankDepth")) :
+      DEFAULT_RERANK_DEPTH;
+    int outputLength = parameters.containsKey ("trecEvalOutputLength") ?
+      Integer.parseInt (parameters.get ("trecEvalOutputLength")) : depth;
+
+    Map<String, String> queries =
+      LetorTraining.readQueries (parameters.get ("queryFilePath"));
+    FeatureExtractor extractor = LetorTraining.getFeatureExtractor (parameters, model);
+    TrecResultWriter writer =
+      QryEval.openResultWriter (parameters.get ("trecEvalOutputPath"), parameters);
+
+    try {
+      for (Map.Entry<String, String> query : queries.entrySet ()) {
+
+        //  First stage:  BM25.
+
+        ScoreList results = QryEval.processQuery (query.getValue (), model.getBM25 ());
+
+        if (results == null) {
+          continue;
+        }
+
+        results.sort ();
+        results.truncate (depth);
+
+        //  Second stage:  the learned model.
+
+        writer.write (query.getKey (),
+                      rerank (query.getKey (), query.getValue (), results,
+                              extractor, ranker),
+                      outputLength);
+      }
+    } finally {
+      writer.close ();
+      extractor.shutdown ();
+    }
+  }
+
+  /**
+   *  Rerank documents for a query.
+   *  @param qid The query id.
+   *  @param query The query.
+   *  @param results The documents to rerank.
+   *  @param extractor Computes the documents' features.
+   *  @param ranker Scores the documents' features.
+   *  @return The documents with the model's scores.  They aren't sorted.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  static ScoreList rerank (String qid, String query, ScoreList results,
+                           FeatureExtractor extractor, LinearRankingModel ranker)
+    throws IOException {
+
+    int[] docids = new int[results.size ()];
+
+    for (int i = 0; i < docids.length; i++) {
+      docids[i] = results.getDocid (i);
+    }
+
+    FeatureMatrix features = extractor.getFeatures (qid, query, docids, null);
+
+    features.normalize ();
+
+    double[] scores = ranker.score (features);
+    ScoreList reranked = new ScoreList ();
+
+    for (int i = 0; i < docids.length; i++) {
+      reranked.add (docids[i], scores[i]);
+    }
+
+    return reranked;
+  }
+
+}
@@ -0,0 +1,188 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  LetorTraining writes the training data of a learning-to-rank
+ *  experiment (retrievalAlgorithm=letor).  It is configured by
+ *  parameters in the parameter file:
+ *  <pre>
+ *    letor:trainingQueryFile           training queries (qid:query)
+ *    letor:trainingQrelsFile           relevance judgments (qid 0 docid relevance)
+ *    letor:trainingFeatureVectorsFile  the feature file to write
+ *    letor:featureFormat               svmrank (default) or binary
+ *    letor:threads                     feature extraction threads
+ *                                      (default: one per processor)
+ *    letor:featureCacheFile            a feature cache (optional; see
+ *                                      FeatureCache)
+ *  </pre>
+ *  <p>
+ *  The features of each training query's judged documents are
+ *  computed by a FeatureExtractor, normalized per query, and written
+ *  by an SvmRankWriter before the next query is processed.  Judged
+ *  documents that aren't in the index are skipped.
+ *  </p>
+ */
+public class LetorTraining {
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create a FeatureExtractor configured by the parameter file.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @param model The BM25 and Indri parameters of the features
+   *  @return The FeatureExtractor
+   *  @throws IOException Error opening the feature cache
+   */
+  static FeatureExtractor getFeatureExtractor (Map<String, String> parameters,
+                                               RetrievalModelLetor model)
+    throws IOException {
+    int threads = parameters.containsKey ("letor:threads") ?
+      Integer.parseInt (parameters.get ("letor:threads")) :
+      Runtime.getRuntime ().availableProcessors ();
+
+    return new FeatureExtractor (model, threads, parameters.get ("letor:featureCacheFile"));
+  }
+
+  /**
+   *  Indicates whether the parameter file requests training data.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @return True if training data should be written.
+   */
+  public static boolean isEnabled (Map<String, String> parameters) {
+    return parameters.containsKey ("letor:trainingQueryFile") &&
+           parameters.containsKey ("letor:trainingQrelsFile") &&
+           parameters.containsKey ("letor:trainingFeatureVectorsFile");
+  }
+
+  /**
+   *  Read relevance judgments.
+   *  @param path The path to a qrels file.
+   *  @return For each qid, its judgments:  {externalDocid, relevance}.
+   *  @throws IOException Error reading the file.
+   */
+  private static Map<String, List<String[]>> readQrels (String path) throws IOException {
+
+    Map<String, List<String[]>> qrels = new HashMap<String, List<String[]>> ();
+    BufferedReader input = new BufferedReader (new FileReader (path));
+
+    try {
+      String line;
+
+      while ((line = input.readLine ()) != null) {
+        String[] fields = line.trim ().split ("\\s+");
+
+        if (fields.length < 4) {
+          continue;
+        }
+
+        if (! qrels.containsKey (fields[0])) {
+          qrels.put (fields[0], new ArrayList<String[]> ());
+        }
+
+        qrels.get (fields[0]).add (new String[] { fields[2], fields[3] });
+      }
+    } finally {
+      input.close ();
+    }
+
+    return qrels;
+  }
+
+  /**
+   *  Read a query file.
+   *  @param path The path to a file of qid:query lines.
+   *  @return The queries, keyed by qid, in file order.
+   *  @throws IOException Error reading the file.
+   */
+  static Map<String, String> readQueries (String path) throws IOException {
+
+    Map<String, String> queries = new LinkedHashMap<String, String> ();
+    BufferedReader input = new BufferedReader (new FileReader (path));
+
+    try {
+      String line;
+
+      while ((line = input.readLine ()) != null) {
+        int d = line.indexOf (':');
+
+        if (d < 0) {
+          throw new IllegalArgumentException
+            ("Syntax error:  Missing ':' in query line.");
+        }
+
+        queries.put (line.substring (0, d).trim (), line.substring (d + 1));
+      }
+    } finally {
+      input.close ();
+    }
+
+    return queries;
+  }
+
+  /**
+   *  Write the training data.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @param model The BM25 and Indri parameters of the features
+   *  @throws IOException Error accessing the Lucene index or the files
+   */
+  public static void writeTrainingData (Map<String, String> parameters,
+                                        RetrievalModelLetor model)
+    throws IOException {
+
+    Map<String, String> queries =
+      readQueries (parameters.get ("letor:trainingQueryFile"));
+    Map<String, List<String[]>> qrels =
+      readQrels (parameters.get ("letor:trainingQrelsFile"));
+    FeatureExtractor extractor = getFeatureExtractor (parameters, model);
+    SvmRankWriter writer =
+      new SvmRankWriter (parameters.get ("letor:trainingFeatureVectorsFile"),
+                         "binary".equalsIgnoreCase (parameters.get ("letor:featureFormat")));
+
+    try {
+      for (Map.Entry<String, String> query : queries.entrySet ()) {
+        List<String[]> judgments = qrels.get (query.getKey ());
+
+        if (judgments == null) {
+          continue;
+        }
+
+        //  Find the judged documents that are in the index.
+
+        String[] externalIds = new String[judgments.size ()];
+
+        for (int i = 0; i < externalIds.length; i++) {
+          externalIds[i] = judgments.get (i)[0];
+        }
+
+        int[] found = Idx.findInternalDocids (externalIds);
+        int n = 0;
+
+        for (int docid : found) {
+          if (docid >= 0) {
+            n++;
+          }
+        }
+
+        int[] docids = new int[n];
+        int[] relevance = new int[n];
+
+        for (int i = 0, j = 0; i < found.length; i++) {
+          if (found[i] >= 0) {
+            docids[j] = found[i];
+            relevance[j++] = Integer.parseInt (judgments.get (i)[1]);
+          }
+        }
+
+        FeatureMatrix features =
+          extractor.getFeatures (query.getKey (), query.getValue (), docids, relevance);
+
+        features.normalize ();
+        writer.write (features);
+      }
+    } finally {
+      writer.close ();
+      extractor.shutdown ();
+    }
+  }
+
+}
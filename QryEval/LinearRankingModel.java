@@ -0,0 +1,140 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  LinearRankingModel is a linear learning-to-rank model that was
+ *  learned by SVM-rank (svm_rank_learn -t 0), read from SVM-rank's
+ *  model file.  A document's score is the dot product of the model's
+ *  weights and the document's features, so reranking doesn't need to
+ *  write a feature file and run svm_rank_classify.
+ *  <p>
+ *  A model file has header lines of the form "value # description",
+ *  followed by the support vectors, one per line:  "alpha*y
+ *  feature:value ... #".  SVM-rank writes a linear model as one
+ *  support vector whose values are the weights.  In general, the
+ *  weight of a feature is the sum of alpha*y*value over the support
+ *  vectors.
+ *  </p>
+ */
+public class LinearRankingModel {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final double[] weights;		// Features numbered from 0
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create a model.
+   *  @param weights The weight of each feature.  Features are numbered
+   *  from 0 here, and from 1 in SVM-rank files.
+   */
+  public LinearRankingModel (double[] weights) {
+    this.weights = weights;
+  }
+
+  /**
+   *  Get the weight of a feature.
+   *  @param feature The feature, numbered from 0.
+   *  @return The weight, or 0 if the model doesn't use the feature.
+   */
+  public double getWeight (int feature) {
+    return (feature < this.weights.length) ? this.weights[feature] : 0.0;
+  }
+
+  /**
+   *  Read an SVM-rank model file.
+   *  @param path The path to the model file.
+   *  @return The model.
+   *  @throws IOException Error reading the file.
+   *  @throws IllegalArgumentException The file isn't a linear model.
+   */
+  public static LinearRankingModel read (String path)
+    throws IOException, IllegalArgumentException {
+
+    BufferedReader input = new BufferedReader (new FileReader (path));
+
+    try {
+      String line;
+      String kernel = null;
+      double[] weights = null;
+      boolean supportVectors = false;
+
+      while ((line = input.readLine ()) != null) {
+        int comment = line.indexOf ('#');
+        String value = ((comment < 0) ? line : line.substring (0, comment)).trim ();
+
+        //  Header lines.
+
+        if (! supportVectors) {
+          String description = (comment < 0) ? "" : line.substring (comment + 1);
+
+          if (description.contains ("kernel type")) {
+            kernel = value;
+          } else if (description.contains ("highest feature index")) {
+            weights = new double[Integer.parseInt (value)];
+          } else if (description.contains ("threshold b")) {
+            supportVectors = true;		// The following lines are SVs
+          }
+          continue;
+        }
+
+        //  Support vectors.
+
+        if (value.isEmpty ()) {
+          continue;
+        }
+
+        if (! "0".equals (kernel) || (weights == null)) {
+          throw new IllegalArgumentException
+            (path + " is not a linear SVM-rank model.");
+        }
+
+        String[] tokens = value.split ("\\s+");
+        double alpha = Double.parseDouble (tokens[0]);
+
+        for (int i = 1; i < tokens.length; i++) {
+          int colon = tokens[i].indexOf (':');
+
+          if (colon < 0) {
+            continue;
+          }
+
+          String feature = tokens[i].substring (0, colon);
+
+          if (feature.equals ("qid")) {
+            continue;
+          }
+
+          int f = Integer.parseInt (feature) - 1;
+
+          if (f >= weights.length) {
+            weights = Arrays.copyOf (weights, f + 1);
+          }
+
+          weights[f] += alpha * Double.parseDouble (tokens[i].substring (colon + 1));
+        }
+      }
+
+      if (! supportVectors) {
+        throw new IllegalArgumentException
+          (path + " is not an SVM-rank model file.");
+      }
+
+      return new LinearRankingModel ((weights != null) ? weights : new double[0]);
+    } finally {
+      input.close ();
+    }
+  }
+
+  /**
+   *  Score documents.
+   *  @param features The documents' features, normalized as the
+   *  training features were.
+   *  @return The score of each document (row).
+   */
+  public double[] score (FeatureMatrix features) {
+    return features.dot (this.weights);
+  }
+
+}
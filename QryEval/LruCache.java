@@ -0,0 +1,98 @@
+import java.util.*;
+
+/**
+ *  A bounded map that discards its least recently used entry when it
+ *  is full.  All methods are synchronized, so one cache may be shared
+ *  by several threads.  A capacity of 0 disables the cache.
+ */
+public class LruCache<K,V> {
+
+  //  --------------- Constants and variables ---------------------
+
+  private int capacity;
+
+  private final LinkedHashMap<K,V> entries =
+    new LinkedHashMap<K,V> (16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<K,V> eldest) {
+        return this.size () > LruCache.this.capacity;
+      }
+    };
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Constructor.
+   *  @param capacity The maximum number of entries in the cache.
+   */
+  public LruCache (int capacity) {
+    this.setCapacity (capacity);
+  }
+
+  /**
+   *  Remove all entries from the cache.
+   */
+  public synchronized void clear () {
+    this.entries.clear ();
+  }
+
+  /**
+   *  Get the maximum number of entries in the cache.
+   *  @return The maximum number of entries.
+   */
+  public synchronized int getCapacity () {
+    return this.capacity;
+  }
+
+  /**
+   *  Get the value for a key.
+   *  @param key The key.
+   *  @return The cached value, or null if it isn't cached.
+   */
+  public synchronized V get (K key) {
+    return this.entries.get (key);
+  }
+
+  /**
+   *  Store the value for a key.  If the cache is full, the least
+   *  recently used entry is discarded.
+   *  @param key The key.
+   *  @param value The value.
+   */
+  public synchronized void put (K key, V value) {
+    if (this.capacity > 0) {
+      this.entries.put (key, value);
+    }
+  }
+
+  /**
+   *  Set the maximum number of entries in the cache.  If the cache
+   *  has more entries, the least recently used entries are discarded.
+   *  @param capacity The maximum number of entries.
+   */
+  public synchronized void setCapacity (int capacity) {
+
+    if (capacity < 0) {
+      throw new IllegalArgumentException
+        ("The cache capacity must be non-negative.");
+    }
+
+    this.capacity = capacity;
+
+    Iterator<K> keys = this.entries.keySet ().iterator ();
+
+    while (this.entries.size () > this.capacity) {
+      keys.next ();
+      keys.remove ();
+    }
+  }
+
+  /**
+   *  Get the number of entries in the cache.
+   *  @return The number of entries.
+   */
+  public synchronized int size () {
+    return this.entries.size ();
+  }
+
+}
@@ -4,6 +4,8 @@
 import java.io.*;
 import java.util.*;
 
+import org.apache.lucene.index.*;
+
 /**
  *  The root class in the query operator hierarchy.  Most of this
  *  class is abstract, because different <i>types</i> of query
@@ -39,10 +41,12 @@ import java.util.*;
  *  advanced in different ways, which provides opportunities to evaluate
  *  the query more efficiently.
  *  </p><p>
- *  The Qry class has two subclasses.  QrySop ("score operators") contains
+ *  The Qry class has three subclasses.  QrySop ("score operators") contains
  *  query operators that compute document scores (e.g., AND, OR, SCORE).
  *  QryIop ("inverted list operators") contains query operators that
- *  produce inverted lists (e.g., SYN, NEAR, TERM).  
+ *  produce inverted lists (e.g., SYN, NEAR, TERM).  QryFop ("filter
+ *  operators") contains query operators that restrict matches to a
+ *  set of documents without scoring them (e.g., BAND, NOT).
  *  </p><p>
  *  The docIterator for query operators in the QrySop hierarchy iterates
  *  over a virtual list.  The next document id is determined dynamically
@@ -66,7 +70,7 @@ import java.util.*;
  *  query evaluation, which reduces computational efficiency.
  *  </p>
  */
-public abstract class Qry {
+public abstract class Qry implements Cloneable {
 
   //  --------------- Constants and variables ---------------------
 
@@ -100,6 +104,11 @@ public abstract class Qry {
   private boolean matchStored = false;	// Operators can cache matches
   private int matchingDocid;
 
+  /**
+   *  The query's time and work budget, or null if it is unlimited.
+   */
+  protected QueryBudget budget = null;
+
   //  --------------- Methods ---------------------------------------
 
   /**
@@ -137,6 +146,33 @@ public abstract class Qry {
       }
     }
 
+    //  FILTER operators have a scored first argument, which is handled
+    //  like any other QrySop argument.  The remaining arguments
+    //  restrict matches, so they are QryIop or QryFop operators that
+    //  are stored without an implied SCORE operator.
+
+    if ((this instanceof QrySopFilter) && (this.args.size () > 0)) {
+      if ((q instanceof QryIop) || (q instanceof QryFop)) {
+        this.args.add (q);
+        return;
+      } else {
+        throw new IllegalArgumentException
+          ("Restrictions in a FILTER operator must be of type QryIop or QryFop.");
+      }
+    }
+
+    //  QryFop operators must have QryIop or QryFop arguments.
+
+    if (this instanceof QryFop) {
+      if ((q instanceof QryIop) || (q instanceof QryFop)) {
+        this.args.add (q);
+        return;
+      } else {
+        throw new IllegalArgumentException
+          ("The arguments to a QryFop operator must be of type QryIop or QryFop.");
+      }
+    }
+
     //  Check whether it is necessary to insert an implied SCORE
     //  operator between a QrySop operator and a QryIop argument.
 
@@ -180,6 +216,54 @@ public abstract class Qry {
        this.getClass().getName());
   }
 
+  /**
+   *  Charge one unit of work (e.g., one document examined) to the
+   *  query's budget.  The top-level document loop calls this and
+   *  stops early when it returns false.
+   *  @return True if the query may continue, false if its budget is exhausted.
+   */
+  protected boolean chargeBudget () {
+    return (this.budget == null) || this.budget.charge (1);
+  }
+
+  /**
+   *  Charge work (e.g., documents or positions examined) to the
+   *  query's budget.  Operators that build derived inverted lists
+   *  call this and stop early when it returns false.
+   *  @param units The amount of work.
+   *  @return True if the query may continue, false if its budget is exhausted.
+   */
+  protected boolean chargeWork (long units) {
+    return (this.budget == null) || this.budget.charge (units);
+  }
+
+  /**
+   *  Make a deep copy of this query operator's subtree.  The copy has
+   *  its own arguments and iterator state, so it can be initialized
+   *  and evaluated independently.  Subtrees are usually copied before
+   *  they are initialized, e.g., from the parsed query cache.
+   *  @return A copy of the query operator's subtree.
+   */
+  public Qry copy () {
+
+    Qry q = null;
+
+    try {
+      q = (Qry) super.clone ();
+    } catch (CloneNotSupportedException ex) {
+      throw new IllegalStateException (ex);
+    }
+
+    q.args = new ArrayList<Qry> (this.args.size ());
+
+    for (Qry q_i: this.args) {
+      q.args.add (q_i.copy ());
+    }
+
+    q.docIteratorClearMatchCache ();
+    return q;
+  }
+
   /**
    *  Advance the internal document iterator beyond the specified
    *  document.
@@ -212,7 +296,7 @@ public abstract class Qry {
    *  Clear the docIterator's matching docid cache.  The cache should
    *  be cleared whenever a docIterator is advanced.
    */
-  private void docIteratorClearMatchCache () {
+  protected void docIteratorClearMatchCache () {
     this.docIteratorMatchCache = Qry.INVALID_DOCID;
   }
 
@@ -359,7 +443,7 @@ public abstract class Qry {
    *  Set the matching docid cache.
    *  @param docid The internal document id to store in the cache.
    */
-  private void docIteratorSetMatchCache (int docid) {
+  protected void docIteratorSetMatchCache (int docid) {
     this.docIteratorMatchCache = docid;
   }
 
@@ -373,6 +457,45 @@ public abstract class Qry {
     return ((QryIop) this.args.get(i));
   }
 
+  /**
+   *  Get the canonical form of this query operator's subtree: the
+   *  operator, its parameters (e.g., distance or weights), and the
+   *  canonical forms of its arguments, in order.  Subtrees that have
+   *  the same canonical form are equivalent, so the canonical form is
+   *  used to detect duplicate subtrees and as the key of the
+   *  InvListCache.
+   *  @return The canonical form of the subtree.
+   */
+  public String getCanonicalKey () {
+
+    StringBuilder key = new StringBuilder ();
+
+    key.append (this.getClass ().getSimpleName ());
+    key.append (this.getCanonicalParameters ());
+    key.append ('(');
+
+    for (int i = 0; i < this.args.size (); i++) {
+      if (i > 0) {
+        key.append (' ');
+      }
+      key.append (this.args.get (i).getCanonicalKey ());
+    }
+
+    key.append (')');
+
+    return key.toString ();
+  }
+
+  /**
+   *  Get the parameters of this query operator (e.g., "/8" for
+   *  #NEAR/8) in canonical form.  Query operators that have
+   *  parameters must override this method.
+   *  @return The canonical form of the parameters.
+   */
+  protected String getCanonicalParameters () {
+    return "";
+  }
+
   /**
    *  Every operator has a display name that can be used by
    *  toString for debugging or other user feedback.  
@@ -399,6 +522,32 @@ public abstract class Qry {
     this.args.remove(i);
   };
 
+  /**
+   *  Set the time and work budget of the query operator's subtree.
+   *  It must be called before the query operator is initialized.
+   *  @param budget The budget, or null for no limit.
+   */
+  public void setBudget (QueryBudget budget) {
+    this.budget = budget;
+
+    for (Qry q_i: this.args) {
+      q_i.setBudget (budget);
+    }
+  }
+
+  /**
+   *  Restrict the query operator's subtree to one segment (leaf) of
+   *  the index, so that it matches only documents in that segment.
+   *  This is used to evaluate the segments of an index concurrently.
+   *  It must be called before the query operator is initialized.
+   *  @param leaf The segment, or null for the whole index.
+   */
+  public void setLeaf (LeafReaderContext leaf) {
+    for (Qry q_i: this.args) {
+      q_i.setLeaf (leaf);
+    }
+  }
+
   /**
    *  Every operator must have a display name that can be used by
    *  toString for debugging or other user feedback.  
@@ -6,6 +6,7 @@
  */
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.apache.lucene.index.*;
 
@@ -20,6 +21,30 @@ public class QryEval {
   private static final String USAGE =
           "Usage:  java QryEval paramFile\n\n";
 
+  /**
+   *  The number of docid ranges that a query is divided into, so that
+   *  the ranges can be evaluated concurrently (parallel:queryPartitions).
+   */
+  private static int queryPartitions = 1;
+
+  /**
+   *  Whether the segments (leaves) of the index are evaluated
+   *  concurrently (parallel:segments).
+   */
+  private static boolean segmentParallel = false;
+
+  /**
+   *  Per-query limits on elapsed time in ms (query:timeLimit) and on
+   *  work (query:workLimit).  0 means no limit.
+   */
+  private static long queryTimeLimit = 0;
+  private static long queryWorkLimit = 0;
+
+  /**
+   *  The threads that evaluate docid ranges or segments of a query.
+   */
+  private static ExecutorService partitionWorkers = null;
+
   //  --------------- Methods ---------------------------------------
 
   /**
@@ -47,11 +72,39 @@ public class QryEval {
     //  Open the index and initialize the retrieval model.
 
     Idx.open (parameters.get ("indexPath"));
+
+    configure (parameters);
+
     RetrievalModel model = null;
     if (parameters.get("retrievalAlgorithm") != null) {
        model = initializeRetrievalModel(parameters);
     }
 
+    //  In server mode, answer queries until the process is stopped.
+
+    if (QryServer.isEnabled (parameters)) {
+      new QryServer (parameters, model).serve ();
+      return;
+    }
+
+    //  Learning to rank:  write the training features, then rerank
+    //  the test queries' BM25 rankings with the learned model.
+
+    if (model instanceof RetrievalModelLetor) {
+      if (LetorTraining.isEnabled (parameters)) {
+        LetorTraining.writeTrainingData (parameters, (RetrievalModelLetor) model);
+      }
+
+      if (LetorReranker.isEnabled (parameters)) {
+        LetorReranker.processQueryFile (parameters, (RetrievalModelLetor) model);
+      }
+
+      shutdown ();
+      timer.stop ();
+      System.out.println ("Time:  " + timer);
+      return;
+    }
+
     //  Get output parameters
 
     String outputPath = parameters.get("trecEvalOutputPath");
@@ -67,10 +120,75 @@ public class QryEval {
 
     //  Clean up.
 
+    shutdown ();
     timer.stop ();
     System.out.println ("Time:  " + timer);
   }
 
+  /**
+   *  Configure query evaluation from the parameter file:  docid range
+   *  and segment parallelism, query budgets, and the InvListCache.
+   *  Options that aren't in the parameter file get their defaults, so
+   *  evaluation may be configured again (e.g., by tests).
+   *  @param parameters All of the parameters contained in the parameter file
+   */
+  static void configure (Map<String, String> parameters) {
+
+    queryPartitions = 1;
+    segmentParallel = false;
+    queryTimeLimit = 0;
+    queryWorkLimit = 0;
+
+    shutdown ();
+
+    if (parameters.containsKey ("parallel:queryPartitions")) {
+      queryPartitions = Integer.parseInt (parameters.get ("parallel:queryPartitions"));
+      if (queryPartitions > 1) {
+        partitionWorkers = new ForkJoinPool (queryPartitions);
+      }
+    }
+
+    if (parameters.containsKey ("parallel:segments")) {
+      segmentParallel = Boolean.parseBoolean (parameters.get ("parallel:segments"));
+      if (segmentParallel && (partitionWorkers == null)) {
+        partitionWorkers = new ForkJoinPool ();
+      }
+    }
+
+    if (parameters.containsKey ("query:timeLimit")) {
+      queryTimeLimit = Long.parseLong (parameters.get ("query:timeLimit"));
+    }
+
+    if (parameters.containsKey ("query:workLimit")) {
+      queryWorkLimit = Long.parseLong (parameters.get ("query:workLimit"));
+    }
+
+    InvListCache.setCapacity (parameters.containsKey ("invListCache:size") ?
+                              Integer.parseInt (parameters.get ("invListCache:size")) :
+                              InvListCache.DEFAULT_CAPACITY);
+  }
+
+  /**
+   *  Stop the threads that evaluate docid ranges or segments of a
+   *  query.
+   */
+  static void shutdown () {
+    if (partitionWorkers != null) {
+      partitionWorkers.shutdown ();
+      partitionWorkers = null;
+    }
+  }
+
+  /**
+   *  Indicates whether queries are evaluated per segment.  Segment
+   *  queries read their own inverted lists, whose InvListCache keys
+   *  differ from the keys of whole-index lists.
+   *  @return True if the segments of the index are evaluated concurrently.
+   */
+  static boolean isSegmentParallel () {
+    return segmentParallel && (Idx.INDEXREADER.leaves ().size () > 1);
+  }
+
   /**
    *  Allocate the retrieval model and initialize it using parameters
    *  from the parameter file.
@@ -78,7 +196,7 @@ public class QryEval {
    *  @return The initialized retrieval model
    *  @throws IOException Error accessing the Lucene index.
    */
-  private static RetrievalModel initializeRetrievalModel (Map<String, String> parameters)
+  static RetrievalModel initializeRetrievalModel (Map<String, String> parameters)
           throws IOException {
 
     RetrievalModel model = null;
@@ -105,6 +223,11 @@ public class QryEval {
       model = new RetrievalModelIndri(parameters.get("Indri:mu"), parameters.get("Indri:lambda"));
     }
 
+    else if(modelString.equals("letor")) {
+      model = new RetrievalModelLetor(parameters.get("BM25:k_1"), parameters.get("BM25:b"), parameters.get("BM25:k_3"),
+                                      parameters.get("Indri:mu"), parameters.get("Indri:lambda"));
+    }
+
     else {
 
       throw new IllegalArgumentException
@@ -133,6 +256,22 @@ public class QryEval {
     //        + ((runtime.totalMemory() - runtime.freeMemory()) / (1024L * 1024L)) + " MB");
   }
 
+  /**
+   *  Open the writer of the trec_eval output file.
+   *  trecEvalOutputFormat=binary writes a binary run for later stages.
+   *  @param outputPath Path to the output file
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @return The writer
+   *  @throws IOException The output file can't be opened
+   */
+  static TrecResultWriter openResultWriter (String outputPath, Map<String, String> parameters)
+          throws IOException {
+
+    return "binary".equalsIgnoreCase (parameters.get ("trecEvalOutputFormat")) ?
+      new BinaryRunWriter (outputPath, TrecResultWriter.DEFAULT_QUEUE_LENGTH).start () :
+      new TrecResultWriter (outputPath, TrecResultWriter.DEFAULT_QUEUE_LENGTH).start ();
+  }
+
   /**
    * Process one query.
    * @param qryString A string that contains a query.
@@ -145,25 +284,53 @@ public class QryEval {
 
     String defaultOp = model.defaultQrySopName ();
     qryString = defaultOp + "(" + qryString + ")";
-    Qry q = QryParser.getQuery (qryString);
+    Qry q = QryParser.getQuery (qryString, model);
 
     // Show the query that is evaluated
 
     System.out.println("    --> " + q);
 
+    return evaluateQuery (q, model);
+  }
+
+  /**
+   *  Evaluate a parsed query.
+   *  @param q A query that has not been initialized, or null.
+   *  @param model The retrieval model determines how matching and scoring is done.
+   *  @return Search results, or null if q is null
+   *  @throws IOException Error accessing the index
+   */
+  static ScoreList evaluateQuery (Qry q, RetrievalModel model)
+          throws IOException {
+
     if (q != null) {
 
       ScoreList results = new ScoreList ();
 
       if (q.args.size () > 0) {		// Ignore empty queries
 
-        q.initialize (model);
+        QueryBudget budget = null;
+
+        if ((queryTimeLimit > 0) || (queryWorkLimit > 0)) {
+          budget = new QueryBudget (queryTimeLimit, queryWorkLimit);
+          q.setBudget (budget);
+        }
 
-        while (q.docIteratorHasMatch (model)) {
-          int docid = q.docIteratorGetMatch ();
-          double score = ((QrySop) q).getScore (model);
-          results.add (docid, score);
-          q.docIteratorAdvancePast (docid);
+        if (isSegmentParallel ()) {
+          results = processQuerySegments (q, model);
+        } else {
+          q.initialize (model);
+
+          if (queryPartitions > 1) {
+            results = processQueryRanges (q, model);
+          } else {
+            processQueryRange (q, model, 0, Integer.MAX_VALUE, results);
+          }
+        }
+
+        if ((budget != null) && budget.isExhausted ()) {
+          System.out.println ("    --> truncated:  the query's budget was exhausted");
+          results.setTruncated (true);
         }
       }
 
@@ -172,6 +339,180 @@ public class QryEval {
       return null;
   }
 
+  /**
+   *  Evaluate an initialized query on the documents in a docid range.
+   *  @param q An initialized query.
+   *  @param model The retrieval model determines how matching and scoring is done.
+   *  @param minDocid The first docid in the range.
+   *  @param maxDocid The first docid after the range.
+   *  @param results The matching documents are appended to this list
+   *  @throws IOException Error accessing the index
+   */
+  static void processQueryRange(Qry q, RetrievalModel model, int minDocid, int maxDocid,
+                                ScoreList results)
+          throws IOException {
+
+    if (minDocid > 0) {
+      q.docIteratorAdvanceTo (minDocid);
+    }
+
+    while (q.docIteratorHasMatch (model) && q.chargeBudget ()) {
+      int docid = q.docIteratorGetMatch ();
+
+      if (docid >= maxDocid) {
+        break;
+      }
+
+      double score = ((QrySop) q).getScore (model);
+      results.add (docid, score);
+      q.docIteratorAdvancePast (docid);
+    }
+  }
+
+  /**
+   *  Evaluate an initialized query concurrently on several docid
+   *  ranges.  Each range is evaluated by its own copy of the query
+   *  tree, which shares the materialized inverted lists but has its
+   *  own iterators, so the scores are identical to a sequential
+   *  evaluation.  The ranges are in docid order, so the results are
+   *  concatenated in range order.
+   *  @param q An initialized query.
+   *  @param model The retrieval model determines how matching and scoring is done.
+   *  @return Search results
+   *  @throws IOException Error accessing the index
+   */
+  private static ScoreList processQueryRanges(Qry q, final RetrievalModel model)
+          throws IOException {
+
+    int[] bounds = Idx.getDocidRanges (queryPartitions);
+    List<Future<ScoreList>> pending = new ArrayList<Future<ScoreList>> ();
+
+    for (int i = 0; i < bounds.length - 1; i++) {
+      final Qry q_i = q.copy ();
+      final int minDocid = bounds[i];
+      final int maxDocid = bounds[i + 1];
+
+      pending.add (partitionWorkers.submit (new Callable<ScoreList> () {
+        public ScoreList call () throws IOException {
+          ScoreList results = new ScoreList ();
+          processQueryRange (q_i, model, minDocid, maxDocid, results);
+          return results;
+        }
+      }));
+    }
+
+    ScoreList results = new ScoreList ();
+
+    for (Future<ScoreList> rangeResults: pending) {
+      results.addAll (waitFor (rangeResults));
+    }
+
+    return results;
+  }
+
+  /**
+   *  Evaluate a query concurrently on each segment (leaf) of the
+   *  index.  Each segment has its own copy of the query tree, which
+   *  reads only the segment's postings.  The trees are initialized
+   *  concurrently, then each inverted list operator is given the
+   *  collection statistics of the whole index (the sum over segments),
+   *  so scores are identical to a sequential evaluation.  Segments are
+   *  in docid order, so the results are concatenated in segment order.
+   *  @param q A query that has not been initialized.
+   *  @param model The retrieval model determines how matching and scoring is done.
+   *  @return Search results
+   *  @throws IOException Error accessing the index
+   */
+  private static ScoreList processQuerySegments(Qry q, final RetrievalModel model)
+          throws IOException {
+
+    List<LeafReaderContext> leaves = Idx.INDEXREADER.leaves ();
+    List<Qry> leafQueries = new ArrayList<Qry> (leaves.size ());
+    List<Future<Qry>> initialized = new ArrayList<Future<Qry>> ();
+
+    //  Instantiate and initialize the query for each segment.
+
+    for (LeafReaderContext leaf : leaves) {
+      final Qry q_i = q.copy ();
+
+      q_i.setLeaf (leaf);
+      initialized.add (partitionWorkers.submit (new Callable<Qry> () {
+        public Qry call () throws IOException {
+          q_i.initialize (model);
+          return q_i;
+        }
+      }));
+    }
+
+    for (Future<Qry> q_i: initialized) {
+      leafQueries.add (waitFor (q_i));
+    }
+
+    setCollectionStatistics (leafQueries);
+
+    //  Evaluate the segments.
+
+    List<Future<ScoreList>> pending = new ArrayList<Future<ScoreList>> ();
+
+    for (final Qry q_i: leafQueries) {
+      pending.add (partitionWorkers.submit (new Callable<ScoreList> () {
+        public ScoreList call () throws IOException {
+          ScoreList results = new ScoreList ();
+          processQueryRange (q_i, model, 0, Integer.MAX_VALUE, results);
+          return results;
+        }
+      }));
+    }
+
+    ScoreList results = new ScoreList ();
+
+    for (Future<ScoreList> leafResults: pending) {
+      results.addAll (waitFor (leafResults));
+    }
+
+    return results;
+  }
+
+  /**
+   *  Give the inverted list operators of per-segment copies of a
+   *  query the collection statistics of the whole index.  Document
+   *  frequency and collection term frequency are sums over segments.
+   *  @param leafQueries Initialized copies of the same query, one per segment.
+   */
+  private static void setCollectionStatistics(List<Qry> leafQueries) {
+
+    Qry q_0 = leafQueries.get (0);
+
+    if (q_0 instanceof QryIop) {
+      int df = 0;
+      int ctf = 0;
+
+      for (Qry q_i: leafQueries) {
+        df += ((QryIop) q_i).getDf ();
+        ctf += ((QryIop) q_i).getCtf ();
+      }
+
+      for (Qry q_i: leafQueries) {
+        ((QryIop) q_i).setCollectionStatistics (df, ctf);
+      }
+
+      //  Arguments of inverted list operators aren't scored, and they
+      //  aren't initialized if the operator's list was cached.
+
+      return;
+    }
+
+    for (int j = 0; j < q_0.args.size (); j++) {
+      List<Qry> args_j = new ArrayList<Qry> (leafQueries.size ());
+
+      for (Qry q_i: leafQueries) {
+        args_j.add (q_i.args.get (j));
+      }
+
+      setCollectionStatistics (args_j);
+    }
+  }
+
   /**
    *  Process the query file.
    *  @param queryFilePath Path to the query file
@@ -181,6 +522,39 @@ public class QryEval {
   static void processQueryFile(String queryFilePath, RetrievalModel model, String outputPath, int outputLength, Map<String, String> parameters)
           throws IOException {
 
+    TrecResultWriter writer = openResultWriter (outputPath, parameters);
+    QueryExecutor executor = null;
+
+    try {
+      if (QueryExecutor.isEnabled (parameters)) {
+        executor = new QueryExecutor (parameters);
+      }
+
+      processQueryFile (queryFilePath, model, writer, outputLength, parameters, executor);
+    } finally {
+      if (executor != null) {
+        executor.shutdown ();
+      }
+
+      writer.close ();
+    }
+  }
+
+  /**
+   *  Process the query file with the configured evaluation strategy.
+   *  @param queryFilePath Path to the query file
+   *  @param model A retrieval model that will guide matching and scoring
+   *  @param writer Writes the trec_eval output file
+   *  @param outputLength The number of results to write per query
+   *  @param parameters The parameters of the run
+   *  @param executor Evaluates queries concurrently, or null
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private static void processQueryFile(String queryFilePath, RetrievalModel model,
+                                       TrecResultWriter writer, int outputLength,
+                                       Map<String, String> parameters, QueryExecutor executor)
+          throws IOException {
+
     BufferedReader input = null;
 
     // diversification
@@ -189,64 +563,58 @@ public class QryEval {
       String initialFile = parameters.get("diversity:initialRankingFile");
       // given initial rank file
       if ( initialFile != null) {
+        RunReader runReader = null;
         try {
-          String qLine = null;
-          String pre_qid = null;
-          ScoreList docList = new ScoreList();
-          input = new BufferedReader(new FileReader(initialFile));
+          // the initial ranking may be a trec_eval run or a binary run
+          if (BinaryRunReader.isBinaryRun(initialFile))
+            runReader = new BinaryRunReader(initialFile);
+          else
+            runReader = new TrecRunReader(initialFile);
           // <q.intents.id, scoreList> for each query
           Map<String, ScoreList> relevanceList = new HashMap<>();
-          while ((qLine = input.readLine()) != null) {
+          String topic = null;
+          int intentNum = 0;
+          ScoreList docList = null;
+          // each pass of the loop reads the ranking of a query or an intent
+          while ((docList = runReader.next()) != null) {
             printMemoryUsage(false);
-            String[] files = qLine.split(" ");
-            String docId = files[2];
-            double score = Double.parseDouble(files[4]);
-            if (pre_qid == null) {
-              pre_qid = files[0];  // assign the query id
-              docList.add(Idx.getInternalDocid(docId), score);
-            }
-            else if (pre_qid.equals(files[0])) { // same query document
-              docList.add(Idx.getInternalDocid(docId), score);
-            }
-            else if(files[0].contains(pre_qid) || files[0].contains(".")) { // query intent id
-
-              relevanceList.put(pre_qid, docList);
-              docList = new ScoreList();
-              docList.add(Idx.getInternalDocid(docId), score);
-              pre_qid = files[0];
-            } else {  // enter next query
-              docList.sort();
-              docList.truncate(maxRankingsLength);
-              relevanceList.put(pre_qid, docList);
-              DiversityList divList = normalize(parameters, relevanceList, pre_qid);
-              processDiversityList(parameters, divList, pre_qid, outputPath);
+            String qid = runReader.getQid();
+            String qidTopic = qid.split("\\.")[0];
+            if (topic != null && !qidTopic.equals(topic)) {  // enter next query
+              DiversityList divList = normalize(parameters, relevanceList, topic+"."+intentNum);
+              processDiversityList(parameters, divList, topic+"."+intentNum, writer);
 
               relevanceList = new HashMap<>();
-              docList = new ScoreList();
-              docList.add(Idx.getInternalDocid(docId), score);
-              pre_qid = files[0];
-
+              intentNum = 0;
+            }
+            topic = qidTopic;
+            if (qid.contains(".")) { // query intent id
+              intentNum++;
             }
+            docList.sort();
+            docList.truncate(maxRankingsLength);
+            relevanceList.put(qid, docList);
           }
 
-          docList.sort();
-          docList.truncate(maxRankingsLength);
-          relevanceList.put(pre_qid, docList);
-          DiversityList divList = normalize(parameters, relevanceList, pre_qid);
-          processDiversityList(parameters, divList, pre_qid, outputPath);
+          if (topic != null) {
+            DiversityList divList = normalize(parameters, relevanceList, topic+"."+intentNum);
+            processDiversityList(parameters, divList, topic+"."+intentNum, writer);
+          }
 
         } catch (Exception e) {
           e.printStackTrace();
         } finally {
-          input.close();
+          if (runReader != null)
+            runReader.close();
         }
       }
 
       // no diversification initial file, use query
       else {
         try {
-          // read intent file
+          // read intent file; intents are indexed by their query's qid
           Map<String, String> intents = new HashMap<>();
+          Map<String, List<String>> intentIdsByQid = new HashMap<>();
           BufferedReader inputIntents = new BufferedReader((new FileReader(parameters.get("diversity:intentsFile"))));
           String intentLine = null;
           while ((intentLine = inputIntents.readLine()) != null) {
@@ -258,7 +626,13 @@ public class QryEval {
             String qid = pair[0];
             String query = pair[1];
             intents.put(qid, query);
+
+            String parentQid = qid.split("\\.")[0];
+            if (!intentIdsByQid.containsKey(parentQid))
+              intentIdsByQid.put(parentQid, new ArrayList<String>());
+            intentIdsByQid.get(parentQid).add(qid);
           }
+          inputIntents.close();
 
           // <q.intents.id, scoreList> for each query
           Map<String, ScoreList> relevanceList = new HashMap<>();
@@ -274,39 +648,76 @@ public class QryEval {
             }
             String qid = pair[0];
             String query = pair[1];
-            ScoreList results = processQuery(query, model);
+
+            // get relevant intent queries
+            List<String> intentIds = intentIdsByQid.containsKey(qid) ?
+              intentIdsByQid.get(qid) : Collections.<String>emptyList();
+            int intentNum = intentIds.size();
+
+            // the query and its intent queries usually share terms, so
+            // shared inverted lists are read once, into the InvListCache
+            List<String> topicQueries = new ArrayList<>();
+            topicQueries.add(query);
+            for (String qIntentId: intentIds)
+              topicQueries.add(intents.get(qIntentId));
+            if (QueryScheduler.canShareLists())
+              QueryScheduler.cacheSharedTerms(topicQueries,
+                                              Collections.nCopies(topicQueries.size(), model));
+
+            // the query and its intent queries are independent, so they may run concurrently
+            Future<ScoreList> pendingResults = QueryExecutor.submit(executor, query, model);
+            Map<String, Future<ScoreList>> pendingIntentResults = new HashMap<>();
+            for (String qIntentId: intentIds) {
+              pendingIntentResults.put(qIntentId, QueryExecutor.submit(executor, intents.get(qIntentId), model));
+            }
+
+            // a query that has only stopwords retrieves nothing
+            ScoreList results = waitFor(pendingResults);
+            if (results == null)
+              results = new ScoreList();
             results.sort();
 
             results.truncate(maxRankingsLength);
             relevanceList.put(qid, results);
 
-            // get relevant intent file
-            Set<String> intentIds = intents.keySet();
-            int intentNum = 0;
-            for(String qIntentId: intentIds) {
-              if(qIntentId.contains(qid)) {
-                String intentQuery = intents.get(qIntentId);
-                ScoreList intentResult = processQuery(intentQuery, model);
-                intentResult.sort();
-                intentResult.truncate(maxRankingsLength);
-                relevanceList.put(qIntentId, intentResult);
-                intentNum++;
-              }
+            for(Map.Entry<String, Future<ScoreList>> pendingIntent: pendingIntentResults.entrySet()) {
+              ScoreList intentResult = waitFor(pendingIntent.getValue());
+              if (intentResult == null)
+                intentResult = new ScoreList();
+              intentResult.sort();
+              intentResult.truncate(maxRankingsLength);
+              relevanceList.put(pendingIntent.getKey(), intentResult);
             }
 
             DiversityList divList = normalize(parameters, relevanceList, qid+"."+intentNum);
-            processDiversityList(parameters, divList, qid+"."+intentNum, outputPath);
+            processDiversityList(parameters, divList, qid+"."+intentNum, writer);
 
           }
         } catch (Exception ex) {
           ex.printStackTrace();
         } finally {
-          input.close();
+          if (input != null)
+            input.close();
         }
 
 
       }
     }
+    // no diversity, queries are evaluated in term locality order
+    else if (parameters.containsKey ("schedule:termLocality") &&
+             Boolean.parseBoolean (parameters.get ("schedule:termLocality"))) {
+      processQueryFileScheduled (queryFilePath, model, writer, outputLength);
+    }
+    // no diversity, batches of queries share postings
+    else if (parameters.containsKey ("batch:size") &&
+             Integer.parseInt (parameters.get ("batch:size")) > 1) {
+      processQueryFileBatched (queryFilePath, model, writer, outputLength,
+                               Integer.parseInt (parameters.get ("batch:size")));
+    }
+    // no diversity, parallel
+    else if (executor != null) {
+      processQueryFileParallel (queryFilePath, model, writer, outputLength, executor);
+    }
     // no diversity
     else {
       try {
@@ -332,37 +743,316 @@ public class QryEval {
           ScoreList results = processQuery(query, model);
 
           if (results != null) {
-            printResults(qid, results, outputPath, outputLength);
+            writer.write(qid, results, outputLength);
             System.out.println();
           }
         }
       } catch (IOException ex) {
         ex.printStackTrace();
       } finally {
+        if (input != null) {
+          input.close();
+        }
+      }
+    }
+  }
+
+
+  /**
+   *  Process the query file with a QueryExecutor.  Each query is
+   *  evaluated by one worker, with its own query tree and iterator
+   *  state.  Results are written in the order of the query file, so
+   *  the output is the same as the output of processQueryFile.  The
+   *  number of queries in flight is bounded, which bounds the memory
+   *  used by results that are waiting to be written.
+   *  @param queryFilePath Path to the query file
+   *  @param model A retrieval model that will guide matching and scoring
+   *  @param writer Writes the trec_eval output file
+   *  @param outputLength The number of results to write per query
+   *  @param executor Evaluates the queries
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  static void processQueryFileParallel(String queryFilePath, RetrievalModel model,
+                                       TrecResultWriter writer, int outputLength,
+                                       QueryExecutor executor)
+          throws IOException {
+
+    ArrayDeque<String> qids = new ArrayDeque<String> ();
+    ArrayDeque<Future<ScoreList>> pending = new ArrayDeque<Future<ScoreList>> ();
+    int maxPending = executor.getMaxInFlight ();
+    BufferedReader input = null;
+
+    try {
+      String qLine = null;
+
+      input = new BufferedReader(new FileReader(queryFilePath));
+
+      //  Each pass of the loop submits one query.  Results are written
+      //  in submission order once the oldest query is done.
+
+      while ((qLine = input.readLine()) != null) {
+
+        System.out.println("Query " + qLine);
+        String[] pair = qLine.split(":");
+
+        if (pair.length != 2) {
+          throw new IllegalArgumentException
+                  ("Syntax error:  Each line must contain one ':'.");
+        }
+
+        qids.add (pair[0]);
+        pending.add (executor.submit (pair[1], model));
+
+        if (pending.size () >= maxPending) {
+          printNextResults (qids, pending, writer, outputLength);
+        }
+      }
+
+      while (! pending.isEmpty ()) {
+        printNextResults (qids, pending, writer, outputLength);
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    } finally {
+      if (input != null) {
+        input.close();
+      }
+    }
+  }
+
+  /**
+   *  Process the query file in an order that keeps queries with
+   *  shared terms and subtrees together (see TermLocalityOrder), so
+   *  that the InvListCache reuses more lists.  The term lists that
+   *  consecutive queries share are read once, into the InvListCache
+   *  (see QueryScheduler.cacheSharedTerms).  The whole query file is
+   *  read first.  Results are written in the order of the query file;
+   *  results that are ready early are truncated to outputLength and
+   *  held until their turn.
+   *  @param queryFilePath Path to the query file
+   *  @param model A retrieval model that will guide matching and scoring
+   *  @param writer Writes the trec_eval output file
+   *  @param outputLength The number of results to write per query
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  static void processQueryFileScheduled(String queryFilePath, RetrievalModel model,
+                                        TrecResultWriter writer, int outputLength)
+          throws IOException {
+
+    List<String> qids = new ArrayList<String> ();
+    List<String> queries = new ArrayList<String> ();
+    BufferedReader input = null;
+
+    try {
+      String qLine = null;
+
+      input = new BufferedReader(new FileReader(queryFilePath));
+
+      while ((qLine = input.readLine()) != null) {
+        String[] pair = qLine.split(":");
+
+        if (pair.length != 2) {
+          throw new IllegalArgumentException
+                  ("Syntax error:  Each line must contain one ':'.");
+        }
+
+        qids.add (pair[0]);
+        queries.add (pair[1]);
+      }
+    } finally {
+      if (input != null) {
+        input.close();
+      }
+    }
+
+    int[] order = TermLocalityOrder.order (queries, model);
+    ScoreList[] results = new ScoreList[queries.size ()];
+    boolean[] ready = new boolean[queries.size ()];
+    int nextToWrite = 0;
+
+    for (int k = 0; k < order.length; k++) {
+      int i = order[k];
+
+      //  Only derived lists are cached when queries are evaluated, so
+      //  the term lists that this query shares with the next one are
+      //  cached here.  Lists shared with the previous query were
+      //  cached in the previous pass.
+
+      if ((k + 1 < order.length) && QueryScheduler.canShareLists ()) {
+        QueryScheduler.cacheSharedTerms (Arrays.asList (queries.get (i), queries.get (order[k + 1])),
+                                         Collections.nCopies (2, model));
+      }
+
+      System.out.println("Query " + qids.get (i) + ":" + queries.get (i));
+
+      ScoreList result = processQuery (queries.get (i), model);
+
+      if (result != null) {
+        result.sort ();
+        result.truncate (outputLength);
+      }
+
+      results[i] = result;
+      ready[i] = true;
+
+      //  Write the results that are ready, in query file order.
+
+      while ((nextToWrite < ready.length) && ready[nextToWrite]) {
+        if (results[nextToWrite] != null) {
+          writer.write (qids.get (nextToWrite), results[nextToWrite], outputLength);
+          results[nextToWrite] = null;
+        }
+        nextToWrite++;
+      }
+    }
+  }
+
+  /**
+   *  Process the query file in batches.  The queries in a batch are
+   *  evaluated by a QueryBatchEvaluator, which reads and scores each
+   *  shared term's postings once.  Results are written in the order
+   *  of the query file.
+   *  @param queryFilePath Path to the query file
+   *  @param model A retrieval model that will guide matching and scoring
+   *  @param writer Writes the trec_eval output file
+   *  @param outputLength The number of results to write per query
+   *  @param batchSize The number of queries in a batch
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  static void processQueryFileBatched(String queryFilePath, RetrievalModel model,
+                                      TrecResultWriter writer, int outputLength,
+                                      int batchSize)
+          throws IOException {
+
+    List<String> qids = new ArrayList<String> ();
+    List<String> queries = new ArrayList<String> ();
+    BufferedReader input = null;
+
+    try {
+      String qLine = null;
+
+      input = new BufferedReader(new FileReader(queryFilePath));
+
+      while ((qLine = input.readLine()) != null) {
+
+        System.out.println("Query " + qLine);
+        String[] pair = qLine.split(":");
+
+        if (pair.length != 2) {
+          throw new IllegalArgumentException
+                  ("Syntax error:  Each line must contain one ':'.");
+        }
+
+        qids.add (pair[0]);
+        queries.add (pair[1]);
+
+        if (queries.size () >= batchSize) {
+          printBatchResults (qids, queries, model, writer, outputLength);
+        }
+      }
+
+      if (! queries.isEmpty ()) {
+        printBatchResults (qids, queries, model, writer, outputLength);
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    } finally {
+      if (input != null) {
         input.close();
       }
     }
   }
 
+  /**
+   *  Evaluate a batch of queries, write their results, and empty the
+   *  batch.
+   *  @param qids The query ids of the batch
+   *  @param queries The queries of the batch
+   *  @param model A retrieval model that will guide matching and scoring
+   *  @param writer Writes the trec_eval output file
+   *  @param outputLength The number of results to write per query
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private static void printBatchResults (List<String> qids, List<String> queries,
+                                         RetrievalModel model, TrecResultWriter writer,
+                                         int outputLength)
+          throws IOException {
+
+    ScoreList[] results = QueryBatchEvaluator.evaluate (queries, model);
+
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] != null) {
+        writer.write (qids.get (i), results[i], outputLength);
+      }
+    }
+
+    qids.clear ();
+    queries.clear ();
+  }
+
+  /**
+   *  Wait for the oldest pending query to finish, and write its results.
+   *  @param qids The query ids of the pending queries, oldest first
+   *  @param pending The results of the pending queries, oldest first
+   *  @param writer Writes the trec_eval output file
+   *  @param outputLength The number of results to write per query
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private static void printNextResults (ArrayDeque<String> qids,
+                                        ArrayDeque<Future<ScoreList>> pending,
+                                        TrecResultWriter writer, int outputLength)
+          throws IOException {
+
+    String qid = qids.remove ();
+    ScoreList results = waitFor (pending.remove ());
+
+    if (results != null) {
+      writer.write(qid, results, outputLength);
+    }
+  }
+
+  /**
+   *  Wait for a query that runs on another thread to finish.
+   *  @param result The pending result of the query
+   *  @return The result of the query
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  static <T> T waitFor (Future<T> result) throws IOException {
+    try {
+      return result.get ();
+    } catch (InterruptedException ex) {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ("Interrupted while waiting for a query.");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause ();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new IOException (cause);
+      }
+    }
+  }
 
   static DiversityList normalize(Map<String, String> parameters, Map<String, ScoreList> relevanceList, String qid) throws Exception {
     qid = qid.substring(0, qid.indexOf("."));
     ScoreList queryDocList = relevanceList.get(qid);
     int maxLength = Integer.parseInt(parameters.get("diversity:maxInputRankingsLength"));
 
-    HashSet<Integer> queryDocHash = new HashSet<>();
-    for(int i = 0; i < Math.min(maxLength, queryDocList.size()); i++) {
-      queryDocHash.add(queryDocList.getDocid(i));
+    int[] queryDocs = new int[Math.min(maxLength, queryDocList.size())];
+    for(int i = 0; i < queryDocs.length; i++) {
+      queryDocs[i] = queryDocList.getDocid(i);
     }
 
     double maxSum = 0;
-    DiversityList diversityList = new DiversityList();
-    for (Map.Entry mapElement : relevanceList.entrySet()) {
+    DiversityList diversityList = new DiversityList(queryDocs, relevanceList.keySet());
+    for (Map.Entry<String, ScoreList> mapElement : relevanceList.entrySet()) {
       double sum = 0;
-      ScoreList scorelist = (ScoreList) mapElement.getValue();
-      String qIntentId = (String) mapElement.getKey();
+      ScoreList scorelist = mapElement.getValue();
+      String qIntentId = mapElement.getKey();
       for(int i = 0; i < scorelist.size(); i++) {
-        if(queryDocHash.contains(scorelist.getDocid(i))) {
+        if(diversityList.contains(scorelist.getDocid(i))) {
           double s = scorelist.getDocidScore(i);
           sum += s;
           diversityList.add(scorelist.getDocid(i), qIntentId, s);
@@ -378,19 +1068,13 @@ public class QryEval {
       maxSum = 1;
 
     // scaling
-    for (int docid: queryDocHash) {
-      List<Double> scores = diversityList.getAllScores(docid);
-      for(int j = 0; j < scores.size(); j++) {
-        double s = scores.get(j);
-        scores.set(j, s/maxSum);
-      }
-    }
+    diversityList.scale(maxSum);
 
     return diversityList;
   }
 
 
-  private static void processDiversityList(Map<String, String> parameters, DiversityList divList, String qIntentId, String outputPath) throws Exception {
+  static void processDiversityList(Map<String, String> parameters, DiversityList divList, String qIntentId, TrecResultWriter writer) throws Exception {
     int intentNum = Integer.parseInt(qIntentId.split("\\.")[1]);
     double weight = 1.0 / intentNum;
     String qid = qIntentId.split("\\.")[0];
@@ -400,40 +1084,50 @@ public class QryEval {
     ScoreList results = new ScoreList();
     double lambda = Double.parseDouble(parameters.get("diversity:lambda"));
 
+    // scores[row] for the query, and intentScores[j - 1][row] for intent j
+    int n = divList.size();
+    double[] queryScores = divList.getScores(qid);
+    double[][] intentScores = new double[intentNum][];
+    for (int j = 1; j <= intentNum; j++)
+      intentScores[j - 1] = divList.getScores(qid + "." + j);
+
+    // candidate scores, and the intents whose coverage or slots changed
+    // since the scores were computed; only the docs that have a nonzero
+    // score for a changed intent are rescored
+    DiversityCandidates candidates = new DiversityCandidates(divList);
+    int[][] intentRows = DiversityCandidates.nonzeroRows(intentScores);
+    boolean[] changed = new boolean[intentNum];
+    int[] marks = new int[n];
+    int[] rows = new int[n];
+
     // xQuAD
     if(algorithm.equals("xQuAD")) {
       // store the coverage after getting one doc
-      Map<Integer, Double> coverage = new HashMap<>();
-      for (int i = 1; i <= intentNum; i++)
-        coverage.put(i, 1.0);
-      int r = 0;
-      while(r < maxOutputLength) {
-        ScoreList docList = new ScoreList();
-        Set<Integer> docs = divList.getKeys();
-        for (int docid : docs) {
-          double p_d_q = divList.getScore(docid, qid);
+      double[] coverage = new double[intentNum];
+      Arrays.fill(coverage, 1.0);
+      for (int r = 0; r < maxOutputLength && r < n; r++) {
+        // rescore the docs that the last coverage update affected
+        int affected = affectedRows(intentRows, changed, coverage, r == 0, candidates, marks, r + 1, rows);
+        for (int i = 0; i < affected; i++) {
+          int d = rows[i];
           double divSum = 0.0;
-          for (int j = 1; j <= intentNum; j++) {
-            double score = divList.getScore(docid, qid + "." + j);
-            divSum += weight * score * coverage.get(j);
+          for (int j = 0; j < intentNum; j++) {
+            divSum += weight * intentScores[j][d] * coverage[j];
           }
-          double divScore = (1 - lambda) * p_d_q + lambda * divSum;
-          docList.add(docid, divScore);
+          candidates.setScore(d, (1 - lambda) * queryScores[d] + lambda * divSum);
         }
-        // sort the list and choose the highest doc
-        docList.sort();
-        int bestDocId = docList.getDocid(0);
-        double score = docList.getDocidScore(0);
+        // choose the highest doc
+        int best = candidates.selectBest();
+        double score = candidates.getScore(best);
         // update coverage
-        for (int j = 1; j <= intentNum; j++) {
-          double cover = divList.getScore(bestDocId, qid + "." + j);
-          coverage.put(j, coverage.get(j) * (1 - cover));
+        for (int j = 0; j < intentNum; j++) {
+          double cover = coverage[j] * (1 - intentScores[j][best]);
+          changed[j] = Double.compare(cover, coverage[j]) != 0;
+          coverage[j] = cover;
         }
-        divList.remove(bestDocId);
-        results.add(bestDocId, score);
-        r++;
+        results.add(divList.getDocid(best), score);
       }
-      printResults(qid, results, outputPath, maxOutputLength);
+      writer.write(qid, results, maxOutputLength);
 
 
     }
@@ -441,65 +1135,64 @@ public class QryEval {
     else if(algorithm.equals("PM2")) {
       int maxInputRankingLength = Integer.parseInt(parameters.get("diversity:maxResultRankingLength"));
       double vote = weight * maxInputRankingLength;
-      Map<Integer, Double> slots = new HashMap<>();
-      //initialize
-      for(int i = 1; i <= intentNum; i++) {
-        slots.put(i, 0.0);
-      }
-
-      int r = 0;
-      while(r < maxOutputLength) {
-        ScoreList docList = new ScoreList();
-        Set<Integer> docs = divList.getKeys();
-        for (int docid : docs) {
-          // find the maximum qt
-          int max_Qt_index = 1;
-          double max_Qt = 0;
-          ArrayList<Double> qts = new ArrayList<>();
-          for (int i = 1; i <= intentNum; i++) {
-            double qt = vote / (2 * slots.get(i) + 1);
-            qts.add(qt);
-            if (qt > max_Qt) {
-              max_Qt_index = i;
-              max_Qt = qt;
-            }
+      double[] slots = new double[intentNum];
+      double[] qts = new double[intentNum];
+      int last_max_Qt_index = -1;
+
+      for (int r = 0; r < maxOutputLength && r < n; r++) {
+        // find the maximum qt; it is the same for every doc
+        int max_Qt_index = 0;
+        double max_Qt = 0;
+        for (int i = 0; i < intentNum; i++) {
+          double qt = vote / (2 * slots[i] + 1);
+          changed[i] = Double.compare(qt, qts[i]) != 0;
+          qts[i] = qt;
+          if (qt > max_Qt) {
+            max_Qt_index = i;
+            max_Qt = qt;
           }
+        }
 
+        // a new maximum intent changes the score of every doc that has a
+        // nonzero score for the old or the new maximum intent
+        if (r > 0 && max_Qt_index != last_max_Qt_index) {
+          changed[max_Qt_index] = true;
+          changed[last_max_Qt_index] = true;
+        }
+        last_max_Qt_index = max_Qt_index;
 
+        // rescore the docs that the last slot update affected
+        int affected = affectedRows(intentRows, changed, qts, r == 0, candidates, marks, r + 1, rows);
+        for (int i = 0; i < affected; i++) {
+          int d = rows[i];
           // calculate the other intent coverage
           double coverage = 0;
-          for (int j = 1; j <= intentNum; j++) {
+          for (int j = 0; j < intentNum; j++) {
             if (j == max_Qt_index)
               continue;
-            coverage += qts.get(j - 1) * divList.getScore(docid, qid + "." + j);
+            coverage += qts[j] * intentScores[j][d];
           }
 
-
-          double pm2Score = lambda * max_Qt * divList.getScore(docid, qid + "." + max_Qt_index) + (1 - lambda) * coverage;
-          docList.add(docid, pm2Score);
-
+          candidates.setScore(d, lambda * max_Qt * intentScores[max_Qt_index][d] + (1 - lambda) * coverage);
         }
 
-        // sort the list and choose the highest doc
-        docList.sort();
-        int bestDocId = docList.getDocid(0);
-        double score = docList.getDocidScore(0);
+        // choose the highest doc
+        int best = candidates.selectBest();
+        double score = candidates.getScore(best);
 
         // update slots
         double sum_slots = 0;
-        for (int k = 1; k <= intentNum; k++)
-          sum_slots += divList.getScore(bestDocId, qid + "." + k);
-        for (int k = 1; k <= intentNum; k++) {
-          double slot = divList.getScore(bestDocId, qid + "." + k) / sum_slots;
-          slots.put(k, slots.get(k) + slot);
+        for (int k = 0; k < intentNum; k++)
+          sum_slots += intentScores[k][best];
+        for (int k = 0; k < intentNum; k++) {
+          double slot = intentScores[k][best] / sum_slots;
+          slots[k] = slots[k] + slot;
         }
 
-        divList.remove(bestDocId);
-        results.add(bestDocId, score);
-        r++;
+        results.add(divList.getDocid(best), score);
       }
 
-      printResults(qid, results, outputPath, maxOutputLength);
+      writer.write(qid, results, maxOutputLength);
 
     } else {
       throw new IllegalArgumentException
@@ -508,32 +1201,47 @@ public class QryEval {
   }
 
   /**
-   * Print the query results.
-   *
-   *
-   * @param queryName
-   *          Original query.
-   * @param result
-   *          A list of document ids and scores
-   * @throws IOException Error accessing the Lucene index.
+   *  Find the unselected documents whose diversification scores change
+   *  when the coverage or slot state of some intents changes.  A
+   *  document is unaffected if its score is 0 for every changed intent
+   *  and the new state is finite, because 0 times a finite number is
+   *  0, so only the rows of the changed intents are visited.
+   *  @param intentRows The rows of each intent that have nonzero scores
+   *  @param changed The intents whose state changed
+   *  @param state The new state (coverage or quotient) of each intent
+   *  @param all True if every document is affected (e.g., at the first rank)
+   *  @param candidates The documents and their scores
+   *  @param marks marks[d] is set to mark when document d is found
+   *  @param mark A value that isn't in marks yet
+   *  @param rows The affected documents (rows of the DiversityList) are
+   *    stored here; it has a slot for every document
+   *  @return The number of affected documents
    */
-  static void printResults(String queryName, ScoreList result, String outputPath, int outputLength) throws IOException {
-
-    if (result.size() < 1) {
-      BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath, true));
-      String s = queryName + " Q0 " + "dummyRecord" + " " + "1" + " " + "0" + " run-1\n";
-      writer.write(s);
-      writer.close();
+  private static int affectedRows(int[][] intentRows, boolean[] changed, double[] state,
+                                  boolean all, DiversityCandidates candidates,
+                                  int[] marks, int mark, int[] rows) {
+    int count = 0;
+    for (int j = 0; j < changed.length; j++) {
+      all |= changed[j] && (Double.isNaN(state[j]) || Double.isInfinite(state[j]));
     }
-    else {
-      result.sort();
-      BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath, true));
-      for (int i = 0; i < outputLength && i<result.size(); i++) {
-        String s = queryName + " Q0 " + Idx.getExternalDocid(result.getDocid(i)) + " " + (i+1) + " " + result.getDocidScore(i) + " run-1\n";
-        writer.write(s);
+    if (all) {
+      for (int d = 0; d < marks.length; d++) {
+        if (!candidates.isSelected(d))
+          rows[count++] = d;
       }
-      writer.close();
+      return count;
     }
+    for (int j = 0; j < changed.length; j++) {
+      if (!changed[j])
+        continue;
+      for (int d: intentRows[j]) {
+        if (marks[d] != mark && !candidates.isSelected(d)) {
+          marks[d] = mark;
+          rows[count++] = d;
+        }
+      }
+    }
+    return count;
   }
 
   /**
@@ -574,8 +1282,9 @@ public class QryEval {
     //  errors.
 
     if (! (parameters.containsKey ("indexPath") &&
-            parameters.containsKey ("queryFilePath") &&
-            parameters.containsKey ("trecEvalOutputPath"))) {
+            (QryServer.isEnabled (parameters) ||
+             (parameters.containsKey ("queryFilePath") &&
+              parameters.containsKey ("trecEvalOutputPath"))))) {
       throw new IllegalArgumentException
               ("Required parameters were missing from the parameter file.");
     }
@@ -597,6 +1306,47 @@ public class QryEval {
               ("Required parameters for Indri were missing from the parameter file.");
     }
 
+    if(parameters.get("retrievalAlgorithm") != null &&
+            parameters.get("retrievalAlgorithm").equalsIgnoreCase("letor") &&
+            !(parameters.containsKey("BM25:k_1") &&
+                    parameters.containsKey("BM25:b") &&
+                    parameters.containsKey("BM25:k_3") &&
+                    parameters.containsKey("Indri:mu") &&
+                    parameters.containsKey("Indri:lambda"))){
+      throw new IllegalArgumentException
+              ("Required parameters for letor were missing from the parameter file.");
+    }
+
+    //  Term locality scheduling evaluates queries one at a time, in its
+    //  own order, so it can't be combined with batches or workers.
+
+    if (parameters.containsKey ("schedule:termLocality") &&
+        Boolean.parseBoolean (parameters.get ("schedule:termLocality")) &&
+        ((parameters.containsKey ("batch:size") &&
+          Integer.parseInt (parameters.get ("batch:size")) > 1) ||
+         QueryExecutor.isEnabled (parameters))) {
+      throw new IllegalArgumentException
+              ("schedule:termLocality can't be used with batch:size or parallel:threads.");
+    }
+
+    //  Batches are evaluated one at a time, in the main thread, and
+    //  batched queries don't use query budgets.
+
+    if (parameters.containsKey ("batch:size") &&
+        Integer.parseInt (parameters.get ("batch:size")) > 1) {
+      if (QueryExecutor.isEnabled (parameters)) {
+        throw new IllegalArgumentException
+                ("batch:size can't be used with parallel:threads or parallel:mode.");
+      }
+
+      for (String limit : new String[] { "query:timeLimit", "query:workLimit" }) {
+        if (parameters.containsKey (limit) && Long.parseLong (parameters.get (limit)) > 0) {
+          throw new IllegalArgumentException
+                  ("batch:size can't be used with " + limit + ".");
+        }
+      }
+    }
+
     return parameters;
   }
 
@@ -0,0 +1,130 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  All query operators that restrict the documents a query may match,
+ *  without contributing to document scores, are subclasses of the
+ *  QryFop ("filter operators") class.  Examples are #BAND and #NOT.
+ *  <p>
+ *  When a QryFop operator is initialized, its arguments are compiled
+ *  once into a bitset of matching internal docids.  The bitset is
+ *  what #FILTER consults to skip excluded documents, so filter
+ *  arguments never compute scores and never participate in the
+ *  document-at-a-time loop of the scoring query.  The docIterator
+ *  iterates over the set bits, which lets QryFop operators be nested.
+ *  </p><p>
+ *  The arguments to a QryFop operator are QryIop operators (the
+ *  documents in the inverted list) or other QryFop operators.
+ *  </p>
+ */
+public abstract class QryFop extends Qry {
+
+  /**
+   *  The set of internal docids that satisfy the filter.  It is
+   *  produced when the query operator is initialized.
+   */
+  protected BitSet docSet = null;
+
+  /**
+   *  The docid that the docIterator points to now.
+   */
+  private int docIteratorDocid = 0;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Advance the query operator's internal iterator beyond the
+   *  specified document.
+   *  @param docid The document's internal document id
+   */
+  public void docIteratorAdvancePast (int docid) {
+    this.docIteratorAdvanceTo (docid + 1);
+  }
+
+  /**
+   *  Advance the query operator's internal iterator to the specified
+   *  document if it exists, or beyond if it doesn't.
+   *  @param docid The document's internal document id
+   */
+  public void docIteratorAdvanceTo (int docid) {
+    if (this.docIteratorDocid < docid) {
+      this.docIteratorDocid = docid;
+    }
+    this.docIteratorClearMatchCache ();
+  }
+
+  /**
+   *  Indicates whether the query has a matching document.
+   *  @param r A retrieval model (that is ignored - it can be null)
+   *  @return True if the query matches a document, otherwise false.
+   */
+  public boolean docIteratorHasMatch (RetrievalModel r) {
+
+    if (this.docIteratorHasMatchCache ()) {
+      return true;
+    }
+
+    int docid = this.docSet.nextSetBit (this.docIteratorDocid);
+
+    if (docid < 0) {
+      return false;
+    }
+
+    this.docIteratorDocid = docid;
+    this.docIteratorSetMatchCache (docid);
+    return true;
+  }
+
+  /**
+   *  Compile the (initialized) query arguments into the set of docids
+   *  that satisfy the filter.
+   *  @return The set of internal docids that satisfy the filter.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  protected abstract BitSet evaluate () throws IOException;
+
+  /**
+   *  Get the set of internal docids that a filter argument matches.
+   *  QryIop arguments match the documents in their inverted lists;
+   *  QryFop arguments match the documents in their bitsets.  The
+   *  argument must be initialized first.
+   *  @param q A QryIop or QryFop query operator.
+   *  @return The set of internal docids that q matches.
+   */
+  public static BitSet getDocSet (Qry q) {
+
+    if (q instanceof QryFop) {
+      return ((QryFop) q).docSet;
+    }
+
+    InvList invertedList = ((QryIop) q).invertedList;
+    BitSet docs = new BitSet ();
+
+    if (invertedList != null) {
+      for (int i = 0; i < invertedList.df; i++) {
+        docs.set (invertedList.getDocid (i));
+      }
+    }
+
+    return docs;
+  }
+
+  /**
+   *  Initialize the query operator (and its arguments), including any
+   *  internal iterators; this method must be called before iteration
+   *  can begin.
+   *  @param r A retrieval model that guides initialization
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public void initialize (RetrievalModel r) throws IOException {
+
+    for (Qry q_i: this.args) {
+      q_i.initialize (r);
+    }
+
+    this.docSet = this.evaluate ();
+    this.docIteratorDocid = 0;
+    this.docIteratorClearMatchCache ();
+  }
+
+}
@@ -0,0 +1,26 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  The BAND (Boolean AND) filter operator.  A document satisfies the
+ *  filter if it is matched by every argument.
+ */
+public class QryFopBand extends QryFop {
+
+  /**
+   *  Compile the query arguments into the intersection of their
+   *  docid sets.
+   *  @return The set of internal docids that satisfy the filter.
+   */
+  protected BitSet evaluate () {
+
+    BitSet docs = (BitSet) QryFop.getDocSet (this.args.get (0)).clone ();
+
+    for (int i = 1; i < this.args.size (); i++) {
+      docs.and (QryFop.getDocSet (this.args.get (i)));
+    }
+
+    return docs;
+  }
+
+}
@@ -0,0 +1,49 @@
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.util.Bits;
+
+/**
+ *  The NOT filter operator.  A document satisfies the filter if it is
+ *  matched by none of the arguments, e.g., #NOT (spam.keywords).
+ */
+public class QryFopNot extends QryFop {
+
+  /**
+   *  Compile the query arguments into the complement of the union of
+   *  their docid sets.  Internal docids range over maxDoc, which
+   *  includes deleted documents; deleted documents never satisfy the
+   *  filter.
+   *  @return The set of internal docids that satisfy the filter.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  protected BitSet evaluate () throws IOException {
+
+    int maxDoc = Idx.INDEXREADER.maxDoc ();
+    BitSet docs = new BitSet (maxDoc);
+
+    for (Qry q_i: this.args) {
+      docs.or (QryFop.getDocSet (q_i));
+    }
+
+    docs.flip (0, maxDoc);
+
+    for (LeafReaderContext leafContext : Idx.INDEXREADER.leaves ()) {
+      Bits liveDocs = leafContext.reader ().getLiveDocs ();
+
+      if (liveDocs == null) {
+        continue;				// No deleted documents
+      }
+
+      for (int d = 0; d < liveDocs.length (); d++) {
+        if (! liveDocs.get (d)) {
+          docs.clear (leafContext.docBase + d);
+        }
+      }
+    }
+
+    return docs;
+  }
+
+}
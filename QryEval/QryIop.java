@@ -4,6 +4,8 @@
 import java.io.*;
 import java.util.*;
 
+import org.apache.lucene.index.*;
+
 /**
  *  All query operators that return inverted lists are subclasses of
  *  the QryIop class.  This class has two main purposes.  First, it
@@ -53,6 +55,20 @@ public abstract class QryIop extends Qry {
    */
   protected InvList invertedList = null;
 
+  /**
+   *  The segment (leaf) of the index that the inverted list is
+   *  restricted to, or null if it covers the whole index.
+   */
+  protected LeafReaderContext leaf = null;
+
+  /**
+   *  Collection statistics that override the statistics of the
+   *  inverted list, e.g., when the inverted list covers only one
+   *  segment of the index.  -1 means no override.
+   */
+  private int collectionDf = -1;
+  private int collectionCtf = -1;
+
   /**
    *  The index of the document that the docIterator points to now.
    */
@@ -63,18 +79,45 @@ public abstract class QryIop extends Qry {
    */
   private int locIteratorIndex = QryIop.INVALID_ITERATOR_INDEX;
 
+  /**
+   *  True if evaluation stopped early because the query's budget was
+   *  exhausted, so the inverted list is partial.
+   */
+  protected boolean truncated = false;
+
+  /**
+   *  Charge work to the query's budget while the inverted list is
+   *  evaluated.  If the budget is exhausted, the list is marked as
+   *  truncated.
+   *  @param units The amount of work.
+   *  @return True if evaluation may continue, false if it must stop.
+   */
+  @Override
+  protected boolean chargeWork (long units) {
+    if (super.chargeWork (units)) {
+      return true;
+    }
+
+    this.truncated = true;
+    return false;
+  }
+
+  /**
+   *  Return true if evaluation stopped early because the query's
+   *  budget was exhausted, so the inverted list is partial.
+   *  @return True if the inverted list is partial.
+   */
+  public boolean isTruncated () {
+    return this.truncated;
+  }
+
   /**
    *  Advance the query operator's internal iterator beyond the
    *  specified document.
    *  @param docid The document's internal document id
    */
   public void docIteratorAdvancePast (int docid) {
-
-    while ((this.docIteratorIndex < this.invertedList.df) &&
-           (this.invertedList.getDocid (this.docIteratorIndex) <= docid)) {
-      this.docIteratorIndex ++;
-    }
-           
+    this.docIteratorIndex = this.docIteratorSkip (docid, true);
     this.locIteratorIndex = 0;
   }
 
@@ -84,12 +127,7 @@ public abstract class QryIop extends Qry {
    *  @param docid The document's internal document id
    */
   public void docIteratorAdvanceTo (int docid) {
-
-    while ((this.docIteratorIndex < this.invertedList.df) &&
-           (this.invertedList.getDocid (this.docIteratorIndex) < docid)) {
-      this.docIteratorIndex ++;
-    }
-           
+    this.docIteratorIndex = this.docIteratorSkip (docid, false);
     this.locIteratorIndex = 0;
   }
 
@@ -103,6 +141,67 @@ public abstract class QryIop extends Qry {
   }
 
 
+  /**
+   *  Find the index of the first posting at or after the docIterator
+   *  whose docid is at least (or, if past is true, greater than) the
+   *  specified docid.  Nearby postings are found by stepping; distant
+   *  postings by galloping followed by a binary search, so that long
+   *  skips (e.g., to the start of a docid range or past documents
+   *  excluded by a filter) don't visit every posting.
+   *  @param docid The document's internal document id
+   *  @param past If true, skip the document too.
+   *  @return The index of the posting, or df if there is none.
+   */
+  private int docIteratorSkip (int docid, boolean past) {
+
+    int lo = this.docIteratorIndex;
+    int df = this.invertedList.df;
+
+    //  Galloping:  Double the step until it passes the docid.
+
+    int step = 1;
+
+    while ((lo < df) && before (this.invertedList.getDocid (lo), docid, past)) {
+      int hi = lo + step;
+
+      if ((hi >= df) || (! before (this.invertedList.getDocid (hi), docid, past))) {
+
+        //  The posting is in (lo, min(hi, df)].  Binary search.
+
+        hi = Math.min (hi, df);
+
+        while (lo + 1 < hi) {
+          int mid = (lo + hi) >>> 1;
+
+          if (before (this.invertedList.getDocid (mid), docid, past)) {
+            lo = mid;
+          } else {
+            hi = mid;
+          }
+        }
+
+        return hi;
+      }
+
+      lo = hi;
+      step *= 2;
+    }
+
+    return lo;
+  }
+
+  /**
+   *  Indicates whether a posting's docid comes before the docid that
+   *  the docIterator is advancing to.
+   *  @param postingDocid The docid of a posting.
+   *  @param docid The docid that the docIterator is advancing to.
+   *  @param past If true, the docIterator is advancing past docid.
+   *  @return True if the posting must be skipped.
+   */
+  private static boolean before (int postingDocid, int docid, boolean past) {
+    return past ? (postingDocid <= docid) : (postingDocid < docid);
+  }
+
   /**
    *  Advance the query operator's internal iterator beyond the
    *  any possible document.
@@ -148,6 +247,21 @@ public abstract class QryIop extends Qry {
     return (this.docIteratorIndex < this.invertedList.df);
   }
 
+  /**
+   *  Get the canonical form of this query operator's subtree.  The
+   *  canonical form of an inverted list operator includes its field.
+   *  @return The canonical form of the subtree.
+   */
+  public String getCanonicalKey () {
+    String key = super.getCanonicalKey () + "." + this.field;
+
+    if (this.leaf != null) {
+      key += "@" + this.leaf.ord;		// Segment lists differ
+    }
+
+    return key;
+  }
+
   /**
    *  Get the collection term frequency (ctf) associated with this
    *  query operator.  It is an error to call this method before the
@@ -155,7 +269,7 @@ public abstract class QryIop extends Qry {
    *  @return The collection term frequency (ctf).
    */
   public int getCtf () {
-    return this.invertedList.ctf;
+    return (this.collectionCtf >= 0) ? this.collectionCtf : this.invertedList.ctf;
   }
 
   /**
@@ -165,7 +279,28 @@ public abstract class QryIop extends Qry {
    *  @return The document frequency (df).
    */
   public int getDf () {
-    return this.invertedList.df;
+    return (this.collectionDf >= 0) ? this.collectionDf : this.invertedList.df;
+  }
+
+  /**
+   *  Set the collection statistics that getDf and getCtf report,
+   *  e.g., statistics for the whole index when the inverted list
+   *  covers only one segment.
+   *  @param df The document frequency.
+   *  @param ctf The collection term frequency.
+   */
+  public void setCollectionStatistics (int df, int ctf) {
+    this.collectionDf = df;
+    this.collectionCtf = ctf;
+  }
+
+  /**
+   *  Restrict the inverted list to one segment (leaf) of the index.
+   *  @param leaf The segment, or null for the whole index.
+   */
+  public void setLeaf (LeafReaderContext leaf) {
+    this.leaf = leaf;
+    super.setLeaf (leaf);
   }
 
   /**
@@ -191,15 +326,39 @@ public abstract class QryIop extends Qry {
    */
   public void initialize(RetrievalModel r) throws IOException {
 
-    //  Initialize the query arguments (if any).
+    //  Derived inverted lists are memoized across queries.  If this
+    //  subtree was evaluated recently, reuse its inverted list and
+    //  skip evaluation of the query arguments.
+
+    String key = null;
 
-    for (Qry q_i: this.args) {
-      ((QryIop) q_i).initialize (r);
+    if (this.args.size () > 0) {
+      key = this.getCanonicalKey ();
+      this.invertedList = InvListCache.get (key);
     }
 
-    //  Evaluate the operator.
-    
-    this.evaluate ();
+    if ((key == null) || (this.invertedList == null)) {
+
+      //  Initialize the query arguments (if any).  A list derived from
+      //  a partial list is partial too.
+
+      this.truncated = false;
+
+      for (Qry q_i: this.args) {
+        ((QryIop) q_i).initialize (r);
+        this.truncated |= ((QryIop) q_i).truncated;
+      }
+
+      //  Evaluate the operator.
+
+      this.evaluate ();
+
+      //  A partial list must not be reused by other queries.
+
+      if ((key != null) && (this.invertedList != null) && (! this.truncated)) {
+        InvListCache.put (key, this.invertedList);
+      }
+    }
 
     //  Initialize the internal iterators.
 
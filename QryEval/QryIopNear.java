@@ -11,6 +11,15 @@ public class QryIopNear extends QryIop {
         this.distance = distance;
     }
 
+    public int getDistance() {
+        return distance;
+    }
+
+    @Override
+    protected String getCanonicalParameters() {
+        return "/" + this.distance;
+    }
+
     public void initialize(RetrievalModel r) throws IOException{
         super.initialize(r);
     }
@@ -20,6 +29,7 @@ public class QryIopNear extends QryIop {
         this.invertedList = new InvList(this.getField());
         while(((QryIop)this.args.get(0)).docIteratorHasMatch())
         {
+            if(!this.chargeWork(1)) return;
             int docid = this.args.get(0).docIteratorGetMatch();
             boolean docMatch = true;
             for(int k=1; k<this.args.size() && docMatch; k++) {
@@ -53,9 +63,11 @@ public class QryIopNear extends QryIop {
             // Find a pair of match doc ids
             if(docMatch){
                 ArrayList<Integer> locations = new ArrayList<Integer>();
-                Vector<Integer> iniloc = ((QryIop) this.args.get(0)).docIteratorGetMatchPosting().positions;
+                // Copy the positions, the argument's inverted list may be shared through the InvListCache
+                Vector<Integer> iniloc = new Vector<>(((QryIop) this.args.get(0)).docIteratorGetMatchPosting().positions);
                 while(!iniloc.isEmpty()){
                     boolean locMatch = true;
+                    if(!this.chargeWork(1)) return;
 
                     // Find the ascending locations
                     int firstloc = iniloc.get(0);
@@ -71,6 +83,7 @@ public class QryIopNear extends QryIop {
 
                             if(firstloc>=qry.locIteratorGetMatch()) {
                                 qry.locIteratorAdvance();
+                                if(!this.chargeWork(1)) return;
                             }
                             // Find possible pair
                             else {
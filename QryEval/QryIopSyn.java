@@ -47,6 +47,9 @@ public class QryIopSyn extends QryIop {
 
       if (minDocid == Qry.INVALID_DOCID)
         break;				// All docids have been processed.  Done.
+
+      if (! this.chargeWork (1))
+        break;				// Budget exhausted.  The list is partial.
       
       //  Create a new posting that is the union of the posting lists
       //  that match the minDocid.  Save it.
@@ -65,6 +68,8 @@ public class QryIopSyn extends QryIop {
 	}
       }
 
+      if (! this.chargeWork (positions.size ()))
+        break;
       Collections.sort (positions);
       this.invertedList.appendPosting (minDocid, positions);
     }
@@ -35,13 +35,43 @@ public class QryIopTerm extends QryIop {
     this.field = fieldString;
   }
 
+  /**
+   *  Get the canonical form of this query operator.
+   *  @return The canonical form of the term.
+   */
+  public String getCanonicalKey () {
+    if (this.leaf == null) {
+      return (this.term + "." + this.field);
+    } else {
+      return (this.term + "." + this.field + "@" + this.leaf.ord);
+    }
+  }
+
   /**
    *  Evaluate the query operator; the result is an internal inverted
-   *  list that may be accessed via the internal iterators.
+   *  list that may be accessed via the internal iterators.  Term lists
+   *  are not cached here, but a QueryScheduler may have cached a list
+   *  that several queries share.
    *  @throws IOException Error accessing the Lucene index.
    */
   protected void evaluate () throws IOException {
-    this.invertedList = new InvList(this.term, this.field);
+    if (this.leaf == null) {
+      this.invertedList = InvListCache.get (this.getCanonicalKey ());
+
+      if (this.invertedList == null) {
+        this.invertedList = new InvList(this.term, this.field);
+      }
+    } else {
+      this.invertedList = new InvList(this.term, this.field, this.leaf);
+    }
+  }
+
+  /**
+   *  Get the term string.
+   *  @return The term string.
+   */
+  public String getTerm () {
+    return this.term;
   }
 
   /**
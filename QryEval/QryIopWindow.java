@@ -16,6 +16,11 @@ public class QryIopWindow extends QryIop {
         return distance;
     }
 
+    @Override
+    protected String getCanonicalParameters() {
+        return "/" + this.distance;
+    }
+
     public void initialize(RetrievalModel r) throws IOException{
         super.initialize(r);
         //(r);
@@ -27,6 +32,7 @@ public class QryIopWindow extends QryIop {
         this.invertedList = new InvList(this.getField());
         while(((QryIop)this.args.get(0)).docIteratorHasMatch())
         {
+            if(!this.chargeWork(1)) return;
             int docid = this.args.get(0).docIteratorGetMatch();
             boolean docMatch = true;
             for(int k=1; k<this.args.size() && docMatch; k++) {
@@ -51,6 +57,7 @@ public class QryIopWindow extends QryIop {
                 ArrayList<Integer> locations = new ArrayList<Integer>();
                 boolean locMatch = true;
                 while(locMatch){
+                    if(!this.chargeWork(this.args.size())) return;
                     // Find the match locations
                     ArrayList<Integer> qryloc = new ArrayList<>();
                     for(Qry q: this.args){
@@ -23,13 +23,17 @@ import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
  *  <li>createOperator: Use a string (e.g., #and) to create a node
  *      (e.g., QrySopAnd).
  *
- *  <li>parseString:  If the operator supports term weights
+ *  <li>parseOperator:  If the operator supports term weights
  *      (e.g., #wsum (0.5 apple 1 pie)), you must modify this method.
- *      For these operators, two substrings (weight and term) are
- *      popped from the query string at each step, instead of one.
+ *      For these operators, weights are collected from numeric tokens
+ *      and passed to the operator after its arguments are parsed.
  *  </ul>
  *  <p>
  *  Add new document fields to the parser by modifying createTerms.
+ *  </p><p>
+ *  The parser is safe for concurrent use.  It has no mutable state
+ *  except its caches, which are synchronized, and the analyzer, which
+ *  (like other Lucene analyzers) reuses token streams per thread.
  *  </p>
  */
 
@@ -40,6 +44,21 @@ public class QryParser {
   private static final EnglishAnalyzerConfigurable ANALYZER =
     new EnglishAnalyzerConfigurable();
 
+  /**
+   *  Parsed, optimized query trees, keyed by the retrieval model and
+   *  the query string.  The cached trees are templates that are never
+   *  initialized; getQuery returns a copy.
+   */
+  private static final LruCache<String,Qry> QUERY_CACHE =
+    new LruCache<String,Qry> (1000);
+
+  /**
+   *  The output of the analyzer (lexical processing, stopwords,
+   *  stemming), keyed by the analyzed string.
+   */
+  private static final LruCache<String,String[]> TOKEN_CACHE =
+    new LruCache<String,String[]> (10000);
+
   //  -------------------- Initialization -------------------------
 
   static {
@@ -51,25 +70,14 @@ public class QryParser {
   //  ----------- Methods, in alphabetical order ------------------
 
   /**
-   *  Count the number of occurrences of character c in string s.
-   *  @param c A character.
-   *  @param s A string.
-   *  @return The number of times c occurs in s.
+   *  Remove all parsed queries from the query cache.  Some query
+   *  rewrites depend on corpus statistics, so the cache must be
+   *  cleared when the current index changes.
    */
-  private static int countChars (String s, char c) {
-
-    int count=0;
-
-    for (int i=0; i<s.length(); i++) {
-      if (s.charAt (i) == c) {
-	count ++;
-      }
-    }
-
-    return count;
+  public static void clearQueryCache () {
+    QUERY_CACHE.clear ();
   }
 
-
   /**
    *  Create the desired query operator.
    *  @param operatorName The operator name.
@@ -127,6 +135,18 @@ public class QryParser {
         operator = new QrySopWand();
         break;
 
+      case "#filter":
+        operator = new QrySopFilter();
+        break;
+
+      case "#band":
+        operator = new QryFopBand();
+        break;
+
+      case "#not":
+        operator = new QryFopNot();
+        break;
+
       default:
 	    syntaxError ("Unknown query operator " + operatorName);
     }
@@ -185,6 +205,129 @@ public class QryParser {
   }
 
 
+  /**
+   *  Estimate the number of documents that a query matches.  The
+   *  estimate is exact for terms and an upper bound for other query
+   *  operators, so an estimate of 0 means that the query matches
+   *  nothing.  Query operators that can't be estimated cheaply return
+   *  Long.MAX_VALUE.
+   *  @param q The query (an unevaluated query tree).
+   *  @param r The retrieval model that will evaluate the query, or null.
+   *  @return The estimated document frequency.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private static long estimateDf (Qry q, RetrievalModel r)
+      throws IOException {
+
+    if (q instanceof QryIopTerm) {
+      return Idx.getDocFreq (((QryIopTerm) q).getField (),
+                             ((QryIopTerm) q).getTerm ());
+    }
+
+    if ((q instanceof QrySopScore) || (q instanceof QrySopFilter)) {
+      return estimateDf (q.args.get (0), r);
+    }
+
+    //  Operators that match the intersection of their arguments.
+
+    if ((q instanceof QryIopNear) || (q instanceof QryIopWindow) ||
+        ((q instanceof QrySopAnd) && (r != null) &&
+         (! (r instanceof RetrievalModelIndri)))) {
+      long df = Long.MAX_VALUE;
+      for (Qry q_i: q.args) {
+        df = Math.min (df, estimateDf (q_i, r));
+      }
+      return df;
+    }
+
+    //  Operators that match the union of their arguments.
+
+    if ((q instanceof QryIopSyn) || (q instanceof QrySopOr) ||
+        (q instanceof QrySopSum) || (q instanceof QrySopWsum) ||
+        (q instanceof QrySopAnd) || (q instanceof QrySopWand)) {
+      long df = 0;
+      for (Qry q_i: q.args) {
+        long df_i = estimateDf (q_i, r);
+        if (df_i == Long.MAX_VALUE) {
+          return Long.MAX_VALUE;
+        }
+        df += df_i;
+      }
+      return df;
+    }
+
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   *  Replace arguments that are the same type of query operator as q
+   *  with their own arguments, e.g., #SUM (a #SUM (b c)) becomes
+   *  #SUM (a b c).  This is done only where scores are unchanged:
+   *  #SUM, #OR and #SYN always, and #AND when the retrieval model is
+   *  known to score it with min (i.e., not Indri).
+   *  @param q The query operator whose arguments are flattened.
+   *  @param r The retrieval model that will evaluate the query, or null.
+   */
+  private static void flattenArgs (Qry q, RetrievalModel r) {
+
+    boolean flattenable =
+      (q instanceof QrySopSum) ||
+      (q instanceof QrySopOr) ||
+      (q instanceof QryIopSyn) ||
+      ((q instanceof QrySopAnd) && (r != null) &&
+       (! (r instanceof RetrievalModelIndri)));
+
+    if (! flattenable) {
+      return;
+    }
+
+    ArrayList<Qry> args = new ArrayList<Qry> ();
+    ArrayList<Double> weights = new ArrayList<Double> ();
+    boolean changed = false;
+
+    for (int i = 0; i < q.args.size (); i++) {
+      Qry q_i = q.args.get (i);
+      double w_i = getArgWeight (q, i);
+
+      if (q_i.getClass () == q.getClass ()) {
+        for (int j = 0; j < q_i.args.size (); j++) {
+          args.add (q_i.args.get (j));
+          weights.add (w_i * getArgWeight (q_i, j));
+        }
+        changed = true;
+      } else {
+        args.add (q_i);
+        weights.add (w_i);
+      }
+    }
+
+    if (changed) {
+      q.args.clear ();
+      q.args.addAll (args);
+      setArgWeights (q, weights);
+    }
+  }
+
+  /**
+   *  Get the weight of the i'th argument of a query operator.
+   *  Arguments of unweighted query operators have weight 1.
+   *  @param q A query operator.
+   *  @param i The index of the argument.
+   *  @return The weight of the argument.
+   */
+  private static double getArgWeight (Qry q, int i) {
+
+    if (q instanceof QrySopSum) {
+      return ((QrySopSum) q).getWeight (i);
+    } else if (q instanceof QrySopWsum) {
+      return ((QrySopWsum) q).getDoubleWeights ().get (i);
+    } else if (q instanceof QrySopWand) {
+      return ((QrySopWand) q).getDoubleWeights ().get (i);
+    } else {
+      return 1.0;
+    }
+  }
+
   /**
    *  Parse a query string into a query tree.
    *  @param queryString The query string, in an Indri-style
@@ -195,37 +338,205 @@ public class QryParser {
    */
   public static Qry getQuery (String queryString)
       throws IOException, IllegalArgumentException {
+    return getQuery (queryString, null);
+  }
 
-    Qry q = parseString (queryString);		// An exact parse
-    q = optimizeQuery (q);			// An optimized parse
-    return q;
+  /**
+   *  Parse a query string into a query tree that is optimized for the
+   *  specified retrieval model.  Some rewrites preserve scores only
+   *  for some retrieval models, so they are applied only when the
+   *  retrieval model is known.
+   *  @param queryString The query string, in an Indri-style
+   *  query language.
+   *  @param r The retrieval model that will evaluate the query, or null.
+   *  @return Qry The query tree for the parsed query.
+   *  @throws IOException Error accessing the Lucene index.
+   *  @throws IllegalArgumentException Query syntax error.
+   */
+  public static Qry getQuery (String queryString, RetrievalModel r)
+      throws IOException, IllegalArgumentException {
+
+    //  Repeated queries (e.g., intent queries) are parsed and
+    //  optimized once.  Rewrites depend on the type of retrieval
+    //  model, so it is part of the key.
+
+    String key = ((r == null) ? "" : r.getClass ().getName ()) +
+                 "\t" + queryString;
+    Qry q = QUERY_CACHE.get (key);
+
+    if (q == null) {
+      q = parseQuery (queryString, r, true);
+
+      if (q == null) {
+        return null;
+      }
+
+      QUERY_CACHE.put (key, q);
+    }
+
+    return q.copy ();
+  }
+
+  /**
+   *  Indicates whether a token is a number (e.g., a weight in
+   *  #WSUM (0.5 apple 1 pie)).  Numbers match -?[0-9]+(.[0-9]+)?
+   *  @param s The string, which contains the token.
+   *  @param start The index of the first character of the token.
+   *  @param end The index just past the last character of the token.
+   *  @return True if the token is a number, otherwise false.
+   */
+  private static boolean isNumber (String s, int start, int end) {
+
+    int i = start;
+
+    if ((i < end) && (s.charAt (i) == '-')) {
+      i ++;
+    }
+
+    int digits = i;
+
+    while ((i < end) && Character.isDigit (s.charAt (i))) {
+      i ++;
+    }
+
+    if (i == digits) {
+      return false;				// No integer part
+    }
+
+    if ((i < end) && (s.charAt (i) == '.')) {
+      i ++;
+      digits = i;
+
+      while ((i < end) && Character.isDigit (s.charAt (i))) {
+        i ++;
+      }
+
+      if (i == digits) {
+        return false;				// No fractional part
+      }
+    }
+
+    return (i == end);
   }
 
   /**
-   *  Get the index of the right parenenthesis that balances the
-   *  left-most parenthesis.  Return -1 if it doesn't exist.
+   *  Indicates whether a character ends a term token.
+   *  @param c A character.
+   *  @return True if the character is whitespace that ends a term.
+   */
+  private static boolean isTermDelimiter (char c) {
+    return ((c == ' ') || (c == '\t') || (c == '\n') || (c == '\r'));
+  }
+
+  /**
+   *  Find the balancing right parenthesis of every left parenthesis
+   *  in a single pass over the query string.
    *  @param s A string containing a query.
-   *  @return The index of the balancing right parenthesis
+   *  @return An array that maps the index of each left parenthesis to
+   *  the index of its balancing right parenthesis, or null if the
+   *  parentheses are unbalanced.
    */
-  private static int indexOfBalencingParen (String s) {
+  private static int[] matchParens (String s) {
 
+    int[] match = new int[s.length ()];
+    int[] open = new int[s.length ()];
     int depth = 0;
 
-    for (int i=0; i< s.length(); i++) {
-      if (s.charAt(i) == '(') {
-	    depth ++;
-      } else if (s.charAt(i) == ')') {
-	    depth --;
-            
+    for (int i = 0; i < s.length (); i++) {
+      char c = s.charAt (i);
+
+      if (c == '(') {
+        open[depth++] = i;
+      } else if (c == ')') {
         if (depth == 0) {
-          return i;
+          return null;
         }
+        match[open[--depth]] = i;
       }
     }
 
-    return -1;
+    return (depth == 0) ? match : null;
   }
 
+  /**
+   *  Merge duplicate arguments of a query operator into one weighted
+   *  argument, e.g., #SUM (a b a) becomes a #SUM with weights (2 1)
+   *  over (a b).  #WSUM and #WAND add the weights of duplicates.  #OR
+   *  and #AND (when scored with max or min) keep just one copy.  An
+   *  Indri #AND with duplicates becomes an equivalent #WAND.
+   *  Position-based operators (e.g., #SYN, #NEAR/n) are not changed.
+   *  @param q The query operator whose arguments are merged.
+   *  @param r The retrieval model that will evaluate the query, or null.
+   *  @return The query operator, or its replacement.
+   */
+  private static Qry mergeDuplicateArgs (Qry q, RetrievalModel r) {
+
+    boolean weighted =
+      (q instanceof QrySopSum) ||
+      (q instanceof QrySopWsum) ||
+      (q instanceof QrySopWand);
+    boolean idempotent =
+      (q instanceof QrySopOr) ||
+      ((q instanceof QrySopAnd) && (r != null) &&
+       (! (r instanceof RetrievalModelIndri)));
+    boolean indriAnd =
+      (q instanceof QrySopAnd) && (r instanceof RetrievalModelIndri);
+
+    if (! (weighted || idempotent || indriAnd)) {
+      return q;
+    }
+
+    //  The weights of #WSUM and #WAND are parsed separately from their
+    //  arguments.  Don't touch them if the two are inconsistent.
+
+    if (((q instanceof QrySopWsum) &&
+         (((QrySopWsum) q).getDoubleWeights ().size () != q.args.size ())) ||
+        ((q instanceof QrySopWand) &&
+         (((QrySopWand) q).getDoubleWeights ().size () != q.args.size ()))) {
+      return q;
+    }
+
+    Map<String,Integer> firstIndex = new HashMap<String,Integer> ();
+    ArrayList<Qry> args = new ArrayList<Qry> ();
+    ArrayList<Double> weights = new ArrayList<Double> ();
+
+    for (int i = 0; i < q.args.size (); i++) {
+      String key = q.args.get (i).getCanonicalKey ();
+      Integer j = firstIndex.get (key);
+
+      if (j == null) {
+        firstIndex.put (key, args.size ());
+        args.add (q.args.get (i));
+        weights.add (getArgWeight (q, i));
+      } else {
+        weights.set (j, weights.get (j) + getArgWeight (q, i));
+      }
+    }
+
+    if (args.size () == q.args.size ()) {
+      return q;					// No duplicates
+    }
+
+    //  An Indri #AND is a geometric mean, so #AND (a a b) is the same
+    //  as #WAND (2 a 1 b).
+
+    if (indriAnd && (args.size () > 1)) {
+      Qry wand = new QrySopWand ();
+      wand.setDisplayName ("#wand");
+      wand.args.addAll (args);
+      setArgWeights (wand, weights);
+      return wand;
+    }
+
+    q.args.clear ();
+    q.args.addAll (args);
+
+    if (weighted) {
+      setArgWeights (q, weights);
+    }
+
+    return q;
+  }
 
   /**
    *  Optimize the query by removing degenerate nodes produced during
@@ -233,10 +544,23 @@ public class QryParser {
    *  '#NEAR/1 ()' after stopwords are removed; and unnecessary nodes
    *  or subtrees, such as #AND (#AND (a)), which can be replaced by
    *  'a'.
+   *  <p>
+   *  The query is also rewritten by rules that leave document scores
+   *  unchanged (up to floating point rounding) but reduce the number
+   *  of operator nodes or the work done per document:  nested
+   *  operators of the same type are flattened, duplicate arguments
+   *  are merged into weights, terms that match no documents are
+   *  removed from operators that match the union of their arguments,
+   *  and the arguments of conjunctions are ordered by ascending df.
+   *  </p>
    *  @param q The query to be optimized
+   *  @param r The retrieval model that will evaluate the query, or null.
+   *  @param rewrite If true, apply the rule-based rewrites.
    *  @return The optimized query
+   *  @throws IOException Error accessing the Lucene index.
    */
-  private static Qry optimizeQuery(Qry q) {
+  private static Qry optimizeQuery(Qry q, RetrievalModel r, boolean rewrite)
+      throws IOException {
 
     //  Term operators don't benefit from optimization.
 
@@ -251,10 +575,19 @@ public class QryParser {
     for (int i = q.args.size() - 1; i >= 0; i--) {
 
       Qry q_i_before = q.args.get(i);
-      Qry q_i_after = optimizeQuery (q_i_before);
+      Qry q_i_after = optimizeQuery (q_i_before, r, rewrite);
 
       if (q_i_after == null) {
         q.removeArg(i);			// optimization deleted the arg
+
+        //  A deleted restriction matches nothing, so the FILTER or
+        //  BAND operator matches nothing, unless the restriction was
+        //  a NOT operator without arguments, which matches everything.
+
+        if ((((q instanceof QrySopFilter) && (i > 0)) || (q instanceof QryFopBand)) &&
+            (! (q_i_before instanceof QryFopNot))) {
+          return null;
+        }
       } else {
         if (q_i_before != q_i_after) {
           q.args.set (i, q_i_after);	// optimization changed the arg
@@ -262,17 +595,42 @@ public class QryParser {
       }
     }
 
+    //  A FILTER operator whose scored query was deleted matches
+    //  nothing.  One whose restrictions were all NOT operators that
+    //  were deleted is just its scored query, which the
+    //  single-argument rule below handles.
+
+    if ((q instanceof QrySopFilter) &&
+        (q.args.size () > 0) &&
+        (! (q.args.get (0) instanceof QrySop))) {
+      return null;
+    }
+
     //  If the operator now has no arguments, it is deleted.
 
     if (q.args.size () == 0) {
       return null;
     }
 
-    //  Only SCORE operators can have a single argument.  Other
-    //  query operators that have just one argument are deleted.
+    //  Rule-based rewrites.  The arguments are already optimized, so
+    //  one level of flattening is sufficient.
+
+    if (rewrite) {
+      flattenArgs (q, r);
+      pruneEmptyArgs (q, r);
+      q = mergeDuplicateArgs (q, r);
+      orderArgsByDf (q, r);
+    }
+
+    //  Only SCORE and NOT operators can have a single argument.  Other
+    //  query operators that have just one argument are deleted, unless
+    //  the argument has a weight that affects the score.
 
     if ((q.args.size() == 1) &&
-        (! (q instanceof QrySopScore))) {
+        (! (q instanceof QrySopScore)) &&
+        (! (q instanceof QryFopNot)) &&
+        ((q instanceof QrySopWsum) || (q instanceof QrySopWand) ||
+         (getArgWeight (q, 0) == 1.0))) {
       q = q.args.get (0);
     }
 
@@ -282,147 +640,241 @@ public class QryParser {
 
 
   /**
-   *  Parse a query string into a query tree.
-   *  @param queryString The query string, in an Indri-style query
-   *  language.
-   *  @return Qry The query tree for the parsed query.
+   *  Parse a query string into a query tree, without the query cache.
+   *  Degenerate nodes are always removed; the rule-based rewrites are
+   *  optional, e.g., so that the scores of rewritten and original
+   *  queries can be compared.
+   *  @param queryString The query string, in an Indri-style
+   *  query language.
+   *  @param r The retrieval model that will evaluate the query, or null.
+   *  @param rewrite If true, apply the rule-based rewrites.
+   *  @return Qry The query tree for the parsed query, or null.
    *  @throws IOException Error accessing the Lucene index.
    *  @throws IllegalArgumentException Query syntax error.
    */
-  private static Qry parseString (String queryString)
+  static Qry parseQuery (String queryString, RetrievalModel r, boolean rewrite)
       throws IOException, IllegalArgumentException {
 
-    //  This simple parser is sensitive to parenthensis placement, so
-    //  check for basic errors first.
+    Qry q = parseString (queryString);		// An exact parse
 
-    queryString = queryString.trim ();	// The last character should be ')'
+    //  BAND and NOT operators restrict the matches of a scored query,
+    //  so they can't be the whole query.
 
-    if ((countChars (queryString, '(') == 0) ||
-	(countChars (queryString, '(') != countChars (queryString, ')')) ||
-	(indexOfBalencingParen (queryString) != (queryString.length() - 1))) {
-      syntaxError ("Missing, unbalanced, or misplaced parentheses");
+    if (q instanceof QryFop) {
+      syntaxError (q.getDisplayName () + " must be a restriction in a #FILTER operator");
     }
 
-    //  The query language is prefix-oriented, so the query string can
-    //  be processed left to right.  At each step, a substring is
-    //  popped from the head (left) of the string, and is converted to
-    //  a Qry object that is added to the query tree.  Subqueries are
-    //  handled via recursion.
+    return optimizeQuery (q, r, rewrite);	// An optimized parse
+  }
 
-    //  Find the left-most query operator and start the query tree.
+  /**
+   *  Order the arguments of a conjunction by ascending df, so that the
+   *  rarest argument drives docIteratorHasMatchAll and the other
+   *  arguments are advanced in large steps.  This is done only when
+   *  the retrieval model is known to score #AND with min, which
+   *  doesn't depend on argument order.
+   *  @param q The query operator whose arguments are ordered.
+   *  @param r The retrieval model that will evaluate the query, or null.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private static void orderArgsByDf (Qry q, RetrievalModel r)
+      throws IOException {
 
-    String[] substrings = queryString.split("[(]", 2);
-    Qry queryTree = createOperator (substrings[0].trim());
+    if (! ((q instanceof QrySopAnd) && (r != null) &&
+           (! (r instanceof RetrievalModelIndri)))) {
+      return;
+    }
+
+    final Map<Qry,Long> df = new HashMap<Qry,Long> ();
+
+    for (Qry q_i: q.args) {
+      df.put (q_i, estimateDf (q_i, r));
+    }
+
+    Collections.sort (q.args, new Comparator<Qry> () {
+      public int compare (Qry q1, Qry q2) {
+        return Long.compare (df.get (q1), df.get (q2));
+      }
+    });
+  }
+
+  /**
+   *  Parse a query operator and its arguments into a query tree.
+   *  The query language is prefix-oriented, so the query string is
+   *  processed left to right with a cursor.  At each step, an
+   *  argument is consumed from the query string and converted to a
+   *  Qry object that is added to the query tree.  Subqueries are
+   *  handled via recursion.  Nothing is copied except operator names
+   *  and term tokens, so parsing is linear in the query length.
+   *  @param s The query string.
+   *  @param start The index of the first character of the operator.
+   *  @param end The index of the operator's balancing right parenthesis.
+   *  @param match The balancing right parenthesis of each left parenthesis.
+   *  @return Qry The query tree for the parsed query operator.
+   *  @throws IOException Error accessing the Lucene index.
+   *  @throws IllegalArgumentException Query syntax error.
+   */
+  private static Qry parseOperator (String s, int start, int end, int[] match)
+      throws IOException, IllegalArgumentException {
+
+    //  The operator name (e.g., #NEAR/3) precedes the left parenthesis.
+
+    int paren = s.indexOf ('(', start);
+    Qry queryTree = createOperator (s.substring (start, paren).trim ());
 
-    //  Start consuming queryString by removing the query operator and
-    //  its terminating ')'.  queryString is always the part of the
-    //  query that hasn't been processed yet.
-    
-    queryString = substrings[1];
-    queryString = queryString.substring (0, queryString.lastIndexOf(")")).trim();
-    
     //  Each pass below handles one argument to the query operator.
     //  Note: An argument can be a token that produces multiple terms
     //  (e.g., "near-death") or a subquery (e.g., "#and (a b c)").
-    //  Recurse on subqueries.
+    //  Operators that use weighted query arguments (e.g., #WAND) see
+    //  "weight arg" pairs; weights are numeric tokens.
+
+    StringBuilder weights = new StringBuilder ();
+    int weightsLength = -1;			// Weights when last arg appended
+    int i = paren + 1;
 
-    String weights = "";
+    while (true) {
 
-    while (queryString.length() > 0) {
-	
-      //  STUDENTS:: (HW2)
-      //  If the operator uses weighted query arguments (e.g., #WAND),
-      //  each pass of this loop must handle "weight arg".  Handle the
-      //  weight first.
+      //  Skip the whitespace before the next argument.
 
+      while ((i < end) && (s.charAt (i) <= ' ')) {
+        i ++;
+      }
 
-      //  Now handle the argument (which could be a subquery).
+      if (i >= end) {
+        break;
+      }
 
       Qry[] qargs = null;
-      PopData<String,String> p;
 
-      if (queryString.charAt(0) == '#') {	// Subquery
+      if (s.charAt (i) == '#') {		// Subquery
+
+        int subParen = s.indexOf ('(', i);
+
+        if ((subParen < 0) || (subParen >= end)) {
+          syntaxError ("Missing, unbalanced, or misplaced parentheses");
+        }
 
-        p = popSubquery (queryString);
         qargs = new Qry[1];
-        qargs[0] = parseString (p.getPopped());
-
-      } else {					// Term
-	    p = popTerm (queryString);
-	    if(p.getPopped().matches("-?\\d+(\\.\\d+)?"))
-	      weights += p.getPopped() + " ";
-	    else
-	      qargs = createTerms (p.getPopped());
-      }
+        qargs[0] = parseOperator (s, i, match[subParen], match);
+        i = match[subParen] + 1;
 
-      queryString = p.getRemaining().trim();	// Consume the arg
+      } else {					// Term or weight
 
-      //  Add the argument(s) to the query tree.
-      if(qargs!=null) {
-        for (int i = 0; i < qargs.length; i++) {
+        int tokenEnd = i;
 
-          //  STUDENTS WILL NEED TO ADJUST THIS BLOCK TO HANDLE WEIGHTS IN HW2
+        while ((tokenEnd < end) && (! isTermDelimiter (s.charAt (tokenEnd)))) {
+          tokenEnd ++;
+        }
 
-          if (queryTree instanceof QrySopWsum) {
-            ((QrySopWsum) queryTree).setWeightStr(weights);
-          } else if (queryTree instanceof QrySopWand) {
-            ((QrySopWand) queryTree).setWeightStr(weights);
-          }
-          queryTree.appendArg(qargs[i]);
+        if (isNumber (s, i, tokenEnd)) {
+          weights.append (s, i, tokenEnd).append (' ');
+        } else {
+          qargs = createTerms (s.substring (i, tokenEnd));
         }
+
+        i = tokenEnd;
+      }
+
+      //  Add the argument(s) to the query tree.
+
+      if ((qargs != null) && (qargs.length > 0)) {
+        for (int j = 0; j < qargs.length; j++) {
+          queryTree.appendArg (qargs[j]);
+        }
+        weightsLength = weights.length ();
+      }
+    }
+
+    //  Weights are associated with the arguments that were appended.
+
+    if (weightsLength >= 0) {
+      if (queryTree instanceof QrySopWsum) {
+        ((QrySopWsum) queryTree).setWeightStr (weights.substring (0, weightsLength));
+      } else if (queryTree instanceof QrySopWand) {
+        ((QrySopWand) queryTree).setWeightStr (weights.substring (0, weightsLength));
       }
     }
 
     return queryTree;
-  }  
+  }
 
-    
   /**
-   *  Remove a subQuery from an argument string.  Return the subquery
-   *  and the modified argument string.
-   *  @param argString A partial query argument string, e.g., "#and(a b)
-   *  c d".
-   *  @return PopData&lt;String,String&gt; The subquery string and the
-   *  modified argString (e.g., "#and(a b)" and "c d".
+   *  Parse a query string into a query tree.
+   *  @param queryString The query string, in an Indri-style query
+   *  language.
+   *  @return Qry The query tree for the parsed query.
+   *  @throws IOException Error accessing the Lucene index.
+   *  @throws IllegalArgumentException Query syntax error.
    */
-  static private PopData<String,String> popSubquery (String argString) {
-	
-    int i = indexOfBalencingParen (argString);
-	  
-    if (i < 0) {		// Query syntax error.  The parser
-      i = argString.length();	// handles it.  Here, just don't fail.
+  static Qry parseString (String queryString)
+      throws IOException, IllegalArgumentException {
+
+    //  This simple parser is sensitive to parenthensis placement, so
+    //  check for basic errors first.
+
+    queryString = queryString.trim ();	// The last character should be ')'
+
+    int[] match = matchParens (queryString);
+    int paren = queryString.indexOf ('(');
+
+    if ((paren < 0) ||
+        (match == null) ||
+        (match[paren] != (queryString.length () - 1))) {
+      syntaxError ("Missing, unbalanced, or misplaced parentheses");
     }
-    
-    String subquery = argString.substring(0, i+1);
-    argString = argString.substring(i+1);
 
-    return new PopData<String,String>(subquery, argString);
+    return parseOperator (queryString, 0, queryString.length () - 1, match);
   }
 
-    
   /**
-   *  Remove a term from an argument string.  Return the term and
-   *  the modified argument string.
-   *  @param argString A partial query argument string, e.g., "a b c d".
-   *  @return PopData&lt;String,String&gt;
-   *  The term string and the modified argString (e.g., "a" and
-   *  "b c d".
+   *  Remove arguments that match no documents from query operators
+   *  that match the union of their arguments (#OR, #SUM, #SYN).  Such
+   *  arguments never contribute to a score.  The last argument is
+   *  never removed, so that an empty result is still an empty result.
+   *  @param q The query operator whose arguments are pruned.
+   *  @param r The retrieval model that will evaluate the query, or null.
+   *  @throws IOException Error accessing the Lucene index.
    */
-  static private PopData<String,String> popTerm (String argString) {
-	
-    String[] substrings = argString.split ("[ \t\n\r]+", 2);
-    String token = substrings[0];
+  private static void pruneEmptyArgs (Qry q, RetrievalModel r)
+      throws IOException {
 
-    if (substrings.length < 2) {	//  Is this the last argument?
-      argString = "";
-    } else {
-      argString = substrings[1];
+    if (! ((q instanceof QrySopOr) ||
+           (q instanceof QrySopSum) ||
+           (q instanceof QryIopSyn))) {
+      return;
     }
 
-    return new PopData<String,String>(substrings[0], argString);
+    for (int i = q.args.size () - 1; (i >= 0) && (q.args.size () > 1); i--) {
+      if (estimateDf (q.args.get (i), r) == 0) {
+        q.removeArg (i);
+      }
+    }
+  }
+
+  /**
+   *  Set the argument weights of a weighted query operator.
+   *  @param q A #SUM, #WSUM or #WAND query operator.
+   *  @param weights One weight per argument.
+   */
+  private static void setArgWeights (Qry q, ArrayList<Double> weights) {
+
+    if (q instanceof QrySopSum) {
+      ((QrySopSum) q).setWeights (weights);
+    } else if ((q instanceof QrySopWsum) || (q instanceof QrySopWand)) {
+      StringBuilder weightStr = new StringBuilder ();
+
+      for (double w: weights) {
+        weightStr.append (w).append (' ');
+      }
+
+      if (q instanceof QrySopWsum) {
+        ((QrySopWsum) q).setWeightStr (weightStr.toString ());
+      } else {
+        ((QrySopWand) q).setWeightStr (weightStr.toString ());
+      }
+    }
   }
 
-    
   /**
    *  Throw an error specialized for query parsing syntax errors.
    *  @param errorString The string "Syntax
@@ -444,6 +896,14 @@ public class QryParser {
    */
   public static String[] tokenizeString(String query) throws IOException {
 
+    //  Query terms repeat often, so analyzer output is cached.
+
+    String[] cachedTokens = TOKEN_CACHE.get (query);
+
+    if (cachedTokens != null) {
+      return cachedTokens.clone ();
+    }
+
     TokenStream tokenStream = ANALYZER.tokenStream ("dummyField", new StringReader(query));
     CharTermAttribute charTermAttribute =
       tokenStream.addAttribute(CharTermAttribute.class);
@@ -458,7 +918,10 @@ public class QryParser {
 
     tokenStream.close ();
 
-    return tokens.toArray (new String[tokens.size()]);
+    String[] result = tokens.toArray (new String[tokens.size()]);
+    TOKEN_CACHE.put (query, result);
+
+    return result.clone ();
   }
 
 
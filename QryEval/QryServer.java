@@ -0,0 +1,332 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ *  QryServer keeps the index open and answers queries over a local,
+ *  line-oriented socket protocol, so that interactive tools don't pay
+ *  for JVM startup, opening the index, and cold caches on every batch.
+ *  It is enabled by parameters in the parameter file:
+ *  <pre>
+ *    server:port     the port to listen on (loopback only)
+ *    server:threads  the number of response threads (default: one per processor)
+ *  </pre>
+ *  <p>
+ *  Each connection has its own reader thread, which submits each
+ *  request line to a QueryScheduler (see its scheduler: parameters)
+ *  and goes on to read the next line without waiting for the results.
+ *  The scheduler batches queries that arrive together, bounds the
+ *  number evaluated at once, and rejects queries when too many are
+ *  waiting, which is answered with BUSY.  When a query finishes, a
+ *  response thread formats its results; responses are written in
+ *  request order.  A connection that is open but idle holds only its
+ *  reader thread, so it doesn't keep other clients waiting.
+ *  </p>
+ *  <p>
+ *  A client may send any number of requests on one connection.  A
+ *  request is one line of tab-separated key=value pairs:
+ *  </p>
+ *  <pre>
+ *    query=apple pie    the query (required)
+ *    k=100              the number of results (default: trecEvalOutputLength, or 100)
+ *    retrievalAlgorithm=bm25   BM25:k_1=1.2   ...
+ *  </pre>
+ *  <p>
+ *  Retrieval model parameters override those in the parameter file
+ *  for that request only.  The response is a header line, OK, the
+ *  number of results, the latency, and "truncated" if the query ran
+ *  out of budget (see query:timeLimit), followed by one line per
+ *  result (rank, external document id, score), or a single line that
+ *  starts with ERROR, or with BUSY if the server is overloaded.
+ *  </p>
+ */
+public class QryServer {
+
+  //  --------------- Constants and variables ---------------------
+
+  private static final int DEFAULT_K = 100;
+
+  private final Map<String, String> parameters;
+  private final RetrievalModel defaultModel;
+  private final int defaultK;
+  private final int port;
+  private final ExecutorService workers;
+  private final QueryScheduler scheduler;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create a server configured by the parameter file.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @param model The retrieval model for requests that don't specify one, or null
+   *  @throws IllegalArgumentException The parameters are invalid
+   */
+  public QryServer (Map<String, String> parameters, RetrievalModel model)
+    throws IllegalArgumentException {
+
+    this.parameters = parameters;
+    this.defaultModel = model;
+    this.port = Integer.parseInt (parameters.get ("server:port"));
+    this.defaultK = parameters.containsKey ("trecEvalOutputLength") ?
+      Integer.parseInt (parameters.get ("trecEvalOutputLength")) : DEFAULT_K;
+
+    int threads = parameters.containsKey ("server:threads") ?
+      Integer.parseInt (parameters.get ("server:threads")) :
+      Runtime.getRuntime ().availableProcessors ();
+
+    if (threads < 1) {
+      throw new IllegalArgumentException ("server:threads must be at least 1.");
+    }
+
+    this.workers = Executors.newFixedThreadPool (threads);
+    this.scheduler = new QueryScheduler (parameters);
+  }
+
+  /**
+   *  Indicates whether the parameter file requests server mode.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @return True if QryEval should run as a server.
+   */
+  public static boolean isEnabled (Map<String, String> parameters) {
+    return parameters.containsKey ("server:port");
+  }
+
+  /**
+   *  Read the requests on one connection until the client closes it.
+   *  Each request is submitted as soon as it is read.  Each response
+   *  is written when it and the responses to the earlier requests are
+   *  ready, so responses are written in request order.
+   *  @param socket The connection.
+   */
+  private void handleConnection (Socket socket) {
+
+    try {
+      BufferedReader in = new BufferedReader (
+        new InputStreamReader (socket.getInputStream (), StandardCharsets.UTF_8));
+      final Writer out = new BufferedWriter (
+        new OutputStreamWriter (socket.getOutputStream (), StandardCharsets.UTF_8));
+      CompletableFuture<Void> written = CompletableFuture.completedFuture (null);
+      String line;
+
+      while (((line = in.readLine ()) != null) &&
+             ! written.isCompletedExceptionally ()) {
+        if (line.trim ().length () == 0) {
+          continue;
+        }
+
+        written = written.thenCombine (this.submitRequest (line),
+          new BiFunction<Void, String, Void> () {
+            public Void apply (Void previous, String response) {
+              try {
+                out.write (response);
+                out.flush ();
+              } catch (IOException ex) {
+                throw new UncheckedIOException (ex);
+              }
+              return null;
+            }
+          });
+      }
+
+      QryEval.waitFor (written);
+    } catch (IOException | RuntimeException ex) {
+      System.err.println ("Connection error:  " + ex.getMessage ());
+    } finally {
+      try {
+        socket.close ();
+      } catch (IOException ex) {
+        // Nothing more to do
+      }
+    }
+  }
+
+  /**
+   *  Format an error response.
+   *  @param ex The error.
+   *  @return The response, including its trailing newline.
+   */
+  private static String formatError (Throwable ex) {
+
+    if (ex instanceof CompletionException) {
+      ex = ex.getCause ();
+    }
+
+    if (ex instanceof RejectedExecutionException) {
+      return "BUSY " + ex.getMessage () + "\n";
+    }
+
+    String message = (ex.getMessage () == null) ? ex.toString () : ex.getMessage ();
+    return "ERROR " + message.replace ('\n', ' ') + "\n";
+  }
+
+  /**
+   *  Format the response to a query.
+   *  @param query The query.
+   *  @param results The query's results, or null.
+   *  @param k The number of results to return.
+   *  @param timer The timer that started when the request was read.
+   *  @return The response, including its trailing newline.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private static String formatResults (String query, ScoreList results, int k, Timer timer)
+    throws IOException {
+
+    if (results == null) {
+      results = new ScoreList ();
+    }
+
+    results.sort ();
+    results.truncate (k);
+
+    int[] docids = new int[results.size ()];
+
+    for (int i = 0; i < docids.length; i++) {
+      docids[i] = results.getDocid (i);
+    }
+
+    String[] externalIds = Idx.getExternalDocids (docids);
+
+    timer.stop ();
+    System.out.println ("Request " + query + ":  " + timer);
+
+    StringBuilder response = new StringBuilder ();
+
+    response.append ("OK ").append (docids.length).append (' ').append (timer);
+
+    if (results.isTruncated ()) {
+      response.append (" truncated");
+    }
+
+    response.append ('\n');
+
+    for (int i = 0; i < docids.length; i++) {
+      response.append (i + 1).append (' ')
+        .append (externalIds[i]).append (' ')
+        .append (results.getDocidScore (i)).append ('\n');
+    }
+
+    return response.toString ();
+  }
+
+  /**
+   *  Submit one request to the scheduler.  A request that is invalid,
+   *  or that the scheduler rejects, is answered at once.
+   *  @param request A line of tab-separated key=value pairs.
+   *  @return The pending response, including its trailing newline.
+   */
+  private CompletableFuture<String> submitRequest (String request) {
+
+    final Timer timer = new Timer ();
+    timer.start ();
+
+    try {
+
+      //  Parse the request.
+
+      Map<String, String> requestParameters = new HashMap<String, String> ();
+
+      for (String pair : request.split ("\t")) {
+        int i = pair.indexOf ('=');
+
+        if (i < 1) {
+          throw new IllegalArgumentException ("Expected key=value, found " + pair);
+        }
+
+        requestParameters.put (pair.substring (0, i).trim (), pair.substring (i + 1).trim ());
+      }
+
+      final String query = requestParameters.remove ("query");
+      String kString = requestParameters.remove ("k");
+      final int k = (kString == null) ? this.defaultK : Integer.parseInt (kString);
+
+      if (query == null) {
+        throw new IllegalArgumentException ("The request has no query.");
+      }
+
+      //  Evaluate the query.  The response is formatted by a
+      //  response thread when the query finishes.
+
+      RetrievalModel model = this.getModel (requestParameters);
+
+      return this.scheduler.submit (query, model).handleAsync (
+        new BiFunction<ScoreList, Throwable, String> () {
+          public String apply (ScoreList results, Throwable ex) {
+            if (ex != null) {
+              return formatError (ex);
+            }
+
+            try {
+              return formatResults (query, results, k, timer);
+            } catch (Exception ex2) {
+              return formatError (ex2);
+            }
+          }
+        }, this.workers);
+    } catch (Exception ex) {
+      return CompletableFuture.completedFuture (formatError (ex));
+    }
+  }
+
+  /**
+   *  Get the retrieval model for a request.  If the request has no
+   *  retrieval model parameters, the default model is shared.
+   *  @param requestParameters The request's parameters, other than query and k
+   *  @return The retrieval model
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  private RetrievalModel getModel (Map<String, String> requestParameters)
+    throws IOException {
+
+    if (requestParameters.isEmpty ()) {
+      if (this.defaultModel == null) {
+        throw new IllegalArgumentException ("The request has no retrievalAlgorithm.");
+      }
+      return this.defaultModel;
+    }
+
+    Map<String, String> modelParameters = new HashMap<String, String> (this.parameters);
+    modelParameters.putAll (requestParameters);
+
+    if (! modelParameters.containsKey ("retrievalAlgorithm")) {
+      throw new IllegalArgumentException ("The request has no retrievalAlgorithm.");
+    }
+
+    return QryEval.initializeRetrievalModel (modelParameters);
+  }
+
+  /**
+   *  Accept connections until the process is stopped.  Each connection
+   *  is read by its own thread.
+   *  @throws IOException The server socket can't be opened.
+   */
+  public void serve () throws IOException {
+
+    ServerSocket serverSocket =
+      new ServerSocket (this.port, 50, InetAddress.getLoopbackAddress ());
+
+    System.out.println ("Listening on " + serverSocket.getLocalSocketAddress ());
+
+    try {
+      while (true) {
+        final Socket socket = serverSocket.accept ();
+
+        Thread reader = new Thread (new Runnable () {
+          public void run () {
+            handleConnection (socket);
+          }
+        }, "QryServer " + socket.getRemoteSocketAddress ());
+
+        reader.setDaemon (true);		// Don't keep the JVM alive
+        reader.start ();
+      }
+    } finally {
+      serverSocket.close ();
+      this.workers.shutdownNow ();
+      this.scheduler.shutdown ();
+    }
+  }
+
+}
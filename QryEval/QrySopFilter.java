@@ -0,0 +1,128 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  The FILTER operator for all retrieval models.  The first argument
+ *  is the query that is scored; the remaining arguments restrict the
+ *  documents that it may match, e.g.,
+ *  #FILTER (#AND (apple pie) cmu.url #NOT (spam.keywords)).
+ *  <p>
+ *  The restriction arguments are QryIop or QryFop operators.  They are
+ *  compiled into a single bitset when the operator is initialized, and
+ *  they do not contribute to document scores.  The scored query skips
+ *  excluded documents via docIteratorAdvanceTo.
+ *  </p>
+ */
+public class QrySopFilter extends QrySop {
+
+  /**
+   *  The internal docids that satisfy every restriction argument.
+   */
+  private BitSet filter = null;
+
+  /**
+   *  Advance the internal document iterator beyond the specified
+   *  document.  Only the scored query is iterated; the restrictions
+   *  are consulted via the bitset.
+   *  @param docid An internal document id.
+   */
+  public void docIteratorAdvancePast (int docid) {
+    this.args.get (0).docIteratorAdvancePast (docid);
+    this.docIteratorClearMatchCache ();
+  }
+
+  /**
+   *  Advance the internal document iterator to the specified
+   *  document, or beyond if it doesn't.
+   *  @param docid An internal document id.
+   */
+  public void docIteratorAdvanceTo (int docid) {
+    this.args.get (0).docIteratorAdvanceTo (docid);
+    this.docIteratorClearMatchCache ();
+  }
+
+  /**
+   *  Indicates whether the query has a match.  A match is a document
+   *  matched by the scored query that also satisfies the filter.
+   *  @param r The retrieval model that determines what is a match
+   *  @return True if the query matches, otherwise false.
+   */
+  public boolean docIteratorHasMatch (RetrievalModel r) {
+
+    if (this.docIteratorHasMatchCache ()) {
+      return true;
+    }
+
+    Qry q_0 = this.args.get (0);
+
+    while (q_0.docIteratorHasMatch (r)) {
+      int docid = q_0.docIteratorGetMatch ();
+
+      if (this.filter.get (docid)) {
+        this.docIteratorSetMatchCache (docid);
+        return true;
+      }
+
+      //  Skip directly to the next document that satisfies the filter.
+
+      int nextDocid = this.filter.nextSetBit (docid + 1);
+
+      if (nextDocid < 0) {
+        return false;
+      }
+
+      q_0.docIteratorAdvanceTo (nextDocid);
+    }
+
+    return false;
+  }
+
+  /**
+   *  Get a default score for a document that the scored query does not
+   *  match.  The filter does not change default scores.
+   *  @param r The retrieval model that determines how scores are calculated.
+   *  @param docid The internal id of the document.
+   *  @return The default score.
+   *  @throws IOException Error accessing the Lucene index
+   */
+  public double getDefaultScore (RetrievalModel r, int docid) throws IOException {
+    return ((QrySop) this.args.get (0)).getDefaultScore (r, docid);
+  }
+
+  /**
+   *  Get a score for the document that docIteratorHasMatch matched.
+   *  The score is the score of the scored query.
+   *  @param r The retrieval model that determines how scores are calculated.
+   *  @return The document score.
+   *  @throws IOException Error accessing the Lucene index
+   */
+  public double getScore (RetrievalModel r) throws IOException {
+    if (! this.docIteratorHasMatchCache ()) {
+      return 0.0;
+    } else {
+      return ((QrySop) this.args.get (0)).getScore (r);
+    }
+  }
+
+  /**
+   *  Initialize the query operator (and its arguments), and compile
+   *  the restriction arguments into a bitset.
+   *  @param r A retrieval model that guides initialization
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public void initialize (RetrievalModel r) throws IOException {
+
+    for (Qry q_i: this.args) {
+      q_i.initialize (r);
+    }
+
+    this.filter = (BitSet) QryFop.getDocSet (this.args.get (1)).clone ();
+
+    for (int i = 2; i < this.args.size (); i++) {
+      this.filter.and (QryFop.getDocSet (this.args.get (i)));
+    }
+
+    this.docIteratorClearMatchCache ();
+  }
+
+}
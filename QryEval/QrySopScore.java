@@ -96,19 +96,35 @@ public class QrySopScore extends QrySop {
       if(! this.docIteratorHasMatchCache())
           return 0.0;
       else{
-          double N = Idx.getNumDocs();
-          double RSJ = Math.max(0.0, Math.log((N - this.getArg(0).getDf() + 0.5) / (this.getArg(0).getDf() + 0.5)));
-          double tf = this.getArg(0).docIteratorGetMatchPosting().tf;
-          RetrievalModelBM25 rbm25 = (RetrievalModelBM25) r;
-          double b = rbm25.getB();
-          double docLength = Idx.getFieldLength(this.getArg(0).field, this.getArg(0).docIteratorGetMatch());
-          double avgDocLength = (double) Idx.getSumOfFieldLengths(this.getArg(0).field) / (double) Idx.getDocCount(this.getArg(0).field);
-          double tfw = tf / (tf + (rbm25.getK_1() * ((1.0 - b) + b * (docLength / avgDocLength))));
-          double userweight = (rbm25.getK_3() + 1.0) / (rbm25.getK_3() + 1.0);
-          return RSJ * tfw * userweight;
+          return getScoreBM25((RetrievalModelBM25) r, this.getArg(0).field, this.getArg(0).getDf(),
+                              this.getArg(0).docIteratorGetMatchPosting().tf, this.getArg(0).docIteratorGetMatch());
       }
   }
 
+  /**
+   *  The BM25 score of one term in one document.  It is shared with
+   *  QueryBatchEvaluator, which scores postings without iterators.
+   *  @param rbm25 The BM25 retrieval model.
+   *  @param field The field that the term occurs in.
+   *  @param df The document frequency of the term.
+   *  @param termFreq The frequency of the term in the document.
+   *  @param docid The internal id of the document.
+   *  @return The term score.
+   *  @throws IOException Error accessing the Lucene index
+   */
+  static double getScoreBM25 (RetrievalModelBM25 rbm25, String field, int df, int termFreq, int docid)
+      throws IOException {
+      double N = Idx.getNumDocs();
+      double RSJ = Math.max(0.0, Math.log((N - df + 0.5) / (df + 0.5)));
+      double tf = termFreq;
+      double b = rbm25.getB();
+      double docLength = Idx.getFieldLength(field, docid);
+      double avgDocLength = (double) Idx.getSumOfFieldLengths(field) / (double) Idx.getDocCount(field);
+      double tfw = tf / (tf + (rbm25.getK_1() * ((1.0 - b) + b * (docLength / avgDocLength))));
+      double userweight = (rbm25.getK_3() + 1.0) / (rbm25.getK_3() + 1.0);
+      return RSJ * tfw * userweight;
+  }
+
   public double getScoreIndri (RetrievalModel r) throws IOException {
       double MLE = this.getArg(0).getCtf()/(double)Idx.getSumOfFieldLengths(this.getArg(0).field);
       double mu = ((RetrievalModelIndri) r).getMu();
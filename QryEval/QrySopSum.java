@@ -1,9 +1,50 @@
 import java.io.IOException;
 import java.lang.IllegalArgumentException;
+import java.util.ArrayList;
 
 
 public class QrySopSum extends QrySop {
 
+    /**
+     * Argument weights, null when every argument has weight 1.  The query
+     * optimizer sets them when it merges duplicate arguments.
+     */
+    private ArrayList<Double> weights = null;
+
+    public double getWeight(int i) {
+        return (this.weights == null) ? 1.0 : this.weights.get(i);
+    }
+
+    public void setWeights(ArrayList<Double> weights) {
+        this.weights = null;
+        for (double w: weights) {
+            if (w != 1.0) {
+                this.weights = new ArrayList<>(weights);
+                break;
+            }
+        }
+    }
+
+    @Override
+    public Qry copy() {
+        QrySopSum q = (QrySopSum) super.copy();
+        if (this.weights != null)
+            q.weights = new ArrayList<>(this.weights);
+        return q;
+    }
+
+    @Override
+    public void removeArg(int i) {
+        super.removeArg(i);
+        if (this.weights != null)
+            this.weights.remove(i);
+    }
+
+    @Override
+    protected String getCanonicalParameters() {
+        return (this.weights == null) ? "" : "/" + this.weights;
+    }
+
     @Override
     public double getScore(RetrievalModel r) throws IOException {
         if (r instanceof RetrievalModelBM25) {
@@ -17,8 +58,8 @@ public class QrySopSum extends QrySop {
     @Override
     public double getDefaultScore(RetrievalModel r, int docid) throws IOException {
         double sum = 0.0;
-        for(Qry q: this.args)
-                sum += ((QrySop) q).getDefaultScore(r, docid);
+        for(int i = 0; i < this.args.size(); i++)
+                sum += getWeight(i) * ((QrySop) this.args.get(i)).getDefaultScore(r, docid);
         return sum;
     }
 
@@ -33,12 +74,23 @@ public class QrySopSum extends QrySop {
         } else {
             double sum = 0.0;
             int docid = this.docIteratorGetMatch();
-            for(Qry q: this.args){
+            for(int i = 0; i < this.args.size(); i++){
+                Qry q = this.args.get(i);
                 if(q.docIteratorHasMatch(r) && q.docIteratorGetMatch()==docid) {
-                    sum += ((QrySop) q).getScore(r);
+                    sum += getWeight(i) * ((QrySop) q).getScore(r);
                 }
             }
             return sum;
         }
     }
+
+    @Override
+    public String toString() {
+        if (this.weights == null)
+            return super.toString();
+        String result = "";
+        for (int i = 0; i < this.args.size(); i++)
+            result += this.weights.get(i) + " " + this.args.get(i) + " ";
+        return (this.getDisplayName() + "( " + result + ")");
+    }
 }
@@ -9,6 +9,32 @@ public class QrySopWand extends QrySop {
         this.weightstr = weights;
     }
 
+    @Override
+    public void removeArg(int i) {
+        super.removeArg(i);
+        ArrayList<Double> weights = getDoubleWeights();
+        if (i < weights.size())
+            weights.remove(i);
+        String str = "";
+        for (double w: weights)
+            str += w + " ";
+        this.weightstr = str;
+    }
+
+    @Override
+    public String toString() {
+        ArrayList<Double> weights = getDoubleWeights();
+        String result = "";
+        for (int i = 0; i < this.args.size(); i++)
+            result += (i < weights.size() ? weights.get(i) + " " : "") + this.args.get(i) + " ";
+        return (this.getDisplayName() + "( " + result + ")");
+    }
+
+    @Override
+    protected String getCanonicalParameters() {
+        return "/" + getDoubleWeights();
+    }
+
     public double getSumWeight() {
         double sum = 0.0;
         String[] nums = weightstr.split(" ");
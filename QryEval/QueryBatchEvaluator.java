@@ -0,0 +1,319 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  QueryBatchEvaluator evaluates a batch of queries so that each
+ *  term's postings are read and scored once, no matter how many
+ *  queries in the batch use the term.
+ *  <p>
+ *  Queries are grouped by shared terms.  For each group, the postings
+ *  of each distinct term are walked once, and the term's score in each
+ *  document is computed once.  Each query then merges the scored
+ *  postings of its terms, in argument order, into its results.  Term
+ *  scores don't depend on the query, so the results are identical to
+ *  those of QryEval.processQuery.
+ *  </p><p>
+ *  This is done for flat queries, the shapes that the default query
+ *  operators produce:  #SUM of terms (BM25), #OR of terms (ranked
+ *  and unranked Boolean), and #AND of terms (BM25, ranked and unranked
+ *  Boolean).  Other queries are evaluated by QryEval.processQuery.
+ *  Batched queries do not use query budgets, so QryEval rejects
+ *  batch:size with query:timeLimit or query:workLimit.
+ *  </p>
+ */
+public class QueryBatchEvaluator {
+
+  //  --------------- Nested classes --------------------------------
+
+  /**
+   *  The scored postings of one term:  docids and the term's score in
+   *  each document.
+   */
+  private static class TermScores {
+    final int[] docids;
+    final double[] scores;
+
+    TermScores (int n) {
+      this.docids = new int[n];
+      this.scores = new double[n];
+    }
+  }
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Evaluate a batch of queries.
+   *  @param qryStrings The queries.
+   *  @param model The retrieval model determines how matching and scoring is done.
+   *  @return The results of each query, in the order of qryStrings.
+   *  @throws IOException Error accessing the Lucene index
+   */
+  public static ScoreList[] evaluate (List<String> qryStrings, RetrievalModel model)
+    throws IOException {
+
+    int n = qryStrings.size ();
+    ScoreList[] results = new ScoreList[n];
+    Qry[] queries = new Qry[n];
+
+    //  Parse the queries.  Queries that aren't flat are evaluated
+    //  individually.
+
+    for (int i = 0; i < n; i++) {
+      Qry q = QryParser.getQuery (model.defaultQrySopName () + "(" +
+                                  qryStrings.get (i) + ")", model);
+
+      if (isFlat (q, model)) {
+        queries[i] = q;
+      } else {
+        results[i] = QryEval.processQuery (qryStrings.get (i), model);
+      }
+    }
+
+    //  Group the flat queries by shared terms.
+
+    int[] group = new int[n];
+    Map<String, Integer> termQuery = new HashMap<String, Integer> ();
+
+    for (int i = 0; i < n; i++) {
+      group[i] = i;
+    }
+
+    for (int i = 0; i < n; i++) {
+      if (queries[i] == null) {
+        continue;
+      }
+
+      for (Qry q_j: queries[i].args) {
+        String key = q_j.args.get (0).getCanonicalKey ();
+        Integer k = termQuery.get (key);
+
+        if (k == null) {
+          termQuery.put (key, i);
+        } else {
+          group[find (group, i)] = find (group, k);
+        }
+      }
+    }
+
+    Map<Integer, List<Integer>> groups = new LinkedHashMap<Integer, List<Integer>> ();
+
+    for (int i = 0; i < n; i++) {
+      if (queries[i] != null) {
+        int g = find (group, i);
+
+        if (! groups.containsKey (g)) {
+          groups.put (g, new ArrayList<Integer> ());
+        }
+
+        groups.get (g).add (i);
+      }
+    }
+
+    //  Evaluate each group.  Its scored postings are discarded before
+    //  the next group is evaluated.
+
+    for (List<Integer> g : groups.values ()) {
+      Map<String, TermScores> termScores = new HashMap<String, TermScores> ();
+
+      for (int i : g) {
+        for (Qry q_j: queries[i].args) {
+          QryIopTerm term = (QryIopTerm) q_j.args.get (0);
+          String key = term.getCanonicalKey ();
+
+          if (! termScores.containsKey (key)) {
+            termScores.put (key, readTermScores (term, model));
+          }
+        }
+      }
+
+      for (int i : g) {
+        results[i] = evaluateQuery (queries[i], termScores, model);
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   *  Evaluate a flat query from the scored postings of its terms.
+   *  Scores are combined in argument order, as the query operators
+   *  combine them.
+   *  @param q A flat query.
+   *  @param termScores The scored postings of the query's terms.
+   *  @param model The retrieval model determines how matching and scoring is done.
+   *  @return Search results
+   */
+  private static ScoreList evaluateQuery (Qry q, Map<String, TermScores> termScores,
+                                          RetrievalModel model) {
+
+    int m = q.args.size ();
+    TermScores[] lists = new TermScores[m];
+    int[] next = new int[m];
+    ScoreList results = new ScoreList ();
+
+    for (int j = 0; j < m; j++) {
+      lists[j] = termScores.get (q.args.get (j).args.get (0).getCanonicalKey ());
+    }
+
+    if (q instanceof QrySopAnd) {
+
+      //  Every term must match.  The score is the minimum term score.
+
+      while (true) {
+        int docid = Qry.INVALID_DOCID;
+        boolean allMatch = true;
+
+        for (int j = 0; j < m; j++) {
+          if (next[j] >= lists[j].docids.length) {
+            return results;
+          }
+          docid = Math.max (docid, lists[j].docids[next[j]]);
+        }
+
+        for (int j = 0; j < m; j++) {
+          while ((next[j] < lists[j].docids.length) &&
+                 (lists[j].docids[next[j]] < docid)) {
+            next[j]++;
+          }
+
+          if ((next[j] >= lists[j].docids.length) ||
+              (lists[j].docids[next[j]] != docid)) {
+            allMatch = false;
+          }
+        }
+
+        if (allMatch) {
+          double score = lists[0].scores[next[0]];
+
+          for (int j = 0; j < m; j++) {
+            score = Math.min (score, lists[j].scores[next[j]]);
+            next[j]++;
+          }
+
+          results.add (docid, score);
+        }
+      }
+    }
+
+    //  #SUM and #OR match documents that match any term.  #SUM adds
+    //  (weighted) term scores; #OR takes the maximum term score.
+
+    boolean isSum = (q instanceof QrySopSum);
+
+    while (true) {
+      int docid = Qry.INVALID_DOCID;
+
+      for (int j = 0; j < m; j++) {
+        if ((next[j] < lists[j].docids.length) &&
+            ((docid == Qry.INVALID_DOCID) || (lists[j].docids[next[j]] < docid))) {
+          docid = lists[j].docids[next[j]];
+        }
+      }
+
+      if (docid == Qry.INVALID_DOCID) {
+        return results;
+      }
+
+      double score = isSum ? 0.0 : Double.NEGATIVE_INFINITY;
+
+      for (int j = 0; j < m; j++) {
+        if ((next[j] < lists[j].docids.length) && (lists[j].docids[next[j]] == docid)) {
+          if (isSum) {
+            score += ((QrySopSum) q).getWeight (j) * lists[j].scores[next[j]];
+          } else {
+            score = Math.max (score, lists[j].scores[next[j]]);
+          }
+          next[j]++;
+        }
+      }
+
+      results.add (docid, score);
+    }
+  }
+
+  /**
+   *  Find the representative query of a query's group.
+   *  @param group The group links.
+   *  @param i A query.
+   *  @return The representative query of the group.
+   */
+  private static int find (int[] group, int i) {
+    while (group[i] != i) {
+      group[i] = group[group[i]];	// Shorten the path
+      i = group[i];
+    }
+    return i;
+  }
+
+  /**
+   *  Indicates whether a query is flat:  a #SUM, #OR, or #AND of terms
+   *  that this class can evaluate for the retrieval model.
+   *  @param q A query, or null.
+   *  @param model The retrieval model.
+   *  @return True if the query is flat.
+   */
+  private static boolean isFlat (Qry q, RetrievalModel model) {
+
+    if ((q == null) || (q.args.size () == 0)) {
+      return false;
+    }
+
+    boolean isBoolean = (model instanceof RetrievalModelRankedBoolean) ||
+                        (model instanceof RetrievalModelUnrankedBoolean);
+    boolean isBM25 = (model instanceof RetrievalModelBM25);
+
+    if (! (((q instanceof QrySopSum) && isBM25) ||
+           ((q instanceof QrySopOr) && isBoolean) ||
+           ((q instanceof QrySopAnd) && (isBoolean || isBM25)))) {
+      return false;
+    }
+
+    for (Qry q_i: q.args) {
+      if (! ((q_i instanceof QrySopScore) &&
+             (q_i.args.get (0) instanceof QryIopTerm))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   *  Read a term's postings once and score the term in each document.
+   *  @param term The term.
+   *  @param model The retrieval model determines how scoring is done.
+   *  @return The scored postings.
+   *  @throws IOException Error accessing the Lucene index
+   */
+  private static TermScores readTermScores (QryIopTerm term, RetrievalModel model)
+    throws IOException {
+
+    InvList list = InvListCache.get (term.getCanonicalKey ());
+
+    if (list == null) {
+      list = new InvList (term.getTerm (), term.getField ());
+    }
+
+    TermScores termScores = new TermScores (list.df);
+
+    for (int i = 0; i < list.df; i++) {
+      int docid = list.getDocid (i);
+      int tf = list.getTf (i);
+
+      termScores.docids[i] = docid;
+
+      if (model instanceof RetrievalModelBM25) {
+        termScores.scores[i] =
+          QrySopScore.getScoreBM25 ((RetrievalModelBM25) model, term.getField (),
+                                    list.df, tf, docid);
+      } else if (model instanceof RetrievalModelRankedBoolean) {
+        termScores.scores[i] = tf;
+      } else {
+        termScores.scores[i] = 1.0;
+      }
+    }
+
+    return termScores;
+  }
+
+}
@@ -0,0 +1,80 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ *  A per-query limit on elapsed time and work.  Query operators charge
+ *  work to the budget inside their evaluation loops (one unit per
+ *  document or position examined), and the top-level document loop
+ *  stops early when it is exhausted, so that one pathological query
+ *  can't stall a batch or a server worker.  Operators that build
+ *  derived inverted lists (e.g., #NEAR, #WINDOW, #SYN) stop too; a
+ *  partial list is marked as truncated and isn't cached.  The budget
+ *  stays exhausted, so the top-level loop then scores no documents.
+ *  Thus every returned score is the score that an unlimited query
+ *  would give.  A query that stops early returns the
+ *  documents that it scored so far, which are a docid prefix of the
+ *  matching documents, not the top documents of the whole index; its
+ *  ScoreList is marked as truncated.
+ *  <p>
+ *  One budget may be shared by the threads that evaluate parts of a
+ *  query, e.g., docid ranges or index segments.
+ *  </p>
+ */
+public class QueryBudget {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  The clock is read once per this many units of work.
+   */
+  private static final long CHECK_INTERVAL = 1024;
+
+  private final long deadline;
+  private final long workLimit;
+  private final AtomicLong work = new AtomicLong ();
+  private volatile boolean exhausted = false;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create a budget that starts now.
+   *  @param timeLimit The time limit in milliseconds, or 0 for no limit.
+   *  @param workLimit The work limit, or 0 for no limit.
+   */
+  public QueryBudget (long timeLimit, long workLimit) {
+    this.deadline = (timeLimit > 0) ?
+      System.nanoTime () + timeLimit * 1000000L : Long.MAX_VALUE;
+    this.workLimit = (workLimit > 0) ? workLimit : Long.MAX_VALUE;
+  }
+
+  /**
+   *  Charge work to the budget.
+   *  @param units The amount of work.
+   *  @return True if the query may continue, false if the budget is exhausted.
+   */
+  public boolean charge (long units) {
+
+    if (this.exhausted) {
+      return false;
+    }
+
+    long w = this.work.addAndGet (units);
+
+    if ((w > this.workLimit) ||
+        ((this.deadline != Long.MAX_VALUE) &&
+         (w / CHECK_INTERVAL != (w - units) / CHECK_INTERVAL) &&
+         (System.nanoTime () > this.deadline))) {
+      this.exhausted = true;
+    }
+
+    return ! this.exhausted;
+  }
+
+  /**
+   *  Indicates whether the budget is exhausted.
+   *  @return True if the query stopped early.
+   */
+  public boolean isExhausted () {
+    return this.exhausted;
+  }
+
+}
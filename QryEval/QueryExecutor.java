@@ -0,0 +1,209 @@
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  QueryExecutor evaluates queries concurrently.  It is configured by
+ *  parameters in the parameter file:
+ *  <pre>
+ *    parallel:mode            threads (default) or virtual
+ *    parallel:threads         the number of worker threads (threads mode)
+ *    parallel:maxIndexAccess  the number of queries that may access the
+ *                             index at once (default: one per worker in
+ *                             threads mode, 4 per processor in virtual mode)
+ *    parallel:maxInFlight     the number of queries that callers keep in
+ *                             flight (default: 4 per worker in threads
+ *                             mode, 1000 in virtual mode)
+ *  </pre>
+ *  <p>
+ *  In virtual mode, every query runs on its own virtual thread, so
+ *  thousands of queries may be in flight while some of them wait for
+ *  Lucene I/O (postings, norms, stored fields).  Virtual threads
+ *  require Java 21 or later.  In both modes, a semaphore bounds the
+ *  number of queries that access the index at once.
+ *  </p>
+ */
+public class QueryExecutor {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final ExecutorService workers;
+  private final Semaphore indexAccess;
+  private final int maxInFlight;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create a QueryExecutor configured by the parameter file.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @throws IllegalArgumentException The parameters are invalid
+   */
+  public QueryExecutor (Map<String, String> parameters)
+    throws IllegalArgumentException {
+    this (parameters, Executors.class);
+  }
+
+  /**
+   *  Create a QueryExecutor configured by the parameter file.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @param virtualThreads The class whose newVirtualThreadPerTaskExecutor
+   *    method creates the executor in virtual mode
+   *  @throws IllegalArgumentException The parameters are invalid
+   */
+  QueryExecutor (Map<String, String> parameters, Class<?> virtualThreads)
+    throws IllegalArgumentException {
+
+    String mode = parameters.containsKey ("parallel:mode") ?
+      parameters.get ("parallel:mode").toLowerCase () : "threads";
+    int maxIndexAccess;
+    int maxInFlight;
+
+    if (mode.equals ("virtual")) {
+      this.workers = newVirtualThreadExecutor (virtualThreads);
+      maxIndexAccess = 4 * Runtime.getRuntime ().availableProcessors ();
+      maxInFlight = 1000;
+    } else if (mode.equals ("threads")) {
+      int threads = parameters.containsKey ("parallel:threads") ?
+        Integer.parseInt (parameters.get ("parallel:threads")) :
+        Runtime.getRuntime ().availableProcessors ();
+      if (threads < 1) {
+        throw new IllegalArgumentException
+          ("parallel:threads must be at least 1.");
+      }
+      this.workers = Executors.newFixedThreadPool (threads, new ThreadFactory () {
+        public Thread newThread (Runnable r) {
+          Thread t = new Thread (r, "QueryExecutor");
+          t.setDaemon (true);			// Don't keep the JVM alive
+          return t;
+        }
+      });
+      maxIndexAccess = threads;
+      maxInFlight = 4 * threads;
+    } else {
+      throw new IllegalArgumentException
+        ("Unknown parallel:mode " + parameters.get ("parallel:mode"));
+    }
+
+    if (parameters.containsKey ("parallel:maxIndexAccess")) {
+      maxIndexAccess = Integer.parseInt (parameters.get ("parallel:maxIndexAccess"));
+    }
+
+    if (parameters.containsKey ("parallel:maxInFlight")) {
+      maxInFlight = Integer.parseInt (parameters.get ("parallel:maxInFlight"));
+    }
+
+    if (maxInFlight < 1) {
+      this.workers.shutdownNow ();
+      throw new IllegalArgumentException
+        ("parallel:maxInFlight must be at least 1.");
+    }
+
+    this.indexAccess = new Semaphore (maxIndexAccess);
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   *  Indicates whether the parameter file requests concurrent query
+   *  evaluation.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @return True if queries should be evaluated concurrently.
+   */
+  public static boolean isEnabled (Map<String, String> parameters) {
+    return ((parameters.containsKey ("parallel:mode") &&
+             parameters.get ("parallel:mode").equalsIgnoreCase ("virtual")) ||
+            (parameters.containsKey ("parallel:threads") &&
+             Integer.parseInt (parameters.get ("parallel:threads")) > 1));
+  }
+
+  /**
+   *  Get the number of queries that callers should keep in flight.
+   *  Callers that write results in order use it to bound the number
+   *  of results that are waiting to be written.
+   *  @return The number of queries to keep in flight.
+   */
+  public int getMaxInFlight () {
+    return this.maxInFlight;
+  }
+
+  /**
+   *  Create an executor that runs each task on a new virtual thread.
+   *  The executor is found by reflection so that this class compiles
+   *  with Java versions that don't have virtual threads.
+   *  @param virtualThreads The class whose newVirtualThreadPerTaskExecutor
+   *    method creates the executor, e.g., Executors
+   *  @return The executor.
+   *  @throws IllegalArgumentException Virtual threads are not available.
+   */
+  private static ExecutorService newVirtualThreadExecutor (Class<?> virtualThreads)
+    throws IllegalArgumentException {
+    try {
+      Method m = virtualThreads.getMethod ("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) m.invoke (null);
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalArgumentException
+        ("parallel:mode=virtual requires Java 21 or later.");
+    }
+  }
+
+  /**
+   *  Stop the worker threads.  Queries that haven't started are
+   *  discarded.
+   */
+  public void shutdown () {
+    this.workers.shutdownNow ();
+  }
+
+  /**
+   *  Submit a task that accesses the index.  The task waits until
+   *  index access is available.
+   *  @param task The task.
+   *  @return The pending result of the task.
+   */
+  public <T> Future<T> submit (final Callable<T> task) {
+    return this.workers.submit (new Callable<T> () {
+      public T call () throws Exception {
+        indexAccess.acquire ();
+        try {
+          return task.call ();
+        } finally {
+          indexAccess.release ();
+        }
+      }
+    });
+  }
+
+  /**
+   *  Submit a query for evaluation.  If there is no executor, the
+   *  query is evaluated immediately on the caller's thread.
+   *  @param executor A QueryExecutor, or null.
+   *  @param qryString A string that contains a query.
+   *  @param model The retrieval model determines how matching and scoring is done.
+   *  @return The pending search results.
+   *  @throws IOException Error accessing the index
+   */
+  public static Future<ScoreList> submit (QueryExecutor executor, String qryString,
+                                          RetrievalModel model)
+    throws IOException {
+    if (executor == null) {
+      return CompletableFuture.completedFuture (QryEval.processQuery (qryString, model));
+    } else {
+      return executor.submit (qryString, model);
+    }
+  }
+
+  /**
+   *  Submit a query for evaluation.
+   *  @param qryString A string that contains a query.
+   *  @param model The retrieval model determines how matching and scoring is done.
+   *  @return The pending search results.
+   */
+  public Future<ScoreList> submit (final String qryString, final RetrievalModel model) {
+    return this.submit (new Callable<ScoreList> () {
+      public ScoreList call () throws IOException {
+        return QryEval.processQuery (qryString, model);
+      }
+    });
+  }
+
+}
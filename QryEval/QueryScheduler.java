@@ -0,0 +1,339 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  QueryScheduler sits in front of QryEval.processQuery when many
+ *  clients submit queries at once.  It is configured by parameters in
+ *  the parameter file:
+ *  <pre>
+ *    scheduler:maxInFlight   the number of queries evaluated at once
+ *                            (default: one per processor)
+ *    scheduler:maxQueued     the number of queries that may wait (default 1000)
+ *    scheduler:batchWindow   how long, in ms, to gather a micro-batch (default 2)
+ *    scheduler:maxBatchSize  the maximum number of queries in a micro-batch (default 64)
+ *  </pre>
+ *  <p>
+ *  Arriving queries are gathered into short micro-batches.  Terms that
+ *  occur in more than one query of a batch have their inverted lists
+ *  read once and shared through the InvListCache (see
+ *  cacheSharedTerms).  The batch is then sorted so that queries with
+ *  the same first shared term are dispatched one after another; the
+ *  sort only orders the dispatch, so that queries use the shared lists
+ *  before they are evicted.  At most maxInFlight queries are evaluated
+ *  at once, which bounds the heap used by inverted lists and results.
+ *  A query counts against maxQueued from when it is submitted until
+ *  it starts to run, including while the dispatcher holds it in a
+ *  batch.  When maxQueued queries are already waiting, submit rejects
+ *  new queries with a RejectedExecutionException, so callers can shed
+ *  load instead of letting latency grow without bound.
+ *  </p>
+ */
+public class QueryScheduler {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final BlockingQueue<Request> arrivals;
+  private final Semaphore queued;
+  private final Semaphore inFlight;
+  private final ExecutorService workers;
+  private final Thread dispatcher;
+  private final long batchWindowNanos;
+  private final int maxBatchSize;
+  private final int maxQueued;
+
+  //  --------------- Nested classes --------------------------------
+
+  /**
+   *  A query that is waiting to be evaluated.
+   */
+  private static class Request {
+    final String qryString;
+    final RetrievalModel model;
+    final CompletableFuture<ScoreList> result = new CompletableFuture<ScoreList> ();
+    String firstSharedTerm = null;
+
+    Request (String qryString, RetrievalModel model) {
+      this.qryString = qryString;
+      this.model = model;
+    }
+  }
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create a QueryScheduler configured by the parameter file, and
+   *  start its dispatcher thread.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @throws IllegalArgumentException The parameters are invalid
+   */
+  public QueryScheduler (Map<String, String> parameters)
+    throws IllegalArgumentException {
+
+    int maxInFlight = getInt (parameters, "scheduler:maxInFlight",
+                              Runtime.getRuntime ().availableProcessors ());
+    int maxQueued = getInt (parameters, "scheduler:maxQueued", 1000);
+
+    if ((maxInFlight < 1) || (maxQueued < 1)) {
+      throw new IllegalArgumentException
+        ("scheduler:maxInFlight and scheduler:maxQueued must be at least 1.");
+    }
+
+    this.arrivals = new LinkedBlockingQueue<Request> ();	// Bounded by queued
+    this.queued = new Semaphore (maxQueued);
+    this.maxQueued = maxQueued;
+    this.inFlight = new Semaphore (maxInFlight);
+    this.workers = Executors.newFixedThreadPool (maxInFlight);
+    this.batchWindowNanos =
+      TimeUnit.MILLISECONDS.toNanos (getInt (parameters, "scheduler:batchWindow", 2));
+    this.maxBatchSize = Math.max (1, getInt (parameters, "scheduler:maxBatchSize", 64));
+
+    this.dispatcher = new Thread (new Runnable () {
+      public void run () {
+        dispatch ();
+      }
+    }, "QueryScheduler");
+    this.dispatcher.setDaemon (true);		// Don't keep the JVM alive
+    this.dispatcher.start ();
+  }
+
+  /**
+   *  Find the terms of a query, keyed by their canonical form.
+   *  @param q A query
+   *  @param terms The terms are added to this map
+   */
+  private static void collectTerms (Qry q, Map<String, QryIopTerm> terms) {
+
+    if (q instanceof QryIopTerm) {
+      terms.put (q.getCanonicalKey (), (QryIopTerm) q);
+      return;
+    }
+
+    for (Qry q_i: q.args) {
+      collectTerms (q_i, terms);
+    }
+  }
+
+  /**
+   *  The body of the dispatcher thread.  Gather a micro-batch, then
+   *  dispatch it.
+   */
+  private void dispatch () {
+
+    try {
+      while (true) {
+        List<Request> batch = new ArrayList<Request> ();
+        batch.add (this.arrivals.take ());
+
+        long deadline = System.nanoTime () + this.batchWindowNanos;
+
+        while (batch.size () < this.maxBatchSize) {
+          Request request =
+            this.arrivals.poll (deadline - System.nanoTime (), TimeUnit.NANOSECONDS);
+
+          if (request == null) {
+            break;				// The window closed
+          }
+
+          batch.add (request);
+        }
+
+        this.dispatchBatch (batch);
+      }
+    } catch (InterruptedException ex) {
+      // The scheduler was shut down
+    }
+  }
+
+  /**
+   *  Indicates whether queries can share term lists through the
+   *  InvListCache.  They can't if the cache is disabled, or if queries
+   *  are evaluated per segment, because segment queries don't use the
+   *  whole-index lists that are shared.
+   *  @return True if shared term lists are reused.
+   */
+  static boolean canShareLists () {
+    return (InvListCache.getCapacity () > 0) && ! QryEval.isSegmentParallel ();
+  }
+
+  /**
+   *  Read the inverted list of each term that more than one query of
+   *  a group uses, once, and store it in the InvListCache, so that the
+   *  queries use the cached copy instead of reading it again.  The
+   *  lists are read only if canShareLists is true.
+   *  @param qryStrings The queries.
+   *  @param models The retrieval model of each query determines how it is parsed.
+   *  @return The canonical keys of each query's shared terms, in sorted order.
+   */
+  static List<List<String>> cacheSharedTerms (List<String> qryStrings,
+                                              List<RetrievalModel> models) {
+
+    //  Count the queries that use each term.
+
+    Map<String, QryIopTerm> terms = new HashMap<String, QryIopTerm> ();
+    Map<String, Integer> counts = new HashMap<String, Integer> ();
+    List<Set<String>> queryTerms = new ArrayList<Set<String>> ();
+
+    for (int i = 0; i < qryStrings.size (); i++) {
+      Map<String, QryIopTerm> terms_i = new TreeMap<String, QryIopTerm> ();
+      RetrievalModel model = models.get (i);
+
+      try {
+        Qry q = QryParser.getQuery (model.defaultQrySopName () +
+                                    "(" + qryStrings.get (i) + ")", model);
+        if (q != null) {
+          collectTerms (q, terms_i);
+        }
+      } catch (IOException | RuntimeException ex) {
+        //  processQuery reports the error to the caller.
+      }
+
+      for (String key : terms_i.keySet ()) {
+        Integer n = counts.get (key);
+        counts.put (key, (n == null) ? 1 : n + 1);
+      }
+
+      terms.putAll (terms_i);
+      queryTerms.add (terms_i.keySet ());
+    }
+
+    //  Read each shared inverted list once.
+
+    List<List<String>> sharedTerms = new ArrayList<List<String>> ();
+    boolean share = canShareLists ();
+
+    for (Set<String> keys : queryTerms) {
+      List<String> shared = new ArrayList<String> ();
+
+      for (String key : keys) {
+        if (counts.get (key) < 2) {
+          continue;
+        }
+
+        shared.add (key);
+
+        if (share && (InvListCache.get (key) == null)) {
+          QryIopTerm term = terms.get (key);
+
+          try {
+            InvListCache.put (key, new InvList (term.getTerm (), term.getField ()));
+          } catch (IOException ex) {
+            //  The query reads the inverted list itself.
+          }
+        }
+      }
+
+      sharedTerms.add (shared);
+    }
+
+    return sharedTerms;
+  }
+
+  /**
+   *  Share the inverted lists of terms that several queries in a
+   *  micro-batch use, then evaluate the queries, sorted by their first
+   *  shared term.  Waits while maxInFlight queries are being
+   *  evaluated.  A query leaves the queue when it starts to run.
+   *  @param batch The micro-batch
+   *  @throws InterruptedException The scheduler was shut down
+   */
+  private void dispatchBatch (List<Request> batch) throws InterruptedException {
+
+    List<String> qryStrings = new ArrayList<String> ();
+    List<RetrievalModel> models = new ArrayList<RetrievalModel> ();
+
+    for (Request request : batch) {
+      qryStrings.add (request.qryString);
+      models.add (request.model);
+    }
+
+    List<List<String>> sharedTerms = cacheSharedTerms (qryStrings, models);
+
+    for (int i = 0; i < batch.size (); i++) {
+      if (! sharedTerms.get (i).isEmpty ()) {
+        batch.get (i).firstSharedTerm = sharedTerms.get (i).get (0);
+      }
+    }
+
+    //  Queries that share terms are dispatched one after another.
+
+    Collections.sort (batch, new Comparator<Request> () {
+      public int compare (Request r1, Request r2) {
+        if (r1.firstSharedTerm == null) {
+          return (r2.firstSharedTerm == null) ? 0 : 1;
+        } else if (r2.firstSharedTerm == null) {
+          return -1;
+        } else {
+          return r1.firstSharedTerm.compareTo (r2.firstSharedTerm);
+        }
+      }
+    });
+
+    for (final Request request : batch) {
+      this.inFlight.acquire ();
+      this.workers.execute (new Runnable () {
+        public void run () {
+          queued.release ();
+          try {
+            request.result.complete (QryEval.processQuery (request.qryString, request.model));
+          } catch (Throwable ex) {
+            request.result.completeExceptionally (ex);
+          } finally {
+            inFlight.release ();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   *  Get an integer parameter.
+   *  @param parameters All of the parameters contained in the parameter file
+   *  @param key The parameter name
+   *  @param defaultValue The value if the parameter is not set
+   *  @return The parameter value
+   */
+  private static int getInt (Map<String, String> parameters, String key, int defaultValue) {
+    return parameters.containsKey (key) ?
+      Integer.parseInt (parameters.get (key)) : defaultValue;
+  }
+
+  /**
+   *  Get the number of queries that are waiting to run.
+   *  @return The number of submitted queries that haven't started.
+   */
+  public int getQueued () {
+    return this.maxQueued - this.queued.availablePermits ();
+  }
+
+  /**
+   *  Stop the dispatcher and worker threads.  Queries that haven't
+   *  started are discarded.
+   */
+  public void shutdown () {
+    this.dispatcher.interrupt ();
+    this.workers.shutdownNow ();
+  }
+
+  /**
+   *  Submit a query for evaluation.
+   *  @param qryString A string that contains a query.
+   *  @param model The retrieval model determines how matching and scoring is done.
+   *  @return The pending search results.
+   *  @throws RejectedExecutionException Too many queries are waiting
+   */
+  public CompletableFuture<ScoreList> submit (String qryString, RetrievalModel model)
+    throws RejectedExecutionException {
+
+    Request request = new Request (qryString, model);
+
+    if (! this.queued.tryAcquire ()) {
+      throw new RejectedExecutionException
+        ("Overloaded: " + this.getQueued () + " queries are waiting.");
+    }
+
+    this.arrivals.add (request);
+    return request.result;
+  }
+
+}
@@ -1,17 +1,26 @@
 public class RetrievalModelLetor extends RetrievalModel  {
-    private double k_1;
-    private double b;
-    private double k_3;
-
-    private double mu;
-    private double lambda;
+    private RetrievalModelBM25 bm25;
+    private RetrievalModelIndri indri;
 
     public RetrievalModelLetor(String k_1, String b, String k_3, String mu, String lambda) {
-        this.k_1 = Double.parseDouble(k_1);
-        this.b = Double.parseDouble(b);
-        this.k_3 = Double.parseDouble(k_3);
-        this.mu = Double.parseDouble(mu);
-        this.lambda = Double.parseDouble(lambda);
+        this.bm25 = new RetrievalModelBM25(k_1, b, k_3);
+        this.indri = new RetrievalModelIndri(mu, lambda);
+    }
+
+    /**
+     * Get the BM25 parameters of the BM25 features.
+     * @return A BM25 retrieval model.
+     */
+    public RetrievalModelBM25 getBM25() {
+        return bm25;
+    }
+
+    /**
+     * Get the Indri parameters of the Indri features.
+     * @return An Indri retrieval model.
+     */
+    public RetrievalModelIndri getIndri() {
+        return indri;
     }
 
     @Override
@@ -0,0 +1,24 @@
+import java.io.*;
+
+/**
+ *  A RunReader reads the rankings of a run file one query at a time,
+ *  e.g., an initial ranking for diversification.  See TrecRunReader
+ *  and BinaryRunReader.
+ */
+public interface RunReader extends Closeable {
+
+  /**
+   *  Get the query id of the last ranking that next returned.
+   *  @return The query id, or null.
+   */
+  public String getQid ();
+
+  /**
+   *  Read the next query's ranking.
+   *  @return The ranking, in file order, or null at the end of the file.
+   *  @throws Exception Error reading the file, or the file doesn't
+   *  match the index.
+   */
+  public ScoreList next () throws Exception;
+
+}
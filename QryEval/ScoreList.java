@@ -11,7 +11,9 @@ import java.util.*;
 public class ScoreList {
 
   //  A utility class to create a <internalDocid, externalDocid, score>
-  //  object.
+  //  object.  The external docid is only needed to break ties when
+  //  the list is sorted, so it is read from the index when it is
+  //  first needed.
 
   private class ScoreListEntry {
     private int docid;
@@ -21,13 +23,24 @@ public class ScoreList {
     private ScoreListEntry(int internalDocid, double score) {
       this.docid = internalDocid;
       this.score = score;
+    }
 
-      try {
-	    this.externalId = Idx.getExternalDocid (this.docid);
-      }
-      catch (IOException ex){
-	    ex.printStackTrace();
+    private ScoreListEntry(int internalDocid, String externalId, double score) {
+      this.docid = internalDocid;
+      this.externalId = externalId;
+      this.score = score;
+    }
+
+    private String getExternalId() {
+      if (this.externalId == null) {
+        try {
+	      this.externalId = Idx.getExternalDocid (this.docid);
+        }
+        catch (IOException ex){
+	      ex.printStackTrace();
+        }
       }
+      return this.externalId;
     }
   }
 
@@ -36,6 +49,11 @@ public class ScoreList {
    */
   private List<ScoreListEntry> scores = new ArrayList<ScoreListEntry>();
 
+  /**
+   *  True if the query stopped early because its budget was exhausted.
+   */
+  private boolean truncated = false;
+
   /**
    *  Append a document score to a score list.
    *  @param docid An internal document id.
@@ -45,6 +63,43 @@ public class ScoreList {
     scores.add(new ScoreListEntry(docid, score));
   }
 
+  /**
+   *  Append a document score to a score list when the document's
+   *  external id is already known, e.g., from a run file.  This avoids
+   *  reading the external id from the index.
+   *  @param docid An internal document id.
+   *  @param externalId The document's external id.
+   *  @param score The document's score.
+   */
+  public void add(int docid, String externalId, double score) {
+    scores.add(new ScoreListEntry(docid, externalId, score));
+  }
+
+  /**
+   *  Append the entries of another score list to this score list.
+   *  @param list The score list to append.
+   */
+  public void addAll(ScoreList list) {
+    scores.addAll(list.scores);
+  }
+
+  /**
+   *  Indicates whether the list is partial because the query stopped
+   *  early when its budget was exhausted.
+   *  @return True if the list is partial.
+   */
+  public boolean isTruncated() {
+    return this.truncated;
+  }
+
+  /**
+   *  Mark the list as partial or complete.
+   *  @param truncated True if the list is partial.
+   */
+  public void setTruncated(boolean truncated) {
+    this.truncated = truncated;
+  }
+
   /**
    *  Get the internal docid of the n'th entry.
    *  @param n The index of the requested document.
@@ -94,7 +149,7 @@ public class ScoreList {
 	if (s1.score < s2.score)
 	  return 1;
 	else
-	  return s1.externalId.compareTo(s2.externalId);
+	  return s1.getExternalId().compareTo(s2.getExternalId());
     }
   }
 
@@ -0,0 +1,98 @@
+import java.io.*;
+import java.nio.charset.*;
+
+/**
+ *  SvmRankWriter writes FeatureMatrix objects to a file as they are
+ *  produced, either as SVM-rank (LETOR) text:
+ *  <pre>
+ *    relevance qid:qid 1:value 2:value ... # externalDocid
+ *  </pre>
+ *  or in the compact binary form of FeatureMatrix.write, which
+ *  FeatureMatrix.read reads.  Only one query's matrix is in memory at
+ *  a time.
+ */
+public class SvmRankWriter implements Closeable {
+
+  //  --------------- Constants and variables ---------------------
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final boolean binary;
+  private final Writer text;
+  private final DataOutputStream data;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create or replace a feature file.
+   *  @param path The path to the feature file.
+   *  @param binary True for the binary form, false for SVM-rank text.
+   *  @throws IOException The file can't be opened.
+   */
+  public SvmRankWriter (String path, boolean binary) throws IOException {
+
+    OutputStream output =
+      new BufferedOutputStream (new FileOutputStream (path), BUFFER_SIZE);
+
+    this.binary = binary;
+
+    if (binary) {
+      this.data = new DataOutputStream (output);
+      this.text = null;
+    } else {
+      this.data = null;
+      this.text = new OutputStreamWriter (output, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   *  Write the buffered output and close the file.
+   *  @throws IOException Error writing the file.
+   */
+  public void close () throws IOException {
+    if (this.binary) {
+      this.data.close ();
+    } else {
+      this.text.close ();
+    }
+  }
+
+  /**
+   *  Write the features of one query.
+   *  @param matrix The features.
+   *  @throws IOException Error writing the file or accessing the Lucene index.
+   */
+  public void write (FeatureMatrix matrix) throws IOException {
+
+    if (this.binary) {
+      matrix.write (this.data);
+      return;
+    }
+
+    int[] docids = new int[matrix.getRows ()];
+
+    for (int r = 0; r < docids.length; r++) {
+      docids[r] = matrix.getDocid (r);
+    }
+
+    String[] externalIds = Idx.getExternalDocids (docids);
+    StringBuilder line = new StringBuilder ();
+
+    for (int r = 0; r < docids.length; r++) {
+      line.setLength (0);
+      line.append (matrix.getRelevance (r)).append (" qid:").append (matrix.getQid ());
+
+      for (int c = 0; c < matrix.getColumns (); c++) {
+        float v = matrix.get (r, c);
+
+        if (! Float.isNaN (v)) {
+          line.append (' ').append (c + 1).append (':').append (v);
+        }
+      }
+
+      line.append (" # ").append (externalIds[r]).append ('\n');
+      this.text.append (line);
+    }
+  }
+
+}
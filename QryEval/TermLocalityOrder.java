@@ -0,0 +1,133 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  TermLocalityOrder chooses an evaluation order for a batch of
+ *  queries that keeps queries with shared terms and shared inverted
+ *  list subtrees (e.g., #NEAR/n, #SYN) close together, so that the
+ *  bounded InvListCache reuses lists instead of evicting them before
+ *  the next query that needs them.
+ *  <p>
+ *  The order is greedy:  the next query is the unevaluated query that
+ *  shares the most keys with the previous query.  If no unevaluated
+ *  query shares a key, the next query is the first unevaluated query
+ *  in the original order.  Keys are canonical forms of terms and
+ *  inverted list subtrees (see Qry.getCanonicalKey).
+ *  </p>
+ */
+public class TermLocalityOrder {
+
+  /**
+   *  Find the canonical keys of the terms and inverted list subtrees
+   *  of a query.
+   *  @param q A query
+   *  @param keys The keys are added to this set
+   */
+  private static void collectKeys (Qry q, Set<String> keys) {
+
+    if (q instanceof QryIop) {
+      keys.add (q.getCanonicalKey ());
+    }
+
+    for (Qry q_i: q.args) {
+      collectKeys (q_i, keys);
+    }
+  }
+
+  /**
+   *  Choose an evaluation order for a batch of queries.
+   *  @param qryStrings The queries.
+   *  @param model The retrieval model determines how queries are parsed.
+   *  @return The indexes of qryStrings, in evaluation order.
+   */
+  public static int[] order (List<String> qryStrings, RetrievalModel model) {
+
+    int n = qryStrings.size ();
+    List<Set<String>> queryKeys = new ArrayList<Set<String>> (n);
+    Map<String, Set<Integer>> keyQueries = new HashMap<String, Set<Integer>> ();
+
+    //  Index the queries by key.  Queries that can't be parsed have no
+    //  keys; processQuery reports their errors.
+
+    for (int i = 0; i < n; i++) {
+      Set<String> keys = new HashSet<String> ();
+
+      try {
+        Qry q = QryParser.getQuery (model.defaultQrySopName () + "(" +
+                                    qryStrings.get (i) + ")", model);
+        if (q != null) {
+          collectKeys (q, keys);
+        }
+      } catch (IOException | RuntimeException ex) {
+        keys.clear ();
+      }
+
+      queryKeys.add (keys);
+
+      for (String key : keys) {
+        if (! keyQueries.containsKey (key)) {
+          keyQueries.put (key, new HashSet<Integer> ());
+        }
+
+        keyQueries.get (key).add (i);
+      }
+    }
+
+    //  Greedy ordering.  A query is removed from the index when it is
+    //  scheduled, so each step only visits unscheduled queries that
+    //  share a key with the previous query.  shared[i] is the number
+    //  of keys that query i shares with the previous query; the
+    //  entries that a step sets are reset before the next step.
+
+    int[] order = new int[n];
+    boolean[] done = new boolean[n];
+    int[] shared = new int[n];
+    List<Integer> touched = new ArrayList<Integer> ();
+    int nextInFileOrder = 0;
+    int previous = -1;
+
+    for (int k = 0; k < n; k++) {
+      int next = -1;
+
+      if (previous >= 0) {
+        int best = 0;
+
+        for (String key : queryKeys.get (previous)) {
+          for (int i : keyQueries.get (key)) {
+            if (shared[i]++ == 0) {
+              touched.add (i);
+            }
+
+            if ((shared[i] > best) || ((shared[i] == best) && (i < next))) {
+              best = shared[i];
+              next = i;
+            }
+          }
+        }
+
+        for (int i : touched) {
+          shared[i] = 0;
+        }
+        touched.clear ();
+      }
+
+      if (next < 0) {
+        while (done[nextInFileOrder]) {
+          nextInFileOrder++;
+        }
+        next = nextInFileOrder;
+      }
+
+      order[k] = next;
+      done[next] = true;
+      previous = next;
+
+      for (String key : queryKeys.get (next)) {
+        keyQueries.get (key).remove (next);
+      }
+    }
+
+    return order;
+  }
+
+}
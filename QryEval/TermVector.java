@@ -3,6 +3,7 @@
  */
 
 import java.io.*;
+import java.util.*;
 
 import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.Term;
@@ -38,7 +39,17 @@ public class TermVector {
   private int[] positions;	// Index of the stem that at this position
   private String[] stems;	// The vocabulary. 0 indicates a stopword
   private int[] stemsFreq;	// The frequency (tf) of each entry in stems
-  private Term[] terms;
+  private HashMap<String,Integer> stemIndex = null;	// stem -> index in stems
+
+  /**
+   *  The df and ctf of stems, keyed by field and stem.  Feedback and
+   *  LETOR features ask for the same stems in many documents, and
+   *  these statistics don't depend on the document, so they are read
+   *  from the index once.  The cache is cleared when the current index
+   *  changes.
+   */
+  private static final LruCache<String,long[]> STEM_STATISTICS =
+    new LruCache<String,long[]> (100000);
 
   //  --------------- Methods ---------------------------------------
 
@@ -66,65 +77,108 @@ public class TermVector {
 
     int stemsLength = (int) this.luceneTerms.size();
     stems = new String[stemsLength + 1];
-    terms = new Term[stemsLength + 1];
     stemsFreq = new int[stemsLength + 1];
 
-    //  Iterate through the terms, filling in the stem and frequency
-    //  information, and finding the position of the last term. The
-    //  0'th term indicates a stopword, so this loop starts at i=1.
+    //  Iterate through the terms once, filling in the stem and
+    //  frequency information, and collecting (position, stem) pairs.
+    //  The positions array can't be allocated until the last position
+    //  is known. The 0'th term indicates a stopword, so this loop
+    //  starts at i=1.
 
     TermsEnum ithTerm = this.luceneTerms.iterator();
-    
+    PostingsEnum ithPositions = null;
+    int[] stemPositions = new int[4 * (stemsLength + 1)];	// position, stem, ...
+    int pairs = 0;
     int lastPosition = 0;
+
     for (int i = 1; ithTerm.next() != null; i++) {
       stems[i] = ithTerm.term().utf8ToString();
-      terms[i] = new Term(fieldName, ithTerm.term().utf8ToString());
       stemsFreq[i] = (int) ithTerm.totalTermFreq();
       fieldLength += stemsFreq[i]; 
 
-      //  Find the position of the last (indexed) term in the
-      //  document, so that the positions array can be created and
-      //  populated later. The last position for each term is the
-      //  largest, so ignore the positions before it.
-
-      PostingsEnum ithPositions = ithTerm.postings (null, PostingsEnum.POSITIONS);
+      ithPositions = ithTerm.postings (ithPositions, PostingsEnum.POSITIONS);
       ithPositions.nextDoc(); /* Initialize iPositions */
 
-      for (int j = 0; j < ithPositions.freq() - 1; j++)
-        ithPositions.nextPosition();
+      int freq = ithPositions.freq();
 
-      lastPosition = Math.max(lastPosition, ithPositions.nextPosition());
+      if (2 * (pairs + freq) > stemPositions.length)
+        stemPositions = Arrays.copyOf (stemPositions,
+                                       Math.max (2 * stemPositions.length, 2 * (pairs + freq)));
+
+      for (int j = 0; j < freq; j++) {
+        int position = ithPositions.nextPosition();
+        stemPositions[2 * pairs] = position;
+        stemPositions[2 * pairs + 1] = i;
+        pairs++;
+        lastPosition = Math.max(lastPosition, position);
+      }
     }
 
     // Create and fill the positions array. Since we have position indexes, the array's size needs 
     // to be one bigger than the biggest position.
     positions = new int[lastPosition + 1];
 
-    ithTerm = this.luceneTerms.iterator();
+    for (int k = 0; k < pairs; k++) {
+      if (stemPositions[2 * k] >= 0)
+        positions[stemPositions[2 * k]] = stemPositions[2 * k + 1];
+    }
+  }
 
-    for (int i = 0; ithTerm.next() != null; i++) {
-      PostingsEnum ithPositions = ithTerm.postings (null, PostingsEnum.POSITIONS);
+  /**
+   *  Remove all stem statistics from the cache.  It must be called
+   *  when the current index changes.
+   */
+  public static void clearStatisticsCache () {
+    STEM_STATISTICS.clear ();
+  }
 
-      ithPositions.nextDoc(); /* Initialize iPositions */
+  /**
+   *  Get the df and ctf of the i'th stem, from the cache if possible.
+   *  The 0'th stem (stopwords) has no statistics.
+   *  @param i Index of the stem.
+   *  @return df and ctf of the stem.
+   *  @throws IOException Error accessing the Lucene index
+   */
+  private long[] getStemStatistics (int i) throws IOException {
 
-      for (int j = 0; j < ithPositions.freq(); j++)
-        positions[ithPositions.nextPosition()] = i + 1;
+    if (this.stems[i] == null) {
+      return new long[] { 0, 0 };
     }
+
+    String key = this.fieldName + '\t' + this.stems[i];
+    long[] statistics = STEM_STATISTICS.get (key);
+
+    if (statistics == null) {
+      Term term = new Term (this.fieldName, this.stems[i]);
+      statistics = new long[] { Idx.INDEXREADER.docFreq (term),
+                                Idx.INDEXREADER.totalTermFreq (term) };
+      STEM_STATISTICS.put (key, statistics);
+    }
+
+    return statistics;
   }
 
   /**
    *  Get the index of stem in the stems vector, or -1 if the stems
-   *  vector does not contain the stem.  
+   *  vector does not contain the stem.  A hash index of the stems is
+   *  built the first time that this method is called.
    *  @param stem The stem to search for.
    *  @return the index of the stem in the stems vector, or -1 if it does not occur.
    */
   public int indexOfStem (String stem) {
-    
-    for (int s=1; s<this.stems.length; s++)
-      if (stem.equals (this.stems [s]))
-	return s;
-    
-    return -1;
+
+    if (this.stems == null)
+      return -1;
+
+    if (this.stemIndex == null) {
+      this.stemIndex = new HashMap<String,Integer> (2 * this.stems.length);
+
+      for (int s=1; s<this.stems.length; s++)
+        this.stemIndex.put (this.stems [s], s);
+    }
+
+    Integer s = this.stemIndex.get (stem);
+    return (s == null) ? -1 : s;
   }
 
   /**
@@ -196,7 +250,7 @@ public class TermVector {
    * @throws IOException  Error accessing the Lucene index
    */
   public long totalStemFreq(int i) throws IOException {
-    return Idx.INDEXREADER.totalTermFreq(terms[i]);
+    return getStemStatistics (i)[1];
   }
   
   /**
@@ -206,7 +260,7 @@ public class TermVector {
    * @throws IOException Error accessing the Lucene index
    */
   public int stemDf(int i) throws IOException {
-    return Idx.INDEXREADER.docFreq(terms[i]);
+    return (int) getStemStatistics (i)[0];
   }
   
 }
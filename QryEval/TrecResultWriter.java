@@ -0,0 +1,292 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  TrecResultWriter writes rankings in trec_eval format.  Rankings are
+ *  queued by the threads that produce them, and a writer thread sorts
+ *  them, resolves their external document ids, formats them, and
+ *  writes them, so output overlaps with query evaluation.
+ *  <p>
+ *  The writer thread runs from start to close, so a writer must be
+ *  started before rankings are written, e.g.,
+ *  <pre>
+ *    TrecResultWriter writer = new TrecResultWriter (path, 256).start ();
+ *  </pre>
+ *  The constructor doesn't start the thread, so that the thread
+ *  never sees a partly constructed subclass.
+ *  </p><p>
+ *  The output file is opened once, in append mode.  Formatted lines
+ *  are collected in a large buffer and written in batches.  The queue
+ *  is bounded, so producers wait if the writer falls behind.  Rankings
+ *  are written in the order that they are queued.  Nothing is
+ *  guaranteed to be on disk until close is called.
+ *  </p><p>
+ *  Subclasses may write other formats (e.g., BinaryRunWriter) by
+ *  overriding format, flush, and finish.
+ *  </p>
+ */
+public class TrecResultWriter {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  The default number of rankings that may wait to be written.
+   */
+  public static final int DEFAULT_QUEUE_LENGTH = 256;
+
+  /**
+   *  Formatted lines are written when the buffer has this many characters.
+   */
+  protected static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   *  Marks the end of the queue.
+   */
+  private static final Ranking END = new Ranking (null, null, 0);
+
+  protected final FileChannel channel;
+  private final BlockingQueue<Ranking> queue;
+  private final Thread writerThread;
+  private final StringBuilder lines = new StringBuilder (BUFFER_SIZE);
+  private final Charset charset = Charset.defaultCharset ();
+
+  /**
+   *  The first error that the writer thread encountered, if any.
+   */
+  private volatile IOException error = null;
+
+  //  --------------- Nested classes --------------------------------
+
+  /**
+   *  A ranking that is waiting to be written.
+   */
+  protected static class Ranking {
+    final String queryName;
+    final ScoreList result;
+    final int outputLength;
+
+    Ranking (String queryName, ScoreList result, int outputLength) {
+      this.queryName = queryName;
+      this.result = result;
+      this.outputLength = outputLength;
+    }
+  }
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Open the output file.  Call start before writing rankings.
+   *  @param outputPath Path to the trec_eval output file
+   *  @param queueLength The number of rankings that may wait to be written
+   *  @throws IOException The output file can't be opened
+   */
+  public TrecResultWriter (String outputPath, int queueLength) throws IOException {
+    this (outputPath, queueLength, true);
+  }
+
+  /**
+   *  Open the output file.  Call start before writing rankings.
+   *  @param outputPath Path to the output file
+   *  @param queueLength The number of rankings that may wait to be written
+   *  @param append True to append to the output file, false to replace it
+   *  @throws IOException The output file can't be opened
+   */
+  protected TrecResultWriter (String outputPath, int queueLength, boolean append)
+    throws IOException {
+
+    this.channel = FileChannel.open (Paths.get (outputPath),
+                                     StandardOpenOption.CREATE,
+                                     StandardOpenOption.WRITE,
+                                     append ? StandardOpenOption.APPEND :
+                                              StandardOpenOption.TRUNCATE_EXISTING);
+    this.queue = new ArrayBlockingQueue<Ranking> (queueLength);
+    this.writerThread = new Thread (new Runnable () {
+      public void run () {
+        writeQueue ();
+      }
+    }, "TrecResultWriter");
+    this.writerThread.setDaemon (true);		// Don't keep the JVM alive
+  }
+
+  /**
+   *  Write the remaining rankings, stop the writer thread, and close
+   *  the output file.
+   *  @throws IOException Error writing the output file
+   */
+  public void close () throws IOException {
+
+    try {
+      if (this.writerThread.getState () != Thread.State.NEW) {
+        this.queue.put (END);
+        this.writerThread.join ();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ("Interrupted while writing results.");
+    } finally {
+      this.channel.close ();
+    }
+
+    this.checkError ();
+  }
+
+  /**
+   *  Throw the writer thread's error, if it had one.
+   *  @throws IOException The writer thread's error
+   */
+  private void checkError () throws IOException {
+    if (this.error != null) {
+      throw this.error;
+    }
+  }
+
+  /**
+   *  Get the amount of formatted output in the buffer.
+   *  @return The number of buffered characters (or bytes).
+   */
+  protected int buffered () {
+    return this.lines.length ();
+  }
+
+  /**
+   *  Write anything that must follow the last ranking.  It is called
+   *  by the writer thread after the last flush.
+   *  @throws IOException Error writing the output file
+   */
+  protected void finish () throws IOException {
+  }
+
+  /**
+   *  Write the formatted lines in the buffer to the output file.
+   *  @throws IOException Error writing the output file
+   */
+  protected void flush () throws IOException {
+
+    ByteBuffer bytes = this.charset.encode (CharBuffer.wrap (this.lines));
+
+    while (bytes.hasRemaining ()) {
+      this.channel.write (bytes);
+    }
+
+    this.lines.setLength (0);
+  }
+
+  /**
+   *  Format a ranking in trec_eval format and append it to the buffer.
+   *  A ranking that has no documents is written as a dummy record.
+   *  @param ranking The ranking.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  protected void format (Ranking ranking) throws IOException {
+
+    ScoreList result = ranking.result;
+
+    if (result.size () < 1) {
+      this.lines.append (ranking.queryName).append (" Q0 dummyRecord 1 0 run-1\n");
+      return;
+    }
+
+    result.sort ();
+
+    int n = Math.min (ranking.outputLength, result.size ());
+    int[] docids = new int[n];
+
+    for (int i = 0; i < n; i++) {
+      docids[i] = result.getDocid (i);
+    }
+
+    String[] externalIds = Idx.getExternalDocids (docids);
+
+    for (int i = 0; i < n; i++) {
+      this.lines.append (ranking.queryName).append (" Q0 ")
+        .append (externalIds[i]).append (' ')
+        .append (i + 1).append (' ')
+        .append (result.getDocidScore (i)).append (" run-1\n");
+    }
+  }
+
+  /**
+   *  Start the writer thread.  It must be called once, after the
+   *  writer is constructed and before rankings are written.
+   *  @return This writer.
+   */
+  public TrecResultWriter start () {
+    this.writerThread.start ();
+    return this;
+  }
+
+  /**
+   *  Queue a ranking to be written.  The ranking is sorted by the
+   *  writer thread, so the caller must not change it afterwards.
+   *  @param queryName The query id
+   *  @param result A list of document ids and scores
+   *  @param outputLength The maximum number of documents to write
+   *  @throws IOException The writer thread failed, or the caller was interrupted
+   */
+  public void write (String queryName, ScoreList result, int outputLength)
+    throws IOException {
+
+    if (this.writerThread.getState () == Thread.State.NEW) {
+      throw new IllegalStateException ("The writer isn't started.");
+    }
+
+    this.checkError ();
+
+    try {
+      this.queue.put (new Ranking (queryName, result, outputLength));
+    } catch (InterruptedException ex) {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ("Interrupted while writing results.");
+    }
+  }
+
+  /**
+   *  The body of the writer thread.  After an error, rankings are
+   *  discarded so that producers don't wait forever; the error is
+   *  reported by write and close.  A RuntimeException (e.g., from a
+   *  subclass's format) is reported as an IOException, so that it
+   *  doesn't end the thread.
+   */
+  private void writeQueue () {
+
+    try {
+      Ranking ranking;
+
+      while ((ranking = this.queue.take ()) != END) {
+        if (this.error != null) {
+          continue;
+        }
+
+        try {
+          this.format (ranking);
+
+          if (this.buffered () >= BUFFER_SIZE) {
+            this.flush ();
+          }
+        } catch (IOException ex) {
+          this.error = ex;
+        } catch (RuntimeException ex) {
+          this.error = new IOException ("Error writing results for query " +
+                                        ranking.queryName + ".", ex);
+        }
+      }
+
+      if (this.error == null) {
+        this.flush ();
+        this.finish ();
+      }
+    } catch (IOException ex) {
+      this.error = ex;
+    } catch (RuntimeException ex) {
+      this.error = new IOException ("Error writing results.", ex);
+    } catch (InterruptedException ex) {
+      this.error = new InterruptedIOException ("Interrupted while writing results.");
+    }
+  }
+
+}
@@ -0,0 +1,275 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  TrecRunReader reads a run file in trec_eval format, e.g., an initial
+ *  ranking for diversification, one query at a time.  Each line is:
+ *  <pre>
+ *    qid Q0 externalDocid rank score runId
+ *  </pre>
+ *  <p>
+ *  The lines of a query must be consecutive.  The file is streamed
+ *  through a fixed buffer and scanned as bytes, so lines aren't split
+ *  into arrays of Strings, and a query id is decoded only when it
+ *  changes.  The external docids of a query's ranking are converted to
+ *  internal docids together, by Idx.getInternalDocids, and the
+ *  ScoreList keeps the external docids, so they aren't read from the
+ *  index again.
+ *  </p>
+ */
+public class TrecRunReader implements RunReader {
+
+  //  --------------- Constants and variables ---------------------
+
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final FileChannel channel;
+  private ByteBuffer buffer = ByteBuffer.allocate (BUFFER_SIZE);
+  private boolean eof = false;
+  private int lineNumber = 0;
+
+  /**
+   *  The query id of the last ranking that next returned.
+   */
+  private String qid = null;
+
+  /**
+   *  The fields of the line that was read last.  If pending is true,
+   *  it belongs to the next ranking.
+   */
+  private boolean pending = false;
+  private String lineQid = null;
+  private String lineExternalId = null;
+  private double lineScore;
+
+  /**
+   *  The bytes of lineQid, to recognize the next line of the same query.
+   */
+  private byte[] lineQidBytes = new byte[0];
+
+  /**
+   *  The offsets of the fields of the line that is being parsed.
+   */
+  private final int[] fieldStart = new int[5];
+  private final int[] fieldEnd = new int[5];
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Open a run file.
+   *  @param path The path to the run file.
+   *  @throws IOException The file can't be opened.
+   */
+  public TrecRunReader (String path) throws IOException {
+    this.channel = FileChannel.open (Paths.get (path), StandardOpenOption.READ);
+    this.buffer.flip ();			// Empty, ready to read
+  }
+
+  /**
+   *  Close the run file.
+   *  @throws IOException Error closing the file.
+   */
+  public void close () throws IOException {
+    this.channel.close ();
+  }
+
+  /**
+   *  Read more of the file into the buffer, keeping the unread bytes.
+   *  The buffer grows if a line doesn't fit.
+   *  @throws IOException Error reading the file.
+   */
+  private void fill () throws IOException {
+
+    this.buffer.compact ();
+
+    if (! this.buffer.hasRemaining ()) {
+      ByteBuffer larger = ByteBuffer.allocate (2 * this.buffer.capacity ());
+      this.buffer.flip ();
+      larger.put (this.buffer);
+      this.buffer = larger;
+    }
+
+    if (this.channel.read (this.buffer) < 0) {
+      this.eof = true;
+    }
+
+    this.buffer.flip ();
+  }
+
+  /**
+   *  Get the query id of the last ranking that next returned.
+   *  @return The query id, or null.
+   */
+  public String getQid () {
+    return this.qid;
+  }
+
+  /**
+   *  Read the next query's ranking.
+   *  @return The ranking, in file order, or null at the end of the file.
+   *  @throws Exception Error reading the file, or an external docid
+   *  isn't in the index.
+   */
+  public ScoreList next () throws Exception {
+
+    if (! this.pending && ! this.readLine ()) {
+      return null;
+    }
+
+    this.qid = this.lineQid;
+
+    List<String> externalIds = new ArrayList<String> ();
+    double[] scores = new double[16];
+
+    while (true) {
+      if (externalIds.size () == scores.length) {
+        scores = Arrays.copyOf (scores, 2 * scores.length);
+      }
+
+      scores[externalIds.size ()] = this.lineScore;
+      externalIds.add (this.lineExternalId);
+
+      if (! this.readLine ()) {
+        this.pending = false;
+        break;
+      }
+
+      if (this.lineQid != this.qid) {
+        this.pending = true;			// The first line of the next query
+        break;
+      }
+    }
+
+    String[] ids = externalIds.toArray (new String[externalIds.size ()]);
+    int[] docids = Idx.getInternalDocids (ids);
+    ScoreList ranking = new ScoreList ();
+
+    for (int i = 0; i < ids.length; i++) {
+      ranking.add (docids[i], ids[i], scores[i]);
+    }
+
+    return ranking;
+  }
+
+  /**
+   *  Read the next line that isn't blank, and set the line fields.
+   *  lineQid is the same String object as long as the query id doesn't
+   *  change.
+   *  @return True if a line was read, false at the end of the file.
+   *  @throws IOException Error reading the file.
+   *  @throws IllegalArgumentException The line has too few fields.
+   */
+  private boolean readLine () throws IOException, IllegalArgumentException {
+
+    while (true) {
+
+      //  Find the end of the line.
+
+      byte[] bytes = this.buffer.array ();
+      int start = this.buffer.position ();
+      int limit = this.buffer.limit ();
+      int end = start;
+
+      while ((end < limit) && (bytes[end] != '\n')) {
+        end++;
+      }
+
+      if (end == limit) {
+        if (! this.eof) {
+          this.fill ();
+          continue;
+        }
+
+        if (start == limit) {
+          return false;
+        }
+      }
+
+      this.buffer.position (Math.min (end + 1, limit));
+      this.lineNumber++;
+
+      //  Find the fields.  Only qid, externalDocid, and score are used.
+
+      int fields = 0;
+      int i = start;
+
+      while (fields < 5) {
+        while ((i < end) && isSpace (bytes[i])) {
+          i++;
+        }
+
+        if (i == end) {
+          break;
+        }
+
+        fieldStart[fields] = i;
+
+        while ((i < end) && ! isSpace (bytes[i])) {
+          i++;
+        }
+
+        fieldEnd[fields++] = i;
+      }
+
+      if (fields == 0) {
+        continue;				// A blank line
+      }
+
+      if (fields < 5) {
+        throw new IllegalArgumentException
+          ("Syntax error:  Line " + this.lineNumber + " of the run file has too few fields.");
+      }
+
+      if ((this.lineQid == null) ||
+          ! sameBytes (this.lineQidBytes, bytes, fieldStart[0], fieldEnd[0])) {
+        this.lineQidBytes = Arrays.copyOfRange (bytes, fieldStart[0], fieldEnd[0]);
+        this.lineQid = new String (this.lineQidBytes, StandardCharsets.UTF_8);
+      }
+
+      this.lineExternalId = new String (bytes, fieldStart[2], fieldEnd[2] - fieldStart[2],
+                                        StandardCharsets.UTF_8);
+      this.lineScore = Double.parseDouble (
+        new String (bytes, fieldStart[4], fieldEnd[4] - fieldStart[4], StandardCharsets.US_ASCII));
+
+      return true;
+    }
+  }
+
+  /**
+   *  Indicates whether a range of a byte array has the same bytes as
+   *  another byte array.
+   *  @param a A byte array.
+   *  @param b Another byte array.
+   *  @param start The start of the range of b.
+   *  @param end The end of the range of b (exclusive).
+   *  @return True if the bytes are the same.
+   */
+  private static boolean sameBytes (byte[] a, byte[] b, int start, int end) {
+
+    if (a.length != end - start) {
+      return false;
+    }
+
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] != b[start + i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   *  Indicates whether a byte separates fields.
+   *  @param b A byte.
+   *  @return True if the byte is a space, tab, or carriage return.
+   */
+  private static boolean isSpace (byte b) {
+    return (b == ' ') || (b == '\t') || (b == '\r');
+  }
+
+}
@@ -0,0 +1,244 @@
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  Tests of QryEval.processDiversityList.  Its incremental xQuAD and
+ *  PM2 selection is compared to a reference that rescores every
+ *  candidate at every rank and scans them all for the best one.
+ */
+public class DiversityTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private static final int DOCS = 200;
+  private static final int INTENTS = 4;
+  private static final double LAMBDA = 0.7;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Build a DiversityList whose intent scores are mostly 0, as they
+   *  are when intents retrieve different documents.
+   *  @param random The random number generator.
+   *  @return The DiversityList.
+   *  @throws Exception Error accessing the index.
+   */
+  private static DiversityList createList (Random random) throws Exception {
+
+    int[] docids = new int[DOCS];
+    List<String> intents = new ArrayList<String> ();
+
+    for (int d = 0; d < DOCS; d++) {
+      docids[d] = d * 3;
+    }
+
+    intents.add ("1");
+
+    for (int j = 1; j <= INTENTS; j++) {
+      intents.add ("1." + j);
+    }
+
+    DiversityList divList = new DiversityList (docids, intents);
+
+    for (int d = 0; d < DOCS; d++) {
+      divList.add (docids[d], "1", random.nextDouble ());
+
+      for (int j = 1; j <= INTENTS; j++) {
+        if (random.nextInt (4) == 0) {
+          divList.add (docids[d], "1." + j, (random.nextInt (5) + 1) / 10.0);
+        }
+      }
+    }
+
+    return divList;
+  }
+
+  /**
+   *  Diversify a list by rescoring every candidate at every rank.
+   *  @param algorithm "xQuAD" or "PM2".
+   *  @param divList The candidates.
+   *  @param length The length of the ranking.
+   *  @return The ranking.
+   */
+  private static ScoreList reference (String algorithm, DiversityList divList, int length) {
+
+    int n = divList.size ();
+    double weight = 1.0 / INTENTS;
+    double[] queryScores = divList.getScores ("1");
+    double[][] intentScores = new double[INTENTS][];
+    double[] state = new double[INTENTS];
+    boolean[] selected = new boolean[n];
+    ScoreList results = new ScoreList ();
+
+    for (int j = 0; j < INTENTS; j++) {
+      intentScores[j] = divList.getScores ("1." + (j + 1));
+    }
+
+    Arrays.fill (state, algorithm.equals ("xQuAD") ? 1.0 : 0.0);	// coverage or slots
+
+    for (int r = 0; r < length && r < n; r++) {
+      double[] qts = new double[INTENTS];
+      int max = 0;
+
+      for (int j = 0; j < INTENTS; j++) {
+        qts[j] = weight * length / (2 * state[j] + 1);
+
+        if (qts[j] > qts[max]) {
+          max = j;
+        }
+      }
+
+      int best = -1;
+      double bestScore = 0;
+
+      for (int d = 0; d < n; d++) {
+        if (selected[d]) {
+          continue;
+        }
+
+        double score = 0;
+
+        if (algorithm.equals ("xQuAD")) {
+          double divSum = 0.0;
+
+          for (int j = 0; j < INTENTS; j++) {
+            divSum += weight * intentScores[j][d] * state[j];
+          }
+          score = (1 - LAMBDA) * queryScores[d] + LAMBDA * divSum;
+        } else {
+          double coverage = 0;
+
+          for (int j = 0; j < INTENTS; j++) {
+            if (j != max) {
+              coverage += qts[j] * intentScores[j][d];
+            }
+          }
+          score = LAMBDA * qts[max] * intentScores[max][d] + (1 - LAMBDA) * coverage;
+        }
+
+        if ((best < 0) || divList.ranksBefore (score, d, bestScore, best)) {
+          best = d;
+          bestScore = score;
+        }
+      }
+
+      double sum = 0;
+
+      for (int j = 0; j < INTENTS; j++) {
+        sum += intentScores[j][best];
+      }
+
+      for (int j = 0; j < INTENTS; j++) {
+        if (algorithm.equals ("xQuAD")) {
+          state[j] = state[j] * (1 - intentScores[j][best]);
+        } else {
+          state[j] = state[j] + intentScores[j][best] / sum;
+        }
+      }
+
+      selected[best] = true;
+      results.add (divList.getDocid (best), bestScore);
+    }
+
+    return results;
+  }
+
+  /**
+   *  Check that processDiversityList ranks as the reference does.
+   *  @param algorithm "xQuAD" or "PM2".
+   *  @throws Exception Error accessing the index or the files.
+   */
+  private void checkAlgorithm (String algorithm) throws Exception {
+
+    Path dir = Files.createTempDirectory ("qryeval-diversity");
+    Path actualFile = dir.resolve ("actual.teIn");
+    Path expectedFile = dir.resolve ("expected.teIn");
+    Map<String, String> parameters = new HashMap<String, String> ();
+
+    parameters.put ("diversity:algorithm", algorithm);
+    parameters.put ("diversity:lambda", Double.toString (LAMBDA));
+    parameters.put ("diversity:maxResultRankingLength", "50");
+
+    try {
+      for (int seed = 1; seed <= 5; seed++) {
+        DiversityList divList = createList (new Random (seed));
+
+        Files.deleteIfExists (actualFile);	// The writer appends
+        Files.deleteIfExists (expectedFile);
+
+        TrecResultWriter writer = new TrecResultWriter (actualFile.toString (), 4).start ();
+
+        QryEval.processDiversityList (parameters, divList, "1." + INTENTS, writer);
+        writer.close ();
+
+        writer = new TrecResultWriter (expectedFile.toString (), 4).start ();
+        writer.write ("1", reference (algorithm, divList, 50), 50);
+        writer.close ();
+
+        String expected = new String (Files.readAllBytes (expectedFile));
+
+        this.checkEquals (50, expected.split ("\n").length, algorithm + " ranking length");
+        this.checkEquals (expected, new String (Files.readAllBytes (actualFile)),
+                          algorithm + " ranking with seed " + seed);
+      }
+    } finally {
+      Files.deleteIfExists (actualFile);
+      Files.deleteIfExists (expectedFile);
+      Files.delete (dir);
+    }
+  }
+
+  public void testPM2 () throws Exception {
+    this.checkAlgorithm ("PM2");
+  }
+
+  public void testStopwordIntent () throws Exception {
+
+    //  An intent that has only stopwords retrieves nothing.  It
+    //  doesn't stop the other queries.
+
+    Path dir = Files.createTempDirectory ("qryeval-diversity");
+    Path queryFile = dir.resolve ("queries.txt");
+    Path intentsFile = dir.resolve ("intents.txt");
+    Path outputFile = dir.resolve ("output.teIn");
+    Map<String, String> parameters = new HashMap<String, String> ();
+
+    Files.write (queryFile, Arrays.asList ("1:mango peach", "2:plum grape"));
+    Files.write (intentsFile, Arrays.asList ("1.1:the of", "1.2:mango", "2.1:plum", "2.2:grape"));
+
+    parameters.put ("diversity", "true");
+    parameters.put ("diversity:algorithm", "xQuAD");
+    parameters.put ("diversity:lambda", Double.toString (LAMBDA));
+    parameters.put ("diversity:intentsFile", intentsFile.toString ());
+    parameters.put ("diversity:maxInputRankingsLength", "100");
+    parameters.put ("diversity:maxResultRankingLength", "10");
+
+    try {
+      QryEval.processQueryFile (queryFile.toString (), new RetrievalModelBM25 ("1.2", "0.75", "0"),
+                                outputFile.toString (), 10, parameters);
+
+      Set<String> qids = new TreeSet<String> ();
+
+      for (String line : Files.readAllLines (outputFile)) {
+        qids.add (line.split (" ")[0]);
+      }
+
+      this.checkEquals ("[1, 2]", qids.toString (), "queries with results");
+    } finally {
+      Files.deleteIfExists (queryFile);
+      Files.deleteIfExists (intentsFile);
+      Files.deleteIfExists (outputFile);
+      Files.delete (dir);
+    }
+  }
+
+  public void testXQuAD () throws Exception {
+    this.checkAlgorithm ("xQuAD");
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new DiversityTest ().run ();
+  }
+
+}
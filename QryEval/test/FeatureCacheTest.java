@@ -0,0 +1,345 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  Tests of FeatureCache:  entries survive closing and reopening the
+ *  file, adding columns, and doubling the table; a feature whose
+ *  version changes is invalidated; a file for another index is
+ *  emptied; and FeatureExtractor computes only the features that the
+ *  cache doesn't have.
+ */
+public class FeatureCacheTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private static final int HEADER_SIZE = 32 + 8 * FeatureCache.MAX_COLUMNS;
+  private static final int INITIAL_CAPACITY = 1 << 16;
+
+  private Path dir = null;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Get the path of a new cache file.  The file is deleted when the
+   *  test exits.
+   *  @param name The file name.
+   *  @return The path.
+   *  @throws IOException Error creating the directory.
+   */
+  private String getCachePath (String name) throws IOException {
+
+    if (this.dir == null) {
+      this.dir = Files.createTempDirectory ("qryeval-cache");
+      this.dir.toFile ().deleteOnExit ();
+    }
+
+    Path file = this.dir.resolve (name);
+
+    file.toFile ().deleteOnExit ();
+    this.dir.resolve (name + ".tmp").toFile ().deleteOnExit ();
+    return file.toString ();
+  }
+
+  /**
+   *  Create feature versions.
+   *  @param versions The version of each feature.
+   *  @return The versions.
+   */
+  private static long[] versions (long... versions) {
+    return versions;
+  }
+
+  /**
+   *  Get the expected value of a feature.
+   *  @param docid The internal docid.
+   *  @param c The feature.
+   *  @return The value.
+   */
+  private static float value (int docid, int c) {
+    return docid + c / 8.0f;
+  }
+
+  /**
+   *  Create a matrix of documents with the expected values (see value).
+   *  @param docids The internal docids.
+   *  @param columns The number of features.
+   *  @return The matrix.
+   */
+  private static FeatureMatrix matrix (int[] docids, int columns) {
+
+    FeatureMatrix matrix = new FeatureMatrix ("1", docids, null, columns);
+
+    for (int row = 0; row < docids.length; row++) {
+      for (int c = 0; c < columns; c++) {
+        matrix.set (row, c, value (docids[row], c));
+      }
+    }
+
+    return matrix;
+  }
+
+  /**
+   *  Check the cached features of a document.
+   *  @param cache The cache.
+   *  @param query The query key.
+   *  @param docid The internal docid.
+   *  @param columns The number of features to get.
+   *  @param expectedValid The validity bits that the cache should have.
+   *  @param message What is checked.
+   */
+  private void checkEntry (FeatureCache cache, long query, int docid, int columns,
+                           long expectedValid, String message) {
+
+    FeatureMatrix matrix = new FeatureMatrix ("1", new int[] { docid }, null, columns);
+    long valid = cache.get (query, docid, matrix, 0);
+
+    this.checkEquals (Long.toBinaryString (expectedValid), Long.toBinaryString (valid),
+                      message + ":  docid " + docid + " validity bits");
+
+    for (int c = 0; c < columns; c++) {
+      float expected = ((expectedValid & (1L << c)) != 0) ? value (docid, c) : Float.NaN;
+
+      this.checkEquals (expected, matrix.get (0, c),
+                        message + ":  docid " + docid + " feature " + c);
+    }
+  }
+
+  public void testReopen () throws Exception {
+
+    String path = this.getCachePath ("reopen.cache");
+    long query = FeatureCache.getQueryKey ("1", "apple pie");
+    long other = FeatureCache.getQueryKey ("1", "apple tart");
+    int[] docids = { 0, 7, 42, 599 };
+    FeatureCache cache = new FeatureCache (path, versions (11, 12, 13));
+
+    cache.put (query, 0, matrix (docids, 3), 0, 0x7);
+    cache.put (query, 7, matrix (docids, 3), 1, 0x5);
+    cache.put (query, 42, matrix (docids, 3), 2, 0x1);
+    cache.put (query, 42, matrix (docids, 3), 2, 0x2);	// Adds a feature
+    this.checkEntry (cache, query, 42, 3, 0x3, "open");
+    this.checkEntry (cache, query, 599, 3, 0x0, "open");
+    this.checkEntry (cache, other, 0, 3, 0x0, "another query");
+    cache.close ();
+
+    cache = new FeatureCache (path, versions (11, 12, 13));
+    this.checkEntry (cache, query, 0, 3, 0x7, "reopened");
+    this.checkEntry (cache, query, 7, 3, 0x5, "reopened");
+    this.checkEntry (cache, query, 42, 3, 0x3, "reopened");
+    this.checkEntry (cache, query, 599, 3, 0x0, "reopened");
+    this.checkEntry (cache, other, 7, 3, 0x0, "another query");
+    this.checkEntry (cache, query, 0, 2, 0x3, "fewer columns");
+    cache.close ();
+  }
+
+  public void testVersionChange () throws Exception {
+
+    String path = this.getCachePath ("version.cache");
+    long query = FeatureCache.getQueryKey ("2", "sugar");
+    int[] docids = { 3, 4, 5 };
+    FeatureCache cache = new FeatureCache (path, versions (21, 22, 23, 24));
+
+    for (int row = 0; row < docids.length; row++) {
+      cache.put (query, docids[row], matrix (docids, 4), row, 0xf);
+    }
+    cache.close ();
+
+    //  Only the features whose versions changed are invalidated.
+
+    cache = new FeatureCache (path, versions (21, 99, 23, 98));
+
+    for (int docid : docids) {
+      this.checkEntry (cache, query, docid, 4, 0x5, "features 1 and 3 changed");
+    }
+
+    cache.put (query, 4, matrix (docids, 4), 1, 0x2);
+    cache.close ();
+
+    cache = new FeatureCache (path, versions (21, 99, 23, 98));
+    this.checkEntry (cache, query, 3, 4, 0x5, "unchanged versions");
+    this.checkEntry (cache, query, 4, 4, 0x7, "a recomputed feature");
+    cache.close ();
+  }
+
+  public void testAddColumns () throws Exception {
+
+    String path = this.getCachePath ("columns.cache");
+    long query = FeatureCache.getQueryKey ("3", "honey");
+    int[] docids = { 10, 20, 30 };
+    FeatureCache cache = new FeatureCache (path, versions (31, 32));
+
+    for (int row = 0; row < docids.length; row++) {
+      cache.put (query, docids[row], matrix (docids, 2), row, 0x3);
+    }
+    cache.close ();
+
+    //  The table is rebuilt with more columns; the new ones are invalid.
+
+    cache = new FeatureCache (path, versions (31, 32, 33, 34, 35));
+    this.checkEquals (HEADER_SIZE + (long) INITIAL_CAPACITY * (20 + 4 * 5),
+                      new File (path).length (), "the file has 5 columns");
+    this.check (! new File (path + ".tmp").exists (), "the temporary file is renamed");
+
+    for (int docid : docids) {
+      this.checkEntry (cache, query, docid, 5, 0x3, "added columns");
+    }
+
+    cache.put (query, 20, matrix (docids, 5), 1, 0x1c);
+    this.checkEntry (cache, query, 20, 5, 0x1f, "a new column");
+    cache.close ();
+
+    cache = new FeatureCache (path, versions (31, 32, 33, 34, 35));
+    this.checkEntry (cache, query, 10, 5, 0x3, "reopened");
+    this.checkEntry (cache, query, 20, 5, 0x1f, "reopened");
+    cache.close ();
+  }
+
+  public void testGrow () throws Exception {
+
+    //  The table doubles when it is 3/4 full.
+
+    String path = this.getCachePath ("grow.cache");
+    long query = FeatureCache.getQueryKey ("4", "lemon");
+    int n = INITIAL_CAPACITY / 4 * 3 + 1;
+    int[] docids = new int[n];
+
+    for (int i = 0; i < n; i++) {
+      docids[i] = i;
+    }
+
+    FeatureMatrix matrix = matrix (docids, 2);
+    FeatureCache cache = new FeatureCache (path, versions (41, 42));
+
+    for (int i = 0; i < n - 1; i++) {
+      cache.put (query, i, matrix, i, 0x3);
+    }
+
+    this.checkEquals (HEADER_SIZE + (long) INITIAL_CAPACITY * (20 + 4 * 2),
+                      new File (path).length (), "the table is 3/4 full");
+
+    cache.put (query, n - 1, matrix, n - 1, 0x1);
+    this.checkEquals (HEADER_SIZE + 2L * INITIAL_CAPACITY * (20 + 4 * 2),
+                      new File (path).length (), "the table doubled");
+    cache.close ();
+
+    cache = new FeatureCache (path, versions (41, 42));
+
+    for (int i = 0; i < n; i++) {
+      if (i % 997 == 0) {
+        this.checkEntry (cache, query, i, 2, 0x3, "after doubling");
+      }
+    }
+
+    this.checkEntry (cache, query, n - 1, 2, 0x1, "after doubling");
+    this.checkEntry (cache, query, n, 2, 0x0, "after doubling");
+    cache.close ();
+  }
+
+  public void testFingerprint () throws Exception {
+
+    String path = this.getCachePath ("fingerprint.cache");
+    long query = FeatureCache.getQueryKey ("5", "mango");
+    int[] docids = { 1, 2 };
+    FeatureCache cache = new FeatureCache (path, versions (51));
+
+    cache.put (query, 1, matrix (docids, 1), 0, 0x1);
+    cache.close ();
+
+    //  A cache for another index (or in another format) is emptied.
+
+    for (int offset : new int[] { 8, 0, 4 }) {
+      RandomAccessFile file = new RandomAccessFile (path, "rw");
+
+      file.seek (offset);
+      file.writeInt (file.readInt () ^ 0x10);	// Corrupt one int
+      file.close ();
+
+      cache = new FeatureCache (path, versions (51));
+      this.checkEntry (cache, query, 1, 1, 0x0, "after corrupting offset " + offset);
+      cache.put (query, 1, matrix (docids, 1), 0, 0x1);
+      cache.close ();
+
+      cache = new FeatureCache (path, versions (51));
+      this.checkEntry (cache, query, 1, 1, 0x1, "the new cache is used");
+      cache.close ();
+    }
+  }
+
+  public void testExtractor () throws Exception {
+
+    String path = this.getCachePath ("extractor.cache");
+    RetrievalModelLetor letor = new RetrievalModelLetor ("1.2", "0.75", "0", "2500", "0.4");
+    RetrievalModelLetor letor2 = new RetrievalModelLetor ("0.9", "0.75", "0", "2500", "0.4");
+    String query = "apple pie";
+    int[] docids = new int[TestIndex.NUM_DOCS / 5];
+    int columns = FeatureExtractor.NUM_FEATURES;
+    int sentinelColumn = 4 + 2;			// overlap:body
+    float sentinel = -7.5f;
+
+    for (int i = 0; i < docids.length; i++) {
+      docids[i] = 5 * i + 2;
+    }
+
+    //  Compute the features, and cache them.
+
+    FeatureExtractor extractor = new FeatureExtractor (letor, 1, path);
+    FeatureMatrix first = extractor.getFeatures ("1", query, docids, null);
+    long[] versions = extractor.getFeatureVersions ();
+
+    extractor.shutdown ();
+
+    //  Replace a cached feature, to tell cached features from computed ones.
+
+    FeatureCache cache = new FeatureCache (path, versions);
+    FeatureMatrix sentinels = new FeatureMatrix ("1", docids, null, columns);
+    long queryKey = FeatureCache.getQueryKey ("1", query);
+
+    for (int row = 0; row < docids.length; row++) {
+      sentinels.set (row, sentinelColumn, sentinel);
+      cache.put (queryKey, docids[row], sentinels, row, 1L << sentinelColumn);
+    }
+    cache.close ();
+
+    //  A new BM25 parameter invalidates only the BM25 features.
+
+    FeatureExtractor uncached = new FeatureExtractor (letor2, 1, null);
+    FeatureMatrix expected = uncached.getFeatures ("1", query, docids, null);
+
+    uncached.shutdown ();
+
+    for (int pass = 0; pass < 2; pass++) {
+      extractor = new FeatureExtractor (letor2, 2, path);
+      FeatureMatrix actual = extractor.getFeatures ("1", query, docids, null);
+      int bm25Differs = 0;
+
+      extractor.shutdown ();
+
+      for (int row = 0; row < docids.length; row++) {
+        for (int c = 0; c < columns; c++) {
+          boolean bm25 = (c >= 4) && ((c - 4) % 4 == 0);
+          String message = "pass " + pass + " docid " + docids[row] + " feature " + c;
+
+          if (c == sentinelColumn) {
+            this.checkEquals (sentinel, actual.get (row, c), message + " is cached");
+          } else if (bm25) {
+            this.checkEquals (expected.get (row, c), actual.get (row, c),
+                              message + " has the new value");
+            if (Float.compare (first.get (row, c), expected.get (row, c)) != 0) {
+              bm25Differs++;
+            }
+          } else {
+            this.checkEquals (first.get (row, c), actual.get (row, c), message + " is cached");
+          }
+        }
+      }
+
+      this.check (bm25Differs > 0, "the BM25 parameter changes BM25 features");
+    }
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new FeatureCacheTest ().run ();
+  }
+
+}
@@ -0,0 +1,130 @@
+import java.util.*;
+
+/**
+ *  Tests of FeatureExtractor.  The BM25 and Indri features of a field
+ *  must be the scores that QryEval.processQuery gives the query in
+ *  that field.  Features are stored as floats, so they are compared
+ *  with a float tolerance.
+ */
+public class FeatureExtractorTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private static final double FLOAT_TOLERANCE = 1e-6;
+
+  private final RetrievalModelLetor letor =
+    new RetrievalModelLetor ("1.2", "0.75", "0", "2500", "0.4");
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Get the scores of a result list.
+   *  @param results The results, or null.
+   *  @return The score of each docid.
+   */
+  private static Map<Integer, Double> getScores (ScoreList results) {
+
+    Map<Integer, Double> scores = new HashMap<Integer, Double> ();
+
+    for (int i = 0; (results != null) && (i < results.size ()); i++) {
+      scores.put (results.getDocid (i), results.getDocidScore (i));
+    }
+
+    return scores;
+  }
+
+  /**
+   *  Check that a feature is a score, or 0 if the document has no score.
+   *  @param expected The score, or null.
+   *  @param actual The feature.
+   *  @param message What is checked.
+   */
+  private void checkFeature (Double expected, float actual, String message) {
+
+    double e = (expected == null) ? 0.0 : expected;
+
+    this.check (Math.abs (e - actual) <= FLOAT_TOLERANCE * Math.max (1.0, Math.abs (e)),
+                message + ":  expected " + e + ", got " + actual);
+  }
+
+  /**
+   *  Check the BM25, Indri and term overlap features of a query.
+   *  @param query The query, without fields.
+   *  @param threads The number of worker threads.
+   *  @throws Exception Error accessing the index.
+   */
+  private void checkQuery (String query, int threads) throws Exception {
+
+    FeatureExtractor extractor = new FeatureExtractor (this.letor, threads, null);
+    String[] terms = query.split (" ");
+    int[] docids = new int[TestIndex.NUM_DOCS / 3];
+
+    for (int i = 0; i < docids.length; i++) {
+      docids[i] = 3 * i + 1;
+    }
+
+    try {
+      FeatureMatrix matrix = extractor.getFeatures ("1", query, docids, null);
+
+      for (int f = 0; f < FeatureExtractor.FIELDS.length; f++) {
+        String field = FeatureExtractor.FIELDS[f];
+        String fieldQuery = "";
+
+        for (String term : terms) {
+          fieldQuery += term + "." + field + " ";
+        }
+
+        Map<Integer, Double> bm25 = getScores (QryEval.processQuery (fieldQuery, this.letor.getBM25 ()));
+        Map<Integer, Double> indri = getScores (QryEval.processQuery (fieldQuery, this.letor.getIndri ()));
+        int base = 4 + 4 * f;
+
+        this.check (! bm25.isEmpty (), query + " matches the " + field + " field");
+
+        for (int row = 0; row < docids.length; row++) {
+          String label = query + " " + field + " docid " + docids[row];
+
+          if (Float.isNaN (matrix.get (row, base))) {
+            this.check (Idx.getFieldLength (field, docids[row]) == 0,
+                        label + ":  only an empty field has no score");
+            continue;
+          }
+
+          this.checkFeature (bm25.get (docids[row]), matrix.get (row, base), label + " BM25");
+          this.checkFeature (indri.get (docids[row]), matrix.get (row, base + 1), label + " Indri");
+
+          int matched = 0;
+
+          for (String term : terms) {
+            if (getScores (QryEval.processQuery (term + "." + field, this.letor.getBM25 ()))
+                .containsKey (docids[row])) {
+              matched++;
+            }
+          }
+
+          this.checkFeature ((double) matched / terms.length, matrix.get (row, base + 2),
+                             label + " overlap");
+          this.checkFeature ((double) Idx.getFieldLength (field, docids[row]), matrix.get (row, base + 3),
+                             label + " length");
+        }
+      }
+    } finally {
+      extractor.shutdown ();
+    }
+  }
+
+  public void testScores () throws Exception {
+    this.checkQuery ("mango peach plum", 1);
+    this.checkQuery ("sugar " + TestIndex.RARE_WORD, 1);
+    this.checkQuery ("mango peach mango", 1);	// A repeated term is scored twice
+  }
+
+  public void testScoresInParallel () throws Exception {
+    this.checkQuery ("mango peach plum", 4);
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new FeatureExtractorTest ().run ();
+  }
+
+}
@@ -0,0 +1,144 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Tests of FeatureMatrix:  per-query min-max normalization, the dot
+ *  product, and the binary form that write writes and read reads.
+ */
+public class FeatureMatrixTest extends TestCase {
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create a matrix.
+   *  @param qid The query id.
+   *  @param values values[row][column]; NaN is a missing feature.
+   *  @return The matrix.  The docid of row r is 10 * r + 1, and its
+   *  relevance is r % 3.
+   */
+  private static FeatureMatrix matrix (String qid, float[][] values) {
+
+    int[] docids = new int[values.length];
+    int[] relevance = new int[values.length];
+
+    for (int r = 0; r < values.length; r++) {
+      docids[r] = 10 * r + 1;
+      relevance[r] = r % 3;
+    }
+
+    FeatureMatrix matrix = new FeatureMatrix (qid, docids, relevance, values[0].length);
+
+    for (int r = 0; r < values.length; r++) {
+      for (int c = 0; c < values[r].length; c++) {
+        matrix.set (r, c, values[r][c]);
+      }
+    }
+
+    return matrix;
+  }
+
+  /**
+   *  Check that two matrices are the same.  NaN equals NaN.
+   *  @param expected The expected matrix.
+   *  @param actual The actual matrix.
+   *  @param message What is checked.
+   */
+  private void checkSameMatrix (FeatureMatrix expected, FeatureMatrix actual, String message) {
+
+    this.checkEquals (expected.getQid (), actual.getQid (), message + ":  qid");
+    this.checkEquals (expected.getRows (), actual.getRows (), message + ":  rows");
+    this.checkEquals (expected.getColumns (), actual.getColumns (), message + ":  columns");
+
+    for (int r = 0; r < Math.min (expected.getRows (), actual.getRows ()); r++) {
+      this.checkEquals (expected.getDocid (r), actual.getDocid (r), message + ":  row " + r + " docid");
+      this.checkEquals (expected.getRelevance (r), actual.getRelevance (r),
+                        message + ":  row " + r + " relevance");
+
+      for (int c = 0; c < Math.min (expected.getColumns (), actual.getColumns ()); c++) {
+        this.checkEquals (expected.get (r, c), actual.get (r, c),
+                          message + ":  row " + r + " feature " + c);
+      }
+    }
+  }
+
+  public void testMissing () {
+
+    FeatureMatrix matrix = new FeatureMatrix ("1", new int[] { 3, 4 }, null, 2);
+
+    this.check (Float.isNaN (matrix.get (1, 1)), "a new matrix has missing features");
+    this.checkEquals (0, matrix.getRelevance (1), "unknown relevance is 0");
+  }
+
+  public void testNormalize () {
+
+    float nan = Float.NaN;
+    FeatureMatrix matrix = matrix ("1", new float[][] {
+        //  scaled   negative  constant  missing  some missing
+        {   2,       -4,       5,        nan,     nan },
+        {   4,       -1,       5,        nan,     3 },
+        {   10,      -2,       5,        nan,     7 },
+        {   6,       -3,       5,        nan,     5 } });
+
+    matrix.normalize ();
+
+    float[][] expected = {
+      { 0,     0,      0, 0, 0 },
+      { 0.25f, 1,      0, 0, 0 },
+      { 1,     2 / 3f, 0, 0, 1 },
+      { 0.5f,  1 / 3f, 0, 0, 0.5f } };
+
+    for (int r = 0; r < expected.length; r++) {
+      for (int c = 0; c < expected[r].length; c++) {
+        this.checkScore (expected[r][c], matrix.get (r, c), "row " + r + " feature " + c);
+      }
+    }
+
+    //  One document:  every feature is constant.
+
+    matrix = matrix ("2", new float[][] { { 3, nan, -1 } });
+    matrix.normalize ();
+
+    for (int c = 0; c < 3; c++) {
+      this.checkEquals (0.0f, matrix.get (0, c), "one document:  feature " + c);
+    }
+  }
+
+  public void testDot () {
+
+    FeatureMatrix matrix = matrix ("1", new float[][] { { 1, 2, 3 }, { 0.5f, -1, 0 } });
+    double[] products = matrix.dot (new double[] { 2, 0.25 });
+
+    this.checkScore (2.5, products[0], "row 0");
+    this.checkScore (0.75, products[1], "row 1");
+  }
+
+  public void testReadWrite () throws Exception {
+
+    float nan = Float.NaN;
+    FeatureMatrix[] matrices = {
+      matrix ("101", new float[][] { { 1, nan, -2.5f }, { 1e-20f, 3, Float.MAX_VALUE } }),
+      matrix ("102.3", new float[][] { { 7 } }),
+      new FeatureMatrix ("\u00e7\u00e9", new int[0], null, 4) };
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+    DataOutputStream output = new DataOutputStream (bytes);
+
+    for (FeatureMatrix m : matrices) {
+      m.write (output);
+    }
+    output.close ();
+
+    DataInputStream input =
+      new DataInputStream (new ByteArrayInputStream (bytes.toByteArray ()));
+
+    for (FeatureMatrix m : matrices) {
+      this.checkSameMatrix (m, FeatureMatrix.read (input), "query " + m.getQid ());
+    }
+
+    this.checkEquals (-1, input.read (), "the stream is read to the end");
+  }
+
+  public static void main (String[] args) throws Exception {
+    new FeatureMatrixTest ().run ();
+  }
+
+}
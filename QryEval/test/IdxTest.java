@@ -0,0 +1,51 @@
+import java.util.*;
+
+/**
+ *  Tests of Idx.
+ */
+public class IdxTest extends TestCase {
+
+  //  --------------- Methods ---------------------------------------
+
+  public void testFindInternalDocids () throws Exception {
+
+    //  Every document, in reverse order, and some repeated and unknown ids.
+
+    List<String> externalIds = new ArrayList<String> ();
+
+    for (int i = TestIndex.NUM_DOCS - 1; i >= 0; i--) {
+      externalIds.add (String.format ("doc-%04d", i));
+    }
+
+    externalIds.add ("doc-0050");			// Deleted
+    externalIds.add ("doc-0007");
+    externalIds.add ("no-such-doc");
+
+    int[] internalIds = Idx.findInternalDocids (externalIds.toArray (new String[0]));
+    int deleted = 0;
+
+    for (int k = 0; k < TestIndex.NUM_DOCS; k++) {
+      int i = TestIndex.NUM_DOCS - 1 - k;
+
+      if (TestIndex.isDeleted (i)) {
+        deleted++;
+        this.checkEquals (-1, internalIds[k], externalIds.get (k) + " is deleted");
+      } else {
+        this.checkEquals (i, internalIds[k], externalIds.get (k));
+      }
+    }
+
+    int n = TestIndex.NUM_DOCS;
+
+    this.check (deleted > 0, "some documents are deleted");
+    this.checkEquals (-1, internalIds[n], "a repeated deleted id");
+    this.checkEquals (7, internalIds[n + 1], "a repeated id");
+    this.checkEquals (-1, internalIds[n + 2], "an unknown id");
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new IdxTest ().run ();
+  }
+
+}
@@ -0,0 +1,220 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  Tests of LetorReranker:  a document's score is the dot product of
+ *  the model's weights and the document's features, normalized per
+ *  query, and the reranked results are written in score order.
+ */
+public class LetorRerankerTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final RetrievalModelLetor letor =
+    new RetrievalModelLetor ("1.2", "0.75", "0", "2500", "0.4");
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Get the weights of a model that uses every feature.
+   *  @return The weights.
+   */
+  private static double[] getWeights () {
+
+    double[] weights = new double[FeatureExtractor.NUM_FEATURES];
+    Random random = new Random (49);
+
+    for (int f = 0; f < weights.length; f++) {
+      weights[f] = random.nextDouble () * 2 - 1;
+    }
+
+    return weights;
+  }
+
+  /**
+   *  Compute the expected scores of documents:  normalize each feature
+   *  to [0, 1] for the query (0 if it is missing or constant), and
+   *  compute the dot product with the weights.
+   *  @param features The documents' features, not normalized.
+   *  @param weights The weights.
+   *  @return The score of each docid.
+   */
+  private static Map<Integer, Double> getExpectedScores (FeatureMatrix features,
+                                                         double[] weights) {
+
+    double[] scores = new double[features.getRows ()];
+
+    for (int c = 0; c < features.getColumns (); c++) {
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+
+      for (int row = 0; row < features.getRows (); row++) {
+        double v = features.get (row, c);
+
+        if (! Double.isNaN (v)) {
+          min = Math.min (min, v);
+          max = Math.max (max, v);
+        }
+      }
+
+      for (int row = 0; row < features.getRows (); row++) {
+        double v = features.get (row, c);
+
+        if (! Double.isNaN (v) && (max > min)) {
+          scores[row] += weights[c] * ((float) (v - min) / (float) (max - min));
+        }
+      }
+    }
+
+    Map<Integer, Double> expected = new HashMap<Integer, Double> ();
+
+    for (int row = 0; row < features.getRows (); row++) {
+      expected.put (features.getDocid (row), scores[row]);
+    }
+
+    return expected;
+  }
+
+  public void testRerank () throws Exception {
+
+    String query = "apple pie";
+    double[] weights = getWeights ();
+    FeatureExtractor extractor = new FeatureExtractor (this.letor, 1, null);
+
+    try {
+      ScoreList results = QryEval.processQuery (query, this.letor.getBM25 ());
+
+      results.sort ();
+      results.truncate (50);
+
+      int[] docids = new int[results.size ()];
+
+      for (int i = 0; i < docids.length; i++) {
+        docids[i] = results.getDocid (i);
+      }
+
+      Map<Integer, Double> expected =
+        getExpectedScores (extractor.getFeatures ("1", query, docids, null), weights);
+      ScoreList reranked = LetorReranker.rerank ("1", query, results, extractor,
+                                                 new LinearRankingModel (weights));
+
+      this.checkEquals (50, reranked.size (), "every document is reranked");
+
+      for (int i = 0; i < reranked.size (); i++) {
+        this.checkEquals (docids[i], reranked.getDocid (i), "rank " + i + " keeps its document");
+        this.checkScore (expected.get (reranked.getDocid (i)), reranked.getDocidScore (i),
+                         "docid " + reranked.getDocid (i));
+      }
+
+      //  The order is that of the model's scores, not of BM25.
+
+      reranked.sort ();
+
+      int moved = 0;
+
+      for (int i = 0; i < reranked.size (); i++) {
+        if (i > 0) {
+          this.check (reranked.getDocidScore (i - 1) >= reranked.getDocidScore (i),
+                      "rank " + i + " is in score order");
+        }
+        if (reranked.getDocid (i) != docids[i]) {
+          moved++;
+        }
+      }
+
+      this.check (moved > 0, "the model reorders the BM25 ranking");
+    } finally {
+      extractor.shutdown ();
+    }
+  }
+
+  public void testProcessQueryFile () throws Exception {
+
+    Path dir = Files.createTempDirectory ("qryeval-rerank");
+    String modelFile = dir.resolve ("svm.model").toString ();
+    String queryFile = dir.resolve ("queries.txt").toString ();
+    String outputFile = dir.resolve ("reranked.teIn").toString ();
+    double[] weights = getWeights ();
+
+    try {
+      PrintWriter model = new PrintWriter (modelFile);
+
+      model.print ("SVM-light Version V6.20\n0 # kernel type\n" +
+                   weights.length + " # highest feature index \n" +
+                   "0 # threshold b, each following line is a SV (starting with alpha*y)\n1");
+
+      for (int f = 0; f < weights.length; f++) {
+        model.print (" " + (f + 1) + ":" + weights[f]);
+      }
+
+      model.print (" #\n");
+      model.close ();
+
+      PrintWriter queries = new PrintWriter (queryFile);
+
+      queries.println ("11:apple pie");
+      queries.println ("12:mango");
+      queries.close ();
+
+      Map<String, String> parameters = new HashMap<String, String> ();
+
+      parameters.put ("letor:svmRankModelFile", modelFile);
+      parameters.put ("letor:rerankDepth", "30");
+      parameters.put ("letor:threads", "2");
+      parameters.put ("trecEvalOutputLength", "20");
+      parameters.put ("queryFilePath", queryFile);
+      parameters.put ("trecEvalOutputPath", outputFile);
+      LetorReranker.processQueryFile (parameters, this.letor);
+
+      List<String> lines = Files.readAllLines (Paths.get (outputFile));
+
+      this.checkEquals (40, lines.size (), "20 results per query");
+
+      //  Each query's results are the top 20 of its 30 reranked documents.
+
+      FeatureExtractor extractor = new FeatureExtractor (this.letor, 1, null);
+
+      try {
+        for (String qid : new String[] { "11", "12" }) {
+          String query = qid.equals ("11") ? "apple pie" : "mango";
+          ScoreList results = QryEval.processQuery (query, this.letor.getBM25 ());
+
+          results.sort ();
+          results.truncate (30);
+
+          ScoreList expected = LetorReranker.rerank (qid, query, results, extractor,
+                                                     new LinearRankingModel (weights));
+          int rank = 0;
+
+          expected.sort ();
+
+          for (String line : lines) {
+            String[] fields = line.split (" ");
+
+            if (fields[0].equals (qid)) {
+              this.checkEquals (Idx.getExternalDocid (expected.getDocid (rank)), fields[2],
+                                "query " + qid + " rank " + (rank + 1));
+              rank++;
+            }
+          }
+
+          this.checkEquals (20, rank, "query " + qid + " results");
+        }
+      } finally {
+        extractor.shutdown ();
+      }
+    } finally {
+      for (String f : new String[] { modelFile, queryFile, outputFile }) {
+        Files.deleteIfExists (Paths.get (f));
+      }
+      Files.delete (dir);
+    }
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new LetorRerankerTest ().run ();
+  }
+
+}
@@ -0,0 +1,149 @@
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  Tests of LinearRankingModel:  it reads the model files that
+ *  svm_rank_learn -t 0 writes, rejects other kernels, and scores
+ *  documents by the dot product of the weights and their features.
+ */
+public class LinearRankingModelTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  The header of a model file that svm_rank_learn -t 0 wrote.
+   */
+  private static final String HEADER =
+    "SVM-light Version V6.20\n" +
+    "0 # kernel type\n" +
+    "3 # kernel parameter -d \n" +
+    "1 # kernel parameter -g \n" +
+    "1 # kernel parameter -s \n" +
+    "1 # kernel parameter -r \n" +
+    "empty# kernel parameter -u \n" +
+    "6 # highest feature index \n" +
+    "1092 # number of training documents \n" +
+    "2 # number of support vectors plus 1 \n" +
+    "0 # threshold b, each following line is a SV (starting with alpha*y)\n";
+
+  private Path dir = null;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Write a model file.  The file is deleted when the test exits.
+   *  @param name The file name.
+   *  @param content The content of the file.
+   *  @return The path to the file.
+   *  @throws IOException Error writing the file.
+   */
+  private String writeModel (String name, String content) throws IOException {
+
+    if (this.dir == null) {
+      this.dir = Files.createTempDirectory ("qryeval-model");
+      this.dir.toFile ().deleteOnExit ();
+    }
+
+    Path file = this.dir.resolve (name);
+
+    file.toFile ().deleteOnExit ();
+    Files.write (file, content.getBytes (StandardCharsets.US_ASCII));
+    return file.toString ();
+  }
+
+  /**
+   *  Check the weights of a model.
+   *  @param expected The expected weights, numbered from 0.
+   *  @param model The model.
+   *  @param message What is checked.
+   */
+  private void checkWeights (double[] expected, LinearRankingModel model, String message) {
+
+    for (int f = 0; f < expected.length + 2; f++) {
+      double e = (f < expected.length) ? expected[f] : 0.0;
+
+      this.checkScore (e, model.getWeight (f), message + ":  feature " + f);
+    }
+  }
+
+  public void testRead () throws Exception {
+
+    //  SVM-rank writes a linear model as one support vector, with
+    //  alpha*y = 1, sparse features, and a comment.
+
+    String path = this.writeModel ("linear.model",
+      HEADER + "1 1:0.25 2:-1.5 4:3.125e-02 6:7 #\n");
+
+    this.checkWeights (new double[] { 0.25, -1.5, 0, 0.03125, 0, 7 },
+                       LinearRankingModel.read (path), "linear model");
+  }
+
+  public void testSupportVectors () throws Exception {
+
+    //  The weight of a feature is the sum of alpha*y*value over the
+    //  support vectors.  qid tokens, and features beyond the highest
+    //  feature index in the header, are allowed.
+
+    String path = this.writeModel ("vectors.model",
+      HEADER.replace ("2 # number of support vectors", "4 # number of support vectors") +
+      "0.5 qid:3 1:2 3:-4 #\n" +
+      "\n" +
+      "-2 qid:7 1:0.5 2:1 #  a comment\n" +
+      "1.5 8:2\n");
+
+    this.checkWeights (new double[] { 0, -2, -2, 0, 0, 0, 0, 3 },
+                       LinearRankingModel.read (path), "support vectors");
+  }
+
+  public void testRejected () throws Exception {
+
+    String[] models = {
+      HEADER.replace ("0 # kernel type", "2 # kernel type") + "1 1:0.5 #\n",
+      HEADER.replace ("0 # threshold b", "0 # no threshold") + "1 1:0.5 #\n",
+      "1 1:0.5 2:0.25\n" };
+    String[] messages = { "a non-linear kernel", "no threshold b line", "a feature file" };
+
+    for (int i = 0; i < models.length; i++) {
+      try {
+        LinearRankingModel.read (this.writeModel ("rejected" + i + ".model", models[i]));
+        this.check (false, messages[i] + " is rejected");
+      } catch (IllegalArgumentException ex) {
+        this.check (ex.getMessage ().contains ("model"),
+                    messages[i] + " is rejected (" + ex.getMessage () + ")");
+      }
+    }
+  }
+
+  public void testScore () {
+
+    int[] docids = { 4, 8, 15 };
+    FeatureMatrix matrix = new FeatureMatrix ("1", docids, null, 3);
+    double[] weights = { 0.5, -2, 0 };
+    float[][] values = { { 1, 0, 9 }, { 0.25f, 0.5f, 9 }, { 0, 1, 9 } };
+
+    for (int row = 0; row < docids.length; row++) {
+      for (int c = 0; c < 3; c++) {
+        matrix.set (row, c, values[row][c]);
+      }
+    }
+
+    double[] scores = new LinearRankingModel (weights).score (matrix);
+
+    this.checkEquals (3, scores.length, "a score per document");
+    this.checkScore (0.5, scores[0], "docid 4");
+    this.checkScore (0.125 - 1, scores[1], "docid 8");
+    this.checkScore (-2, scores[2], "docid 15");
+
+    //  Weights of features that the matrix doesn't have are ignored.
+
+    scores = new LinearRankingModel (new double[] { 1, 1, 1, 5 }).score (matrix);
+    this.checkScore (10, scores[0], "an extra weight");
+  }
+
+  public static void main (String[] args) throws Exception {
+    new LinearRankingModelTest ().run ();
+  }
+
+}
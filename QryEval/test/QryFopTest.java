@@ -0,0 +1,128 @@
+import java.util.*;
+
+/**
+ *  Tests of #FILTER and its #BAND and #NOT restrictions.
+ */
+public class QryFopTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final RetrievalModel bm25 = new RetrievalModelBM25 ("1.2", "0.75", "0");
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Get the documents that contain a term, from its inverted list.
+   *  @param term The term, in the body field.
+   *  @return The internal docids.
+   *  @throws Exception Error accessing the index.
+   */
+  private static Set<Integer> getDocs (String term) throws Exception {
+
+    InvList invList = new InvList (term, "body");
+    Set<Integer> docs = new TreeSet<Integer> ();
+
+    for (int i = 0; i < invList.df; i++) {
+      docs.add (invList.getDocid (i));
+    }
+
+    return docs;
+  }
+
+  /**
+   *  Get the documents of a result list.
+   *  @param results The results, or null.
+   *  @return The internal docids.
+   */
+  private static Set<Integer> getDocs (ScoreList results) {
+
+    Set<Integer> docs = new TreeSet<Integer> ();
+
+    for (int i = 0; (results != null) && (i < results.size ()); i++) {
+      docs.add (results.getDocid (i));
+    }
+
+    return docs;
+  }
+
+  public void testBand () throws Exception {
+
+    Set<Integer> expected = getDocs ("mango");
+
+    expected.retainAll (getDocs ("peach"));
+    expected.retainAll (getDocs ("plum"));
+
+    ScoreList r = QryEval.processQuery ("#filter (mango #band (peach plum))", this.bm25);
+
+    this.check (! expected.isEmpty (), "some documents match");
+    this.checkEquals (expected, getDocs (r), "#BAND matches the intersection");
+  }
+
+  public void testDeletedRestriction () throws Exception {
+
+    //  A restriction that has only stopwords matches nothing.
+
+    ScoreList r = QryEval.processQuery ("#filter (mango #near/1 (the of))", this.bm25);
+    this.checkEquals (0, getDocs (r).size (), "#FILTER with a deleted restriction");
+
+    r = QryEval.processQuery ("#filter (mango #band (peach #near/1 (the of)))", this.bm25);
+    this.checkEquals (0, getDocs (r).size (), "#BAND with a deleted argument");
+
+    //  A NOT operator that has only stopwords excludes nothing.
+
+    r = QryEval.processQuery ("#filter (mango #not (the))", this.bm25);
+    this.checkSameResults (QryEval.processQuery ("mango", this.bm25), r,
+                           "#FILTER with a deleted #NOT");
+  }
+
+  public void testNot () throws Exception {
+
+    Set<Integer> expected = getDocs ("mango");
+    Set<Integer> deleted = new TreeSet<Integer> ();
+
+    expected.removeAll (getDocs ("peach"));
+
+    for (int i = 0; i < TestIndex.NUM_DOCS; i++) {
+      if (TestIndex.isDeleted (i)) {
+        deleted.add (i);
+      }
+    }
+
+    ScoreList r = QryEval.processQuery ("#filter (mango #not (peach))", this.bm25);
+    Set<Integer> actual = getDocs (r);
+
+    this.check (! Collections.disjoint (expected, deleted), "a deleted document has mango");
+    expected.removeAll (deleted);
+    this.checkEquals (expected, actual, "#NOT matches the complement of live documents");
+
+    //  The complement covers every docid, including docids beyond
+    //  the number of live documents.
+
+    expected = getDocs ("mango");
+    expected.removeAll (getDocs (TestIndex.RARE_WORD));
+    expected.removeAll (deleted);
+
+    r = QryEval.processQuery ("#filter (mango #not (" + TestIndex.RARE_WORD + "))", this.bm25);
+    this.check (((TreeSet<Integer>) expected).last () >= Idx.getNumDocs (),
+                "a document beyond the number of live documents has mango");
+    this.checkEquals (expected, getDocs (r), "#NOT matches the last docids");
+  }
+
+  public void testTopLevelFop () throws Exception {
+
+    for (String query : new String[] { "#not (mango)", "#band (mango peach)" }) {
+      try {
+        QryParser.getQuery (query, this.bm25);
+        this.check (false, query + " is rejected");
+      } catch (IllegalArgumentException ex) {
+        this.check (ex.getMessage ().contains ("#FILTER"), query + ":  " + ex.getMessage ());
+      }
+    }
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new QryFopTest ().run ();
+  }
+
+}
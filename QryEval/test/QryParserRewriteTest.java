@@ -0,0 +1,108 @@
+/**
+ *  Tests of the rule-based rewrites of QryParser.optimizeQuery.  Each
+ *  rewrite is checked by parsing a query with and without the
+ *  rewrites, checking that the query was rewritten, and comparing
+ *  the scores of the two query trees on the test index.
+ */
+public class QryParserRewriteTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final RetrievalModel bm25 = new RetrievalModelBM25 ("1.2", "0.75", "0");
+  private final RetrievalModel indri = new RetrievalModelIndri ("2500", "0.4");
+  private final RetrievalModel rankedBoolean = new RetrievalModelRankedBoolean ();
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Check that a rewrite changes a query without changing its scores.
+   *  @param query The query.
+   *  @param model The retrieval model.
+   *  @return The rewritten query.
+   *  @throws Exception Error evaluating the query.
+   */
+  private Qry checkRewrite (String query, RetrievalModel model) throws Exception {
+
+    Qry original = QryParser.parseQuery (query, model, false);
+    Qry rewritten = QryParser.parseQuery (query, model, true);
+
+    this.check (! original.toString ().equals (rewritten.toString ()),
+                query + ":  not rewritten (" + rewritten + ")");
+    this.checkSameResults (QryEval.evaluateQuery (original, model),
+                           QryEval.evaluateQuery (rewritten, model),
+                           query + " with " + model.getClass ().getName ());
+    return rewritten;
+  }
+
+  public void testFlattenArgs () throws Exception {
+
+    Qry q = this.checkRewrite ("#sum (mango #sum (peach plum))", this.bm25);
+    this.checkEquals (3, q.args.size (), "#SUM is flattened");
+
+    q = this.checkRewrite ("#or (apple #or (pie #or (fig tart)))", this.rankedBoolean);
+    this.checkEquals (4, q.args.size (), "#OR is flattened");
+
+    q = this.checkRewrite ("#and (apple #and (pie cherry))", this.rankedBoolean);
+    this.checkEquals (3, q.args.size (), "min #AND is flattened");
+
+    q = this.checkRewrite ("#sum (#syn (mango #syn (peach plum)) sugar)", this.bm25);
+    this.checkEquals (3, q.args.get (0).args.get (0).args.size (),	// #SCORE (#SYN)
+                      "#SYN is flattened");
+
+    //  An Indri #AND is a geometric mean, so it isn't flattened.
+
+    q = QryParser.parseQuery ("#and (apple #and (pie cherry))", this.indri, true);
+    this.checkEquals (2, q.args.size (), "Indri #AND isn't flattened");
+  }
+
+  public void testMergeDuplicateArgs () throws Exception {
+
+    Qry q = this.checkRewrite ("#sum (mango peach mango)", this.bm25);
+    this.checkEquals (2, q.args.size (), "#SUM duplicates are merged");
+
+    q = this.checkRewrite ("#wsum (0.3 apple 0.5 pie 0.7 apple)", this.indri);
+    this.checkEquals (2, q.args.size (), "#WSUM duplicates are merged");
+
+    q = this.checkRewrite ("#wand (0.3 apple 0.5 pie 0.7 apple)", this.indri);
+    this.checkEquals (2, q.args.size (), "#WAND duplicates are merged");
+
+    q = this.checkRewrite ("#or (apple pie apple)", this.rankedBoolean);
+    this.checkEquals (2, q.args.size (), "#OR duplicates are merged");
+
+    q = this.checkRewrite ("#and (apple pie apple)", this.rankedBoolean);
+    this.checkEquals (2, q.args.size (), "min #AND duplicates are merged");
+
+    q = this.checkRewrite ("#and (apple pie apple)", this.indri);
+    this.check (q instanceof QrySopWand, "Indri #AND with duplicates becomes #WAND");
+  }
+
+  public void testOrderArgsByDf () throws Exception {
+
+    Qry q = this.checkRewrite ("#and (apple pie " + TestIndex.RARE_WORD + ")",
+                               this.rankedBoolean);
+    Qry first = q.args.get (0).args.get (0);		// #SCORE (term)
+
+    this.check ((first instanceof QryIopTerm) &&
+                ((QryIopTerm) first).getTerm ().equals (TestIndex.RARE_WORD),
+                "the rarest argument is first (" + q + ")");
+  }
+
+  public void testPruneEmptyArgs () throws Exception {
+
+    Qry q = this.checkRewrite ("#sum (mango unseenterm peach)", this.bm25);
+    this.checkEquals (2, q.args.size (), "#SUM loses a df=0 term");
+
+    q = this.checkRewrite ("#or (apple unseenterm pie)", this.rankedBoolean);
+    this.checkEquals (2, q.args.size (), "#OR loses a df=0 term");
+
+    q = this.checkRewrite ("#sum (#syn (mango unseenterm peach) sugar)", this.bm25);
+    this.checkEquals (2, q.args.get (0).args.get (0).args.size (),	// #SCORE (#SYN)
+                      "#SYN loses a df=0 term");
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new QryParserRewriteTest ().run ();
+  }
+
+}
@@ -0,0 +1,174 @@
+import java.util.*;
+
+/**
+ *  Tests of QryParser.parseString.  The expected query trees are the
+ *  trees that the original string-slicing parser produced for the
+ *  same queries:  the canonical key, which has each operator's class,
+ *  distance, weights and fields, and the display form.
+ */
+public class QryParserTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private static final String[][] TREES = {
+    { "#or (apple pie)",
+      "QrySopOr(QrySopScore(apple.body) QrySopScore(pie.body))",
+      "#or( #SCORE( apple.body ) #SCORE( pie.body ) )" },
+    { "#OR(apple pie)",
+      "QrySopOr(QrySopScore(apple.body) QrySopScore(pie.body))",
+      "#OR( #SCORE( apple.body ) #SCORE( pie.body ) )" },
+    { "  #and( apple   pie\tcherry )  ",
+      "QrySopAnd(QrySopScore(apple.body) QrySopScore(pie.body) QrySopScore(cherry.body))",
+      "#and( #SCORE( apple.body ) #SCORE( pie.body ) #SCORE( cherry.body ) )" },
+    { "#sum (apple\npie\r\n)",
+      "QrySopSum(QrySopScore(apple.body) QrySopScore(pie.body))",
+      "#sum( #SCORE( apple.body ) #SCORE( pie.body ) )" },
+    { "#sum (apple.title pie.url fig.inlink tart.keywords bread.body)",
+      "QrySopSum(QrySopScore(apple.title) QrySopScore(pie.url) QrySopScore(fig.inlink) " +
+      "QrySopScore(tart.keywords) QrySopScore(bread.body))",
+      "#sum( #SCORE( apple.title ) #SCORE( pie.url ) #SCORE( fig.inlink ) " +
+      "#SCORE( tart.keywords ) #SCORE( bread.body ) )" },
+    { "#sum (apple.TITLE)",
+      "QrySopSum(QrySopScore(apple.title))",
+      "#sum( #SCORE( apple.title ) )" },
+    { "#near/3 (mango peach)",
+      "QryIopNear/3(mango.body peach.body).body",
+      "#near( mango.body peach.body )" },
+    { "#NEAR/12(mango #near/2 (peach plum))",
+      "QryIopNear/12(mango.body QryIopNear/2(peach.body plum.body).body).body",
+      "#NEAR( mango.body #near( peach.body plum.body ) )" },
+    { "#window/8 (salt water)",
+      "QryIopWindow/8(salt.body water.body).body",
+      "#window( salt.body water.body )" },
+    { "#wsum (0.3 apple 0.7 pie)",
+      "QrySopWsum/[0.3, 0.7](QrySopScore(apple.body) QrySopScore(pie.body))",
+      "#wsum( 0.3 #SCORE( apple.body ) 0.7 #SCORE( pie.body ) )" },
+    { "#wsum(1 apple 2 pie 0.5 #and (fig tart))",
+      "QrySopWsum/[1.0, 2.0, 0.5](QrySopScore(apple.body) QrySopScore(pie.body) " +
+      "QrySopAnd(QrySopScore(fig.body) QrySopScore(tart.body)))",
+      "#wsum( 1.0 #SCORE( apple.body ) 2.0 #SCORE( pie.body ) 0.5 " +
+      "#and( #SCORE( fig.body ) #SCORE( tart.body ) ) )" },
+    { "#wand (0.25 apple.title 0.75 #near/1 (peach plum))",
+      "QrySopWand/[0.25, 0.75](QrySopScore(apple.title) " +
+      "QrySopScore(QryIopNear/1(peach.body plum.body).body))",
+      "#wand( 0.25 #SCORE( apple.title ) 0.75 #SCORE( #near( peach.body plum.body ) ) )" },
+    { "#wsum (0.5 near-death 0.5 apple)",		// One token, two terms
+      "QrySopWsum/[0.5, 0.5](QrySopScore(near.body) QrySopScore(death.body) " +
+      "QrySopScore(apple.body))",
+      "#wsum( 0.5 #SCORE( near.body ) 0.5 #SCORE( death.body ) #SCORE( apple.body ) )" },
+    { "#wsum (0.5 the 0.5 apple)",			// A stopword
+      "QrySopWsum/[0.5, 0.5](QrySopScore(apple.body))",
+      "#wsum( 0.5 #SCORE( apple.body ) )" },
+    { "#wsum (0.5 apple.title 0.5 -1 pie)",		// A trailing weight
+      "QrySopWsum/[0.5, 0.5, -1.0](QrySopScore(apple.title) QrySopScore(pie.body))",
+      "#wsum( 0.5 #SCORE( apple.title ) 0.5 #SCORE( pie.body ) )" },
+    { "#sum (the apple of pie)",
+      "QrySopSum(QrySopScore(apple.body) QrySopScore(pie.body))",
+      "#sum( #SCORE( apple.body ) #SCORE( pie.body ) )" },
+    { "#sum (apple 2020 pie)",			// Numbers are weights
+      "QrySopSum(QrySopScore(apple.body) QrySopScore(pie.body))",
+      "#sum( #SCORE( apple.body ) #SCORE( pie.body ) )" },
+    { "#sum (Apple PIE)",
+      "QrySopSum(QrySopScore(apple.body) QrySopScore(pie.body))",
+      "#sum( #SCORE( apple.body ) #SCORE( pie.body ) )" },
+    { "#and (#or (apple pie) #syn (fig #syn (tart bread)) #window/4 (honey lemon))",
+      "QrySopAnd(QrySopOr(QrySopScore(apple.body) QrySopScore(pie.body)) " +
+      "QrySopScore(QryIopSyn(fig.body QryIopSyn(tart.body bread.body).body).body) " +
+      "QrySopScore(QryIopWindow/4(honey.body lemon.body).body))",
+      "#and( #or( #SCORE( apple.body ) #SCORE( pie.body ) ) " +
+      "#SCORE( #syn( fig.body #syn( tart.body bread.body ) ) ) " +
+      "#SCORE( #window( honey.body lemon.body ) ) )" },
+    { "#sum ()",
+      "QrySopSum()",
+      "#sum( )" } };
+
+  private static final String[][] ERRORS = {
+    { "#syn (mango peach.title)", "same field" },
+    { "#sum (apple pie", "parentheses" },
+    { "#sum (apple pie))", "parentheses" },
+    { "#sum apple pie)", "parentheses" },
+    { "#sum (#and (apple pie)", "parentheses" },
+    { "#sum (apple #and apple pie)", "parentheses" },
+    { "apple pie", "parentheses" },
+    { "#foo (apple)", "Unknown query operator #foo" },
+    { "#sum (apple.nofield)", "Unknown field apple.nofield" } };
+
+  //  --------------- Methods ---------------------------------------
+
+  public void testErrors () throws Exception {
+
+    for (String[] error : ERRORS) {
+      try {
+        QryParser.parseString (error[0]);
+        this.check (false, error[0] + " is rejected");
+      } catch (IllegalArgumentException ex) {
+        this.check (ex.getMessage ().contains (error[1]), error[0] + ":  " + ex.getMessage ());
+      }
+    }
+  }
+
+  public void testLongQuery () throws Exception {
+
+    //  Expansion queries are long, flat, weighted queries.
+
+    int n = 20000;
+    StringBuilder query = new StringBuilder ("#wsum (");
+
+    for (int i = 0; i < n; i++) {
+      query.append (" ").append (i % 7 + 1).append (" ")
+           .append (TestIndex.WORDS[i % TestIndex.WORDS.length])
+           .append ((i % 3 == 0) ? ".title" : "");
+    }
+
+    query.append (" #and (#near/2 (mango peach) plum))");
+
+    Qry q = QryParser.parseString (query.toString ());
+    List<Double> weights = ((QrySopWsum) q).getDoubleWeights ();
+
+    this.checkEquals (n + 1, q.args.size (), "arguments");
+    this.checkEquals (n, weights.size (), "weights");
+    this.checkEquals (7.0, weights.get (n - 2), "the weight of an argument");
+    this.checkEquals ("#SCORE( " + TestIndex.WORDS[(n - 1) % TestIndex.WORDS.length] + ".body )",
+                      q.args.get (n - 1).toString (), "the last term");
+    this.checkEquals ("#and( #SCORE( #near( mango.body peach.body ) ) #SCORE( plum.body ) )",
+                      q.args.get (n).toString (), "the subquery");
+
+    //  Deeply nested queries.
+
+    int depth = 200;
+
+    query.setLength (0);
+
+    for (int i = 0; i < depth; i++) {
+      query.append ("#syn (apple ");
+    }
+
+    for (int i = 0; i < depth; i++) {
+      query.append (")");
+    }
+
+    q = QryParser.parseString ("#sum (" + query + ")").args.get (0).args.get (0);
+
+    for (int i = 1; i < depth; i++) {
+      q = q.args.get (1);
+    }
+
+    this.checkEquals ("#syn( apple.body )", q.toString (), "the innermost subquery");
+  }
+
+  public void testTrees () throws Exception {
+
+    for (String[] tree : TREES) {
+      Qry q = QryParser.parseString (tree[0]);
+
+      this.checkEquals (tree[1], q.getCanonicalKey (), tree[0] + ":  canonical key");
+      this.checkEquals (tree[2], q.toString (), tree[0] + ":  display form");
+    }
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new QryParserTest ().run ();
+  }
+
+}
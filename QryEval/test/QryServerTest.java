@@ -0,0 +1,191 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ *  Tests of QryServer.  The server runs on a daemon thread, on a free
+ *  loopback port, with one response thread.
+ */
+public class QryServerTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private int port;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Connect to the server.
+   *  @return The connection.
+   *  @throws IOException Error connecting.
+   */
+  private Socket connect () throws IOException {
+
+    Socket socket = new Socket (InetAddress.getLoopbackAddress (), this.port);
+
+    socket.setSoTimeout (10000);		// Fail instead of hanging
+    return socket;
+  }
+
+  /**
+   *  Send a request and read the header line of the response.
+   *  @param socket The connection.
+   *  @param request The request.
+   *  @return The header line.
+   *  @throws IOException Error communicating with the server.
+   */
+  private static String request (Socket socket, String request) throws IOException {
+
+    Writer out = new OutputStreamWriter (socket.getOutputStream (), StandardCharsets.UTF_8);
+    BufferedReader in = new BufferedReader (
+      new InputStreamReader (socket.getInputStream (), StandardCharsets.UTF_8));
+
+    out.write (request + "\n");
+    out.flush ();
+    return in.readLine ();
+  }
+
+  /**
+   *  Start the server.
+   *  @throws IOException Error finding a free port.
+   */
+  private void start () throws IOException {
+    this.start (new HashMap<String, String> ());
+  }
+
+  /**
+   *  Start the server.
+   *  @param parameters Parameters for the server, e.g., scheduler: parameters.
+   *  @throws IOException Error finding a free port.
+   */
+  private void start (Map<String, String> parameters) throws IOException {
+
+    ServerSocket free = new ServerSocket (0, 1, InetAddress.getLoopbackAddress ());
+
+    this.port = free.getLocalPort ();
+    free.close ();
+
+    parameters.put ("server:port", Integer.toString (this.port));
+    parameters.put ("server:threads", "1");
+
+    final QryServer server =
+      new QryServer (parameters, new RetrievalModelBM25 ("1.2", "0.75", "0"));
+    Thread thread = new Thread (new Runnable () {
+      public void run () {
+        try {
+          server.serve ();
+        } catch (IOException ex) {
+          ex.printStackTrace ();
+        }
+      }
+    });
+
+    thread.setDaemon (true);
+    thread.start ();
+
+    for (int i = 0; i < 100; i++) {		// Wait until it listens
+      try {
+        new Socket (InetAddress.getLoopbackAddress (), this.port).close ();
+        return;
+      } catch (ConnectException ex) {
+        try {
+          Thread.sleep (50);
+        } catch (InterruptedException ex2) {
+          return;
+        }
+      }
+    }
+  }
+
+  public void testBusy () throws Exception {
+
+    //  Few queries may wait, and they wait for a long batch window,
+    //  so a flood of requests on one connection is mostly rejected.
+    //  Requests are submitted without waiting for earlier responses,
+    //  so the scheduler sees more queries than there are threads.
+
+    Map<String, String> parameters = new HashMap<String, String> ();
+    int n = 20;
+
+    parameters.put ("scheduler:maxInFlight", "1");
+    parameters.put ("scheduler:maxQueued", "2");
+    parameters.put ("scheduler:batchWindow", "1000");
+    this.start (parameters);
+
+    Socket socket = this.connect ();
+
+    try {
+      Writer out = new OutputStreamWriter (socket.getOutputStream (), StandardCharsets.UTF_8);
+      BufferedReader in = new BufferedReader (
+        new InputStreamReader (socket.getInputStream (), StandardCharsets.UTF_8));
+      StringBuilder requests = new StringBuilder ();
+      String[] terms = { "mango", "peach", "plum", "grape" };
+
+      for (int i = 0; i < n; i++) {
+        requests.append ("query=").append (terms[i % terms.length])
+          .append ("\tk=").append (i % 3 + 1).append ('\n');
+      }
+
+      out.write (requests.toString ());
+      out.flush ();
+
+      int ok = 0;
+      int busy = 0;
+
+      for (int i = 0; i < n; i++) {
+        String header = in.readLine ();
+
+        if ((header != null) && header.startsWith ("OK ")) {
+          int k = Integer.parseInt (header.split (" ")[1]);
+
+          this.checkEquals (i % 3 + 1, k, "response " + i + " is in request order");
+
+          for (int j = 0; j < k; j++) {
+            in.readLine ();
+          }
+          ok++;
+        } else if ((header != null) && header.startsWith ("BUSY ")) {
+          busy++;
+        } else {
+          this.check (false, "response " + i + " is OK or BUSY (" + header + ")");
+        }
+      }
+
+      this.checkEquals (2, ok, "the queries that may wait are answered");
+      this.checkEquals (n - 2, busy, "the other queries are rejected with BUSY");
+    } finally {
+      socket.close ();
+    }
+  }
+
+  public void testIdleConnection () throws Exception {
+
+    this.start ();
+
+    //  An idle connection doesn't keep other connections waiting.
+
+    Socket idle = this.connect ();
+    Socket active = this.connect ();
+
+    try {
+      String header = request (active, "query=mango\tk=5");
+
+      this.check ((header != null) && header.startsWith ("OK 5 "),
+                  "a request on a second connection is answered (" + header + ")");
+
+      header = request (idle, "query=peach\tk=3");
+      this.check ((header != null) && header.startsWith ("OK 3 "),
+                  "the idle connection is answered later (" + header + ")");
+    } finally {
+      idle.close ();
+      active.close ();
+    }
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new QryServerTest ().run ();
+  }
+
+}
@@ -0,0 +1,83 @@
+import java.util.*;
+
+/**
+ *  Tests of QueryBatchEvaluator.  Each query of a batch must have the
+ *  results that QryEval.processQuery gives it.
+ */
+public class QueryBatchEvaluatorTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  Queries that share terms, repeat terms, use fields, have only
+   *  stopwords, or aren't flat.
+   */
+  private static final List<String> QUERIES = Arrays.asList (
+    "mango peach",
+    "peach plum",
+    "grape",
+    "sugar spice salt",
+    "mango mango water",
+    "apple.title pie",
+    "the of",
+    TestIndex.RARE_WORD + " fig",
+    "#near/3 (mango peach) plum",
+    "salt water grape spice");
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Check that batched results equal processQuery results.
+   *  @param model The retrieval model.
+   *  @throws Exception Error evaluating the queries.
+   */
+  private void checkBatch (RetrievalModel model) throws Exception {
+
+    String name = model.getClass ().getName ();
+    ScoreList[] batched = QueryBatchEvaluator.evaluate (QUERIES, model);
+
+    this.checkEquals (QUERIES.size (), batched.length, name + ":  results");
+
+    for (int i = 0; i < QUERIES.size (); i++) {
+      ScoreList expected = QryEval.processQuery (QUERIES.get (i), model);
+
+      if (expected == null) {
+        this.check (batched[i] == null, QUERIES.get (i) + " with " + name + " has no results");
+      } else {
+        this.checkSameResults (expected, batched[i], QUERIES.get (i) + " with " + name);
+      }
+    }
+  }
+
+  public void testBM25 () throws Exception {
+    this.checkBatch (new RetrievalModelBM25 ("1.2", "0.75", "0"));
+  }
+
+  public void testBM25And () throws Exception {
+
+    //  #AND of terms is flat, too.
+
+    List<String> queries = Arrays.asList ("#and (mango peach)", "#and (peach plum sugar)");
+    RetrievalModel model = new RetrievalModelBM25 ("1.2", "0.75", "0");
+    ScoreList[] batched = QueryBatchEvaluator.evaluate (queries, model);
+
+    for (int i = 0; i < queries.size (); i++) {
+      this.checkSameResults (QryEval.processQuery (queries.get (i), model), batched[i],
+                             queries.get (i));
+    }
+  }
+
+  public void testRankedBoolean () throws Exception {
+    this.checkBatch (new RetrievalModelRankedBoolean ());
+  }
+
+  public void testUnrankedBoolean () throws Exception {
+    this.checkBatch (new RetrievalModelUnrankedBoolean ());
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new QueryBatchEvaluatorTest ().run ();
+  }
+
+}
@@ -0,0 +1,181 @@
+import java.util.*;
+
+/**
+ *  Tests of query budgets (query:workLimit and query:timeLimit).  A
+ *  query that runs out of budget returns fewer documents, but each
+ *  returned document has the score that an unlimited query gives it,
+ *  because a query whose derived inverted lists are partial scores no
+ *  documents.
+ */
+public class QueryBudgetTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final RetrievalModel bm25 = new RetrievalModelBM25 ("1.2", "0.75", "0");
+  private final RetrievalModel indri = new RetrievalModelIndri ("2500", "0.4");
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Evaluate a query with a work limit.
+   *  @param query The query.
+   *  @param model The retrieval model.
+   *  @param workLimit The work limit, or 0 for no limit.
+   *  @return The results.
+   *  @throws Exception Error evaluating the query.
+   */
+  private static ScoreList evaluate (String query, RetrievalModel model, long workLimit)
+    throws Exception {
+
+    Map<String, String> parameters = new HashMap<String, String> ();
+
+    parameters.put ("query:workLimit", Long.toString (workLimit));
+    parameters.put ("invListCache:size", "0");	// Evaluate lists again
+    QryEval.configure (parameters);
+
+    try {
+      return QryEval.processQuery (query, model);
+    } finally {
+      QryEval.configure (new HashMap<String, String> ());
+    }
+  }
+
+  /**
+   *  Check that truncated results have the scores of unlimited results.
+   *  @param query The query.
+   *  @param model The retrieval model.
+   *  @throws Exception Error evaluating the query.
+   */
+  private void checkTruncated (String query, RetrievalModel model) throws Exception {
+
+    ScoreList full = evaluate (query, model, 0);
+    Map<Integer, Double> scores = new HashMap<Integer, Double> ();
+    int truncated = 0;
+
+    this.check (! full.isTruncated (), query + ":  unlimited results aren't truncated");
+    this.check (full.size () > 10, query + ":  there are enough results (" + full.size () + ")");
+
+    for (int i = 0; i < full.size (); i++) {
+      scores.put (full.getDocid (i), full.getDocidScore (i));
+    }
+
+    for (long limit = 1; ; limit += 1 + limit / 32) {
+      ScoreList r = evaluate (query, model, limit);
+
+      if (! r.isTruncated ()) {
+        this.checkSameResults (full, r, query + " with work limit " + limit);
+        break;
+      }
+
+      this.check (r.size () < full.size (), query + ":  truncated results are shorter");
+
+      if (r.size () > 0) {
+        truncated++;
+      }
+
+      for (int i = 0; i < r.size (); i++) {
+        Double s = scores.get (r.getDocid (i));
+
+        this.check (s != null, query + ":  docid " + r.getDocid (i) + " matches");
+
+        if (s != null) {
+          this.checkScore (s, r.getDocidScore (i),
+                           query + " docid " + r.getDocid (i) + " with work limit " + limit);
+        }
+      }
+    }
+
+    this.check (truncated > 0, query + ":  some limit gives partial results");
+  }
+
+  public void testNear () throws Exception {
+    this.checkTruncated ("#near/3 (mango peach)", this.bm25);
+  }
+
+  public void testSyn () throws Exception {
+    this.checkTruncated ("#syn (mango peach plum) sugar", this.bm25);
+  }
+
+  public void testWindow () throws Exception {
+    this.checkTruncated ("#window/8 (mango plum)", this.indri);
+  }
+
+  /**
+   *  Evaluate a query with a time limit.  The term lists are cached
+   *  first, so that the time is spent evaluating derived lists.
+   *  @param query The query.
+   *  @param model The retrieval model.
+   *  @param timeLimit The time limit in ms, or 0 for no limit.
+   *  @return The results.
+   *  @throws Exception Error evaluating the query.
+   */
+  private static ScoreList evaluateTimed (String query, RetrievalModel model, long timeLimit)
+    throws Exception {
+
+    Map<String, String> parameters = new HashMap<String, String> ();
+
+    parameters.put ("query:timeLimit", Long.toString (timeLimit));
+    QryEval.configure (parameters);
+    InvListCache.clear ();
+
+    for (String term: new String[] { "apple", "pie" }) {
+      InvListCache.put (new QryIopTerm (term, "body").getCanonicalKey (),
+                        new InvList (term, "body"));
+    }
+
+    try {
+      return QryEval.processQuery (query, model);
+    } finally {
+      QryEval.configure (new HashMap<String, String> ());
+    }
+  }
+
+  /**
+   *  One huge #WINDOW stops at the deadline instead of building its
+   *  whole inverted list, and the partial list isn't cached.
+   */
+  public void testWindowDeadline () throws Exception {
+
+    StringBuilder query = new StringBuilder ("#window/1000000 (");
+
+    for (int i = 0; i < 256; i++) {
+      query.append ("apple pie ");
+    }
+
+    query.append (")");
+
+    long unlimited = Long.MAX_VALUE;
+    ScoreList full = null;
+
+    for (int i = 0; i < 2; i++) {
+      long start = System.nanoTime ();
+      full = evaluateTimed (query.toString (), this.indri, 0);
+      unlimited = Math.min (unlimited, (System.nanoTime () - start) / 1000000);
+    }
+
+    this.check (! full.isTruncated (), "unlimited results aren't truncated");
+    this.check (full.size () > 10, "there are enough results (" + full.size () + ")");
+    this.checkEquals (3, InvListCache.size (), "the complete #WINDOW list is cached");
+    this.check (unlimited >= 100, "the unlimited query is slow (" + unlimited + " ms)");
+
+    long timeLimit = Math.max (1, unlimited / 20);
+    long start = System.nanoTime ();
+    ScoreList r = evaluateTimed (query.toString (), this.indri, timeLimit);
+    long elapsed = (System.nanoTime () - start) / 1000000;
+
+    this.check (r.isTruncated (), "results are truncated");
+    this.checkEquals (0, r.size (), "a query with a partial #WINDOW list scores no documents");
+    this.checkEquals (2, InvListCache.size (), "the partial #WINDOW list isn't cached");
+    this.check (elapsed < unlimited / 2,
+                "the deadline is honoured (" + elapsed + " ms with a " + timeLimit +
+                " ms limit, " + unlimited + " ms without)");
+
+    InvListCache.clear ();
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new QueryBudgetTest ().run ();
+  }
+
+}
@@ -0,0 +1,248 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Tests of QueryExecutor and QryEval.processQueryFileParallel:  a
+ *  query file evaluated concurrently gives the same output file as
+ *  a query file evaluated sequentially.  Virtual mode is tested with
+ *  this Java version's executor, or with a stand-in for it.
+ */
+public class QueryExecutorTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final RetrievalModel bm25 = new RetrievalModelBM25 ("1.2", "0.75", "0");
+
+  //  --------------- Nested classes --------------------------------
+
+  /**
+   *  A stand-in for the Java 21 Executors.newVirtualThreadPerTaskExecutor.
+   */
+  public static class VirtualThreads {
+    public static ExecutorService newVirtualThreadPerTaskExecutor () {
+      return Executors.newCachedThreadPool ();
+    }
+  }
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create parameters.
+   *  @param keyValues Parameter names and values.
+   *  @return The parameters.
+   */
+  private static Map<String, String> parameters (String... keyValues) {
+
+    Map<String, String> parameters = new HashMap<String, String> ();
+
+    for (int i = 0; i < keyValues.length; i += 2) {
+      parameters.put (keyValues[i], keyValues[i + 1]);
+    }
+
+    return parameters;
+  }
+
+  /**
+   *  Write a query file with more queries than the executor keeps in
+   *  flight, including queries with derived inverted lists and a
+   *  query that matches no documents.
+   *  @param path The query file.
+   *  @throws IOException Error writing the file.
+   */
+  private static void writeQueries (String path) throws IOException {
+
+    PrintWriter queries = new PrintWriter (path);
+    Random random = new Random (31);
+    String[] w = TestIndex.WORDS;
+
+    for (int i = 0; i < 60; i++) {
+      String a = w[random.nextInt (w.length)];
+      String b = w[random.nextInt (w.length)];
+
+      switch (i % 4) {
+      case 0:
+        queries.println ((i + 1) + ":" + a + " " + b);
+        break;
+      case 1:
+        queries.println ((i + 1) + ":#near/3 (" + a + " " + b + ") " + a);
+        break;
+      case 2:
+        queries.println ((i + 1) + ":#syn (" + a + " " + b + ") " + TestIndex.RARE_WORD);
+        break;
+      default:
+        queries.println ((i + 1) + ":" + a + ".title " + b + ".url");
+        break;
+      }
+    }
+
+    queries.println ("61:zzzunseen");
+    queries.close ();
+  }
+
+  /**
+   *  Evaluate a query file into a new output file.
+   *  @param queryFile The query file.
+   *  @param outputFile The output file.
+   *  @param parameters Parameters of the run, e.g., parallel: parameters.
+   *  @return The lines of the output file.
+   *  @throws IOException Error evaluating the queries.
+   */
+  private List<String> runQueryFile (String queryFile, String outputFile,
+                                     Map<String, String> parameters)
+    throws IOException {
+
+    Files.deleteIfExists (Paths.get (outputFile));	// Results are appended
+    QryEval.processQueryFile (queryFile, this.bm25, outputFile, 100, parameters);
+    return Files.readAllLines (Paths.get (outputFile));
+  }
+
+  /**
+   *  Check that two output files are identical, line for line.
+   *  @param expected The lines of the expected output file.
+   *  @param actual The lines of the actual output file.
+   *  @param message A description of the actual output file.
+   */
+  private void checkSameLines (List<String> expected, List<String> actual, String message) {
+
+    this.checkEquals (expected.size (), actual.size (), message + ":  lines");
+
+    for (int i = 0; i < Math.min (expected.size (), actual.size ()); i++) {
+      this.checkEquals (expected.get (i), actual.get (i), message + ":  line " + (i + 1));
+    }
+  }
+
+  public void testParallelOutput () throws Exception {
+
+    Path dir = Files.createTempDirectory ("qryeval-parallel");
+    String queryFile = dir.resolve ("queries.txt").toString ();
+    String sequentialFile = dir.resolve ("sequential.teIn").toString ();
+    String parallelFile = dir.resolve ("parallel.teIn").toString ();
+
+    try {
+      writeQueries (queryFile);
+
+      List<String> expected =
+        this.runQueryFile (queryFile, sequentialFile, new HashMap<String, String> ());
+
+      this.check (expected.size () > 1000, "there are expected results (" + expected.size () + ")");
+      this.check (expected.get (expected.size () - 1).startsWith ("61 Q0 dummy"),
+                  "a query without results has a dummy line");
+
+      List<Map<String, String>> runs = new ArrayList<Map<String, String>> ();
+
+      runs.add (parameters ("parallel:threads", "2"));
+      runs.add (parameters ("parallel:threads", "4"));
+      runs.add (parameters ("parallel:threads", "7"));
+      runs.add (parameters ("parallel:threads", "3", "parallel:maxInFlight", "1"));
+
+      if (Runtime.version ().feature () >= 21) {
+        runs.add (parameters ("parallel:mode", "virtual"));
+        runs.add (parameters ("parallel:mode", "virtual", "parallel:maxInFlight", "5"));
+      }
+
+      for (Map<String, String> parameters : runs) {
+        InvListCache.clear ();
+        this.checkSameLines (expected, this.runQueryFile (queryFile, parallelFile, parameters),
+                             parameters.toString ());
+      }
+    } finally {
+      for (String f : new String[] { queryFile, sequentialFile, parallelFile }) {
+        Files.deleteIfExists (Paths.get (f));
+      }
+      Files.delete (dir);
+      InvListCache.clear ();
+    }
+  }
+
+  public void testMaxInFlight () {
+
+    QueryExecutor executor = new QueryExecutor (parameters ("parallel:threads", "3"));
+
+    this.checkEquals (12, executor.getMaxInFlight (), "threads mode default");
+    executor.shutdown ();
+
+    executor = new QueryExecutor (parameters ("parallel:threads", "3",
+                                              "parallel:maxInFlight", "5"));
+    this.checkEquals (5, executor.getMaxInFlight (), "threads mode parallel:maxInFlight");
+    executor.shutdown ();
+
+    executor = new QueryExecutor (parameters ("parallel:mode", "virtual"),
+                                  VirtualThreads.class);
+    this.checkEquals (1000, executor.getMaxInFlight (), "virtual mode default");
+    executor.shutdown ();
+
+    executor = new QueryExecutor (parameters ("parallel:mode", "virtual",
+                                              "parallel:maxInFlight", "64"),
+                                  VirtualThreads.class);
+    this.checkEquals (64, executor.getMaxInFlight (), "virtual mode parallel:maxInFlight");
+    executor.shutdown ();
+
+    try {
+      new QueryExecutor (parameters ("parallel:threads", "2", "parallel:maxInFlight", "0"));
+      this.check (false, "parallel:maxInFlight=0 is rejected");
+    } catch (IllegalArgumentException ex) {
+      this.check (ex.getMessage ().contains ("parallel:maxInFlight"),
+                  "parallel:maxInFlight=0 is rejected (" + ex.getMessage () + ")");
+    }
+  }
+
+  public void testVirtualMode () throws Exception {
+
+    //  The virtual thread executor is found by reflection.
+
+    QueryExecutor executor =
+      new QueryExecutor (parameters ("parallel:mode", "virtual"), VirtualThreads.class);
+    String[] queries = { "mango peach", "#near/3 (sugar spice)", "zzzunseen" };
+    List<Future<ScoreList>> pending = new ArrayList<Future<ScoreList>> ();
+
+    try {
+      for (String query : queries) {
+        pending.add (executor.submit (query, this.bm25));
+      }
+
+      for (int i = 0; i < queries.length; i++) {
+        ScoreList expected = QryEval.processQuery (queries[i], this.bm25);
+        ScoreList actual = QryEval.waitFor (pending.get (i));
+
+        this.checkEquals (expected.size (), actual.size (), queries[i] + ":  size");
+
+        for (int j = 0; j < Math.min (expected.size (), actual.size ()); j++) {
+          this.checkEquals (expected.getDocid (j), actual.getDocid (j),
+                            queries[i] + ":  docid " + j);
+          this.checkScore (expected.getDocidScore (j), actual.getDocidScore (j),
+                           queries[i] + ":  score " + j);
+        }
+      }
+    } finally {
+      executor.shutdown ();
+    }
+
+    //  Without the executor (Java 20 or earlier), virtual mode is an error.
+
+    try {
+      new QueryExecutor (parameters ("parallel:mode", "virtual"), Object.class);
+      this.check (false, "virtual mode without virtual threads is rejected");
+    } catch (IllegalArgumentException ex) {
+      this.check (ex.getMessage ().contains ("Java 21"),
+                  "virtual mode without virtual threads is rejected (" + ex.getMessage () + ")");
+    }
+
+    //  The executor of this Java version.
+
+    try {
+      new QueryExecutor (parameters ("parallel:mode", "virtual")).shutdown ();
+      this.check (Runtime.version ().feature () >= 21, "virtual threads are available");
+    } catch (IllegalArgumentException ex) {
+      this.check (Runtime.version ().feature () < 21,
+                  "virtual threads are unavailable (" + ex.getMessage () + ")");
+    }
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new QueryExecutorTest ().run ();
+  }
+
+}
@@ -0,0 +1,138 @@
+import java.util.*;
+
+/**
+ *  Tests of evaluating a query in docid ranges (parallel:queryPartitions),
+ *  and of the skips that start each range.
+ */
+public class QueryPartitionTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final RetrievalModel bm25 = new RetrievalModelBM25 ("1.2", "0.75", "0");
+  private final RetrievalModel indri = new RetrievalModelIndri ("2500", "0.4");
+  private final RetrievalModel rankedBoolean = new RetrievalModelRankedBoolean ();
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Evaluate a query in docid ranges.
+   *  @param query The query.
+   *  @param model The retrieval model.
+   *  @param partitions The number of ranges, or 1 for serial evaluation.
+   *  @return The results.
+   *  @throws Exception Error evaluating the query.
+   */
+  private static ScoreList evaluate (String query, RetrievalModel model, int partitions)
+    throws Exception {
+
+    Map<String, String> parameters = new HashMap<String, String> ();
+
+    parameters.put ("parallel:queryPartitions", Integer.toString (partitions));
+    QryEval.configure (parameters);
+
+    try {
+      return QryEval.processQuery (query, model);
+    } finally {
+      QryEval.configure (new HashMap<String, String> ());
+    }
+  }
+
+  public void testDocidRanges () throws Exception {
+
+    int maxDoc = Idx.INDEXREADER.maxDoc ();
+
+    this.checkEquals ("[0, 600]", Arrays.toString (Idx.getDocidRanges (1)), "1 range");
+    this.checkEquals ("[0, 300, 600]", Arrays.toString (Idx.getDocidRanges (2)),
+                      "2 ranges group leaves");
+    this.checkEquals ("[0, 150, 300, 450, 600]", Arrays.toString (Idx.getDocidRanges (4)),
+                      "4 ranges are the leaves");
+
+    for (int n : new int[] { 1, 2, 3, 5, 7, 8, 16, 100, 600, 1000 }) {
+      int[] b = Idx.getDocidRanges (n);
+      boolean increasing = true;
+
+      for (int i = 1; i < b.length; i++) {
+        increasing &= (b[i - 1] < b[i]);
+      }
+
+      this.checkEquals (0, b[0], n + " ranges start at 0");
+      this.checkEquals (maxDoc, b[b.length - 1], n + " ranges end at maxDoc");
+      this.check (increasing, n + " ranges aren't empty:  " + Arrays.toString (b));
+      this.check (b.length - 1 <= Math.min (n + TestIndex.NUM_DOCS / TestIndex.SEGMENT_SIZE,
+                                            maxDoc),
+                  n + " ranges aren't too many (" + (b.length - 1) + ")");
+      this.check (b.length - 1 >= Math.min (n, maxDoc) / 2,
+                  n + " ranges aren't too few (" + (b.length - 1) + ")");
+    }
+  }
+
+  public void testDocIteratorSkip () throws Exception {
+
+    Random random = new Random (1);
+
+    for (String term : new String[] { "apple", "mango", TestIndex.RARE_WORD }) {
+      InvList invList = new InvList (term, "body");
+      QryIopTerm q = new QryIopTerm (term, "body");
+
+      q.initialize (this.bm25);
+
+      //  Skip to increasing targets, sometimes far and sometimes near,
+      //  and compare with the first posting that stepping would find.
+
+      int index = 0;
+
+      for (int target = 0; target < TestIndex.NUM_DOCS + 2; ) {
+        boolean past = random.nextBoolean ();
+
+        while ((index < invList.df) &&
+               ((past) ? (invList.getDocid (index) <= target)
+                       : (invList.getDocid (index) < target))) {
+          index++;
+        }
+
+        if (past) {
+          q.docIteratorAdvancePast (target);
+        } else {
+          q.docIteratorAdvanceTo (target);
+        }
+
+        String label = term + ((past) ? " past " : " to ") + target;
+
+        if (index < invList.df) {
+          this.check (q.docIteratorHasMatch (this.bm25), label + " has a match");
+          this.checkEquals (invList.getDocid (index), q.docIteratorGetMatch (), label);
+        } else {
+          this.check (! q.docIteratorHasMatch (this.bm25), label + " has no match");
+        }
+
+        target += (random.nextInt (4) == 0) ? random.nextInt (200) : random.nextInt (3);
+      }
+    }
+  }
+
+  public void testRangesEqualSerial () throws Exception {
+
+    Object[][] queries = {
+      { "mango peach #near/3 (plum sugar)", this.bm25 },
+      { "#and (mango #syn (peach plum) #window/8 (salt water))", this.indri },
+      { "#and (apple pie)", this.rankedBoolean },
+      { "#or (" + TestIndex.RARE_WORD + " grape)", this.rankedBoolean } };
+
+    for (Object[] query : queries) {
+      String qString = (String) query[0];
+      RetrievalModel model = (RetrievalModel) query[1];
+      ScoreList serial = evaluate (qString, model, 1);
+
+      for (int partitions : new int[] { 2, 3, 4, 7, 50 }) {
+        this.checkSameResults (serial, evaluate (qString, model, partitions),
+                               qString + " in " + partitions + " ranges");
+      }
+    }
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new QueryPartitionTest ().run ();
+  }
+
+}
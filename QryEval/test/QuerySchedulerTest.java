@@ -0,0 +1,111 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Tests of QueryScheduler.
+ */
+public class QuerySchedulerTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private static final List<String> QUERIES = Arrays.asList ("mango peach", "mango plum");
+
+  private final RetrievalModel bm25 = new RetrievalModelBM25 ("1.2", "0.75", "0");
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Share the term lists of QUERIES with an evaluation option set.
+   *  @param key The parameter name, or null for the defaults.
+   *  @param value The parameter value.
+   *  @return The shared terms of each query.
+   */
+  private List<List<String>> cacheSharedTerms (String key, String value) {
+
+    Map<String, String> parameters = new HashMap<String, String> ();
+
+    if (key != null) {
+      parameters.put (key, value);
+    }
+
+    InvListCache.clear ();
+    QryEval.configure (parameters);
+
+    try {
+      return QueryScheduler.cacheSharedTerms (QUERIES, Collections.nCopies (2, this.bm25));
+    } finally {
+      QryEval.configure (new HashMap<String, String> ());
+    }
+  }
+
+  public void testCacheSharedTerms () {
+
+    List<List<String>> shared = this.cacheSharedTerms (null, null);
+
+    this.checkEquals ("[[mango.body], [mango.body]]", shared.toString (), "shared terms");
+    this.check (InvListCache.get ("mango.body") != null, "a shared term list is cached");
+    this.check (InvListCache.get ("peach.body") == null, "an unshared term list isn't cached");
+    InvListCache.clear ();
+  }
+
+  public void testMaxQueued () throws Exception {
+
+    //  The batch window is long, so the dispatcher holds the first
+    //  queries in a batch while the others arrive.
+
+    Map<String, String> parameters = new HashMap<String, String> ();
+
+    parameters.put ("scheduler:maxInFlight", "1");
+    parameters.put ("scheduler:maxQueued", "2");
+    parameters.put ("scheduler:batchWindow", "500");
+
+    QueryScheduler scheduler = new QueryScheduler (parameters);
+
+    try {
+      List<Future<ScoreList>> results = new ArrayList<Future<ScoreList>> ();
+
+      results.add (scheduler.submit ("mango", this.bm25));
+      results.add (scheduler.submit ("peach", this.bm25));
+      Thread.sleep (50);			// The dispatcher takes them
+
+      try {
+        scheduler.submit ("plum", this.bm25);
+        this.check (false, "a query beyond maxQueued is rejected");
+      } catch (RejectedExecutionException ex) {
+        this.checkEquals (2, scheduler.getQueued (), "queries in the dispatcher's batch are queued");
+      }
+
+      for (Future<ScoreList> r : results) {
+        this.check (QryEval.waitFor (r).size () > 0, "a queued query is evaluated");
+      }
+
+      this.checkEquals (0, scheduler.getQueued (), "evaluated queries aren't queued");
+      this.check (QryEval.waitFor (scheduler.submit ("plum", this.bm25)).size () > 0,
+                  "a query is accepted when the queue has room");
+    } finally {
+      scheduler.shutdown ();
+    }
+  }
+
+  public void testNoSharingPerSegment () {
+
+    List<List<String>> shared = this.cacheSharedTerms ("parallel:segments", "true");
+
+    this.checkEquals ("[[mango.body], [mango.body]]", shared.toString (), "shared terms");
+    this.check (InvListCache.size () == 0, "segment queries don't share lists");
+  }
+
+  public void testNoSharingWithoutCache () {
+
+    List<List<String>> shared = this.cacheSharedTerms ("invListCache:size", "0");
+
+    this.checkEquals ("[[mango.body], [mango.body]]", shared.toString (), "shared terms");
+    this.check (InvListCache.size () == 0, "a disabled cache doesn't share lists");
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new QuerySchedulerTest ().run ();
+  }
+
+}
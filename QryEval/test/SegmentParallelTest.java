@@ -0,0 +1,112 @@
+import java.util.*;
+
+import org.apache.lucene.index.LeafReaderContext;
+
+/**
+ *  Tests of evaluating a query on each segment of the index
+ *  (parallel:segments).  The index has several segments.
+ */
+public class SegmentParallelTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private final RetrievalModel bm25 = new RetrievalModelBM25 ("1.2", "0.75", "0");
+  private final RetrievalModel indri = new RetrievalModelIndri ("2500", "0.4");
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Evaluate a query on the whole index or on each segment.
+   *  @param query The query.
+   *  @param model The retrieval model.
+   *  @param segments If true, evaluate the query on each segment.
+   *  @return The results.
+   *  @throws Exception Error evaluating the query.
+   */
+  private ScoreList evaluate (String query, RetrievalModel model, boolean segments)
+    throws Exception {
+
+    Map<String, String> parameters = new HashMap<String, String> ();
+
+    parameters.put ("parallel:segments", Boolean.toString (segments));
+    QryEval.configure (parameters);
+
+    try {
+      this.checkEquals (segments, QryEval.isSegmentParallel (), query + ":  per-segment mode");
+      return QryEval.processQuery (query, model);
+    } finally {
+      QryEval.configure (new HashMap<String, String> ());
+    }
+  }
+
+  /**
+   *  Get an initialized inverted list operator for a query.
+   *  @param query The query, e.g., "#near/3 (mango peach)".
+   *  @param leaf The segment, or null for the whole index.
+   *  @return The inverted list operator.
+   *  @throws Exception Error evaluating the query.
+   */
+  private QryIop getIop (String query, LeafReaderContext leaf) throws Exception {
+
+    Qry q = QryParser.getQuery ("#sum (" + query + ")", this.bm25);
+
+    while (! (q instanceof QryIop)) {
+      q = q.args.get (0);
+    }
+
+    q.setLeaf (leaf);
+    q.initialize (this.bm25);
+    return (QryIop) q;
+  }
+
+  public void testCollectionStatistics () throws Exception {
+
+    InvListCache.clear ();
+
+    for (String query : new String[] { "mango", "#near/3 (mango peach)",
+                                       "#syn (plum " + TestIndex.RARE_WORD + ")",
+                                       "#window/8 (salt water)" }) {
+      QryIop whole = this.getIop (query, null);
+      int df = 0;
+      int ctf = 0;
+
+      for (LeafReaderContext leaf : Idx.INDEXREADER.leaves ()) {
+        QryIop q_i = this.getIop (query, leaf);
+
+        this.check (q_i.getDf () < whole.getDf (), query + ":  a segment has fewer documents");
+        df += q_i.getDf ();
+        ctf += q_i.getCtf ();
+      }
+
+      this.checkEquals (whole.getDf (), df, query + ":  df summed across segments");
+      this.checkEquals (whole.getCtf (), ctf, query + ":  ctf summed across segments");
+    }
+
+    InvListCache.clear ();
+  }
+
+  public void testSegmentsEqualWholeIndex () throws Exception {
+
+    Object[][] queries = {
+      { "mango peach", this.bm25 },
+      { "#near/3 (mango peach) #syn (plum grape) sugar", this.bm25 },
+      { "#wsum (0.3 #window/8 (salt water) 0.7 spice)", this.indri },
+      { "#and (mango #syn (peach plum) #near/2 (sugar spice))", this.indri },
+      { "#or (" + TestIndex.RARE_WORD + " grape)", new RetrievalModelRankedBoolean () } };
+
+    for (Object[] query : queries) {
+      String qString = (String) query[0];
+      RetrievalModel model = (RetrievalModel) query[1];
+
+      this.checkSameResults (this.evaluate (qString, model, false),
+                             this.evaluate (qString, model, true),
+                             qString + " per segment");
+    }
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new SegmentParallelTest ().run ();
+  }
+
+}
@@ -0,0 +1,128 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  Tests of SvmRankWriter:  the SVM-rank text form (1-based feature
+ *  numbers, missing features omitted, the external docid in a
+ *  comment), and the binary form, which FeatureMatrix.read reads.
+ */
+public class SvmRankWriterTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private Path dir = null;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Get the path of a new feature file.  The file is deleted when the
+   *  test exits.
+   *  @param name The file name.
+   *  @return The path.
+   *  @throws IOException Error creating the directory.
+   */
+  private String getPath (String name) throws IOException {
+
+    if (this.dir == null) {
+      this.dir = Files.createTempDirectory ("qryeval-svmrank");
+      this.dir.toFile ().deleteOnExit ();
+    }
+
+    Path file = this.dir.resolve (name);
+
+    file.toFile ().deleteOnExit ();
+    return file.toString ();
+  }
+
+  /**
+   *  Create the matrices of two queries.
+   *  @return The matrices.
+   */
+  private static FeatureMatrix[] matrices () {
+
+    FeatureMatrix m1 = new FeatureMatrix ("101", new int[] { 5, 120 }, new int[] { 2, 0 }, 4);
+    FeatureMatrix m2 = new FeatureMatrix ("101.2", new int[] { 599 }, null, 4);
+
+    m1.set (0, 0, 0.5);
+    m1.set (0, 1, Double.NaN);
+    m1.set (0, 2, -1.25);
+    m1.set (0, 3, 1);
+    m1.set (1, 3, 0);				// Features 0-2 are missing
+    m2.set (0, 1, 0.75);
+
+    return new FeatureMatrix[] { m1, m2 };
+  }
+
+  public void testText () throws Exception {
+
+    String path = this.getPath ("features.txt");
+    SvmRankWriter writer = new SvmRankWriter (path, false);
+
+    for (FeatureMatrix m : matrices ()) {
+      writer.write (m);
+    }
+    writer.close ();
+
+    List<String> lines = Files.readAllLines (Paths.get (path));
+
+    this.checkEquals (Arrays.asList (
+        "2 qid:101 1:0.5 3:-1.25 4:1.0 # doc-0005",
+        "0 qid:101 4:0.0 # doc-0120",
+        "0 qid:101.2 2:0.75 # doc-0599"),
+      lines, "SVM-rank text");
+
+    //  The file is replaced, not appended to.
+
+    writer = new SvmRankWriter (path, false);
+    writer.write (matrices ()[1]);
+    writer.close ();
+    this.checkEquals (1, Files.readAllLines (Paths.get (path)).size (), "a new file");
+  }
+
+  public void testBinary () throws Exception {
+
+    String path = this.getPath ("features.bin");
+    SvmRankWriter writer = new SvmRankWriter (path, true);
+    FeatureMatrix[] matrices = matrices ();
+
+    for (FeatureMatrix m : matrices) {
+      writer.write (m);
+    }
+    writer.close ();
+
+    DataInputStream input = new DataInputStream (
+      new BufferedInputStream (new FileInputStream (path)));
+
+    try {
+      for (FeatureMatrix expected : matrices) {
+        FeatureMatrix actual = FeatureMatrix.read (input);
+        String message = "query " + expected.getQid ();
+
+        this.checkEquals (expected.getQid (), actual.getQid (), message + ":  qid");
+        this.checkEquals (expected.getRows (), actual.getRows (), message + ":  rows");
+
+        for (int r = 0; r < expected.getRows (); r++) {
+          this.checkEquals (expected.getDocid (r), actual.getDocid (r), message + ":  docid");
+          this.checkEquals (expected.getRelevance (r), actual.getRelevance (r),
+                            message + ":  relevance");
+
+          for (int c = 0; c < expected.getColumns (); c++) {
+            this.checkEquals (expected.get (r, c), actual.get (r, c),
+                              message + ":  row " + r + " feature " + c);
+          }
+        }
+      }
+
+      this.checkEquals (-1, input.read (), "the file is read to the end");
+    } finally {
+      input.close ();
+    }
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new SvmRankWriterTest ().run ();
+  }
+
+}
@@ -0,0 +1,104 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  Tests of TermLocalityOrder and QryEval.processQueryFileScheduled:
+ *  the order keeps queries with shared terms together, the shared
+ *  term lists are cached, and the results are those of evaluating
+ *  the queries one by one, in query file order.
+ */
+public class TermLocalityOrderTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private static final String[] QUERIES = {
+    "mango peach", "sugar spice", "mango plum", "spice salt", "peach grape" };
+
+  private final RetrievalModel bm25 = new RetrievalModelBM25 ("1.2", "0.75", "0");
+
+  //  --------------- Methods ---------------------------------------
+
+  public void testOrder () {
+
+    int[] order = TermLocalityOrder.order (Arrays.asList (QUERIES), this.bm25);
+
+    this.checkEquals ("[0, 2, 1, 3, 4]", Arrays.toString (order),
+                      "queries that share terms are adjacent");
+  }
+
+  public void testOrderIsPermutation () {
+
+    List<String> queries = new ArrayList<String> ();
+    Random random = new Random (7);
+
+    for (int i = 0; i < 200; i++) {
+      queries.add (TestIndex.WORDS[random.nextInt (TestIndex.WORDS.length)] + " " +
+                   TestIndex.WORDS[random.nextInt (TestIndex.WORDS.length)]);
+    }
+
+    int[] order = TermLocalityOrder.order (queries, this.bm25);
+    boolean[] seen = new boolean[queries.size ()];
+
+    this.checkEquals (queries.size (), order.length, "every query is scheduled");
+
+    for (int i : order) {
+      this.check (! seen[i], "query " + i + " is scheduled once");
+      seen[i] = true;
+    }
+  }
+
+  public void testScheduledResults () throws Exception {
+
+    Path dir = Files.createTempDirectory ("qryeval-schedule");
+    String queryFile = dir.resolve ("queries.txt").toString ();
+    String scheduledFile = dir.resolve ("scheduled.teIn").toString ();
+    String expectedFile = dir.resolve ("expected.teIn").toString ();
+
+    try {
+      PrintWriter queries = new PrintWriter (queryFile);
+
+      for (int i = 0; i < QUERIES.length; i++) {
+        queries.println ((i + 1) + ":" + QUERIES[i]);
+      }
+      queries.close ();
+
+      //  The expected results are those of sequential evaluation.
+
+      TrecResultWriter writer = new TrecResultWriter (expectedFile, 4).start ();
+
+      for (int i = 0; i < QUERIES.length; i++) {
+        ScoreList r = QryEval.processQuery (QUERIES[i], this.bm25);
+
+        r.sort ();
+        writer.write (Integer.toString (i + 1), r, 100);
+      }
+      writer.close ();
+
+      InvListCache.clear ();
+      writer = new TrecResultWriter (scheduledFile, 4).start ();
+      QryEval.processQueryFileScheduled (queryFile, this.bm25, writer, 100);
+      writer.close ();
+
+      String expected = new String (Files.readAllBytes (Paths.get (expectedFile)));
+
+      this.check (expected.length () > 0, "there are expected results");
+      this.checkEquals (expected, new String (Files.readAllBytes (Paths.get (scheduledFile))),
+                        "scheduled results");
+      this.check (InvListCache.get ("mango.body") != null, "a shared term list is cached");
+      this.check (InvListCache.get ("sugar.body") == null, "an unshared term list isn't cached");
+    } finally {
+      for (String f : new String[] { queryFile, scheduledFile, expectedFile }) {
+        Files.deleteIfExists (Paths.get (f));
+      }
+      Files.delete (dir);
+      InvListCache.clear ();
+    }
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new TermLocalityOrderTest ().run ();
+  }
+
+}
@@ -0,0 +1,106 @@
+import java.util.*;
+
+/**
+ *  Tests of TermVector.  A document's TermVector must match the
+ *  postings of the index:  the frequency and positions of each stem,
+ *  and the df and ctf of each stem.
+ */
+public class TermVectorTest extends TestCase {
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Get a document's posting from an inverted list.
+   *  @param invList The inverted list.
+   *  @param docid The internal docid.
+   *  @return The posting, or null if the document doesn't have the term.
+   */
+  private static InvList.DocPosting getPosting (InvList invList, int docid) {
+
+    for (int i = 0; i < invList.df; i++) {
+      if (invList.getDocid (i) == docid) {
+        return invList.postings.get (i);
+      }
+    }
+
+    return null;
+  }
+
+  public void testMatchesPostings () throws Exception {
+
+    Map<String, InvList> invLists = new HashMap<String, InvList> ();
+    int vectors = 0;
+
+    TermVector.clearStatisticsCache ();
+
+    for (int docid = 0; docid < TestIndex.NUM_DOCS; docid += 37) {
+      for (String field : FeatureExtractor.FIELDS) {
+        TermVector vector = new TermVector (docid, field);
+        String label = "docid " + docid + " " + field;
+        int stemmed = 0;
+
+        if (vector.stemsLength () == 0) {		// The document has no such field
+          this.checkEquals (0, vector.positionsLength (), label + " positions");
+          continue;
+        }
+
+        vectors++;
+
+        for (int s = 1; s < vector.stemsLength (); s++) {
+          String stem = vector.stemString (s);
+          String key = field + "\t" + stem;
+
+          if (! invLists.containsKey (key)) {
+            invLists.put (key, new InvList (stem, field));
+          }
+
+          InvList invList = invLists.get (key);
+          InvList.DocPosting posting = getPosting (invList, docid);
+
+          this.check (posting != null, label + " " + stem + " is in the postings");
+
+          if (posting == null) {
+            continue;
+          }
+
+          this.checkEquals (s, vector.indexOfStem (stem), label + " " + stem + " index");
+          this.checkEquals (posting.tf, vector.stemFreq (s), label + " " + stem + " tf");
+          this.checkEquals (invList.df, vector.stemDf (s), label + " " + stem + " df");
+          this.checkEquals ((long) invList.ctf, vector.totalStemFreq (s),
+                            label + " " + stem + " ctf");
+
+          for (int p : posting.positions) {
+            this.checkEquals (s, vector.stemAt (p), label + " " + stem + " at " + p);
+          }
+
+          stemmed += posting.tf;
+        }
+
+        //  Other positions are stopwords.
+
+        int stopwords = 0;
+
+        for (int p = 0; p < vector.positionsLength (); p++) {
+          if (vector.stemAt (p) == 0) {
+            stopwords++;
+          }
+        }
+
+        this.checkEquals (vector.positionsLength (), stemmed + stopwords,
+                          label + " positions");
+        this.checkEquals (0, vector.stemDf (0), label + " stopword df");
+        this.checkEquals (0L, vector.totalStemFreq (0), label + " stopword ctf");
+        this.checkEquals (-1, vector.indexOfStem ("the"), label + " a stopword has no index");
+      }
+    }
+
+    this.check (vectors > 50, "documents have term vectors (" + vectors + ")");
+    TermVector.clearStatisticsCache ();
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new TermVectorTest ().run ();
+  }
+
+}
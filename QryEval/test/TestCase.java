@@ -0,0 +1,153 @@
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ *  TestCase is the base class of QryEval's tests.  A test class is
+ *  named for what it tests, ends in "Test", and has a main method
+ *  that calls run.  run calls each method whose name starts with
+ *  "test", in alphabetical order, reports the failed checks, and
+ *  exits, with status 1 if any check failed.  Exiting stops threads
+ *  that a test left running (e.g., a server's).  "make test" runs
+ *  every test class.
+ */
+public abstract class TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  The relative difference at which two scores are different.
+   */
+  public static final double TOLERANCE = 1e-9;
+
+  private int checks = 0;
+  private final List<String> failures = new ArrayList<String> ();
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Check a condition.
+   *  @param condition The condition.
+   *  @param message What is checked.
+   */
+  protected void check (boolean condition, String message) {
+    this.checks++;
+
+    if (! condition) {
+      this.failures.add (message);
+    }
+  }
+
+  /**
+   *  Check that two values are equal.
+   *  @param expected The expected value.
+   *  @param actual The actual value.
+   *  @param message What is checked.
+   */
+  protected void checkEquals (Object expected, Object actual, String message) {
+    this.check (Objects.equals (expected, actual),
+                message + ":  expected " + expected + ", got " + actual);
+  }
+
+  /**
+   *  Check that two scores are equal, up to floating point rounding.
+   *  @param expected The expected score.
+   *  @param actual The actual score.
+   *  @param message What is checked.
+   */
+  protected void checkScore (double expected, double actual, String message) {
+    this.check (Math.abs (expected - actual) <=
+                TOLERANCE * Math.max (1.0, Math.abs (expected)),
+                message + ":  expected " + expected + ", got " + actual);
+  }
+
+  /**
+   *  Check that two result lists have the same documents, in the same
+   *  order, with the same scores.
+   *  @param expected The expected results.
+   *  @param actual The actual results.
+   *  @param message What is checked.
+   */
+  protected void checkSameResults (ScoreList expected, ScoreList actual, String message) {
+
+    this.check (expected != null, message + ":  no expected results");
+    this.check (actual != null, message + ":  no results");
+
+    if ((expected == null) || (actual == null)) {
+      return;
+    }
+
+    if (expected.size () != actual.size ()) {
+      this.checkEquals (expected.size (), actual.size (), message + ":  size");
+      return;
+    }
+
+    for (int i = 0; i < expected.size (); i++) {
+      double e = expected.getDocidScore (i);
+      double a = actual.getDocidScore (i);
+
+      if ((expected.getDocid (i) != actual.getDocid (i)) ||
+          (Math.abs (e - a) > TOLERANCE * Math.max (1.0, Math.abs (e)))) {
+        this.check (false, message + ":  result " + i + ":  expected docid " +
+                    expected.getDocid (i) + " score " + e + ", got docid " +
+                    actual.getDocid (i) + " score " + a);
+        return;
+      }
+    }
+
+    //  A comparison of empty or all-zero results proves nothing.
+
+    boolean scored = false;
+
+    for (int i = 0; i < expected.size (); i++) {
+      scored |= (expected.getDocidScore (i) != 0.0);
+    }
+
+    this.check (scored, message + ":  no document has a nonzero score");
+  }
+
+  /**
+   *  Run the test methods, report the results, and exit with status
+   *  1 if a check failed, or 0 otherwise.
+   */
+  public void run () {
+
+    String name = this.getClass ().getName ();
+    Method[] methods = this.getClass ().getDeclaredMethods ();
+
+    Arrays.sort (methods, new Comparator<Method> () {
+      public int compare (Method m1, Method m2) {
+        return m1.getName ().compareTo (m2.getName ());
+      }
+    });
+
+    for (Method m : methods) {
+      if (! m.getName ().startsWith ("test") || (m.getParameterTypes ().length > 0)) {
+        continue;
+      }
+
+      int failed = this.failures.size ();
+
+      try {
+        m.setAccessible (true);
+        m.invoke (this);
+      } catch (InvocationTargetException ex) {
+        this.checks++;
+        this.failures.add (m.getName () + " threw " + ex.getCause ());
+        ex.getCause ().printStackTrace ();
+      } catch (IllegalAccessException ex) {
+        this.checks++;
+        this.failures.add (m.getName () + ":  " + ex);
+      }
+
+      for (int i = failed; i < this.failures.size (); i++) {
+        System.err.println (name + "." + m.getName () + " FAILED:  " + this.failures.get (i));
+      }
+    }
+
+    System.out.println (name + ":  " + this.checks + " checks, " +
+                        this.failures.size () + " failed");
+
+    System.exit ((this.failures.size () > 0) ? 1 : 0);
+  }
+
+}
@@ -0,0 +1,249 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import org.apache.lucene.analysis.en.EnglishAnalyzerConfigurable;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ *  TestIndex builds the small Lucene index that the tests use, and
+ *  makes it the current index.  Documents have the fields and
+ *  attributes of the course indexes:
+ *  <pre>
+ *    externalId                 "doc-0000", "doc-0001", ...
+ *    body, title, url, inlink   text, with term vectors and positions
+ *    score, rawUrl, PageRank    stored attributes
+ *  </pre>
+ *  <p>
+ *  The text is generated from a fixed seed over a small vocabulary,
+ *  so some terms are frequent and others are rare.  The norms are the
+ *  field lengths, as Idx.getFieldLength expects.  The index has
+ *  several segments, so that per-segment code has something to do,
+ *  and a few deleted documents (see isDeleted).
+ *  </p><p>
+ *  The index is built once per JVM, in a temporary directory that is
+ *  deleted when the JVM exits.
+ *  </p>
+ */
+public class TestIndex {
+
+  //  --------------- Constants and variables ---------------------
+
+  /**
+   *  The number of documents, and the number of documents per segment.
+   */
+  public static final int NUM_DOCS = 600;
+  public static final int SEGMENT_SIZE = 150;
+
+  /**
+   *  The vocabulary, roughly from most to least frequent.  Every
+   *  97th document also contains "quince", a rare term.
+   */
+  public static final String[] WORDS = {
+    "apple", "pie", "cherry", "tart", "fig", "bread", "honey", "lemon",
+    "mango", "peach", "plum", "grape", "sugar", "spice", "salt", "water" };
+
+  public static final String RARE_WORD = "quince";
+
+  private static final String[] STOPWORDS = { "the", "of", "and", "a" };
+
+  private static String path = null;
+
+  //  --------------- Nested classes --------------------------------
+
+  /**
+   *  Stores each field's length as its norm.  Scoring isn't used.
+   */
+  private static class LengthSimilarity extends Similarity {
+
+    public long computeNorm (FieldInvertState state) {
+      return state.getLength ();
+    }
+
+    public SimScorer scorer (float boost, CollectionStatistics collectionStats,
+                             TermStatistics... termStats) {
+      return new SimScorer () {
+        public float score (float freq, long norm) {
+          return freq;
+        }
+      };
+    }
+  }
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Indicates whether a document was deleted after it was indexed.
+   *  Its internal docid is its document number.
+   *  @param i The document number.
+   *  @return True if the document is deleted.
+   */
+  public static boolean isDeleted (int i) {
+    return (i % 101 == 50);
+  }
+
+  /**
+   *  Build a document.
+   *  @param random The random number generator.
+   *  @param i The document number.
+   *  @param textType The type of the text fields.
+   *  @return The document.
+   */
+  private static Document createDocument (Random random, int i, FieldType textType) {
+
+    Document d = new Document ();
+    String site = "site" + random.nextInt (20);
+    String rawUrl = (i % 5 == 0) ?
+      "http://en.wikipedia.org/wiki/" + WORDS[i % WORDS.length] :
+      "http://www." + site + ".com/" + WORDS[i % WORDS.length] + "/" + i + ".html";
+
+    d.add (new StringField ("externalId", String.format ("doc-%04d", i), Field.Store.YES));
+    d.add (new Field ("body", createText (random, 10 + random.nextInt (40), i), textType));
+
+    if (i % 4 != 0) {
+      d.add (new Field ("title", createText (random, 2 + random.nextInt (5), i), textType));
+    }
+
+    d.add (new Field ("url", rawUrl.replaceAll ("[^a-z0-9]+", " "), textType));
+
+    if (i % 3 == 0) {
+      d.add (new Field ("inlink", createText (random, 5 + random.nextInt (20), i), textType));
+    }
+
+    d.add (new StoredField ("score", Integer.toString (random.nextInt (100))));
+    d.add (new StoredField ("rawUrl", rawUrl));
+
+    if (i % 7 != 0) {
+      d.add (new StoredField ("PageRank", Float.toString (random.nextFloat () * 10)));
+    }
+
+    return d;
+  }
+
+  /**
+   *  Generate text.  Frequent words are more likely than rare words.
+   *  @param random The random number generator.
+   *  @param length The number of words.
+   *  @param i The document number.
+   *  @return The text.
+   */
+  private static String createText (Random random, int length, int i) {
+
+    StringBuilder text = new StringBuilder ();
+
+    for (int j = 0; j < length; j++) {
+      if (random.nextInt (6) == 0) {
+        text.append (STOPWORDS[random.nextInt (STOPWORDS.length)]);
+      } else {
+        int w = (int) (Math.log (1.0 - random.nextDouble ()) / Math.log (0.75));
+
+        text.append (WORDS[Math.min (w, WORDS.length - 1)]);
+      }
+      text.append (' ');
+    }
+
+    if (i % 97 == 0) {
+      text.append (RARE_WORD);
+    }
+
+    return text.toString ();
+  }
+
+  /**
+   *  Delete a directory and its files.
+   *  @param dir The directory.
+   *  @throws IOException Error deleting the files.
+   */
+  private static void delete (Path dir) throws IOException {
+    Files.walkFileTree (dir, new SimpleFileVisitor<Path> () {
+      public FileVisitResult visitFile (Path file, BasicFileAttributes attrs)
+        throws IOException {
+        Files.delete (file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      public FileVisitResult postVisitDirectory (Path d, IOException ex)
+        throws IOException {
+        Files.delete (d);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   *  Build the index, if it hasn't been built, and make it the
+   *  current index.
+   *  @return The path of the index.
+   *  @throws IOException Error building or opening the index.
+   */
+  public static synchronized String open () throws IOException {
+
+    if (path != null) {
+      return path;
+    }
+
+    final Path dir = Files.createTempDirectory ("qryeval-test");
+
+    Runtime.getRuntime ().addShutdownHook (new Thread () {
+      public void run () {
+        try {
+          delete (dir);
+        } catch (IOException ex) {
+          ex.printStackTrace ();
+        }
+      }
+    });
+
+    //  Analyze text as QryParser does.
+
+    EnglishAnalyzerConfigurable analyzer = new EnglishAnalyzerConfigurable ();
+
+    analyzer.setLowercase (true);
+    analyzer.setStopwordRemoval (true);
+    analyzer.setStemmer (EnglishAnalyzerConfigurable.StemmerType.KSTEM);
+
+    IndexWriterConfig config = new IndexWriterConfig (analyzer);
+
+    config.setSimilarity (new LengthSimilarity ());
+    config.setMergePolicy (NoMergePolicy.INSTANCE);	// Keep the segments
+
+    FieldType textType = new FieldType (TextField.TYPE_NOT_STORED);
+
+    textType.setStoreTermVectors (true);
+    textType.setStoreTermVectorPositions (true);
+    textType.freeze ();
+
+    Random random = new Random (11642);
+    IndexWriter writer = new IndexWriter (FSDirectory.open (dir), config);
+
+    try {
+      for (int i = 0; i < NUM_DOCS; i++) {
+        writer.addDocument (createDocument (random, i, textType));
+
+        if ((i + 1) % SEGMENT_SIZE == 0) {
+          writer.commit ();			// End the segment
+        }
+      }
+
+      for (int i = 0; i < NUM_DOCS; i++) {
+        if (isDeleted (i)) {
+          writer.deleteDocuments (new Term ("externalId", String.format ("doc-%04d", i)));
+        }
+      }
+    } finally {
+      writer.close ();
+    }
+
+    path = dir.toString ();
+    Idx.open (path);
+    Idx.setCurrentIndex (path);
+    return path;
+  }
+
+}
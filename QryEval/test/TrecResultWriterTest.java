@@ -0,0 +1,246 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  Tests of TrecResultWriter and BinaryRunWriter.  The trec_eval output
+ *  is compared to the output of the original printResults, which
+ *  formatted and appended one ranking at a time.
+ */
+public class TrecResultWriterTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private Path dir = null;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Create random rankings, some of them empty, with tied scores.
+   *  @param random The random number generator.
+   *  @param n The number of rankings.
+   *  @return The rankings.
+   */
+  private static List<ScoreList> createRankings (Random random, int n) {
+
+    List<ScoreList> rankings = new ArrayList<ScoreList> ();
+
+    for (int q = 0; q < n; q++) {
+      ScoreList r = new ScoreList ();
+      int size = (q % 10 == 3) ? 0 : random.nextInt (150);
+
+      for (int i = 0; i < size; i++) {
+        r.add (random.nextInt (TestIndex.NUM_DOCS), random.nextInt (20) / 4.0);
+      }
+
+      rankings.add (r);
+    }
+
+    return rankings;
+  }
+
+  /**
+   *  Append a ranking to a trec_eval file, as printResults did.
+   *  @param queryName The query id.
+   *  @param result The ranking.
+   *  @param outputPath The trec_eval file.
+   *  @param outputLength The maximum number of documents to write.
+   *  @throws IOException Error writing the file.
+   */
+  private static void printResults (String queryName, ScoreList result, String outputPath,
+                                    int outputLength) throws IOException {
+
+    BufferedWriter writer = new BufferedWriter (new FileWriter (outputPath, true));
+
+    if (result.size () < 1) {
+      writer.write (queryName + " Q0 dummyRecord 1 0 run-1\n");
+    } else {
+      result.sort ();
+
+      for (int i = 0; i < outputLength && i < result.size (); i++) {
+        writer.write (queryName + " Q0 " + Idx.getExternalDocid (result.getDocid (i)) + " " +
+                      (i + 1) + " " + result.getDocidScore (i) + " run-1\n");
+      }
+    }
+
+    writer.close ();
+  }
+
+  /**
+   *  Get the path of a temporary file.  The file and its directory
+   *  are deleted when the JVM exits.
+   *  @param name The name of the file.
+   *  @return The path.
+   *  @throws IOException Error creating the directory.
+   */
+  private Path getTempFile (String name) throws IOException {
+
+    if (this.dir == null) {
+      this.dir = Files.createTempDirectory ("qryeval-writer");
+      this.dir.toFile ().deleteOnExit ();
+    }
+
+    Path file = this.dir.resolve (name);
+
+    file.toFile ().deleteOnExit ();
+    return file;
+  }
+
+  /**
+   *  Read a file.
+   *  @param file The file.
+   *  @return The contents of the file.
+   *  @throws IOException Error reading the file.
+   */
+  private static String read (Path file) throws IOException {
+    return new String (Files.readAllBytes (file));
+  }
+
+  public void testAppend () throws Exception {
+
+    Path file = this.getTempFile ("append.teIn");
+    ScoreList r = new ScoreList ();
+
+    r.add (5, 1.5);
+    Files.write (file, "0 Q0 dummyRecord 1 0 run-1\n".getBytes ());
+
+    TrecResultWriter writer = new TrecResultWriter (file.toString (), 4).start ();
+
+    writer.write ("1", r, 10);
+    writer.close ();
+
+    this.checkEquals ("0 Q0 dummyRecord 1 0 run-1\n1 Q0 " + Idx.getExternalDocid (5) +
+                      " 1 1.5 run-1\n", read (file), "a ranking is appended");
+  }
+
+  public void testBinaryRun () throws Exception {
+
+    Path file = this.getTempFile ("run.bin");
+    List<ScoreList> rankings = createRankings (new Random (2), 300);
+    BinaryRunWriter writer = new BinaryRunWriter (file.toString (), 2);
+
+    writer.start ();
+
+    for (int q = 0; q < rankings.size (); q++) {
+      writer.write (Integer.toString (q), rankings.get (q), 100);
+    }
+
+    writer.close ();
+
+    BinaryRunReader reader = new BinaryRunReader (file.toString ());
+
+    try {
+      this.checkEquals (rankings.size (), reader.getQids ().size (), "rankings in the run");
+
+      for (int q = 0; q < rankings.size (); q++) {
+        ScoreList expected = rankings.get (q);
+        ScoreList actual = reader.getRanking (Integer.toString (q));
+        boolean same = (Math.min (expected.size (), 100) == actual.size ());
+
+        for (int i = 0; same && (i < actual.size ()); i++) {
+          same = (expected.getDocid (i) == actual.getDocid (i)) &&
+                 (expected.getDocidScore (i) == actual.getDocidScore (i));
+        }
+
+        this.check (same, "ranking " + q + " is read back");
+      }
+    } finally {
+      reader.close ();
+    }
+  }
+
+  public void testFormatError () throws Exception {
+
+    //  A RuntimeException from format is reported by write and close,
+    //  and the writer thread keeps taking rankings, so a producer that
+    //  fills the queue doesn't wait forever.
+
+    final TrecResultWriter writer =
+      new TrecResultWriter (this.getTempFile ("error.teIn").toString (), 2) {
+        @Override
+        protected void format (Ranking ranking) throws IOException {
+          if (ranking.queryName.equals ("3")) {
+            throw new IllegalStateException ("format failed");
+          }
+          super.format (ranking);
+        }
+      }.start ();
+    final List<IOException> errors = new ArrayList<IOException> ();
+    Thread producer = new Thread (new Runnable () {
+      public void run () {
+        for (int q = 0; q < 100; q++) {
+          try {
+            writer.write (Integer.toString (q), new ScoreList (), 10);
+          } catch (IOException ex) {
+            errors.add (ex);
+          }
+        }
+      }
+    });
+
+    producer.start ();
+    producer.join (30000);
+    this.check (! errors.isEmpty (), "write reports the error");
+
+    this.check (! producer.isAlive (), "the producer isn't blocked");
+
+    if (producer.isAlive ()) {
+      return;				// close would wait forever too
+    }
+
+    try {
+      writer.close ();
+      this.check (false, "close reports the error");
+    } catch (IOException ex) {
+      this.check (ex.getCause () instanceof IllegalStateException,
+                  "close reports the error (" + ex.getMessage () + ")");
+    }
+  }
+
+  public void testNotStarted () throws Exception {
+
+    TrecResultWriter writer =
+      new TrecResultWriter (this.getTempFile ("unstarted.teIn").toString (), 4);
+
+    try {
+      writer.write ("1", new ScoreList (), 10);
+      this.check (false, "a writer that isn't started rejects rankings");
+    } catch (IllegalStateException ex) {
+      this.check (true, "a writer that isn't started rejects rankings");
+    } finally {
+      writer.close ();
+    }
+  }
+
+  public void testTrecFormat () throws Exception {
+
+    //  Many rankings and a short queue, so that producers wait and the
+    //  buffer is flushed several times.
+
+    Path expectedFile = this.getTempFile ("expected.teIn");
+    Path actualFile = this.getTempFile ("actual.teIn");
+    List<ScoreList> rankings = createRankings (new Random (1), 500);
+    TrecResultWriter writer = new TrecResultWriter (actualFile.toString (), 2).start ();
+
+    for (int q = 0; q < rankings.size (); q++) {
+      int outputLength = (q % 2 == 0) ? 100 : 10;
+
+      printResults (Integer.toString (q), rankings.get (q), expectedFile.toString (), outputLength);
+      writer.write (Integer.toString (q), rankings.get (q), outputLength);
+    }
+
+    writer.close ();
+
+    String expected = read (expectedFile);
+
+    this.check (expected.length () > 2 * TrecResultWriter.BUFFER_SIZE,
+                "the output is larger than the buffer");
+    this.checkEquals (expected, read (actualFile), "trec_eval output");
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new TrecResultWriterTest ().run ();
+  }
+
+}
@@ -0,0 +1,296 @@
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  Tests of TrecRunReader:  lines that cross the end of the buffer,
+ *  lines that are longer than the buffer, CRLF line endings, a missing
+ *  final newline, blank lines, and query id changes.  The rankings are
+ *  compared with those of the original loader, which split each line
+ *  and looked up each external docid with Idx.getInternalDocid.
+ */
+public class TrecRunReaderTest extends TestCase {
+
+  //  --------------- Constants and variables ---------------------
+
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private Path dir = null;
+
+  //  --------------- Methods ---------------------------------------
+
+  /**
+   *  Write a run file.  The file is deleted when the test exits.
+   *  @param name The file name.
+   *  @param content The content of the file.
+   *  @return The path to the file.
+   *  @throws IOException Error writing the file.
+   */
+  private String writeRun (String name, String content) throws IOException {
+
+    if (this.dir == null) {
+      this.dir = Files.createTempDirectory ("qryeval-run");
+      this.dir.toFile ().deleteOnExit ();
+    }
+
+    Path file = this.dir.resolve (name);
+
+    file.toFile ().deleteOnExit ();
+    Files.write (file, content.getBytes (StandardCharsets.UTF_8));
+    return file.toString ();
+  }
+
+  /**
+   *  Read a run file with TrecRunReader.
+   *  @param path The run file.
+   *  @param qids The query id of each ranking is added to this list.
+   *  @return The rankings.
+   *  @throws Exception Error reading the file.
+   */
+  private static List<ScoreList> read (String path, List<String> qids) throws Exception {
+
+    List<ScoreList> rankings = new ArrayList<ScoreList> ();
+    TrecRunReader reader = new TrecRunReader (path);
+
+    try {
+      ScoreList ranking;
+
+      while ((ranking = reader.next ()) != null) {
+        qids.add (reader.getQid ());
+        rankings.add (ranking);
+      }
+    } finally {
+      reader.close ();
+    }
+
+    return rankings;
+  }
+
+  /**
+   *  Read a run file the way the original loader did:  split each
+   *  line on spaces, and start a new ranking when the query id changes.
+   *  @param path The run file.
+   *  @param qids The query id of each ranking is added to this list.
+   *  @return The rankings.
+   *  @throws Exception Error reading the file.
+   */
+  private static List<ScoreList> readSplit (String path, List<String> qids) throws Exception {
+
+    List<ScoreList> rankings = new ArrayList<ScoreList> ();
+    BufferedReader input = new BufferedReader (new FileReader (path));
+
+    try {
+      String line;
+
+      while ((line = input.readLine ()) != null) {
+        String[] fields = line.split (" ");
+
+        if (qids.isEmpty () || ! qids.get (qids.size () - 1).equals (fields[0])) {
+          qids.add (fields[0]);
+          rankings.add (new ScoreList ());
+        }
+
+        rankings.get (rankings.size () - 1).add (Idx.getInternalDocid (fields[2]),
+                                                 Double.parseDouble (fields[4]));
+      }
+    } finally {
+      input.close ();
+    }
+
+    return rankings;
+  }
+
+  /**
+   *  Check that two sets of rankings are the same.
+   *  @param expectedQids The expected query ids.
+   *  @param expected The expected rankings.
+   *  @param actualQids The actual query ids.
+   *  @param actual The actual rankings.
+   *  @param message What is checked.
+   */
+  private void checkRankings (List<String> expectedQids, List<ScoreList> expected,
+                              List<String> actualQids, List<ScoreList> actual,
+                              String message) {
+
+    this.checkEquals (expectedQids, actualQids, message + ":  query ids");
+    this.checkEquals (expected.size (), actual.size (), message + ":  rankings");
+
+    for (int i = 0; i < Math.min (expected.size (), actual.size ()); i++) {
+      this.checkSameResults (expected.get (i), actual.get (i),
+                             message + ":  ranking " + expectedQids.get (i));
+    }
+  }
+
+  /**
+   *  Create a line of a run file.
+   *  @param qid The query id.
+   *  @param doc The document number.
+   *  @param rank The rank.
+   *  @param score The score.
+   *  @return The line, without a line ending.
+   */
+  private static String line (String qid, int doc, int rank, double score) {
+    return qid + " Q0 " + String.format ("doc-%04d", doc) + " " + rank + " " + score + " run-1";
+  }
+
+  /**
+   *  Create a run file with one ranking per query id, of documents
+   *  that aren't deleted.
+   *  @param qids The query ids.
+   *  @param length The number of documents per ranking.
+   *  @param eol The line ending.
+   *  @return The content of the run file.
+   */
+  private static String run (String[] qids, int length, String eol) {
+
+    StringBuilder run = new StringBuilder ();
+    Random random = new Random (44);
+
+    for (String qid : qids) {
+      for (int rank = 1; rank <= length; rank++) {
+        int doc = random.nextInt (600);
+
+        if (! TestIndex.isDeleted (doc)) {
+          run.append (line (qid, doc, rank, random.nextDouble () * 10 - 5)).append (eol);
+        }
+      }
+    }
+
+    return run.toString ();
+  }
+
+  /**
+   *  Check that a run file gives the rankings of a reference run file.
+   *  @param content The content of the run file.
+   *  @param reference The content of the reference run file, which
+   *    the original loader can read.
+   *  @param message What is checked.
+   *  @throws Exception Error reading the files.
+   */
+  private void checkRun (String content, String reference, String message) throws Exception {
+
+    List<String> expectedQids = new ArrayList<String> ();
+    List<String> actualQids = new ArrayList<String> ();
+    List<ScoreList> expected = readSplit (this.writeRun ("reference.teIn", reference),
+                                          expectedQids);
+    List<ScoreList> actual = read (this.writeRun ("run.teIn", content), actualQids);
+
+    this.check (! expected.isEmpty (), message + ":  there are rankings");
+    this.checkRankings (expectedQids, expected, actualQids, actual, message);
+  }
+
+  public void testSplitLoader () throws Exception {
+
+    //  A run file with intents, and more than one buffer of lines, so
+    //  that lines and rankings cross the end of the buffer.
+
+    String[] qids = new String[400];
+
+    for (int i = 0; i < qids.length; i++) {
+      qids[i] = (i % 4 == 0) ? Integer.toString (i / 4 + 1) : (i / 4 + 1) + "." + (i % 4);
+    }
+
+    String content = run (qids, 150, "\n");
+    boolean crosses = false;
+
+    for (int start = 0, end; start < content.length (); start = end + 1) {
+      end = content.indexOf ('\n', start);
+
+      for (int boundary = BUFFER_SIZE; boundary < content.length (); boundary += BUFFER_SIZE) {
+        crosses |= (start < boundary) && (boundary < end);
+      }
+    }
+
+    this.check (content.length () > 2 * BUFFER_SIZE, "the run file is larger than the buffer");
+    this.check (crosses, "a line crosses the end of the buffer");
+    this.checkRun (content, content, "split loader");
+  }
+
+  public void testLongLine () throws Exception {
+
+    //  The buffer grows for a line that doesn't fit.
+
+    StringBuilder padding = new StringBuilder ();
+
+    while (padding.length () < 3 * BUFFER_SIZE / 2) {
+      padding.append ("run-");
+    }
+
+    String first = line ("7", 1, 1, 2.5) + "\n";
+    String last = line ("8", 3, 1, -1.25) + "\n";
+    String content =
+      first + line ("7", 2, 2, 1.5) + " " + padding + "\n" + last;
+    String reference =
+      first + line ("7", 2, 2, 1.5) + "\n" + last;
+
+    this.checkRun (content, reference, "a line longer than the buffer");
+  }
+
+  public void testLineEndings () throws Exception {
+
+    String[] qids = { "11", "12", "13" };
+    String reference = run (qids, 30, "\n");
+
+    this.checkRun (reference.replace ("\n", "\r\n"), reference, "CRLF");
+    this.checkRun (reference.substring (0, reference.length () - 1), reference,
+                   "no final newline");
+    this.checkRun (reference.replace (" run-1\n", "\r\n"), reference,
+                   "CRLF after the score");
+    this.checkRun ("\n\n" + reference.replace ("\n", "\n\n  \t\n\r\n") + "\n",
+                   reference, "blank lines");
+    this.checkRun (reference.replace (" ", "\t"), reference, "tabs");
+  }
+
+  public void testQidChanges () throws Exception {
+
+    //  A query id that returns, and query ids that share a prefix, start
+    //  new rankings.  Query ids are compared by bytes; the String of
+    //  each ranking's query id is created once.
+
+    String content =
+      line ("1", 1, 1, 3.0) + "\n" + line ("1", 2, 2, 2.0) + "\n" +
+      line ("10", 3, 1, 3.0) + "\n" +
+      line ("1", 4, 1, 1.0) + "\n" +
+      line ("1.1", 5, 1, 1.0) + "\n" + line ("1.1", 6, 2, 0.5) + "\n" +
+      line ("2", 7, 1, 4.0) + "\n";
+
+    this.checkRun (content, content, "query id changes");
+
+    List<String> qids = new ArrayList<String> ();
+
+    read (this.writeRun ("qids.teIn", content), qids);
+    this.checkEquals ("[1, 10, 1, 1.1, 2]", qids.toString (), "query ids");
+    this.check (qids.get (0) != qids.get (2), "a returning query id is a new ranking");
+  }
+
+  public void testErrors () throws Exception {
+
+    try {
+      read (this.writeRun ("short.teIn", line ("1", 1, 1, 1.0) + "\n1 Q0 doc-0002\n"),
+            new ArrayList<String> ());
+      this.check (false, "a line with too few fields is rejected");
+    } catch (IllegalArgumentException ex) {
+      this.check (ex.getMessage ().contains ("Line 2"),
+                  "a line with too few fields is rejected (" + ex.getMessage () + ")");
+    }
+
+    try {
+      read (this.writeRun ("unknown.teIn", "1 Q0 no-such-doc 1 1.0 run-1\n"),
+            new ArrayList<String> ());
+      this.check (false, "an unknown external docid is rejected");
+    } catch (Exception ex) {
+      this.check (true, "an unknown external docid is rejected");
+    }
+
+    this.checkEquals (0, read (this.writeRun ("empty.teIn", "\n \r\n"),
+                               new ArrayList<String> ()).size (),
+                      "a file of blank lines has no rankings");
+  }
+
+  public static void main (String[] args) throws Exception {
+    TestIndex.open ();
+    new TrecRunReaderTest ().run ();
+  }
+
+}